@@ -5,8 +5,10 @@ import org.lockss.app.LockssDaemon;
 import org.lockss.crawler.CrawlManager;
 import org.lockss.crawler.CrawlManagerImpl;
 import org.lockss.crawler.CrawlerStatus;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
 import org.lockss.laaws.crawler.model.*;
 import org.lockss.laaws.crawler.utils.ContinuationToken;
+import org.lockss.laaws.crawler.utils.LinkTemplate;
 import org.lockss.log.L4JLogger;
 import org.lockss.repository.RepoSpec;
 import org.lockss.repository.RepositoryManager;
@@ -14,8 +16,9 @@ import org.lockss.util.UrlUtil;
 import org.lockss.util.rest.crawler.CrawlDesc;
 import org.lockss.util.rest.crawler.JobStatus;
 import org.lockss.util.rest.repo.LockssRepository;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
-import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.MalformedURLException;
 import java.util.*;
@@ -34,6 +37,21 @@ public class ApiUtils {
   // A template URI for returning a counter for a list of URLs of a specific
   // mimeType.
   private static final String MIME_URI = "crawls/{jobId}/mimeType/{mimeType}";
+  // The templates above, parsed once.
+  private static final LinkTemplate CRAWL_LINK = new LinkTemplate(CRAWL_URI);
+  private static final LinkTemplate COUNTER_LINK = new LinkTemplate(COUNTER_URI);
+  private static final LinkTemplate MIME_LINK = new LinkTemplate(MIME_URI);
+  // The maximum number of rendered CrawlStatus objects kept.
+  static final int MAX_RENDERED_STATUSES = 10000;
+  // The CrawlStatus last rendered for each crawl, with the version of its
+  // status it was rendered from, least recently used first.
+  private static final Map<String, RenderedStatus> renderedStatuses =
+    Collections.synchronizedMap(new LinkedHashMap<String, RenderedStatus>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, RenderedStatus> eldest) {
+        return size() > MAX_RENDERED_STATUSES;
+      }
+    });
   private static PluggableCrawlManager pluggableCrawlManager;
   private static CrawlManagerImpl lockssCrawlManager;
 
@@ -100,11 +118,50 @@ public class ApiUtils {
   }
 
   public static PageInfo getPageInfo(Integer resultsPerPage, Long lastElement, int totalCount, Long timeStamp) {
+    return getPageInfo(resultsPerPage, lastElement, totalCount, timeStamp, false);
+  }
+
+  /**
+   * Provides the pagination information.
+   *
+   * @param resultsPerPage An Integer with the number of results per page.
+   * @param lastElement    A Long with the index of the last element served.
+   * @param totalCount     An int with the current number of elements.
+   * @param timeStamp      A Long with the continuation token timestamp.
+   * @param live           true if elements may still be added to the end of
+   *                       the list, in which case a continuation token is
+   *                       provided even after the last element.
+   * @return a PageInfo with the pagination information.
+   */
+  public static PageInfo getPageInfo(Integer resultsPerPage, Long lastElement, int totalCount,
+                                     Long timeStamp, boolean live) {
     log.debug2("resultsPerPage = {}", resultsPerPage);
     log.debug2("lastElement = {}", lastElement);
     log.debug2("totalCount = {}", totalCount);
     log.debug2("timeStamp = {}", timeStamp);
 
+    String nextToken = null;
+
+    // Determine whether a continuation token needs to be provided.
+    if (lastElement != null && (live || lastElement < totalCount - 1)) {
+      // Yes: Create it.
+      nextToken = new ContinuationToken(timeStamp, lastElement).toToken();
+      log.trace("nextToken = {}", nextToken);
+    }
+
+    return getPageInfo(resultsPerPage, totalCount, nextToken);
+  }
+
+  /**
+   * Provides the pagination information of a page continued by a token.
+   *
+   * @param resultsPerPage An Integer with the number of results per page.
+   * @param totalCount     An int with the current number of elements.
+   * @param nextToken      A String with the continuation token of the next
+   *                       page, or null if there is none.
+   * @return a PageInfo with the pagination information.
+   */
+  public static PageInfo getPageInfo(Integer resultsPerPage, int totalCount, String nextToken) {
     PageInfo pi = new PageInfo();
 
     pi.setTotalCount(totalCount);
@@ -114,14 +171,7 @@ public class ApiUtils {
 
     pi.setCurLink(builder.cloneBuilder().toUriString());
 
-    String nextToken;
-
-    // Determine whether a continuation token needs to be provided.
-    if (lastElement != null && lastElement < totalCount - 1) {
-      // Yes: Create it.
-      nextToken = new ContinuationToken(timeStamp, lastElement).toToken();
-      log.trace("nextToken = {}", nextToken);
-
+    if (nextToken != null) {
       pi.setContinuationToken(nextToken);
       builder.replaceQueryParam("continuationToken", nextToken);
       pi.setNextLink(builder.toUriString());
@@ -216,7 +266,40 @@ public class ApiUtils {
     return js;
   }
 
+  /**
+   * Provides the CrawlStatus of a crawl.  It is rendered again only when the
+   * version of the crawl's status has changed, so it may be shared by
+   * several callers and must not be modified.
+   *
+   * @param cs the CrawlerStatus of the crawl.
+   * @return a CrawlStatus.
+   */
   public static CrawlStatus makeCrawlStatus(CrawlerStatus cs) {
+    StatusVersions versions = getStatusVersionsIfAvailable();
+    if (versions == null) {
+      return renderCrawlStatus(cs);
+    }
+
+    // Reuse the CrawlStatus rendered from this version of the status.
+    String key = cs.getKey();
+    long version = versions.getVersion(cs);
+    RenderedStatus rendered = renderedStatuses.get(key);
+    if (rendered != null && rendered.version == version) {
+      return rendered.crawlStatus;
+    }
+
+    CrawlStatus crawlStatus = renderCrawlStatus(cs);
+    renderedStatuses.put(key, new RenderedStatus(version, crawlStatus));
+    return crawlStatus;
+  }
+
+  /**
+   * Builds the CrawlStatus of a crawl from its status.
+   *
+   * @param cs the CrawlerStatus of the crawl.
+   * @return a new CrawlStatus.
+   */
+  static CrawlStatus renderCrawlStatus(CrawlerStatus cs) {
     String key = cs.getKey();
     CrawlStatus crawlStatus = new CrawlStatus()
       .jobId(cs.getKey())
@@ -257,6 +340,36 @@ public class ApiUtils {
       crawlStatus.setMimeTypes(typeList);
     }
 
+    IngestMetrics.Stats ingest = getIngestStats(key);
+    if (ingest != null) {
+      crawlStatus.setIngestStats(makeIngestStats(ingest));
+    }
+
+    return crawlStatus;
+  }
+
+  /**
+   * Provides the requested properties of the CrawlStatus of a crawl.  They
+   * are taken from the full CrawlStatus, rendered or reused by
+   * {@link #makeCrawlStatus(CrawlerStatus)}; the properties which aren't
+   * requested are left null.
+   *
+   * @param cs         the CrawlerStatus of the crawl.
+   * @param projection the StatusProjection with the requested properties.
+   * @return a CrawlStatus.
+   */
+  public static CrawlStatus makeCrawlStatus(CrawlerStatus cs, StatusProjection projection) {
+    CrawlStatus full = makeCrawlStatus(cs);
+    if (projection == null || projection.isFull()) {
+      return full;
+    }
+
+    CrawlStatus crawlStatus = new StatusProjection.ProjectedCrawlStatus();
+    BeanWrapper from = PropertyAccessorFactory.forBeanPropertyAccess(full);
+    BeanWrapper to = PropertyAccessorFactory.forBeanPropertyAccess(crawlStatus);
+    for (String field : projection.getFields()) {
+      to.setPropertyValue(field, from.getPropertyValue(field));
+    }
     return crawlStatus;
   }
 
@@ -297,11 +410,7 @@ public class ApiUtils {
     }
   }
   public static String makeCrawlLink(String jobId) {
-    final Map<String, Object> uriVariables = new HashMap<>();
-    UriComponentsBuilder builder = UriComponentsBuilder.fromPath(CRAWL_URI);
-    uriVariables.put("jobId", jobId);
-    String path = builder.buildAndExpand(uriVariables).toUriString();
-    return path;
+    return CRAWL_LINK.expand(jobId);
   }
 
   /**
@@ -311,11 +420,7 @@ public class ApiUtils {
    * @return an newly constructed Counter
    */
   public static Counter makeCounter(COUNTER_KIND kind, String jobId, CrawlerStatus.UrlCount urlCount) {
-    // create path and map variables
-    final Map<String, Object> uriVariables = new HashMap<>();
-    uriVariables.put("jobId", jobId);
-    uriVariables.put("counterName", kind.name());
-    String path = UriComponentsBuilder.fromPath(COUNTER_URI).buildAndExpand(uriVariables).toUriString();
+    String path = COUNTER_LINK.expand(jobId, kind.name());
     Counter ctr = new Counter();
     if (urlCount != null) {
       ctr.count(urlCount.getCount());
@@ -334,12 +439,7 @@ public class ApiUtils {
    * @return A newly constructed MimeCounter of mimeType
    */
   static MimeCounter makeMimeCounter(String jobId, String mimeType, CrawlerStatus.UrlCount urlCount) {
-    // create path and map variables
-    final Map<String, Object> uriVariables = new HashMap<>();
-
-    uriVariables.put("jobId", jobId);
-    uriVariables.put("mimeType", mimeType);
-    String path = UriComponentsBuilder.fromPath(MIME_URI).buildAndExpand(uriVariables).toUriString();
+    String path = MIME_LINK.expand(jobId, mimeType);
     MimeCounter ctr = new MimeCounter();
     ctr.mimeType(mimeType);
     ctr.count(urlCount.getCount());
@@ -347,6 +447,66 @@ public class ApiUtils {
     return ctr;
   }
 
+  /**
+   * Return the repository ingest statistics of a crawl, if it was run by a
+   * pluggable crawler which stored anything.
+   */
+  static IngestMetrics.Stats getIngestStats(String jobId) {
+    PluggableCrawlManager pcm = getPluggableCrawlManager();
+    if (pcm == null || pcm.getIngestMetrics() == null) {
+      return null;
+    }
+    return pcm.getIngestMetrics().getCrawlStats(jobId);
+  }
+
+  /**
+   * Return the version counters from which the status endpoints derive their
+   * entity tags.
+   */
+  static StatusVersions getStatusVersions() {
+    return getPluggableCrawlManager().getStatusVersions();
+  }
+
+  // The version counters, or null if there is no pluggable crawl manager.
+  private static StatusVersions getStatusVersionsIfAvailable() {
+    try {
+      PluggableCrawlManager pcm = getPluggableCrawlManager();
+      return pcm == null ? null : pcm.getStatusVersions();
+    }
+    catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A CrawlStatus and the version of the crawl's status it was built from.
+   */
+  private static class RenderedStatus {
+    final long version;
+    final CrawlStatus crawlStatus;
+
+    RenderedStatus(long version, CrawlStatus crawlStatus) {
+      this.version = version;
+      this.crawlStatus = crawlStatus;
+    }
+  }
+
+  static IngestStats makeIngestStats(IngestMetrics.Stats stats) {
+    List<Long> latencyCounts = new ArrayList<>();
+    for (long count : stats.getLatencyCounts()) {
+      latencyCounts.add(count);
+    }
+    return new IngestStats()
+      .files(stats.getFiles())
+      .failures(stats.getFailures())
+      .bytes(stats.getBytes())
+      .records(stats.getRecords())
+      .elapsed(stats.getElapsed())
+      .bytesPerSecond(stats.getBytesPerSecond())
+      .recordsPerSecond(stats.getRecordsPerSecond())
+      .latencyCounts(latencyCounts);
+  }
+
   /* Return a CrawlStatus for the jobId.
    *
    * @param jobId A String with the identifier assigned to the crawl when added.
@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.log.L4JLogger;
+import org.lockss.spring.base.BaseSpringApiServiceImpl;
+import org.lockss.util.Constants;
+import org.lockss.util.JsonUtil;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.lockss.laaws.crawler.impl.ApiUtils.getLockssCrawlManager;
+import static org.lockss.laaws.crawler.impl.CrawlsApiServiceImpl.NOT_INITIALIZED_MESSAGE;
+
+/**
+ * Pushes the progress of crawls to subscribers as server-sent events, so
+ * dashboards needn't poll {@code /crawls/{jobId}} or {@code /jobs}.
+ * <br>
+ * A subscriber opens {@code GET /crawls/events}, optionally restricted to
+ * some crawlers, AUs or jobs, and receives an {@code added} event with the
+ * progress of each crawl it matches, then {@code status} and {@code progress}
+ * events with only the fields which changed, and a {@code removed} event when
+ * a crawl leaves the crawl manager's status.
+ * <br>
+ * Changes are pushed: while there are subscribers, the controller listens
+ * to the {@link PluggableCrawlManager}, which reports the progress of
+ * pluggable crawls as their statuses are updated, and the start and end of
+ * every crawl, including those reported by LOCKSS crawl events.  Each
+ * subscriber is sent the changes accumulated since its last update at most
+ * once per its interval, so a slow subscriber sees fewer, larger deltas
+ * rather than a backlog.  A heartbeat reads the statuses of all crawls every
+ * {@link #HEARTBEAT}, to report the progress of classic crawls, which don't
+ * report it as it happens, and crawls which have left the crawl manager's
+ * status, and to keep idle connections alive.
+ * <br>
+ * This endpoint isn't in the OpenAPI specification because the generated
+ * controllers can't stream a response body.
+ */
+@RestController
+public class CrawlEventController extends BaseSpringApiServiceImpl {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * How often the statuses of all crawls are read.
+   */
+  static final long HEARTBEAT = 5 * Constants.SECOND;
+  /**
+   * The default and the shortest interval between updates to a subscriber.
+   */
+  static final long DEFAULT_INTERVAL = 2 * Constants.SECOND;
+  static final long MIN_INTERVAL = 250;
+  /**
+   * How long a subscriber with nothing to receive waits for a keepalive.
+   */
+  static final long KEEPALIVE_INTERVAL = 15 * Constants.SECOND;
+  /**
+   * How long a subscription lasts before the client must reconnect.
+   */
+  static final long SUBSCRIPTION_TIMEOUT = 30 * Constants.MINUTE;
+  /**
+   * The maximum number of concurrent subscribers.
+   */
+  static final int MAX_SUBSCRIBERS = 100;
+
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+  private final PluggableCrawlManager.CrawlStatusListener listener = this::crawlStatusChanged;
+  // The crawls whose statuses have changed since the last flush, by jobId.
+  private final Map<String, CrawlerStatus> changed = new ConcurrentHashMap<>();
+  private final AtomicBoolean flushQueued = new AtomicBoolean();
+  private volatile ScheduledExecutorService executor;
+  private ScheduledFuture<?> heartbeat;
+  private PluggableCrawlManager listeningTo;
+  // The progress of every crawl, by jobId, and the pending delayed send.
+  // Only used by the executor's thread.
+  private final Map<String, CrawlProgress> latest = new LinkedHashMap<>();
+  private ScheduledFuture<?> delayedSend;
+
+  /**
+   * Subscribes to the progress of crawls.
+   *
+   * @param crawlerIds A List<String> with the crawlers whose crawls to report, or null for all.
+   * @param auIds      A List<String> with the AUs whose crawls to report, or null for all.
+   * @param jobIds     A List<String> with the jobs to report, or null for all.
+   * @param interval   A Long with the minimum number of milliseconds between updates.
+   * @return a {@code ResponseEntity<SseEmitter>} with the event stream.
+   */
+  @GetMapping(value = "/crawls/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public ResponseEntity subscribe(
+    @RequestParam(value = "crawlerId", required = false) List<String> crawlerIds,
+    @RequestParam(value = "auId", required = false) List<String> auIds,
+    @RequestParam(value = "jobId", required = false) List<String> jobIds,
+    @RequestParam(value = "interval", required = false) Long interval) {
+    log.debug2("crawlerIds = {}, auIds = {}, jobIds = {}", crawlerIds, auIds, jobIds);
+    log.debug2("interval = {}", interval);
+
+    try {
+      // Check whether the service has not been fully initialized.
+      if (!waitReady()) {
+        // Yes: Report the problem.
+        log.error(NOT_INITIALIZED_MESSAGE);
+        return getErrorResponseEntity(HttpStatus.SERVICE_UNAVAILABLE, NOT_INITIALIZED_MESSAGE);
+      }
+
+      if (subscribers.size() >= MAX_SUBSCRIBERS) {
+        String message = "Too many subscribers to crawl events.";
+        log.warn(message);
+        return getErrorResponseEntity(HttpStatus.SERVICE_UNAVAILABLE, message);
+      }
+
+      long validInterval = interval == null ? DEFAULT_INTERVAL : Math.max(MIN_INTERVAL, interval);
+      SseEmitter emitter = new SseEmitter(SUBSCRIPTION_TIMEOUT);
+      Subscriber sub = new Subscriber(emitter, crawlerIds, auIds, jobIds, validInterval);
+      emitter.onCompletion(() -> removeSubscriber(sub));
+      emitter.onTimeout(() -> removeSubscriber(sub));
+      emitter.onError(e -> removeSubscriber(sub));
+      addSubscriber(sub);
+      return new ResponseEntity<>(emitter, HttpStatus.OK);
+    }
+    catch (Exception ex) {
+      String message = "Cannot subscribe to crawl events";
+      log.error(message, ex);
+      return getErrorResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR, message + " - " + ex.getMessage());
+    }
+  }
+
+  private synchronized void addSubscriber(Subscriber sub) {
+    subscribers.add(sub);
+    if (heartbeat == null) {
+      if (executor == null) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread t = new Thread(r, "CrawlEventPusher");
+          t.setDaemon(true);
+          return t;
+        });
+      }
+      listeningTo = ApiUtils.getPluggableCrawlManager();
+      if (listeningTo != null) {
+        listeningTo.registerStatusListener(listener);
+      }
+      // The first beat reads every crawl, which sends the new subscriber
+      // its added events.
+      heartbeat = executor.scheduleWithFixedDelay(this::beat, 0, HEARTBEAT,
+        TimeUnit.MILLISECONDS);
+    } else {
+      executor.execute(() -> send(System.currentTimeMillis()));
+    }
+  }
+
+  private synchronized void removeSubscriber(Subscriber sub) {
+    subscribers.remove(sub);
+    // Stop listening while no one is subscribed.
+    if (subscribers.isEmpty() && heartbeat != null) {
+      stopListening();
+      executor.execute(latest::clear);
+    }
+  }
+
+  private void stopListening() {
+    if (listeningTo != null) {
+      listeningTo.unregisterStatusListener(listener);
+      listeningTo = null;
+    }
+    heartbeat.cancel(false);
+    heartbeat = null;
+    changed.clear();
+  }
+
+  /**
+   * Called by the crawl manager, on the thread which changed the status, so
+   * only records the change and leaves the work to the executor.
+   */
+  void crawlStatusChanged(CrawlerStatus status) {
+    ScheduledExecutorService exec = executor;
+    if (exec == null || subscribers.isEmpty()) {
+      return;
+    }
+    changed.put(status.getKey(), status);
+    if (flushQueued.compareAndSet(false, true)) {
+      try {
+        exec.execute(this::flush);
+      }
+      catch (RejectedExecutionException e) {
+        // Shutting down.
+      }
+    }
+  }
+
+  /**
+   * Takes the progress of the crawls which have changed and sends the
+   * subscribers which are due an update the changes they haven't yet seen.
+   */
+  void flush() {
+    flushQueued.set(false);
+    try {
+      boolean any = false;
+      for (Map.Entry<String, CrawlerStatus> entry : changed.entrySet()) {
+        latest.put(entry.getKey(), CrawlProgress.of(entry.getValue()));
+        changed.remove(entry.getKey(), entry.getValue());
+        any = true;
+      }
+      if (any) {
+        for (Subscriber sub : subscribers) {
+          sub.pending = true;
+        }
+        send(System.currentTimeMillis());
+      }
+    }
+    catch (Exception e) {
+      log.error("Cannot push crawl progress", e);
+    }
+  }
+
+  /**
+   * Takes the progress of all crawls, catching what isn't reported as it
+   * happens, and gives every subscriber an update, or a keepalive.
+   */
+  void beat() {
+    try {
+      changed.clear();
+      latest.clear();
+      latest.putAll(takeProgress(getLockssCrawlManager().getStatus().getCrawlerStatusList()));
+      for (Subscriber sub : subscribers) {
+        sub.pending = true;
+      }
+      send(System.currentTimeMillis());
+    }
+    catch (Exception e) {
+      // Keep the heartbeat running.
+      log.error("Cannot read crawl progress", e);
+    }
+  }
+
+  /**
+   * Sends each subscriber with changes to receive which is due an update
+   * those changes, and arranges to send the others when they are due.
+   */
+  void send(long now) {
+    long nextDue = Long.MAX_VALUE;
+    for (Subscriber sub : subscribers) {
+      if (!sub.pending) {
+        continue;
+      }
+      if (!sub.isDue(now)) {
+        nextDue = Math.min(nextDue, sub.nextDue());
+        continue;
+      }
+      sub.pending = false;
+      try {
+        sub.update(latest, now);
+      }
+      catch (IOException | IllegalStateException e) {
+        log.debug("Dropping crawl event subscriber: {}", e.toString());
+        sub.emitter.completeWithError(e);
+        removeSubscriber(sub);
+      }
+    }
+    if (nextDue != Long.MAX_VALUE && (delayedSend == null || delayedSend.isDone())) {
+      delayedSend = executor.schedule(() -> send(System.currentTimeMillis()),
+        Math.max(0, nextDue - now), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  static Map<String, CrawlProgress> takeProgress(List<CrawlerStatus> statuses) {
+    Map<String, CrawlProgress> res = new LinkedHashMap<>();
+    for (CrawlerStatus cs : statuses) {
+      res.put(cs.getKey(), CrawlProgress.of(cs));
+    }
+    return res;
+  }
+
+  @PreDestroy
+  public synchronized void shutdown() {
+    for (Subscriber sub : subscribers) {
+      sub.emitter.complete();
+    }
+    subscribers.clear();
+    if (heartbeat != null) {
+      stopListening();
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Provides the response entity when there is an error.
+   *
+   * @param status  An HttpStatus with the error HTTP status.
+   * @param message A String with the error message.
+   * @return a {@code ResponseEntity<String>} with the error response entity.
+   */
+  private ResponseEntity<String> getErrorResponseEntity(HttpStatus status, String message) {
+    return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON)
+      .body(JsonUtil.toJsonError(status.value(), message));
+  }
+
+  /**
+   * One subscriber, with its filters and the progress it was last sent of
+   * each crawl it matches.
+   */
+  static class Subscriber {
+    final SseEmitter emitter;
+    private final Set<String> crawlerIds;
+    private final Set<String> auIds;
+    private final Set<String> jobIds;
+    private final long interval;
+    private final Map<String, CrawlProgress> sent = new HashMap<>();
+    private long lastUpdate = 0;
+    private long lastSend;
+    // Whether there may be changes this subscriber hasn't been sent.
+    volatile boolean pending = true;
+
+    Subscriber(SseEmitter emitter, List<String> crawlerIds, List<String> auIds,
+               List<String> jobIds, long interval) {
+      this.emitter = emitter;
+      this.crawlerIds = toSet(crawlerIds);
+      this.auIds = toSet(auIds);
+      this.jobIds = toSet(jobIds);
+      this.interval = interval;
+      this.lastSend = System.currentTimeMillis();
+    }
+
+    private static Set<String> toSet(List<String> values) {
+      return values == null || values.isEmpty() ? null : new HashSet<>(values);
+    }
+
+    boolean isDue(long now) {
+      return now - lastUpdate >= interval;
+    }
+
+    long nextDue() {
+      return lastUpdate + interval;
+    }
+
+    boolean matches(CrawlProgress p) {
+      return (crawlerIds == null || crawlerIds.contains(p.getCrawlerId()))
+        && (auIds == null || auIds.contains(p.getAuId()))
+        && (jobIds == null || jobIds.contains(p.getJobId()));
+    }
+
+    /**
+     * Sends the changes between the progress last sent and the current
+     * progress of the crawls this subscriber matches.
+     *
+     * @param current the progress of all crawls, by jobId.
+     * @param now the current time.
+     * @throws IOException if the client has gone away.
+     */
+    synchronized void update(Map<String, CrawlProgress> current, long now)
+        throws IOException {
+      lastUpdate = now;
+      int n = 0;
+
+      for (CrawlProgress p : current.values()) {
+        if (!matches(p)) {
+          continue;
+        }
+        CrawlProgress prev = sent.get(p.getJobId());
+        String event = p.eventFrom(prev);
+        if (event != null) {
+          send(event, p.deltaFrom(prev));
+          sent.put(p.getJobId(), p);
+          n++;
+        }
+      }
+
+      for (Iterator<String> iter = sent.keySet().iterator(); iter.hasNext(); ) {
+        String jobId = iter.next();
+        if (!current.containsKey(jobId)) {
+          Map<String, Object> data = new LinkedHashMap<>();
+          data.put("jobId", jobId);
+          send(CrawlProgress.EVENT_REMOVED, data);
+          iter.remove();
+          n++;
+        }
+      }
+
+      if (n > 0) {
+        lastSend = now;
+      } else if (now - lastSend >= KEEPALIVE_INTERVAL) {
+        // Lets the client, and us, notice a dead connection.
+        emitter.send(SseEmitter.event().comment("keepalive"));
+        lastSend = now;
+      }
+    }
+
+    void send(String event, Map<String, Object> data) throws IOException {
+      emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+    }
+  }
+}
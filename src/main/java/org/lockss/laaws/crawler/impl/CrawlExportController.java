@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.log.L4JLogger;
+import org.lockss.spring.base.BaseSpringApiServiceImpl;
+import org.lockss.util.JsonUtil;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.NotFoundException;
+
+import static org.lockss.laaws.crawler.impl.ApiUtils.getCrawlerStatus;
+import static org.lockss.laaws.crawler.impl.CrawlsApiServiceImpl.NOT_INITIALIZED_MESSAGE;
+
+/**
+ * Streams the URL lists of a crawl as newline-delimited JSON, one object
+ * per URL, for clients which want a whole list rather than pages of it.
+ * <br>
+ * The paths are those of the paged endpoints followed by {@code /export},
+ * e.g. {@code /crawls/{jobId}/fetched/export}.  The URLs are written as they
+ * are read from the crawl's status, so the memory used doesn't depend on the
+ * length of the list, and the list is exported as it was when the request
+ * arrived.  The response is gzipped if the client accepts it.
+ * <br>
+ * These endpoints aren't in the OpenAPI specification because the generated
+ * controllers can't stream a response body.
+ */
+@RestController
+public class CrawlExportController extends BaseSpringApiServiceImpl {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * The content type of the exported lists.
+   */
+  public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+  private static final JsonFactory jsonFactory = new JsonFactory()
+    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  @GetMapping(value = "/crawls/{jobId}/fetched/export")
+  public ResponseEntity exportCrawlFetched(
+    @PathVariable("jobId") String jobId,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "fetched", referrers, acceptEncoding);
+  }
+
+  @GetMapping(value = "/crawls/{jobId}/excluded/export")
+  public ResponseEntity exportCrawlExcluded(
+    @PathVariable("jobId") String jobId,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "excluded", referrers, acceptEncoding);
+  }
+
+  @GetMapping(value = "/crawls/{jobId}/notModified/export")
+  public ResponseEntity exportCrawlNotModified(
+    @PathVariable("jobId") String jobId,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "notModified", referrers, acceptEncoding);
+  }
+
+  @GetMapping(value = "/crawls/{jobId}/pending/export")
+  public ResponseEntity exportCrawlPending(
+    @PathVariable("jobId") String jobId,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "pending", referrers, acceptEncoding);
+  }
+
+  @GetMapping(value = "/crawls/{jobId}/parsed/export")
+  public ResponseEntity exportCrawlParsed(
+    @PathVariable("jobId") String jobId,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "parsed", referrers, acceptEncoding);
+  }
+
+  @GetMapping(value = "/crawls/{jobId}/errors/export")
+  public ResponseEntity exportCrawlErrors(
+    @PathVariable("jobId") String jobId,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "errors", referrers, acceptEncoding);
+  }
+
+  @GetMapping(value = "/crawls/{jobId}/mimeType/{type}/export")
+  public ResponseEntity exportCrawlByMimeType(
+    @PathVariable("jobId") String jobId,
+    @PathVariable("type") String type,
+    @RequestParam(value = "referrers", defaultValue = "false") boolean referrers,
+    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    return export(jobId, "mimeType/" + type, referrers, acceptEncoding);
+  }
+
+  /**
+   * Provides the response which streams a URL list of a crawl.
+   *
+   * @param jobId          A String with the identifier assigned to the crawl when added.
+   * @param list           A String with the name of the list, as in its path.
+   * @param referrers      A boolean with an indication of whether to include the referrers of
+   *                       each URL.
+   * @param acceptEncoding A String with the Accept-Encoding header of the request, or null.
+   * @return a {@code ResponseEntity<StreamingResponseBody>} which writes the URLs.
+   */
+  ResponseEntity export(String jobId, String list, boolean referrers, String acceptEncoding) {
+    log.debug2("jobId = {}", jobId);
+    log.debug2("list = {}", list);
+    log.debug2("referrers = {}", referrers);
+
+    try {
+      // Check whether the service has not been fully initialized.
+      if (!waitReady()) {
+        // Yes: Report the problem.
+        log.error(NOT_INITIALIZED_MESSAGE);
+        log.error("jobId = {}, list = {}", jobId, list);
+        return getErrorResponseEntity(HttpStatus.SERVICE_UNAVAILABLE, NOT_INITIALIZED_MESSAGE, null);
+      }
+
+      CrawlerStatus status = getCrawlerStatus(jobId);
+      List<String> urls = getUrlList(status, list);
+      // The list only grows, so the URLs present now are its first ones.
+      int count = urls.size();
+      boolean gzip = acceptsGzip(acceptEncoding);
+      log.trace("count = {}, gzip = {}", count, gzip);
+
+      StreamingResponseBody body = out -> {
+        if (gzip) {
+          GZIPOutputStream gzOut = new GZIPOutputStream(out, 8192);
+          writeNdjson(status, urls, count, referrers, gzOut);
+          gzOut.finish();
+        } else {
+          writeNdjson(status, urls, count, referrers, out);
+        }
+      };
+
+      ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(NDJSON)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+      if (gzip) {
+        builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+      }
+      return builder.body(body);
+    }
+    catch (NotFoundException nfe) {
+      String message = "No crawl found for jobId '" + jobId + "'.";
+      log.warn(message);
+      return getErrorResponseEntity(HttpStatus.NOT_FOUND, message, null);
+    }
+    catch (Exception ex) {
+      String message = "Cannot export " + list + " urls for jobId '" + jobId + "'";
+      log.error(message, ex);
+      return getErrorResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR, message, ex);
+    }
+  }
+
+  /**
+   * Provides the named URL list of a crawl.
+   *
+   * @param status A CrawlerStatus with the crawler status.
+   * @param list   A String with the name of the list, as in its path.
+   * @return a List<String> with the URLs.
+   */
+  static List<String> getUrlList(CrawlerStatus status, String list) {
+    switch (list) {
+      case "fetched":
+        return status.getUrlsFetched();
+      case "excluded":
+        return status.getUrlsExcluded();
+      case "notModified":
+        return status.getUrlsNotModified();
+      case "pending":
+        return status.getUrlsPending();
+      case "parsed":
+        return status.getUrlsParsed();
+      case "errors":
+        return CrawlsApiServiceImpl.getErrorUrls(status);
+      default:
+        if (list.startsWith("mimeType/")) {
+          return CrawlsApiServiceImpl.getUrlsOfMimeType(status, list.substring(9));
+        }
+        throw new IllegalArgumentException("Unknown url list: " + list);
+    }
+  }
+
+  /**
+   * Writes URLs as newline-delimited JSON objects, with the error of each
+   * URL, if any, and optionally its referrers.
+   *
+   * @param status    A CrawlerStatus with the crawler status.
+   * @param urls      A List<String> with the URLs.
+   * @param count     An int with the number of URLs, from the start of the list, to write.
+   * @param referrers A boolean with an indication of whether to include the referrers.
+   * @param out       An OutputStream to write to.  It is flushed but not closed.
+   * @return an int with the number of URLs written.
+   * @throws IOException if there are problems writing.
+   */
+  static int writeNdjson(CrawlerStatus status, List<String> urls, int count,
+                         boolean referrers, OutputStream out) throws IOException {
+    int n = Math.min(count, urls.size());
+
+    try (JsonGenerator gen = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+      for (int idx = 0; idx < n; idx++) {
+        String url = urls.get(idx);
+        gen.writeStartObject();
+        gen.writeStringField("url", url);
+
+        CrawlerStatus.UrlErrorInfo errInfo = status.getErrorInfoForUrl(url);
+        if (errInfo != null) {
+          gen.writeObjectFieldStart("error");
+          gen.writeStringField("message", errInfo.getMessage());
+          if (errInfo.getSeverity() != null) {
+            gen.writeStringField("severity", errInfo.getSeverity().name());
+          }
+          gen.writeEndObject();
+        }
+
+        if (referrers) {
+          Collection<String> refs = status.getReferrers(url);
+          if (refs != null) {
+            gen.writeArrayFieldStart("referrers");
+            for (String ref : refs) {
+              gen.writeString(ref);
+            }
+            gen.writeEndArray();
+          }
+        }
+
+        gen.writeEndObject();
+        gen.writeRaw('\n');
+      }
+    }
+
+    out.flush();
+    return n;
+  }
+
+  /**
+   * Provides an indication of whether an Accept-Encoding header admits gzip.
+   *
+   * @param acceptEncoding A String with the Accept-Encoding header, or null.
+   * @return a boolean with <code>true</code> if the response may be gzipped.
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        // Honor an explicit refusal.
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].replace(" ", "");
+          if (param.equals("q=0") || param.matches("q=0\\.0*")) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Provides the response entity when there is an error.
+   *
+   * @param status
+   *          An HttpStatus with the error HTTP status.
+   * @param message
+   *          A String with the error message.
+   * @param e
+   *          An Exception with the error exception.
+   * @return a {@code ResponseEntity<String>} with the error response entity.
+   */
+  private ResponseEntity<String> getErrorResponseEntity(HttpStatus status,
+                                                        String message, Exception e) {
+    String errorMessage = message;
+
+    if (e != null) {
+      if (errorMessage == null) {
+        errorMessage = e.getMessage();
+      } else {
+        errorMessage = errorMessage + " - " + e.getMessage();
+      }
+    }
+
+    return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON)
+      .body(JsonUtil.toJsonError(status.value(), errorMessage));
+  }
+}
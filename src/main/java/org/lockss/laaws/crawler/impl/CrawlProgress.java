@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.util.rest.crawler.JobStatus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The few facts about a crawl which change as it runs: its status and its
+ * counters.  Two of them taken from the same crawl at different times give
+ * the delta sent to subscribers of {@link CrawlEventController}.
+ */
+public class CrawlProgress {
+  /**
+   * The event sent the first time a subscriber sees a crawl.
+   */
+  public static final String EVENT_ADDED = "added";
+  /**
+   * The event sent when the status of a crawl changes.
+   */
+  public static final String EVENT_STATUS = "status";
+  /**
+   * The event sent when only the counters of a crawl change.
+   */
+  public static final String EVENT_PROGRESS = "progress";
+  /**
+   * The event sent when a crawl is no longer in the crawl manager's status.
+   */
+  public static final String EVENT_REMOVED = "removed";
+
+  private final String jobId;
+  private final String crawlerId;
+  private final String auId;
+  private final JobStatus.StatusCodeEnum statusCode;
+  private final String statusMsg;
+  private final long startTime;
+  private final long endTime;
+  private final long bytesFetched;
+  private final long[] counts;
+
+  // The names of the counters, in the order of counts.
+  private static final String[] COUNT_NAMES =
+    {"fetched", "excluded", "notModified", "parsed", "pending", "errors"};
+
+  CrawlProgress(String jobId, String crawlerId, String auId,
+                JobStatus.StatusCodeEnum statusCode, String statusMsg,
+                long startTime, long endTime, long bytesFetched, long... counts) {
+    this.jobId = jobId;
+    this.crawlerId = crawlerId;
+    this.auId = auId;
+    this.statusCode = statusCode;
+    this.statusMsg = statusMsg;
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.bytesFetched = bytesFetched;
+    this.counts = counts;
+  }
+
+  /**
+   * Take the progress of a crawl from its status.  This reads only counts,
+   * unlike {@link ApiUtils#makeCrawlStatus(CrawlerStatus)}.
+   *
+   * @param cs the CrawlerStatus of the crawl.
+   * @return a CrawlProgress.
+   */
+  public static CrawlProgress of(CrawlerStatus cs) {
+    return new CrawlProgress(cs.getKey(), cs.getCrawlerId(), cs.getAuId(),
+      ApiUtils.makeJobStatus(cs).getStatusCode(), cs.getCrawlStatusMsg(),
+      cs.getStartTime(), cs.getEndTime(), cs.getContentBytesFetched(),
+      count(cs.getFetchedCtr()), count(cs.getExcludedCtr()),
+      count(cs.getNotModifiedCtr()), count(cs.getParsedCtr()),
+      count(cs.getPendingCtr()), count(cs.getErrorCtr()));
+  }
+
+  private static long count(CrawlerStatus.UrlCount ctr) {
+    return ctr == null ? 0 : ctr.getCount();
+  }
+
+  public String getJobId() {
+    return jobId;
+  }
+
+  public String getCrawlerId() {
+    return crawlerId;
+  }
+
+  public String getAuId() {
+    return auId;
+  }
+
+  public JobStatus.StatusCodeEnum getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * Return the name of the event which carries the change from an earlier
+   * progress of the same crawl, or null if nothing has changed.
+   *
+   * @param prev the progress last sent, or null if none has been.
+   */
+  public String eventFrom(CrawlProgress prev) {
+    if (prev == null) {
+      return EVENT_ADDED;
+    }
+    if (statusCode != prev.statusCode || !Objects.equals(statusMsg, prev.statusMsg)) {
+      return EVENT_STATUS;
+    }
+    if (startTime != prev.startTime || endTime != prev.endTime
+        || bytesFetched != prev.bytesFetched) {
+      return EVENT_PROGRESS;
+    }
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != prev.counts[i]) {
+        return EVENT_PROGRESS;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return the fields which differ from an earlier progress of the same
+   * crawl, always with the jobId, or all the fields if there is no earlier
+   * progress.
+   *
+   * @param prev the progress last sent, or null if none has been.
+   */
+  public Map<String, Object> deltaFrom(CrawlProgress prev) {
+    Map<String, Object> res = new LinkedHashMap<>();
+    res.put("jobId", jobId);
+    if (prev == null) {
+      res.put("crawlerId", crawlerId);
+      res.put("auId", auId);
+    }
+    if (prev == null || statusCode != prev.statusCode) {
+      res.put("statusCode", statusCode == null ? null : statusCode.toString());
+    }
+    if (prev == null || !Objects.equals(statusMsg, prev.statusMsg)) {
+      res.put("statusMsg", statusMsg);
+    }
+    if (prev == null || startTime != prev.startTime) {
+      res.put("startTime", startTime);
+    }
+    if (prev == null || endTime != prev.endTime) {
+      res.put("endTime", endTime);
+    }
+    if (prev == null || bytesFetched != prev.bytesFetched) {
+      res.put("bytesFetched", bytesFetched);
+    }
+    for (int i = 0; i < counts.length; i++) {
+      if (prev == null || counts[i] != prev.counts[i]) {
+        res.put(COUNT_NAMES[i], counts[i]);
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public String toString() {
+    return "[CrawlProgress " + jobId + ", " + statusCode + ", fetched=" + counts[0] + "]";
+  }
+}
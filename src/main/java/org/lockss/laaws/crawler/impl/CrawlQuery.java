@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import org.lockss.ws.entities.CrawlWsResult;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A crawl query compiled by {@link CrawlQueryCompiler}: a predicate, an
+ * order and a projection which call the accessors of the queried
+ * properties directly.  Only the properties used by the query are read
+ * from the source objects, so the lazily populated properties of a
+ * {@code CrawlWsSource} which the query doesn't use are never computed.
+ */
+public class CrawlQuery {
+  private final String text;
+  private final List<Property<?>> selected;
+  private final Predicate<CrawlWsResult> where;
+  private final Comparator<CrawlWsResult> order;
+
+  CrawlQuery(String text, List<Property<?>> selected, Predicate<CrawlWsResult> where,
+             Comparator<CrawlWsResult> order) {
+    this.text = text;
+    this.selected = selected;
+    this.where = where;
+    this.order = order;
+  }
+
+  /**
+   * Runs the query.
+   *
+   * @param universe The objects to query.
+   * @return a List<CrawlWsResult> with the selected properties of the
+   * objects which match the query, in the requested order.
+   */
+  public List<CrawlWsResult> execute(List<? extends CrawlWsResult> universe) {
+    List<CrawlWsResult> matching = new ArrayList<>();
+    for (CrawlWsResult source : universe) {
+      if (where == null || where.test(source)) {
+        matching.add(source);
+      }
+    }
+
+    if (order != null) {
+      matching.sort(order);
+    }
+
+    List<CrawlWsResult> results = new ArrayList<>(matching.size());
+    for (CrawlWsResult source : matching) {
+      CrawlWsResult result = new CrawlWsResult();
+      for (Property<?> property : selected) {
+        property.copy(source, result);
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Compares two values the way JoSQL does: numbers by value, values of the
+   * same class by their natural order and anything else by their string
+   * forms.  A null is less than anything, including another null, except
+   * that two nulls are equal.
+   */
+  static int compare(Object a, Object b) {
+    if (a == null && b == null) {
+      return 0;
+    }
+    if (a == null || b == null) {
+      return -1;
+    }
+    return compareNonNull(a, b);
+  }
+
+  /**
+   * Compares two values for sorting, with nulls first.
+   */
+  static int compareForOrder(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == b ? 0 : a == null ? -1 : 1;
+    }
+    return compareNonNull(a, b);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compareNonNull(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) {
+      if (isIntegral(a) && isIntegral(b)) {
+        return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+      }
+      return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+    }
+    if (a instanceof Comparable && a.getClass().isAssignableFrom(b.getClass())) {
+      return ((Comparable) a).compareTo(b);
+    }
+    return a.toString().compareTo(b.toString());
+  }
+
+  private static boolean isIntegral(Object n) {
+    return n instanceof Long || n instanceof Integer || n instanceof Short
+      || n instanceof Byte;
+  }
+
+  @Override
+  public String toString() {
+    return "[CrawlQuery " + text + "]";
+  }
+
+  /**
+   * A queryable property of a crawl, with direct accessors.
+   */
+  static class Property<T> {
+    private final String name;
+    private final Function<CrawlWsResult, T> getter;
+    private final BiConsumer<CrawlWsResult, T> setter;
+    private final boolean scalar;
+
+    Property(String name, Function<CrawlWsResult, T> getter,
+             BiConsumer<CrawlWsResult, T> setter, boolean scalar) {
+      this.name = name;
+      this.getter = getter;
+      this.setter = setter;
+      this.scalar = scalar;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /**
+     * Return true if the property has a single value, which may be used in
+     * conditions and sorts.
+     */
+    boolean isScalar() {
+      return scalar;
+    }
+
+    Object get(CrawlWsResult source) {
+      return getter.apply(source);
+    }
+
+    void copy(CrawlWsResult source, CrawlWsResult target) {
+      setter.accept(target, getter.apply(source));
+    }
+  }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import org.lockss.laaws.crawler.impl.CrawlQuery.Property;
+import org.lockss.log.L4JLogger;
+import org.lockss.ws.entities.CrawlWsResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static org.lockss.laaws.crawler.impl.CrawlHelper.*;
+
+/**
+ * Compiles the SQL-like crawl queries of {@code GET /ws/crawls} into
+ * {@link CrawlQuery}s, which run without JoSQL's parsing and reflection.
+ * The dialect compiled is
+ * <pre>
+ *   SELECT * | property [, property]...
+ *   [WHERE condition]
+ *   [ORDER BY property [ASC | DESC] [, property [ASC | DESC]]...]
+ * </pre>
+ * where a condition combines with AND, OR, NOT and parentheses the
+ * comparisons {@code = != <> < <= > >=}, {@code [NOT] LIKE},
+ * {@code $LIKE}, {@code IS [NOT] NULL}, {@code [NOT] IN (...)} and
+ * {@code [NOT] BETWEEN ... AND ...} of single-valued properties, string and
+ * number literals, {@code null}, {@code true} and {@code false}.  Anything
+ * else, including unknown properties, isn't compiled, and the caller runs
+ * the query with JoSQL instead, which also reports any error.  Compiled
+ * queries, and the queries which can't be compiled, are cached by their
+ * text.
+ */
+public class CrawlQueryCompiler {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * The number of query texts whose compilation is remembered.
+   */
+  static final int MAX_CACHED_QUERIES = 256;
+
+  /**
+   * The queryable properties, by name, in the order of a {@code SELECT *}.
+   */
+  static final Map<String, Property<?>> PROPERTIES = new LinkedHashMap<>();
+
+  static {
+    add(AU_ID, CrawlWsResult::getAuId, CrawlWsResult::setAuId, true);
+    add(AU_NAME, CrawlWsResult::getAuName, CrawlWsResult::setAuName, true);
+    add(PRIORITY, CrawlWsResult::getPriority, CrawlWsResult::setPriority, true);
+    add(CRAWL_KEY, CrawlWsResult::getCrawlKey, CrawlWsResult::setCrawlKey, true);
+    add(CRAWL_TYPE, CrawlWsResult::getCrawlType, CrawlWsResult::setCrawlType, true);
+    add(START_TIME, CrawlWsResult::getStartTime, CrawlWsResult::setStartTime, true);
+    add(DURATION, CrawlWsResult::getDuration, CrawlWsResult::setDuration, true);
+    add(CRAWL_STATUS, CrawlWsResult::getCrawlStatus, CrawlWsResult::setCrawlStatus, true);
+    add(BYTES_FETCHED_COUNT, CrawlWsResult::getBytesFetchedCount,
+      CrawlWsResult::setBytesFetchedCount, true);
+    add(PAGES_FETCHED_COUNT, CrawlWsResult::getPagesFetchedCount,
+      CrawlWsResult::setPagesFetchedCount, true);
+    add(PAGES_FETCHED, CrawlWsResult::getPagesFetched, CrawlWsResult::setPagesFetched, false);
+    add(PAGES_PARSED_COUNT, CrawlWsResult::getPagesParsedCount,
+      CrawlWsResult::setPagesParsedCount, true);
+    add(PAGES_PARSED, CrawlWsResult::getPagesParsed, CrawlWsResult::setPagesParsed, false);
+    add(PAGES_PENDING_COUNT, CrawlWsResult::getPagesPendingCount,
+      CrawlWsResult::setPagesPendingCount, true);
+    add(PAGES_PENDING, CrawlWsResult::getPagesPending, CrawlWsResult::setPagesPending, false);
+    add(PAGES_EXCLUDED_COUNT, CrawlWsResult::getPagesExcludedCount,
+      CrawlWsResult::setPagesExcludedCount, true);
+    add(PAGES_EXCLUDED, CrawlWsResult::getPagesExcluded, CrawlWsResult::setPagesExcluded, false);
+    add(OFF_SITE_URLS_EXCLUDED_COUNT, CrawlWsResult::getOffSiteUrlsExcludedCount,
+      CrawlWsResult::setOffSiteUrlsExcludedCount, true);
+    add(PAGES_NOT_MODIFIED_COUNT, CrawlWsResult::getPagesNotModifiedCount,
+      CrawlWsResult::setPagesNotModifiedCount, true);
+    add(PAGES_NOT_MODIFIED, CrawlWsResult::getPagesNotModified,
+      CrawlWsResult::setPagesNotModified, false);
+    add(PAGES_WITH_ERRORS_COUNT, CrawlWsResult::getPagesWithErrorsCount,
+      CrawlWsResult::setPagesWithErrorsCount, true);
+    add(PAGES_WITH_ERRORS, CrawlWsResult::getPagesWithErrors,
+      CrawlWsResult::setPagesWithErrors, false);
+    add(MIME_TYPE_COUNT, CrawlWsResult::getMimeTypeCount, CrawlWsResult::setMimeTypeCount, true);
+    add(MIME_TYPES, CrawlWsResult::getMimeTypes, CrawlWsResult::setMimeTypes, false);
+    add(SOURCES, CrawlWsResult::getSources, CrawlWsResult::setSources, false);
+    add(STARTING_URLS, CrawlWsResult::getStartingUrls, CrawlWsResult::setStartingUrls, false);
+    add(REFETCH_DEPTH, CrawlWsResult::getRefetchDepth, CrawlWsResult::setRefetchDepth, true);
+    add(LINK_DEPTH, CrawlWsResult::getLinkDepth, CrawlWsResult::setLinkDepth, true);
+  }
+
+  private static <T> void add(String name, Function<CrawlWsResult, T> getter,
+                              BiConsumer<CrawlWsResult, T> setter,
+                              boolean scalar) {
+    PROPERTIES.put(name, new Property<>(name, getter, setter, scalar));
+  }
+
+  @SuppressWarnings("serial")
+  private static final Map<String, Optional<CrawlQuery>> cache =
+    Collections.synchronizedMap(new LinkedHashMap<String, Optional<CrawlQuery>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Optional<CrawlQuery>> eldest) {
+        return size() > MAX_CACHED_QUERIES;
+      }
+    });
+
+  /**
+   * Provides the compiled form of a query.
+   *
+   * @param query A String with the query.
+   * @return a CrawlQuery, or null if the query must be run by JoSQL.
+   */
+  public static CrawlQuery compile(String query) {
+    Optional<CrawlQuery> compiled = cache.get(query);
+    if (compiled == null) {
+      compiled = Optional.ofNullable(tryCompile(query));
+      cache.put(query, compiled);
+    }
+    return compiled.orElse(null);
+  }
+
+  static CrawlQuery tryCompile(String query) {
+    if (query == null) {
+      return null;
+    }
+    try {
+      CrawlQuery compiled = new Parser(query).parseQuery();
+      log.debug2("compiled = {}", compiled);
+      return compiled;
+    } catch (UnsupportedQueryException uqe) {
+      log.debug2("Not compiling '{}': {}", query, uqe.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Thrown when a query uses something the compiler doesn't handle.
+   */
+  static class UnsupportedQueryException extends Exception {
+    UnsupportedQueryException(String message) {
+      super(message);
+    }
+  }
+
+  private enum Kind {IDENT, STRING, NUMBER, SYMBOL, END}
+
+  private static class Token {
+    final Kind kind;
+    final String text;
+    final Object value;
+
+    Token(Kind kind, String text, Object value) {
+      this.kind = kind;
+      this.text = text;
+      this.value = value;
+    }
+
+    boolean is(String keyword) {
+      return kind == Kind.IDENT && text.equalsIgnoreCase(keyword);
+    }
+
+    boolean isSymbol(String symbol) {
+      return kind == Kind.SYMBOL && text.equals(symbol);
+    }
+  }
+
+  private static List<Token> tokenize(String query) throws UnsupportedQueryException {
+    List<Token> tokens = new ArrayList<>();
+    int i = 0;
+    int len = query.length();
+    while (i < len) {
+      char c = query.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (Character.isLetter(c) || c == '_' || c == '$') {
+        int start = i;
+        while (i < len && (Character.isLetterOrDigit(query.charAt(i))
+          || "_$.".indexOf(query.charAt(i)) >= 0)) {
+          i++;
+        }
+        tokens.add(new Token(Kind.IDENT, query.substring(start, i), null));
+      } else if (Character.isDigit(c)
+        || (c == '-' && i + 1 < len && Character.isDigit(query.charAt(i + 1)))) {
+        int start = i++;
+        while (i < len && (Character.isDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+          i++;
+        }
+        String text = query.substring(start, i);
+        try {
+          Object value = text.indexOf('.') >= 0
+            ? (Object) Double.valueOf(text) : (Object) Long.valueOf(text);
+          tokens.add(new Token(Kind.NUMBER, text, value));
+        } catch (NumberFormatException nfe) {
+          throw new UnsupportedQueryException("Number " + text);
+        }
+      } else if (c == '\'' || c == '"') {
+        StringBuilder sb = new StringBuilder();
+        int start = i++;
+        while (true) {
+          if (i >= len) {
+            throw new UnsupportedQueryException("Unterminated string at " + start);
+          }
+          char s = query.charAt(i++);
+          if (s == c) {
+            if (i < len && query.charAt(i) == c) {
+              // A doubled quote stands for itself.
+              sb.append(c);
+              i++;
+            } else {
+              break;
+            }
+          } else {
+            sb.append(s);
+          }
+        }
+        tokens.add(new Token(Kind.STRING, query.substring(start, i), sb.toString()));
+      } else {
+        String two = i + 1 < len ? query.substring(i, i + 2) : "";
+        if (two.equals("!=") || two.equals("<>") || two.equals("<=") || two.equals(">=")) {
+          tokens.add(new Token(Kind.SYMBOL, two, null));
+          i += 2;
+        } else if ("(),*=<>".indexOf(c) >= 0) {
+          tokens.add(new Token(Kind.SYMBOL, String.valueOf(c), null));
+          i++;
+        } else {
+          throw new UnsupportedQueryException("Character '" + c + "' at " + i);
+        }
+      }
+    }
+    tokens.add(new Token(Kind.END, "", null));
+    return tokens;
+  }
+
+  /**
+   * A recursive descent parser which builds the query from the tokens.
+   */
+  private static class Parser {
+    private final String text;
+    private final List<Token> tokens;
+    private int pos = 0;
+
+    Parser(String text) throws UnsupportedQueryException {
+      this.text = text;
+      this.tokens = tokenize(text);
+    }
+
+    CrawlQuery parseQuery() throws UnsupportedQueryException {
+      expect("SELECT");
+      List<Property<?>> selected = parseSelectList();
+      Predicate<CrawlWsResult> where = null;
+      if (accept("WHERE")) {
+        where = parseOr();
+      }
+      Comparator<CrawlWsResult> order = null;
+      if (accept("ORDER")) {
+        expect("BY");
+        order = parseOrderList();
+      }
+      if (peek().kind != Kind.END) {
+        throw unexpected();
+      }
+      return new CrawlQuery(text, selected, where, order);
+    }
+
+    private List<Property<?>> parseSelectList() throws UnsupportedQueryException {
+      if (acceptSymbol("*")) {
+        return new ArrayList<>(PROPERTIES.values());
+      }
+      List<Property<?>> selected = new ArrayList<>();
+      do {
+        selected.add(property(next(), false));
+      } while (acceptSymbol(","));
+      return selected;
+    }
+
+    private Comparator<CrawlWsResult> parseOrderList() throws UnsupportedQueryException {
+      Comparator<CrawlWsResult> order = null;
+      do {
+        Property<?> property = property(next(), true);
+        Comparator<CrawlWsResult> key =
+          (a, b) -> CrawlQuery.compareForOrder(property.get(a), property.get(b));
+        if (accept("DESC")) {
+          key = key.reversed();
+        } else {
+          accept("ASC");
+        }
+        order = order == null ? key : order.thenComparing(key);
+      } while (acceptSymbol(","));
+      return order;
+    }
+
+    private Predicate<CrawlWsResult> parseOr() throws UnsupportedQueryException {
+      Predicate<CrawlWsResult> p = parseAnd();
+      while (accept("OR")) {
+        p = p.or(parseAnd());
+      }
+      return p;
+    }
+
+    private Predicate<CrawlWsResult> parseAnd() throws UnsupportedQueryException {
+      Predicate<CrawlWsResult> p = parseNot();
+      while (accept("AND")) {
+        p = p.and(parseNot());
+      }
+      return p;
+    }
+
+    private Predicate<CrawlWsResult> parseNot() throws UnsupportedQueryException {
+      if (accept("NOT")) {
+        return parseNot().negate();
+      }
+      if (acceptSymbol("(")) {
+        Predicate<CrawlWsResult> p = parseOr();
+        expectSymbol(")");
+        return p;
+      }
+      return parseComparison();
+    }
+
+    private Predicate<CrawlWsResult> parseComparison() throws UnsupportedQueryException {
+      Function<CrawlWsResult, Object> left = parseOperand();
+
+      if (accept("IS")) {
+        boolean not = accept("NOT");
+        expect("NULL");
+        return not ? r -> left.apply(r) != null : r -> left.apply(r) == null;
+      }
+
+      boolean not = accept("NOT");
+      Predicate<CrawlWsResult> p;
+      if (peek().is("LIKE") || peek().is("$LIKE")) {
+        boolean ignoreCase = next().text.startsWith("$");
+        Token pattern = next();
+        if (pattern.kind != Kind.STRING) {
+          throw unexpected(pattern);
+        }
+        Pattern regex = likePattern((String) pattern.value, ignoreCase);
+        p = r -> {
+          Object value = left.apply(r);
+          return value != null && regex.matcher(value.toString()).matches();
+        };
+      } else if (accept("IN")) {
+        expectSymbol("(");
+        List<Function<CrawlWsResult, Object>> values = new ArrayList<>();
+        do {
+          values.add(parseOperand());
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+        p = r -> {
+          Object value = left.apply(r);
+          for (Function<CrawlWsResult, Object> v : values) {
+            if (CrawlQuery.compare(value, v.apply(r)) == 0) {
+              return true;
+            }
+          }
+          return false;
+        };
+      } else if (accept("BETWEEN")) {
+        Function<CrawlWsResult, Object> low = parseOperand();
+        expect("AND");
+        Function<CrawlWsResult, Object> high = parseOperand();
+        p = r -> {
+          Object value = left.apply(r);
+          return CrawlQuery.compare(value, low.apply(r)) >= 0
+            && CrawlQuery.compare(value, high.apply(r)) <= 0;
+        };
+      } else if (not) {
+        throw unexpected();
+      } else {
+        Token op = next();
+        if (op.kind != Kind.SYMBOL) {
+          throw unexpected(op);
+        }
+        Function<CrawlWsResult, Object> right = parseOperand();
+        switch (op.text) {
+          case "=":
+            return r -> CrawlQuery.compare(left.apply(r), right.apply(r)) == 0;
+          case "!=":
+          case "<>":
+            return r -> CrawlQuery.compare(left.apply(r), right.apply(r)) != 0;
+          case "<":
+            return r -> CrawlQuery.compare(left.apply(r), right.apply(r)) < 0;
+          case "<=":
+            return r -> CrawlQuery.compare(left.apply(r), right.apply(r)) <= 0;
+          case ">":
+            return r -> CrawlQuery.compare(left.apply(r), right.apply(r)) > 0;
+          case ">=":
+            return r -> CrawlQuery.compare(left.apply(r), right.apply(r)) >= 0;
+          default:
+            throw unexpected(op);
+        }
+      }
+      return not ? p.negate() : p;
+    }
+
+    private Function<CrawlWsResult, Object> parseOperand() throws UnsupportedQueryException {
+      Token t = next();
+      switch (t.kind) {
+        case STRING:
+        case NUMBER:
+          Object value = t.value;
+          return r -> value;
+        case IDENT:
+          if (t.is("NULL")) {
+            return r -> null;
+          }
+          if (t.is("TRUE") || t.is("FALSE")) {
+            Boolean b = Boolean.valueOf(t.text.toLowerCase());
+            return r -> b;
+          }
+          Property<?> property = property(t, true);
+          return property::get;
+        default:
+          throw unexpected(t);
+      }
+    }
+
+    private Property<?> property(Token t, boolean scalar) throws UnsupportedQueryException {
+      Property<?> property = t.kind == Kind.IDENT ? PROPERTIES.get(t.text) : null;
+      if (property == null) {
+        throw unexpected(t);
+      }
+      if (scalar && !property.isScalar()) {
+        throw new UnsupportedQueryException("Multi-valued property " + t.text);
+      }
+      return property;
+    }
+
+    /**
+     * Translates a LIKE pattern, in which % matches any characters and _
+     * any one character, to a regular expression.
+     */
+    static Pattern likePattern(String like, boolean ignoreCase) {
+      StringBuilder sb = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      for (char c : like.toCharArray()) {
+        if (c == '%' || c == '_') {
+          if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+          }
+          sb.append(c == '%' ? ".*" : ".");
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        sb.append(Pattern.quote(literal.toString()));
+      }
+      return Pattern.compile(sb.toString(),
+        Pattern.DOTALL | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+    }
+
+    private Token peek() {
+      return tokens.get(pos);
+    }
+
+    private Token next() {
+      Token t = tokens.get(pos);
+      if (t.kind != Kind.END) {
+        pos++;
+      }
+      return t;
+    }
+
+    private boolean accept(String keyword) {
+      if (peek().is(keyword)) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean acceptSymbol(String symbol) {
+      if (peek().isSymbol(symbol)) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String keyword) throws UnsupportedQueryException {
+      if (!accept(keyword)) {
+        throw unexpected();
+      }
+    }
+
+    private void expectSymbol(String symbol) throws UnsupportedQueryException {
+      if (!acceptSymbol(symbol)) {
+        throw unexpected();
+      }
+    }
+
+    private UnsupportedQueryException unexpected() {
+      return unexpected(peek());
+    }
+
+    private UnsupportedQueryException unexpected(Token t) {
+      return new UnsupportedQueryException(t.kind == Kind.END
+        ? "Unexpected end of query" : "Unexpected '" + t.text + "'");
+    }
+  }
+}
@@ -30,6 +30,7 @@ import org.lockss.app.LockssDaemon;
 import org.lockss.crawler.CrawlerStatus;
 import org.lockss.laaws.crawler.api.CrawlsApi;
 import org.lockss.laaws.crawler.api.CrawlsApiDelegate;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl.PluggableCrawlerStatus;
 import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawler;
 import org.lockss.laaws.crawler.model.CrawlPager;
 import org.lockss.laaws.crawler.model.CrawlStatus;
@@ -42,6 +43,7 @@ import org.lockss.util.JsonUtil;
 import org.lockss.util.rest.crawler.JobStatus;
 import org.lockss.util.rest.crawler.JobStatus.StatusCodeEnum;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -95,9 +97,18 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
         return getErrorResponseEntity(HttpStatus.SERVICE_UNAVAILABLE, NOT_INITIALIZED_MESSAGE, null);
       }
 
-      crawlStatus = getCrawlStatus(jobId);
+      CrawlerStatus cs = getCrawlerStatus(jobId);
+
+      // Check whether the client already has this version of the status.
+      String etag = getStatusVersions().getETag(cs);
+      if (StatusVersions.matches(getIfNoneMatch(), etag)) {
+        // Yes: Don't build it.
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+      }
+
+      crawlStatus = makeCrawlStatus(cs);
       log.debug2("crawlStatus = {}", crawlStatus);
-      return new ResponseEntity<>(crawlStatus, HttpStatus.OK);
+      return ResponseEntity.ok().eTag(etag).body(crawlStatus);
     }
     catch (NotFoundException nfe) {
       String message = "No crawl found for jobId '" + jobId + "'.";
@@ -139,7 +150,7 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
       }
 
       CrawlerStatus status = getCrawlerStatus(jobId);
-      List<String> urls = status.getUrlsOfMimeType(type);
+      List<String> urls = getUrlsOfMimeType(status, type);
       UrlPager pager = getUrlPager(status, urls, limit, continuationToken);
       log.debug2("pager = {}", pager);
       return new ResponseEntity<UrlPager>(pager, HttpStatus.OK);
@@ -194,7 +205,7 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
 
       CrawlerStatus status = getCrawlerStatus(jobId);
       log.trace("status = {}", status);
-      List<String> urls = new ArrayList<>(status.getUrlsErrorMap().keySet());
+      List<String> urls = getErrorUrls(status);
       log.trace("urls = {}", urls);
       UrlPager pager = getUrlPager(status, urls, limit, continuationToken);
       log.debug2("pager = {}", pager);
@@ -430,7 +441,9 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
   }
 
   /**
-   * Returns all (or a pageful of) the pending URLS in a crawl.
+   * Returns all (or a pageful of) the pending URLS in a crawl.  URLs leave
+   * the pending list as they are fetched, so the pages of a running crawl
+   * are positions in a changing list, and may skip or repeat URLs.
    *
    * @param jobId             A String with the identifier assigned to the crawl when added.
    * @param limit             An Integer with the maximum number of URLs per page.
@@ -457,7 +470,7 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
 
       CrawlerStatus status = getCrawlerStatus(jobId);
       List<String> urls = status.getUrlsPending();
-      UrlPager pager = getUrlPager(status, urls, limit, continuationToken);
+      UrlPager pager = getUrlPager(status, urls, limit, continuationToken, false);
       log.debug2("pager = {}", pager);
       return new ResponseEntity<>(pager, HttpStatus.OK);
     }
@@ -487,13 +500,17 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
    *
    * @param limit             An Integer with the maximum number of crawls per page.
    * @param continuationToken A String with the continuation token used to fetch the next page
+   * @param fields            A String with a comma-separated list of the properties to return.
+   * @param view              A String with the set of properties to return.
    * @return a {@code ResponseEntity<CrawlPager>} with the information about the crawls.
    * @see CrawlsApi#getCrawls
    */
   @Override
-  public ResponseEntity getCrawls(Integer limit, String continuationToken) {
+  public ResponseEntity getCrawls(Integer limit, String continuationToken, String fields,
+                                  String view) {
     log.debug2("limit = {}", limit);
     log.debug2("continuationToken = {}", continuationToken);
+    log.debug2("fields = {}, view = {}", fields, view);
 
     try {
       // Check whether the service has not been fully initialized.
@@ -505,9 +522,21 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
         return getErrorResponseEntity(HttpStatus.SERVICE_UNAVAILABLE, NOT_INITIALIZED_MESSAGE, null);
       }
 
-      CrawlPager pager = getCrawlsPager(limit, continuationToken);
+      StatusProjection projection = StatusProjection.forCrawls(fields, view);
+      log.trace("projection = {}", projection);
+
+      // Check whether the client already has this version of the list.
+      String etag = getStatusVersions()
+        .getListETag(getLockssCrawlManager().getStatus().getCrawlerStatusList());
+      if (StatusVersions.matches(getIfNoneMatch(), etag)) {
+        // Yes: Don't build the page.
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+      }
+
+      CrawlPager pager = getCrawlsPager(limit, continuationToken, projection);
       log.debug2("pager = {}", pager);
-      return new ResponseEntity<>(pager, HttpStatus.OK);
+
+      return ResponseEntity.ok().eTag(etag).body(pager);
     }
     catch (IllegalArgumentException iae) {
       String message =
@@ -525,7 +554,36 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
 
 
   /**
-   * Provides a pageful of URLs.
+   * Provides the URLs with errors.  A pluggable crawl's status keeps them in
+   * a list which pages are read from directly; otherwise they are copied.
+   *
+   * @param status A CrawlerStatus with the crawler status.
+   * @return a List<String> with the URLs with errors.
+   */
+  static List<String> getErrorUrls(CrawlerStatus status) {
+    if (status instanceof PluggableCrawlerStatus) {
+      return ((PluggableCrawlerStatus) status).getErrorUrlView();
+    }
+    return new ArrayList<>(status.getUrlsErrorMap().keySet());
+  }
+
+  /**
+   * Provides the URLs of a MIME type, from a pluggable crawl's list of them
+   * if possible.
+   *
+   * @param status A CrawlerStatus with the crawler status.
+   * @param type   A String with the MIME type.
+   * @return a List<String> with the URLs of the MIME type.
+   */
+  static List<String> getUrlsOfMimeType(CrawlerStatus status, String type) {
+    if (status instanceof PluggableCrawlerStatus) {
+      return ((PluggableCrawlerStatus) status).getMimeTypeUrlView(type);
+    }
+    return status.getUrlsOfMimeType(type);
+  }
+
+  /**
+   * Provides a pageful of URLs from a list to which URLs are only appended.
    *
    * @param crawlerStatus     A CrawlerStatus with the crawler status.
    * @param allUrls           A List<String> with the complete collection of URLs to paginate.
@@ -538,6 +596,32 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
     List<String> allUrls,
     Integer requestLimit,
     String continuationToken) {
+    return getUrlPager(crawlerStatus, allUrls, requestLimit, continuationToken, true);
+  }
+
+  /**
+   * Provides a pageful of URLs.
+   * <p>
+   * The continuation token holds the index of the last URL served.  For a
+   * list to which URLs are only appended, such as the fetched URLs, that
+   * index stays valid while the crawl runs, so no URL is skipped or served
+   * twice.  Other lists, such as the pending URLs, lose URLs as the crawl
+   * proceeds, so successive pages of them may skip or repeat URLs, and a
+   * token past the end of the list ends the listing.
+   *
+   * @param crawlerStatus     A CrawlerStatus with the crawler status.
+   * @param allUrls           A List<String> with the complete collection of URLs to paginate.
+   * @param requestLimit      An Integer with the request maximum number of URLs per page.
+   * @param continuationToken A String with the continuation token provided in the request.
+   * @param appendOnly        true if URLs are only ever appended to the list.
+   * @return a UrlPager with the pageful of URLs.
+   */
+  UrlPager getUrlPager(
+    CrawlerStatus crawlerStatus,
+    List<String> allUrls,
+    Integer requestLimit,
+    String continuationToken,
+    boolean appendOnly) {
     log.debug2("crawlerStatus = {}", crawlerStatus);
     log.debug2("allUrls = {}", allUrls);
     log.debug2("requestLimit = {}", requestLimit);
@@ -576,26 +660,37 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
     int listSize = allUrls.size();
     log.trace("listSize = {}", listSize);
 
+    // Whether more URLs may yet be added to the list.
+    boolean live = crawlerStatus.isCrawlActive();
+    log.trace("live = {}", live);
+
     UrlPager pager = new UrlPager();
     Long lastItem = null;
 
-    // Check whether there is anything to provide,
-    if (listSize > 0) {
-      // Yes: Validate the count of URLs to skip.
-      if (lastUrlToSkip + 1 >= listSize) {
+    // Validate the count of URLs to skip.  The end of the list may have been
+    // reached, by a token issued while the crawl was running, in which case
+    // the page is empty, and final if the crawl has ended.
+    int firstUrl = (int) (lastUrlToSkip + 1);
+
+    if (firstUrl > listSize) {
+      if (appendOnly) {
         String errMsg =
           "Invalid pagination request: startAt = "
-            + (lastUrlToSkip + 1)
+            + firstUrl
             + ", Total = "
             + listSize;
         log.warn(errMsg);
         throw new IllegalArgumentException(errMsg);
       }
 
-      List<UrlInfo> outputUrls = new ArrayList<>();
+      // The list has shrunk below the position already reached.
+      firstUrl = listSize;
+    }
 
-      // Get the number of URLs to return.
-      int outputSize = (int) (listSize - (lastUrlToSkip + 1));
+    // Check whether there is anything to provide,
+    if (listSize > 0) {
+      // Yes: Get the number of URLs to return.
+      int outputSize = listSize - firstUrl;
 
       if (validLimit != null && validLimit > 0 && validLimit < outputSize) {
         outputSize = validLimit;
@@ -603,35 +698,23 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
 
       log.trace("outputSize = {}", outputSize);
 
-      int idx = 0;
-
-      // Loop through all the URLs until the output size has been reached.
-      while (outputUrls.size() < outputSize) {
-        log.trace("idx = {}", idx);
-
-        // Check whether this URL does not need to be skipped.
-        if (idx > lastUrlToSkip) {
-          // Yes: Get it.
-          String url = allUrls.get(idx);
-          log.trace("url = {}", url);
-
-          // Add it to the output collection.
-          outputUrls.add(makeUrlInfo(url, crawlerStatus));
+      List<UrlInfo> outputUrls = new ArrayList<>(outputSize);
 
-          // Record that it is the last one so far.
-          lastItem = (long) idx;
-        }
-
-        // Point to the next URL.
-        idx++;
+      // Go straight to the first URL of the page.
+      for (int idx = firstUrl; idx < firstUrl + outputSize; idx++) {
+        outputUrls.add(makeUrlInfo(allUrls.get(idx), crawlerStatus));
       }
 
+      // Record the last URL served, or for an empty page the last one
+      // previously served.
+      lastItem = (long) (firstUrl + outputSize - 1);
+
       // Add the output URLs to the pagination.
       pager.setUrls(outputUrls);
     }
 
     // Set the pagination information.
-    pager.setPageInfo(getPageInfo(validLimit, lastItem, listSize, timeStamp));
+    pager.setPageInfo(getPageInfo(validLimit, lastItem, listSize, timeStamp, live));
 
     log.debug2("pager = {}", pager);
     return pager;
@@ -643,11 +726,14 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
    *
    * @param requestLimit      An Integer with the request maximum number of jobs per page.
    * @param continuationToken A String with the continuation token provided in the request.
+   * @param projection        A StatusProjection with the properties of each crawl to build.
    * @return a UrlPager with the pageful of jobs.
    */
-  CrawlPager getCrawlsPager(Integer requestLimit, String continuationToken) {
+  CrawlPager getCrawlsPager(Integer requestLimit, String continuationToken,
+                            StatusProjection projection) {
     log.debug2("requestLimit = {}", requestLimit);
     log.debug2("continuationToken = {}", continuationToken);
+    log.debug2("projection = {}", projection);
 
     // The continuation token timestamp.
     long timeStamp = LockssDaemon.getLockssDaemon().getStartDate().getTime();
@@ -703,10 +789,9 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
         throw new IllegalArgumentException(errMsg);
       }
 
-      List<CrawlStatus> outputCrawls = new ArrayList<>();
-
       // Get the number of jobs to return.
-      int outputSize = (int) (listSize - (lastJobToSkip + 1));
+      int firstJob = (int) (lastJobToSkip + 1);
+      int outputSize = listSize - firstJob;
 
       if (validLimit != null && validLimit > 0 && validLimit < outputSize) {
         outputSize = validLimit;
@@ -714,28 +799,18 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
 
       log.trace("outputSize = {}", outputSize);
 
-      int idx = 0;
-
-      // Loop through all the jobs until the output size has been reached.
-      while (outputCrawls.size() < outputSize) {
-        log.trace("idx = {}", idx);
-
-        // Check whether this job does not need to be skipped.
-        if (idx > lastJobToSkip) {
-          // Yes: Get it.
-          CrawlerStatus crawlerStatus = allCrawls.get(idx);
-          log.trace("crawlerStatus = {}", crawlerStatus);
-          // Add it to the output collection.
-          outputCrawls.add(makeCrawlStatus(crawlerStatus));
-
-          // Record that it is the last one so far.
-          lastItem = (long) idx;
-        }
+      List<CrawlStatus> outputCrawls = new ArrayList<>(outputSize);
 
-        // Point to the next job.
-        idx++;
+      // Go straight to the first job of the page.
+      for (int idx = firstJob; idx < firstJob + outputSize; idx++) {
+        CrawlerStatus crawlerStatus = allCrawls.get(idx);
+        log.trace("crawlerStatus = {}", crawlerStatus);
+        outputCrawls.add(makeCrawlStatus(crawlerStatus, projection));
       }
 
+      // Record the last job served.
+      lastItem = (long) (firstJob + outputSize - 1);
+
       // Add the output URLs to the pagination.
       pager.setCrawls(outputCrawls);
     }
@@ -747,6 +822,10 @@ public class CrawlsApiServiceImpl extends BaseSpringApiServiceImpl implements Cr
     return pager;
   }
 
+  private String getIfNoneMatch() {
+    return request == null ? null : request.getHeader(HttpHeaders.IF_NONE_MATCH);
+  }
+
   /**
    * Provides the response entity when there is an error.
    *
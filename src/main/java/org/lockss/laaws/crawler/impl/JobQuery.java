@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import org.dizitart.no2.FindOptions;
+import org.dizitart.no2.SortOrder;
+import org.dizitart.no2.objects.ObjectFilter;
+import org.dizitart.no2.objects.ObjectRepository;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.rest.crawler.CrawlDesc;
+import org.lockss.util.rest.crawler.CrawlJob;
+import org.lockss.util.rest.crawler.JobStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.dizitart.no2.objects.filters.ObjectFilters.*;
+
+/**
+ * A filtered and sorted listing of the crawl jobs in the persistent job
+ * store, as requested by the query parameters of {@code GET /jobs}.  The
+ * filters and the sort are answered by the indexes created in
+ * {@link PluggableCrawlManager}, and pages are continued from the sort key
+ * of the last job served rather than from a position in the list, so jobs
+ * added or removed between requests don't shift later pages, and tokens
+ * remain valid across restarts.
+ */
+public class JobQuery {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  static final String JOB_ID = "jobId";
+  static final String STATUS_CODE = "jobStatus.statusCode";
+  static final String CRAWLER_ID = "crawlDesc.crawlerId";
+  static final String AU_ID = "crawlDesc.auId";
+  static final String CRAWL_KIND = "crawlDesc.crawlKind";
+  static final String REQUEST_DATE = "requestDate";
+  static final String START_DATE = "startDate";
+  static final String END_DATE = "endDate";
+
+  /**
+   * The job store properties indexed for listings, besides the jobId and
+   * auId indexes which the store always has.
+   */
+  static final List<String> INDEXED_FIELDS = Arrays.asList(STATUS_CODE,
+    CRAWLER_ID, CRAWL_KIND, REQUEST_DATE, START_DATE, END_DATE);
+
+  /**
+   * The sort used when none is requested.
+   */
+  public static final String DEFAULT_SORT = REQUEST_DATE;
+
+  private static final String TOKEN_SEPARATOR = "\t";
+  private static final String NO_VALUE = "none";
+
+  private final Set<String> statusCodes;
+  private final String crawlerId;
+  private final String auId;
+  private final String crawlKind;
+  private final Long since;
+  private final Long until;
+  private final String sortField;
+  private final boolean descending;
+
+  private JobQuery(Set<String> statusCodes, String crawlerId, String auId,
+                   String crawlKind, Long since, Long until, String sortField,
+                   boolean descending) {
+    this.statusCodes = statusCodes;
+    this.crawlerId = crawlerId;
+    this.auId = auId;
+    this.crawlKind = crawlKind;
+    this.since = since;
+    this.until = until;
+    this.sortField = sortField;
+    this.descending = descending;
+  }
+
+  /**
+   * Provides the query of all the jobs, in the default sort.
+   */
+  public static JobQuery all() {
+    return new JobQuery(null, null, null, null, null, null, DEFAULT_SORT, false);
+  }
+
+  /**
+   * Provides the query requested by the parameters of a listing.
+   *
+   * @param status    A String with a comma-separated list of job status
+   *                  codes, or null.
+   * @param crawlerId A String with the crawler id, or null.
+   * @param auId      A String with the AU id, or null.
+   * @param crawlKind A String with the kind of crawl, or null.
+   * @param since     A Long with the earliest request date, inclusive, or null.
+   * @param until     A Long with the latest request date, exclusive, or null.
+   * @param sort      A String with the property to sort by, preceded by
+   *                  {@code -} for a descending sort, or null.
+   * @return a JobQuery, or null if no parameter was given.
+   * @throws IllegalArgumentException if a parameter is invalid.
+   */
+  public static JobQuery from(String status, String crawlerId, String auId,
+                              String crawlKind, Long since, Long until,
+                              String sort) {
+    if (isEmpty(status) && isEmpty(crawlerId) && isEmpty(auId)
+      && isEmpty(crawlKind) && since == null && until == null && isEmpty(sort)) {
+      return null;
+    }
+
+    Set<String> codes = null;
+    if (!isEmpty(status)) {
+      codes = new LinkedHashSet<>();
+      for (String code : status.split(",")) {
+        codes.add(storedValue(code.trim(), JobStatus.StatusCodeEnum.values(), "status"));
+      }
+    }
+
+    String kind = null;
+    if (!isEmpty(crawlKind)) {
+      kind = storedValue(crawlKind.trim(), CrawlDesc.CrawlKindEnum.values(), "crawlKind");
+    }
+
+    if (since != null && until != null && since >= until) {
+      throw new IllegalArgumentException("Invalid time range: since = " + since
+        + ", until = " + until);
+    }
+
+    String sortSpec = isEmpty(sort) ? DEFAULT_SORT : sort.trim();
+    boolean descending = sortSpec.startsWith("-");
+    String field = descending ? sortSpec.substring(1) : sortSpec;
+    if (!field.equals(REQUEST_DATE) && !field.equals(START_DATE) && !field.equals(END_DATE)) {
+      throw new IllegalArgumentException("Invalid sort: '" + sort + "'");
+    }
+
+    return new JobQuery(codes, emptyToNull(crawlerId), emptyToNull(auId), kind,
+      since, until, field, descending);
+  }
+
+  /**
+   * Provides the value of an enum as it is stored, matching either its
+   * constant name or its external value.
+   */
+  private static String storedValue(String value, Enum<?>[] values, String param) {
+    for (Enum<?> e : values) {
+      if (e.name().equalsIgnoreCase(value) || e.toString().equalsIgnoreCase(value)) {
+        return e.toString();
+      }
+    }
+    throw new IllegalArgumentException("Invalid " + param + ": '" + value + "'");
+  }
+
+  public String getSortField() {
+    return sortField;
+  }
+
+  public boolean isDescending() {
+    return descending;
+  }
+
+  /**
+   * Provides the sort as given in the {@code sort} parameter.
+   */
+  public String getSort() {
+    return (descending ? "-" : "") + sortField;
+  }
+
+  /**
+   * Provides the filter on the job store, without any continuation, or null
+   * if the listing has all the jobs.
+   */
+  ObjectFilter getFilter() {
+    List<ObjectFilter> filters = new ArrayList<>();
+    if (statusCodes != null) {
+      filters.add(in(STATUS_CODE, statusCodes.toArray()));
+    }
+    if (crawlerId != null) {
+      filters.add(eq(CRAWLER_ID, crawlerId));
+    }
+    if (auId != null) {
+      filters.add(eq(AU_ID, auId));
+    }
+    if (crawlKind != null) {
+      filters.add(eq(CRAWL_KIND, crawlKind));
+    }
+    if (since != null) {
+      filters.add(gte(REQUEST_DATE, since));
+    }
+    if (until != null) {
+      filters.add(lt(REQUEST_DATE, until));
+    }
+    if (filters.isEmpty()) {
+      return null;
+    }
+    return filters.size() == 1 ? filters.get(0)
+      : and(filters.toArray(new ObjectFilter[0]));
+  }
+
+  /**
+   * Provides the filter of the jobs which have a value of the sorted
+   * property, or of those which don't, and which sort after a position in
+   * that group.
+   */
+  ObjectFilter getFilterAfter(boolean valued, Position after) {
+    ObjectFilter hasValue = gte(sortField, Long.MIN_VALUE);
+    ObjectFilter group = valued ? hasValue : not(hasValue);
+    ObjectFilter filter = getFilter();
+    if (filter != null) {
+      group = and(filter, group);
+    }
+    if (after == null) {
+      return group;
+    }
+    ObjectFilter beyond;
+    if (!valued) {
+      beyond = descending ? lt(JOB_ID, after.getJobId()) : gt(JOB_ID, after.getJobId());
+    } else if (descending) {
+      beyond = or(lt(sortField, after.getValue()),
+        and(eq(sortField, after.getValue()), lt(JOB_ID, after.getJobId())));
+    } else {
+      beyond = or(gt(sortField, after.getValue()),
+        and(eq(sortField, after.getValue()), gt(JOB_ID, after.getJobId())));
+    }
+    return and(group, beyond);
+  }
+
+  /**
+   * Provides the order of the jobs in the listing: by the sorted property,
+   * then by jobId.  Jobs without a value of the sorted property, such as
+   * unfinished jobs by endDate, sort after all the others, as if it were
+   * still to come.
+   */
+  Comparator<CrawlJob> getComparator() {
+    Comparator<CrawlJob> order = Comparator.comparing(this::getSortValue,
+        Comparator.nullsLast(Comparator.<Long>naturalOrder()))
+      .thenComparing(CrawlJob::getJobId);
+    return descending ? order.reversed() : order;
+  }
+
+  /**
+   * Provides the value of the sorted property of a job, or null if it has
+   * none.
+   */
+  Long getSortValue(CrawlJob job) {
+    switch (sortField) {
+      case START_DATE:
+        return job.getStartDate();
+      case END_DATE:
+        return job.getEndDate();
+      default:
+        return job.getRequestDate();
+    }
+  }
+
+  /**
+   * Provides a page of the jobs in the store.
+   *
+   * @param repo  The ObjectRepository of stored jobs.
+   * @param token A String with the continuation token of the page, or null
+   *              for the first page.
+   * @param limit An Integer with the maximum number of jobs, or null for
+   *              all of them.
+   * @return a Page with the jobs.
+   * @throws IllegalArgumentException if the token is not one of this query.
+   */
+  Page execute(ObjectRepository<CrawlJob> repo, String token, Integer limit) {
+    Position after = token == null ? null : parseToken(token);
+    log.debug2("after = {}, limit = {}", after, limit);
+    int max = limit == null || limit <= 0 ? Integer.MAX_VALUE - 1 : limit;
+
+    // The jobs with a value of the sorted property and those without are
+    // found separately, the latter ordered by jobId alone, and listed in
+    // the order given by getComparator().
+    List<CrawlJob> jobs = new ArrayList<>();
+    boolean more = false;
+    for (boolean valued : descending ? new boolean[]{false, true} : new boolean[]{true, false}) {
+      Position from = null;
+      if (after != null) {
+        if ((after.getValue() != null) == valued) {
+          from = after;
+        } else if (valued != descending) {
+          // this group precedes the position.
+          continue;
+        }
+      }
+      more = valued ? findValued(repo, from, max, jobs) : findUnvalued(repo, from, max, jobs);
+      if (more) {
+        break;
+      }
+    }
+
+    Position next = null;
+    if (more) {
+      CrawlJob last = jobs.get(jobs.size() - 1);
+      next = new Position(getSortValue(last), last.getJobId());
+    }
+    ObjectFilter filter = getFilter();
+    int total = filter == null ? repo.find().size() : repo.find(filter).size();
+    return new Page(jobs, total, next == null ? null : toToken(next));
+  }
+
+  /**
+   * Adds to a page the jobs with a value of the sorted property which follow
+   * a position, until the page is full.
+   *
+   * @return true if there are more such jobs than fitted on the page.
+   */
+  private boolean findValued(ObjectRepository<CrawlJob> repo, Position after,
+                             int max, List<CrawlJob> jobs) {
+    int room = max - jobs.size();
+    ObjectFilter filter = getFilterAfter(true, after);
+    SortOrder order = descending ? SortOrder.Descending : SortOrder.Ascending;
+    List<CrawlJob> found = new ArrayList<>();
+    repo.find(filter, FindOptions.sort(sortField, order).thenLimit(0, room + 1))
+      .forEach(found::add);
+    found.sort(getComparator());
+    if (found.size() <= room) {
+      jobs.addAll(found);
+      return false;
+    }
+    if (room == 0) {
+      return true;
+    }
+    // The store sorts by the indexed property only, so the jobs sharing
+    // the value of the last one on the page may have been cut anywhere:
+    // take all of them and order them by jobId.
+    Long boundary = getSortValue(found.get(room - 1));
+    for (CrawlJob job : found) {
+      if (!getSortValue(job).equals(boundary)) {
+        jobs.add(job);
+      } else {
+        break;
+      }
+    }
+    List<CrawlJob> ties = new ArrayList<>();
+    repo.find(and(filter, eq(sortField, boundary))).forEach(ties::add);
+    ties.sort(getComparator());
+    for (CrawlJob job : ties) {
+      if (jobs.size() >= max) {
+        break;
+      }
+      jobs.add(job);
+    }
+    return true;
+  }
+
+  /**
+   * Adds to a page the jobs without a value of the sorted property which
+   * follow a position, until the page is full.
+   *
+   * @return true if there are more such jobs than fitted on the page.
+   */
+  private boolean findUnvalued(ObjectRepository<CrawlJob> repo, Position after,
+                               int max, List<CrawlJob> jobs) {
+    int room = max - jobs.size();
+    SortOrder order = descending ? SortOrder.Descending : SortOrder.Ascending;
+    List<CrawlJob> found = new ArrayList<>();
+    repo.find(getFilterAfter(false, after),
+        FindOptions.sort(JOB_ID, order).thenLimit(0, room + 1))
+      .forEach(found::add);
+    found.sort(getComparator());
+    jobs.addAll(found.subList(0, Math.min(room, found.size())));
+    return found.size() > room;
+  }
+
+  /**
+   * Provides the continuation token of a position in this listing.  A
+   * position among the jobs without a value of the sorted property has
+   * the value {@value #NO_VALUE}.
+   */
+  String toToken(Position position) {
+    String value = position.getValue() == null ? NO_VALUE : position.getValue().toString();
+    String token = getSort() + TOKEN_SEPARATOR + value + TOKEN_SEPARATOR + position.getJobId();
+    return Base64.getUrlEncoder().withoutPadding()
+      .encodeToString(token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Provides the position encoded in a continuation token of this listing.
+   *
+   * @throws IllegalArgumentException if the token is malformed or was issued
+   *                                  for a different sort.
+   */
+  Position parseToken(String token) {
+    String errMsg = "Invalid continuation token '" + token + "'";
+    String[] items;
+    try {
+      items = new String(Base64.getUrlDecoder().decode(token.trim()),
+        StandardCharsets.UTF_8).split(TOKEN_SEPARATOR, 3);
+    } catch (IllegalArgumentException iae) {
+      log.warn(errMsg, iae);
+      throw new IllegalArgumentException(errMsg, iae);
+    }
+    if (items.length != 3 || items[2].isEmpty()) {
+      log.warn(errMsg);
+      throw new IllegalArgumentException(errMsg);
+    }
+    if (!items[0].equals(getSort())) {
+      errMsg = "Continuation token sorted by '" + items[0] + "' used with sort '"
+        + getSort() + "'";
+      log.warn(errMsg);
+      throw new IllegalArgumentException(errMsg);
+    }
+    if (items[1].equals(NO_VALUE)) {
+      return new Position(null, items[2]);
+    }
+    try {
+      return new Position(Long.parseLong(items[1]), items[2]);
+    } catch (NumberFormatException nfe) {
+      log.warn(errMsg, nfe);
+      throw new IllegalArgumentException(errMsg, nfe);
+    }
+  }
+
+  private static boolean isEmpty(String s) {
+    return s == null || s.trim().isEmpty();
+  }
+
+  private static String emptyToNull(String s) {
+    return isEmpty(s) ? null : s.trim();
+  }
+
+  @Override
+  public String toString() {
+    return "[JobQuery statusCodes=" + statusCodes + ", crawlerId=" + crawlerId
+      + ", auId=" + auId + ", crawlKind=" + crawlKind + ", since=" + since
+      + ", until=" + until + ", sort=" + getSort() + "]";
+  }
+
+  /**
+   * The sort key of the last job served.  The value is null if the job has
+   * no value of the sorted property.
+   */
+  static class Position {
+    private final Long value;
+    private final String jobId;
+
+    Position(Long value, String jobId) {
+      this.value = value;
+      this.jobId = jobId;
+    }
+
+    Long getValue() {
+      return value;
+    }
+
+    String getJobId() {
+      return jobId;
+    }
+
+    @Override
+    public String toString() {
+      return "[Position value=" + value + ", jobId=" + jobId + "]";
+    }
+  }
+
+  /**
+   * A page of jobs, with the number of jobs in the whole listing and the
+   * continuation token of the next page, null if this is the last.
+   */
+  static class Page {
+    private final List<CrawlJob> jobs;
+    private final int totalCount;
+    private final String nextToken;
+
+    Page(List<CrawlJob> jobs, int totalCount, String nextToken) {
+      this.jobs = jobs;
+      this.totalCount = totalCount;
+      this.nextToken = nextToken;
+    }
+
+    List<CrawlJob> getJobs() {
+      return jobs;
+    }
+
+    int getTotalCount() {
+      return totalCount;
+    }
+
+    String getNextToken() {
+      return nextToken;
+    }
+  }
+}
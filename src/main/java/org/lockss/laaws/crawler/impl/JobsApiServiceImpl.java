@@ -43,7 +43,6 @@ import java.util.List;
 import java.util.Map;
 import jakarta.servlet.http.HttpServletRequest;
 import javax.ws.rs.NotFoundException;
-import org.lockss.app.LockssDaemon;
 import org.lockss.config.ConfigManager;
 import org.lockss.config.Configuration;
 import org.lockss.crawler.CrawlManagerImpl;
@@ -54,7 +53,6 @@ import org.lockss.laaws.crawler.api.JobsApiDelegate;
 import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl;
 import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawler;
 import org.lockss.laaws.crawler.model.JobPager;
-import org.lockss.laaws.crawler.utils.ContinuationToken;
 import org.lockss.log.L4JLogger;
 import org.lockss.plugin.ArchivalUnit;
 import org.lockss.spring.base.BaseSpringApiServiceImpl;
@@ -66,6 +64,7 @@ import org.lockss.util.rest.crawler.JobStatus;
 import org.lockss.util.rest.crawler.JobStatus.StatusCodeEnum;
 import org.lockss.util.time.TimeBase;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -91,13 +90,20 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
   }
 
   /**
-   * Get all crawl jobs
+   * Get all crawl jobs, or those selected by the filters, or the requested
+   * properties of them.
    */
   @Override
   public ResponseEntity<JobPager> getJobs(Integer limit,
-                                   String continuationToken) {
+                                          String continuationToken, String fields, String view,
+                                          String status, String crawlerId, String auId,
+                                          String crawlKind, Long since, Long until, String sort) {
     log.debug2("limit = {}", limit);
     log.debug2("continuationToken = {}", continuationToken);
+    log.debug2("fields = {}, view = {}", fields, view);
+    log.debug2("status = {}, crawlerId = {}, auId = {}, crawlKind = {}",
+      status, crawlerId, auId, crawlKind);
+    log.debug2("since = {}, until = {}, sort = {}", since, until, sort);
 
     try {
       // Check whether the service has not been fully initialized.
@@ -108,9 +114,37 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
         return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
       }
 
-      JobPager pager = getJobsPager(limit, continuationToken);
+      StatusProjection projection = StatusProjection.forJobs(fields, view);
+      log.trace("projection = {}", projection);
+
+      JobQuery query = JobQuery.from(status, crawlerId, auId, crawlKind, since, until, sort);
+      if (query == null) {
+        query = JobQuery.all();
+      }
+      log.trace("query = {}", query);
+
+      // Check whether the client already has this version of the list.  If
+      // neither the crawls nor the store have changed since its tag was
+      // issued, the store was brought up to date then.
+      List<CrawlerStatus> current =
+        ApiUtils.getLockssCrawlManager().getStatus().getCrawlerStatusList();
+      StatusVersions versions = ApiUtils.getStatusVersions();
+      String etag = versions.getJobListETag(current);
+      if (StatusVersions.matches(getIfNoneMatch(), etag)) {
+        // Yes: Don't build the page.
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+      }
+
+      // The listing is filtered in the job store, so bring it up to date
+      // with the crawls' live status, and record in it the crawls which
+      // weren't requested through this service.
+      getPluggableCrawlManager().syncCrawls(current);
+      etag = versions.getJobListETag(current);
+
+      JobPager pager = getJobsPager(limit, continuationToken, projection, query);
       log.debug2("pager = {}", pager);
-      return new ResponseEntity<>(pager, HttpStatus.OK);
+
+      return ResponseEntity.ok().eTag(etag).body(pager);
     }
     catch (IllegalArgumentException iae) {
       String message = "Cannot get crawls with limit = " + limit + ", continuationToken = " + continuationToken;
@@ -263,9 +297,17 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
         return new ResponseEntity<>(crawlJob, HttpStatus.SERVICE_UNAVAILABLE);
       }
       CrawlerStatus crawlerStatus = getCrawlerStatus(jobId);
+
+      // Check whether the client already has this version of the job.
+      String etag = ApiUtils.getStatusVersions().getETag(crawlerStatus);
+      if (StatusVersions.matches(getIfNoneMatch(), etag)) {
+        // Yes: Don't build it.
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+      }
+
       crawlJob = makeCrawlJob(crawlerStatus);
       log.debug2("CrawlJob = {}", crawlJob);
-      return new ResponseEntity<>(crawlJob, HttpStatus.OK);
+      return ResponseEntity.ok().eTag(etag).body(crawlJob);
     }
     catch (NotFoundException nfe) {
       String message = "No crawl found for jobId '" + jobId + "'.";
@@ -343,109 +385,41 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
 
 
   /**
-   * Provides a pageful of jobs.
+   * Provides the jobs selected by a query, from the persistent job store,
+   * in a paginated form.
    *
    * @param requestLimit      An Integer with the request maximum number of jobs per page.
    * @param continuationToken A String with the continuation token provided in the request.
-   * @return a UrlPager with the pageful of jobs.
+   * @param projection        A StatusProjection with the properties of each job to build.
+   * @param query             A JobQuery with the filters and sort of the listing.
+   * @return a JobPager with the pageful of jobs.
    */
-  JobPager getJobsPager(Integer requestLimit, String continuationToken) {
+  JobPager getJobsPager(Integer requestLimit, String continuationToken,
+                        StatusProjection projection, JobQuery query) {
     log.debug2("requestLimit = {}", requestLimit);
     log.debug2("continuationToken = {}", continuationToken);
-
-    // The continuation token timestamp.
-    long timeStamp = LockssDaemon.getLockssDaemon().getStartDate().getTime();
-    log.trace("timeStamp = {}", timeStamp);
+    log.debug2("query = {}", query);
 
     // Validate the requested limit.
     Integer validLimit = validateLimit(requestLimit);
     log.trace("validLimit = {}", validLimit);
 
-    // The last job, of the list of all the job, to skip.
-    long lastJobToSkip = -1;
-
-    // Check whether a continuation token has been received.
-    if (continuationToken != null) {
-      // Yes.
-      ContinuationToken requestToken = new ContinuationToken(continuationToken);
-      log.trace("requestToken = {}", requestToken);
-
-      // Validate the continuation token.
-      validateContinuationToken(timeStamp, requestToken);
-
-      // Get the last previously served job index.
-      Long previouslastJobIndex = requestToken.getLastElement();
-      log.trace("previouslastJobIndex = {}", previouslastJobIndex);
+    JobQuery.Page page = query.execute(getPluggableCrawlManager().getPluggableCrawls(),
+      continuationToken, validLimit);
 
-      if (previouslastJobIndex != null) {
-        lastJobToSkip = previouslastJobIndex;
-      }
+    List<CrawlJob> outputJobs = new ArrayList<>(page.getJobs().size());
+    for (CrawlJob stored : page.getJobs()) {
+      // Running crawls are reported from their live status.
+      CrawlerStatus crawlerStatus =
+        getLockssCrawlManager().getStatus().getCrawlerStatus(stored.getJobId());
+      outputJobs.add(crawlerStatus == null
+        ? projectCrawlJob(stored, projection)
+        : makeCrawlJob(crawlerStatus, projection));
     }
 
-    // Get the collection of all jobs.
-    // This needs to be replaced with a CrawlJob map for crawl manager jobs
-    List<CrawlerStatus> allJobs = ApiUtils.getLockssCrawlManager().getStatus().getCrawlerStatusList();
-    log.trace("allJobs = {}", allJobs);
-
-    // Get the size of the collection of all jobs.
-    int listSize = allJobs.size();
-    log.trace("listSize = {}", listSize);
-
     JobPager pager = new JobPager();
-    Long lastItem = null;
-
-    // Check whether there is anything to provide,
-    if (listSize > 0) {
-      // Yes: Validate the count of jobs to skip.
-      if (lastJobToSkip + 1 >= listSize) {
-        String errMsg =
-          "Invalid pagination request: startAt = "
-            + (lastJobToSkip + 1)
-            + ", Total = "
-            + listSize;
-        log.warn(errMsg);
-        throw new IllegalArgumentException(errMsg);
-      }
-
-      List<CrawlJob> outputJobs = new ArrayList<>();
-
-      // Get the number of jobs to return.
-      int outputSize = (int) (listSize - (lastJobToSkip + 1));
-
-      if (validLimit != null && validLimit > 0 && validLimit < outputSize) {
-        outputSize = validLimit;
-      }
-
-      log.trace("outputSize = {}", outputSize);
-
-      int idx = 0;
-
-      // Loop through all the jobs until the output size has been reached.
-      while (outputJobs.size() < outputSize) {
-        log.trace("idx = {}", idx);
-
-        // Check whether this job does not need to be skipped.
-        if (idx > lastJobToSkip) {
-          // Yes: Get it.
-          CrawlerStatus crawlerStatus = allJobs.get(idx);
-          log.trace("crawlerStatus = {}", crawlerStatus);
-          // Add it to the output collection.
-          outputJobs.add(makeCrawlJob(crawlerStatus));
-
-          // Record that it is the last one so far.
-          lastItem = (long) idx;
-        }
-
-        // Point to the next job.
-        idx++;
-      }
-
-      // Add the output URLs to the pagination.
-      pager.setJobs(outputJobs);
-    }
-
-    // Set the pagination information.
-    pager.setPageInfo(getPageInfo(validLimit, lastItem, listSize, timeStamp));
+    pager.setJobs(outputJobs);
+    pager.setPageInfo(getPageInfo(validLimit, page.getTotalCount(), page.getNextToken()));
 
     log.debug2("pager = {}", pager);
     return pager;
@@ -550,7 +524,7 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
     }
     crawlJob.jobStatus(makeJobStatus(lockssCrawlStatus));
     log.debug2("result = {}", crawlJob);
-    getPluggableCrawlManager().addCrawlJob(crawlJob);
+    getPluggableCrawlManager().saveCrawlJob(crawlJob);
     return HttpStatus.ACCEPTED;
   }
 
@@ -568,9 +542,10 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
       return HttpStatus.BAD_REQUEST;
     }
     Map<String, Object> extraData = crawlJob.getCrawlDesc().getExtraCrawlerData();
+    crawlJob.requestDate(TimeBase.nowMs());
     CrawlerStatus status = cmi.startRepair(au, urls, extraData);
     updateCrawlJob(crawlJob,status);
-    getPluggableCrawlManager().addCrawlJob(crawlJob);
+    getPluggableCrawlManager().saveCrawlJob(crawlJob);
     return HttpStatus.ACCEPTED;
   }
 
@@ -628,7 +603,7 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
       }
       log.debug2("result = {}", crawlJob);
       pcMgr.addCrawlJob(crawlJob);
-      getLockssCrawlManager().getStatus().addCrawlStatus(crawlerStatus);
+      pcMgr.addCrawlStatus(crawlerStatus);
       return HttpStatus.ACCEPTED;
     }
     catch (IllegalArgumentException iae) {
@@ -653,6 +628,66 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
     return crawlJob;
   }
 
+  /**
+   * Provides the requested properties of the CrawlJob of a crawl.  The
+   * properties which aren't requested aren't built, and the job record is
+   * read only if the crawlDesc or requestDate is requested.
+   */
+  static CrawlJob makeCrawlJob(CrawlerStatus cs, StatusProjection projection) {
+    if (projection == null || projection.isFull()) {
+      return makeCrawlJob(cs);
+    }
+
+    CrawlJob crawlJob = new StatusProjection.ProjectedCrawlJob();
+    if (projection.includes("crawlDesc") || projection.includes("requestDate")) {
+      CrawlJob stored = getPluggableCrawlManager().getCrawlJob(cs.getKey());
+      CrawlDesc desc = stored == null || stored.getCrawlDesc() == null
+        ? makeCrawlDesc(cs) : stored.getCrawlDesc();
+      if (projection.includes("crawlDesc")) {
+        if (projection.isSummary()) {
+          desc = new StatusProjection.ProjectedCrawlDesc().auId(desc.getAuId()).crawlerId(desc.getCrawlerId())
+            .crawlKind(desc.getCrawlKind());
+        }
+        crawlJob.crawlDesc(desc);
+      }
+      if (projection.includes("requestDate") && stored != null) {
+        crawlJob.requestDate(stored.getRequestDate());
+      }
+    }
+    if (projection.includes("jobId")) crawlJob.jobId(cs.getKey());
+    if (projection.includes("jobStatus")) crawlJob.jobStatus(makeJobStatus(cs));
+    if (projection.includes("startDate")) crawlJob.startDate(cs.getStartTime());
+    if (projection.includes("endDate")) crawlJob.endDate(cs.getEndTime());
+    if (projection.includes("result")) crawlJob.result(ApiUtils.makeCrawlLink(cs.getKey()));
+    return crawlJob;
+  }
+
+  /**
+   * Provides the requested properties of a stored CrawlJob.
+   */
+  static CrawlJob projectCrawlJob(CrawlJob stored, StatusProjection projection) {
+    if (projection == null || projection.isFull()) {
+      return stored;
+    }
+
+    CrawlJob crawlJob = new StatusProjection.ProjectedCrawlJob();
+    CrawlDesc desc = stored.getCrawlDesc();
+    if (projection.includes("crawlDesc") && desc != null) {
+      if (projection.isSummary()) {
+        desc = new StatusProjection.ProjectedCrawlDesc().auId(desc.getAuId()).crawlerId(desc.getCrawlerId())
+          .crawlKind(desc.getCrawlKind());
+      }
+      crawlJob.crawlDesc(desc);
+    }
+    if (projection.includes("requestDate")) crawlJob.requestDate(stored.getRequestDate());
+    if (projection.includes("jobId")) crawlJob.jobId(stored.getJobId());
+    if (projection.includes("jobStatus")) crawlJob.jobStatus(stored.getJobStatus());
+    if (projection.includes("startDate")) crawlJob.startDate(stored.getStartDate());
+    if (projection.includes("endDate")) crawlJob.endDate(stored.getEndDate());
+    if (projection.includes("result")) crawlJob.result(stored.getResult());
+    return crawlJob;
+  }
+
   static void updateCrawlJob(CrawlJob crawlJob, CrawlerStatus cs) {
     if(crawlJob.getCrawlDesc() == null) {
       crawlJob.setCrawlDesc(makeCrawlDesc(cs));
@@ -665,6 +700,10 @@ public class JobsApiServiceImpl extends BaseSpringApiServiceImpl implements Jobs
   }
 
 
+  private String getIfNoneMatch() {
+    return request == null ? null : request.getHeader(HttpHeaders.IF_NONE_MATCH);
+  }
+
   private void logCrawlError(String message, CrawlJob crawlJob) {
     logCrawlError(message, crawlJob, null);
   }
@@ -38,8 +38,14 @@ import org.lockss.app.ConfigurableManager;
 import org.lockss.config.Configuration;
 import org.lockss.config.Configuration.Differences;
 import org.lockss.crawler.*;
+import org.lockss.laaws.crawler.impl.pluggable.CrawlWorkspaceManager;
+import org.lockss.laaws.crawler.impl.pluggable.DedupManifestCache;
+import org.lockss.laaws.crawler.impl.pluggable.IngestStatusAccessor;
 import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl.PluggableCrawlerStatus;
 import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawler;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIngester;
 import org.lockss.laaws.crawler.model.CrawlerConfig;
 import org.lockss.log.L4JLogger;
 import org.lockss.plugin.ArchivalUnit;
@@ -50,15 +56,21 @@ import org.lockss.util.ListUtil;
 import org.lockss.util.rest.crawler.CrawlDesc;
 import org.lockss.util.rest.crawler.CrawlJob;
 import org.lockss.util.rest.crawler.JobStatus;
+import org.lockss.util.time.TimeBase;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 import static org.dizitart.no2.objects.filters.ObjectFilters.eq;
+import static org.dizitart.no2.objects.filters.ObjectFilters.gte;
+import static org.dizitart.no2.objects.filters.ObjectFilters.not;
 import static org.lockss.util.rest.crawler.CrawlDesc.CLASSIC_CRAWLER_ID;
 
 /**
@@ -84,11 +96,22 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
   public static final String PARAM_REQUEUE_ON_RESTART = PREFIX + "requeueOnRestart";
 
   public static boolean DEFAULT_REQUEUE_ON_RESTART = false;
+
+  /**
+   * The maximum number of WARC files being stored at once by all pluggable crawlers.
+   */
+  public static final String PARAM_MAX_CONCURRENT_INGESTS = PREFIX + "maxConcurrentIngests";
+  public static final int DEFAULT_MAX_CONCURRENT_INGESTS = 4;
   /**
    * The constant DB_FILENAME.
    */
   public static final String DB_FILENAME = "crawlerServiceDb";
 
+  /**
+   * The number of jobs whose stored status is remembered.
+   */
+  static final int MAX_KNOWN_JOB_IDS = 10000;
+
 
   /**
    * The constant CRAWLER_IDS.
@@ -152,6 +175,22 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
   private boolean starting;
   List<CrawlJob> interruptedCrawls = new ArrayList<>();
   private boolean requeueOnStart;
+  private final CrawlWorkspaceManager workspaceManager = new CrawlWorkspaceManager();
+  private final DedupManifestCache dedupManifestCache = new DedupManifestCache();
+  private final WarcIngester.Permits ingestPermits =
+    new WarcIngester.Permits(DEFAULT_MAX_CONCURRENT_INGESTS);
+  private final IngestMetrics ingestMetrics = new IngestMetrics();
+  private final StatusVersions statusVersions = new StatusVersions(ingestMetrics);
+  private boolean statusRegistered = false;
+  private final List<CrawlStatusListener> statusListeners = new CopyOnWriteArrayList<>();
+  // The stored status of recent jobs known to be in the store, by job id.
+  private final Map<String, String> knownJobs =
+    new LinkedHashMap<String, String>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > MAX_KNOWN_JOB_IDS;
+      }
+    };
 
 
   public void startService() {
@@ -172,20 +211,31 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
       }
     };
     getLockssCrawlManager().registerCrawlEventHandler(crawlEventHandler);
+    dedupManifestCache.setManifestDir(getDaemon().getConfigManager()
+        .findConfiguredDataDir(DedupManifestCache.PARAM_MANIFEST_DIR,
+            DedupManifestCache.DEFAULT_MANIFEST_DIR));
+    getDaemon().getStatusService().registerStatusAccessor(IngestStatusAccessor.TABLE_NAME,
+        new IngestStatusAccessor(ingestMetrics));
+    statusRegistered = true;
 
     // initialize the database
     try {
       initDb(new File(dbDir, DB_FILENAME));
       log.info("crawl manager db inited! Checking for interrupted crawls.");
       Cursor<CrawlJob> cursor = pluggableCrawls.find();
+      List<String> resumableJobIds = new ArrayList<>();
       for (CrawlJob job : cursor) {
         JobStatus js = job.getJobStatus();
         // if the job never ended - we need to send it back to the crawler.
         if (js.getStatusCode() == JobStatus.StatusCodeEnum.QUEUED ||
             js.getStatusCode() == JobStatus.StatusCodeEnum.ACTIVE) {
           interruptedCrawls.add(job);
+          resumableJobIds.add(job.getJobId());
         }
       }
+      // no crawls are running yet so anything left in the workspaces is
+      // orphaned, unless it belongs to a crawl we are about to resume.
+      workspaceManager.sweep(requeueOnStart ? resumableJobIds : Collections.emptyList());
       if(requeueOnStart) {
         log.info("Requeueing crawls from previous session.");
         restartCrawls();
@@ -204,6 +254,10 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
 
   public void stopService() {
     shuttingDown = true;
+    if (statusRegistered) {
+      getDaemon().getStatusService().unregisterStatusAccessor(IngestStatusAccessor.TABLE_NAME);
+      statusRegistered = false;
+    }
     // call shutdown on all pluggable crawlers.
     for (PluggableCrawler crawler : pluggableCrawlers.values()) {
       crawler.shutdown();
@@ -254,7 +308,10 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
       }
       crawlerConfigMap = updateConfigMap(newConfig);
       requeueOnStart = newConfig.getBoolean(PARAM_REQUEUE_ON_RESTART,DEFAULT_REQUEUE_ON_RESTART);
-
+      workspaceManager.setConfig(newConfig);
+      dedupManifestCache.setConfig(newConfig);
+      ingestPermits.setMaxPermits(newConfig.getInt(PARAM_MAX_CONCURRENT_INGESTS,
+          DEFAULT_MAX_CONCURRENT_INGESTS));
     }
   }
   public int getMaxRetries() {
@@ -277,6 +334,107 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
     return fetchDelay;
   }
 
+  /**
+   * Gets the cache of per-AU dedup manifests.
+   *
+   * @return the DedupManifestCache
+   */
+  public DedupManifestCache getDedupManifestCache() {
+    return dedupManifestCache;
+  }
+
+  /**
+   * Gets the permits which limit concurrent WARC ingest across all crawlers.
+   *
+   * @return the ingest Permits
+   */
+  public WarcIngester.Permits getIngestPermits() {
+    return ingestPermits;
+  }
+
+  /**
+   * Return the statistics of WARC files stored by pluggable crawlers.
+   */
+  public IngestMetrics getIngestMetrics() {
+    return ingestMetrics;
+  }
+
+  /**
+   * Return the version counters of the crawls, from which the status
+   * endpoints derive their entity tags.
+   */
+  public StatusVersions getStatusVersions() {
+    return statusVersions;
+  }
+
+  /**
+   * Notified when the status of a crawl changes.
+   */
+  public interface CrawlStatusListener {
+    void crawlStatusChanged(CrawlerStatus status);
+  }
+
+  /**
+   * Register a listener to be told of changes to the status of crawls: the
+   * progress of pluggable crawls as it is reported, and the start and end of
+   * every crawl.
+   *
+   * @param listener the listener.
+   */
+  public void registerStatusListener(CrawlStatusListener listener) {
+    statusListeners.add(listener);
+  }
+
+  public void unregisterStatusListener(CrawlStatusListener listener) {
+    statusListeners.remove(listener);
+  }
+
+  /**
+   * Tell the listeners that the status of a crawl has changed.
+   *
+   * @param status the status of the crawl.
+   */
+  public void notifyStatusChanged(CrawlerStatus status) {
+    for (CrawlStatusListener listener : statusListeners) {
+      try {
+        listener.crawlStatusChanged(status);
+      }
+      catch (RuntimeException e) {
+        log.warn("Crawl status listener {} failed", listener, e);
+      }
+    }
+  }
+
+  /**
+   * Add the status of a pluggable crawl to the crawl manager's, and have it
+   * report its changes to the status listeners.
+   *
+   * @param status the status of the crawl.
+   */
+  public void addCrawlStatus(CrawlerStatus status) {
+    if (status instanceof PluggableCrawlerStatus) {
+      ((PluggableCrawlerStatus) status).setStatusListener(this::notifyStatusChanged);
+    }
+    getLockssCrawlManager().getStatus().addCrawlStatus(status);
+    notifyStatusChanged(status);
+  }
+
+  /**
+   * Returns true once the service has begun to shut down.
+   */
+  public boolean isShuttingDown() {
+    return shuttingDown;
+  }
+
+  /**
+   * Gets the manager of the crawl workspaces.
+   *
+   * @return the CrawlWorkspaceManager
+   */
+  public CrawlWorkspaceManager getWorkspaceManager() {
+    return workspaceManager;
+  }
+
   /**
    * Gets crawler ids.
    *
@@ -369,6 +527,83 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
     }
     pluggableCrawls.insert(crawlJob);
     crawlServiceDb.commit();
+    statusVersions.bumpStore();
+    statusVersions.bump(jobId);
+  }
+
+  /**
+   * Insert a crawl Job into the persistent store, or replace the one there
+   * if it has already been recorded by {@link #syncCrawls(List)}.
+   *
+   * @param crawlJob the crawl job.
+   */
+  public synchronized void saveCrawlJob(CrawlJob crawlJob) {
+    if (getCrawlJob(crawlJob.getJobId()) == null) {
+      addCrawlJob(crawlJob);
+    } else {
+      updateCrawlJob(crawlJob);
+    }
+    knownJobs.put(crawlJob.getJobId(), getStatusKey(crawlJob));
+  }
+
+  /**
+   * Bring the persistent store up to date with the crawls known to the
+   * crawl manager, so listings filtered by status or date agree with the
+   * live status they are rendered from.  Crawls which have no job there,
+   * such as those started by the crawl starter, are recorded so they are
+   * listed with the others and outlive a restart, and jobs whose status,
+   * start or end has changed since they were stored are updated; classic
+   * crawls otherwise only update theirs when they complete.  The stored
+   * status of each job is remembered, so the store is only consulted about
+   * crawls which have changed.
+   *
+   * @param statuses the statuses of the crawls known to the crawl manager.
+   */
+  public synchronized void syncCrawls(List<CrawlerStatus> statuses) {
+    for (CrawlerStatus status : statuses) {
+      String jobId = status.getKey();
+      String live = getStatusKey(status);
+      if (live.equals(knownJobs.get(jobId))) {
+        continue;
+      }
+      CrawlJob job = getCrawlJob(jobId);
+      if (job == null) {
+        job = new CrawlJob();
+        JobsApiServiceImpl.updateCrawlJob(job, status);
+        job.requestDate(status.getStartTime() > 0 ? status.getStartTime() : TimeBase.nowMs());
+        log.debug2("Adopting crawl {}", jobId);
+        addCrawlJob(job);
+      }
+      else if (!live.equals(getStatusKey(job))) {
+        JobsApiServiceImpl.updateCrawlJob(job, status);
+        log.debug2("Updating stored status of crawl {}", jobId);
+        updateCrawlJob(job);
+      }
+      knownJobs.put(jobId, live);
+    }
+  }
+
+  /**
+   * Provides the properties of a stored job which listings are filtered
+   * and sorted by, as a String.
+   */
+  static String getStatusKey(CrawlJob job) {
+    JobStatus js = job.getJobStatus();
+    return getStatusKey(js == null ? null : js.getStatusCode(),
+      job.getStartDate(), job.getEndDate());
+  }
+
+  /**
+   * Provides the properties of a crawl's live status which listings are
+   * filtered and sorted by, as they would be stored.
+   */
+  static String getStatusKey(CrawlerStatus status) {
+    return getStatusKey(ApiUtils.makeJobStatus(status).getStatusCode(),
+      status.getStartTime(), status.getEndTime());
+  }
+
+  private static String getStatusKey(JobStatus.StatusCodeEnum code, Long start, Long end) {
+    return code + "/" + start + "/" + end;
   }
 
   /**
@@ -389,6 +624,8 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
       log.error("Attempt to update db for with crawljob {} failed",jobId);
     }
     crawlServiceDb.commit();
+    statusVersions.bumpStore();
+    statusVersions.bump(jobId);
   }
 
   /**
@@ -400,9 +637,19 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
       PluggableCrawler crawler = pluggableCrawlers.get(desc.getCrawlerId());
       if (crawler != null && crawler.isCrawlerEnabled()) {
         ArchivalUnit au = getLockssPluginMgr().getAuFromId(desc.getAuId());
+        if (workspaceManager.isRetained(job.getJobId())) {
+          log.info("Resuming crawl {} from its saved workspace", job.getJobId());
+        }
+        // the job keeps its id so it picks up the workspace it left behind.
         PluggableCrawl crawl = crawler.requestCrawl(au,job);
+        if (crawl != null) {
+          addCrawlStatus(crawl.getCrawlerStatus());
+          pluggableCrawls.update((eq("jobId", job.getJobId())), job);
+        }
       }
     }
+    crawlServiceDb.commit();
+    statusVersions.bumpStore();
   }
   public void markInterruptedCrawls() {
     for (CrawlJob job : interruptedCrawls) {
@@ -411,6 +658,7 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
         pluggableCrawls.update((eq("jobId", job.getJobId())),job);
     }
     crawlServiceDb.commit();
+    statusVersions.bumpStore();
   }
   /**
    * Delete all crawls.
@@ -419,6 +667,7 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
     for (PluggableCrawler crawler : pluggableCrawlers.values()) {
       crawler.deleteAllCrawls();
     }
+    statusVersions.bumpStore();
   }
 
   /**
@@ -479,19 +728,30 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
   }
 
   /**
-   * handle the complete crawl.
+   * handle the complete crawl.  A crawl which has no job, such as one
+   * started by the crawl starter, is recorded in the store, so the store is
+   * kept up to date by crawl events rather than by the listings read from
+   * it.
    * @param event the crawl complete event.
    */
   public void handleCrawlComplete(CrawlEvent event) {
     String key = event.getCrawlerId();
-    CrawlJob job = getCrawlJob(key);
-    if(job != null) {
-      CrawlerStatus status = ApiUtils.getCrawlerStatus(key);
-      JobsApiServiceImpl.updateCrawlJob(job, status);
-      updateCrawlJob(job);
+    CrawlerStatus status = getLockssCrawlManager().getStatus().getCrawlerStatus(key);
+    if (status != null) {
+      syncCrawls(Collections.singletonList(status));
+      notifyStatusChanged(status);
     }
   }
 
+  /**
+   * handle the start of a crawl, so the stored job is found by status and
+   * start date while the crawl runs.
+   * @param status the status of the started crawl.
+   */
+  public void handleCrawlStarted(CrawlerStatus status) {
+    handleCrawlComplete(status);
+  }
+
   /**
    * handle the complete crawl.
    * @param status the status of the completed crawl.
@@ -503,6 +763,7 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
       JobsApiServiceImpl.updateCrawlJob(job,status);
       updateCrawlJob(job);
     }
+    notifyStatusChanged(status);
   }
 
   /**
@@ -579,6 +840,34 @@ public class PluggableCrawlManager extends BaseLockssDaemonManager implements Co
       pluggableCrawls.createIndex("jobId", IndexOptions.indexOptions(IndexType.Unique));
     if(!pluggableCrawls.hasIndex("crawlDesc.auId"))
       pluggableCrawls.createIndex("crawlDesc.auId", IndexOptions.indexOptions(IndexType.NonUnique));
+    // create the indexes used to filter and sort job listings.
+    for (String field : JobQuery.INDEXED_FIELDS) {
+      if (!pluggableCrawls.hasIndex(field))
+        pluggableCrawls.createIndex(field, IndexOptions.indexOptions(IndexType.NonUnique));
+    }
+    backfillRequestDates();
+  }
+
+  /**
+   * Give the jobs stored before request dates were recorded the date they
+   * started, or 0 if they never did, so they are found by listings, which
+   * are filtered and sorted by request date.
+   */
+  void backfillRequestDates() {
+    List<CrawlJob> legacy = new ArrayList<>();
+    pluggableCrawls.find(not(gte(JobQuery.REQUEST_DATE, Long.MIN_VALUE)))
+      .forEach(legacy::add);
+    if (legacy.isEmpty()) {
+      return;
+    }
+    log.info("Recording the request dates of {} stored jobs", legacy.size());
+    for (CrawlJob job : legacy) {
+      Long start = job.getStartDate();
+      job.requestDate(start != null && start > 0 ? start : 0L);
+      pluggableCrawls.update(eq("jobId", job.getJobId()), job);
+    }
+    crawlServiceDb.commit();
+    statusVersions.bumpStore();
   }
 
   Nitrite getCrawlServiceDb() {return crawlServiceDb;}
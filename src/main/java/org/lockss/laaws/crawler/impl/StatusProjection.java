@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.lockss.laaws.crawler.model.CrawlStatus;
+import org.lockss.util.rest.crawler.CrawlDesc;
+import org.lockss.util.rest.crawler.CrawlJob;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The properties of a crawlStatus or crawlJob requested by the
+ * {@code fields} and {@code view} parameters of {@code GET /crawls} and
+ * {@code GET /jobs}.  The properties which aren't requested aren't
+ * serialized: a projected crawlStatus, crawlJob or crawlDesc is built as one
+ * of the subclasses below, with only the requested properties set, and its
+ * null properties are left out of its JSON.
+ */
+public class StatusProjection {
+  public static final String VIEW_FULL = "full";
+  public static final String VIEW_SUMMARY = "summary";
+
+  /**
+   * The properties of a crawlStatus.
+   */
+  static final Set<String> CRAWL_FIELDS = setOf("jobId", "auId", "auName",
+    "type", "startUrls", "priority", "crawlerId", "sources", "depth",
+    "refetchDepth", "proxy", "startTime", "endTime", "jobStatus", "isWaiting",
+    "isActive", "isError", "bytesFetched", "fetchedItems", "excludedItems",
+    "notModifiedItems", "parsedItems", "pendingItems", "errors", "mimeTypes",
+    "ingestStats");
+  static final Set<String> CRAWL_SUMMARY = setOf("jobId", "auId", "crawlerId",
+    "type", "jobStatus", "startTime", "endTime", "bytesFetched");
+
+  /**
+   * The properties of a crawlJob.  The summary's crawlDesc has only the
+   * auId, crawlerId and crawlKind.
+   */
+  static final Set<String> JOB_FIELDS = setOf("crawlDesc", "requestDate",
+    "jobId", "jobStatus", "startDate", "endDate", "result");
+  static final Set<String> JOB_SUMMARY = setOf("jobId", "jobStatus",
+    "requestDate", "startDate", "endDate", "crawlDesc");
+
+  private final Set<String> fields;
+  private final boolean summary;
+
+  private StatusProjection(Set<String> fields, boolean summary) {
+    this.fields = fields;
+    this.summary = summary;
+  }
+
+  /**
+   * Provides the projection of crawlStatus requested by a listing.
+   *
+   * @param fields A String with a comma-separated list of properties, or null.
+   * @param view   A String with the view, or null.
+   * @return a StatusProjection.
+   * @throws IllegalArgumentException if a property or the view is unknown.
+   */
+  public static StatusProjection forCrawls(String fields, String view) {
+    return make(fields, view, CRAWL_FIELDS, CRAWL_SUMMARY);
+  }
+
+  /**
+   * Provides the projection of crawlJob requested by a listing.
+   *
+   * @param fields A String with a comma-separated list of properties, or null.
+   * @param view   A String with the view, or null.
+   * @return a StatusProjection.
+   * @throws IllegalArgumentException if a property or the view is unknown.
+   */
+  public static StatusProjection forJobs(String fields, String view) {
+    return make(fields, view, JOB_FIELDS, JOB_SUMMARY);
+  }
+
+  private static StatusProjection make(String fields, String view,
+                                       Set<String> all, Set<String> summaryFields) {
+    boolean summary;
+    if (view == null || view.isEmpty() || view.equals(VIEW_FULL)) {
+      summary = false;
+    } else if (view.equals(VIEW_SUMMARY)) {
+      summary = true;
+    } else {
+      throw new IllegalArgumentException("Invalid view: '" + view + "'");
+    }
+
+    Set<String> selected = new LinkedHashSet<>();
+    if (summary) {
+      selected.addAll(summaryFields);
+    }
+    if (fields != null && !fields.trim().isEmpty()) {
+      for (String field : fields.split(",")) {
+        field = field.trim();
+        if (field.isEmpty()) {
+          continue;
+        }
+        if (!all.contains(field)) {
+          throw new IllegalArgumentException("Invalid field: '" + field + "'");
+        }
+        selected.add(field);
+      }
+    } else if (!summary) {
+      // Everything.
+      return new StatusProjection(null, false);
+    }
+    return new StatusProjection(Collections.unmodifiableSet(selected), summary);
+  }
+
+  /**
+   * Return true if every property is requested.
+   */
+  public boolean isFull() {
+    return fields == null;
+  }
+
+  /**
+   * Return true if the summary view was requested.
+   */
+  public boolean isSummary() {
+    return summary;
+  }
+
+  /**
+   * Return the requested properties, or null if every property is
+   * requested.
+   */
+  public Set<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Return true if a property is requested.
+   */
+  public boolean includes(String field) {
+    return fields == null || fields.contains(field);
+  }
+
+  private static Set<String> setOf(String... values) {
+    return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(values)));
+  }
+
+  @Override
+  public String toString() {
+    return "[StatusProjection " + (fields == null ? "all" : fields) + "]";
+  }
+
+  /**
+   * A CrawlStatus with only the requested properties.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class ProjectedCrawlStatus extends CrawlStatus {
+  }
+
+  /**
+   * A CrawlJob with only the requested properties.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class ProjectedCrawlJob extends CrawlJob {
+  }
+
+  /**
+   * The crawlDesc of a summary.
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public static class ProjectedCrawlDesc extends CrawlDesc {
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl;
+
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counters of the crawls, which change whenever anything reported
+ * about a crawl or its job changes, used as the entity tags of the status
+ * endpoints.  A crawl's version is bumped explicitly when its job record
+ * changes, and otherwise whenever a snapshot of the values its status
+ * reports (its status code and message, times, counts, per-MIME-type
+ * counts and ingest statistics) differs from the one last seen, so a
+ * status request can be answered with 304 without building the
+ * CrawlStatus or CrawlJob.  The snapshots are compared value by value, so
+ * two different states can't share a version.  The lists of crawls and of
+ * jobs share a version which is bumped whenever any crawl's is.  The list
+ * of jobs, which is read from the job store, also has the version of the
+ * store, which is bumped by every change to it.
+ * <br>
+ * The tags include the time the counters were created, so a tag issued
+ * before a restart never matches.
+ */
+public class StatusVersions {
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  private final Map<String, Version> versions = new ConcurrentHashMap<>();
+  private final AtomicLong listVersion = new AtomicLong();
+  private final AtomicLong storeVersion = new AtomicLong();
+  private final IngestMetrics ingestMetrics;
+
+  /**
+   * @param ingestMetrics the statistics of WARC files stored by pluggable
+   * crawlers, which are part of a crawl's status, or null.
+   */
+  public StatusVersions(IngestMetrics ingestMetrics) {
+    this.ingestMetrics = ingestMetrics;
+  }
+
+  private static class Version {
+    List<Object> state;
+    long version;
+
+    Version(List<Object> state) {
+      this.state = state;
+    }
+  }
+
+  /**
+   * Record a change to a crawl which its status doesn't show, such as to
+   * its job record.
+   *
+   * @param jobId the id of the crawl.
+   * @return the new version of the crawl.
+   */
+  public long bump(String jobId) {
+    if (jobId == null) {
+      return 0;
+    }
+    Version v = versions.computeIfAbsent(jobId, k -> new Version(null));
+    synchronized (v) {
+      listVersion.incrementAndGet();
+      return ++v.version;
+    }
+  }
+
+  /**
+   * Return the current version of a crawl.
+   *
+   * @param cs the CrawlerStatus of the crawl.
+   */
+  public long getVersion(CrawlerStatus cs) {
+    List<Object> state = snapshot(cs);
+    Version v = versions.computeIfAbsent(cs.getKey(), k -> {
+      listVersion.incrementAndGet();
+      return new Version(state);
+    });
+    synchronized (v) {
+      if (!state.equals(v.state)) {
+        v.state = state;
+        v.version++;
+        listVersion.incrementAndGet();
+      }
+      return v.version;
+    }
+  }
+
+  /**
+   * Return the entity tag of the status of a crawl.
+   *
+   * @param cs the CrawlerStatus of the crawl.
+   */
+  public String getETag(CrawlerStatus cs) {
+    return "\"" + epoch + "-" + Long.toString(getVersion(cs), 36) + "\"";
+  }
+
+  /**
+   * Return the entity tag of a list of crawls.  Every crawl in the list is
+   * brought up to date, which reads only counts.
+   *
+   * @param all the CrawlerStatus of every crawl in the list.
+   */
+  public String getListETag(List<CrawlerStatus> all) {
+    for (CrawlerStatus cs : all) {
+      getVersion(cs);
+    }
+    if (versions.size() > all.size()) {
+      forgetOthers(all);
+    }
+    return "\"" + epoch + "-l" + Long.toString(listVersion.get(), 36) + "-" + all.size() + "\"";
+  }
+
+  /**
+   * Record a change to the job store.
+   *
+   * @return the new version of the store.
+   */
+  public long bumpStore() {
+    return storeVersion.incrementAndGet();
+  }
+
+  /**
+   * Return the entity tag of the list of jobs: that of the list of crawls,
+   * which the jobs are rendered from, and the version of the job store,
+   * which they are selected from.
+   *
+   * @param all the CrawlerStatus of every crawl in the list.
+   */
+  public String getJobListETag(List<CrawlerStatus> all) {
+    String etag = getListETag(all);
+    return etag.substring(0, etag.length() - 1) + "-s"
+      + Long.toString(storeVersion.get(), 36) + "\"";
+  }
+
+  // Drop the versions of crawls no longer in the crawl manager's status.
+  private void forgetOthers(Collection<CrawlerStatus> all) {
+    Set<String> keys = new HashSet<>();
+    for (CrawlerStatus cs : all) {
+      keys.add(cs.getKey());
+    }
+    versions.keySet().retainAll(keys);
+  }
+
+  /**
+   * Return the values of everything about a crawl which changes as it runs.
+   */
+  List<Object> snapshot(CrawlerStatus cs) {
+    List<Object> state = new ArrayList<>(32);
+    state.add(cs.getCrawlStatus());
+    state.add(cs.getCrawlStatusMsg());
+    state.add(cs.getStartTime());
+    state.add(cs.getEndTime());
+    state.add(cs.getContentBytesFetched());
+    state.add(count(cs.getFetchedCtr()));
+    state.add(count(cs.getExcludedCtr()));
+    state.add(count(cs.getNotModifiedCtr()));
+    state.add(count(cs.getParsedCtr()));
+    state.add(count(cs.getPendingCtr()));
+    state.add(count(cs.getErrorCtr()));
+    state.add(cs.isCrawlWaiting());
+    state.add(cs.isCrawlActive());
+    state.add(cs.isCrawlError());
+    state.add(cs.getPriority());
+    Collection<String> startUrls = cs.getStartUrls();
+    state.add(startUrls == null ? 0 : startUrls.size());
+    Collection<String> mimeTypes = cs.getMimeTypes();
+    if (mimeTypes != null) {
+      for (String mimeType : mimeTypes) {
+        state.add(mimeType);
+        state.add(count(cs.getMimeTypeCtr(mimeType)));
+      }
+    }
+    IngestMetrics.Stats ingest =
+      ingestMetrics == null ? null : ingestMetrics.getCrawlStats(cs.getKey());
+    if (ingest != null) {
+      state.add(ingest.getFiles());
+      state.add(ingest.getFailures());
+      state.add(ingest.getBytes());
+      state.add(ingest.getRecords());
+      state.add(ingest.getElapsed());
+    }
+    return state;
+  }
+
+  private static long count(CrawlerStatus.UrlCount ctr) {
+    return ctr == null ? 0 : ctr.getCount();
+  }
+
+  /**
+   * Return true if an If-None-Match header matches an entity tag.
+   *
+   * @param ifNoneMatch the value of the header, or null.
+   * @param etag the current entity tag.
+   */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null || etag == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*")) {
+        return true;
+      }
+      // Weak comparison, as for GET.
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
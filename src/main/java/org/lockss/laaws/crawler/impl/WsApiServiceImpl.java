@@ -23,6 +23,15 @@ public class WsApiServiceImpl extends BaseSpringApiServiceImpl implements WsApiD
     List<CrawlWsResult> results = null;
 
     try {
+      // Check whether the query can be run without JoSQL.
+      CrawlQuery compiled = CrawlQueryCompiler.compile(crawlQuery);
+      if (compiled != null) {
+        // Yes: Run it directly over the universe.
+        results = compiled.execute(crawlHelper.createUniverse());
+        log.trace("results.size() = {}", results.size());
+        return new ResponseEntity<List<CrawlWsResult>>(results, HttpStatus.OK);
+      }
+
       // Create the full query.
       String fullQuery =
         JosqlUtil.createFullQuery(
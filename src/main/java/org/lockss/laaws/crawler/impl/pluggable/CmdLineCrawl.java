@@ -11,6 +11,15 @@ import org.lockss.daemon.Crawler;
 import org.lockss.daemon.LockssRunnable;
 import org.lockss.laaws.crawler.impl.ApiUtils;
 import org.lockss.laaws.crawler.impl.pluggable.CmdLineCrawler.RunnableCrawlJob;
+import org.lockss.laaws.crawler.impl.pluggable.CrawlWorkspaceManager.Workspace;
+import org.lockss.laaws.crawler.impl.pluggable.http.HttpCrawlOptions;
+import org.lockss.laaws.crawler.impl.pluggable.http.HttpCrawlSession;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestCheckpoint;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestResult;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndex;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndexer;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIngester;
 import org.lockss.log.L4JLogger;
 import org.lockss.plugin.ArchivalUnit;
 import org.lockss.plugin.AuUtil;
@@ -23,12 +32,22 @@ import org.lockss.util.rest.crawler.CrawlDesc;
 import org.lockss.util.rest.crawler.CrawlJob;
 import org.lockss.util.rest.crawler.JobStatus;
 import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
 
 import java.io.*;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,6 +66,20 @@ public class CmdLineCrawl extends PluggableCrawl {
    * The temp directory used to store any files.
    */
   protected File tmpDir = null;
+  /**
+   * The workspace from which the tmpDir was allocated, if any.
+   */
+  protected Workspace workspace = null;
+  /**
+   * The record of the WARC segments already stored, if the crawl was resumed
+   * or is storing its output as it goes.
+   */
+  protected CrawlCheckpoint checkpoint = null;
+  /**
+   * The indexes of the WARC files validated before storing, by file name.
+   */
+  protected Map<String, WarcIndex> warcIndexes = new ConcurrentHashMap<>();
+  private final AtomicLong storedRecords = new AtomicLong();
 
   protected String outputLogLevel;
   protected String errorLogLevel;
@@ -55,6 +88,16 @@ public class CmdLineCrawl extends PluggableCrawl {
   protected static Pattern urlPattern = Pattern.compile("((https?|ftp|gopher|telnet|file):((//)|(\\\\))+[\\w\\d:#@%/;$()~_?\\+-=\\\\\\.&]*)", Pattern.CASE_INSENSITIVE);
   protected static Pattern bytesPattern = Pattern.compile("\\[[0-9]+/[0-9]+]", Pattern.CASE_INSENSITIVE);
   private static final String ERROR_STR = " ERROR ";
+  static final String DEDUP_CDX = "dedup.cdx";
+  /**
+   * The file, holding the crawl's url stems, which marks a workspace kept
+   * because the crawl finished but its output was not all stored.
+   */
+  static final String STORE_PENDING = "store.pending";
+  /**
+   * The start of the JobStatus message of a crawl waiting for workspace space.
+   */
+  public static final String DEFERRED_MSG_PREFIX = "Deferred: waiting for workspace space. ";
 
   List<String> stems = new ArrayList<>();
   List<String> reqUrls;
@@ -62,6 +105,16 @@ public class CmdLineCrawl extends PluggableCrawl {
   boolean isRepairCrawl;
   RunnableCrawlJob runnableJob;
   LockssRunnable lockssRunnable;
+  HttpCrawlSession inProcessSession;
+  /**
+   * The repairs merged into this one, which take its outcome.
+   */
+  final List<CmdLineCrawl> mergedCrawls = new ArrayList<>();
+  /**
+   * The repair this one was merged into, if any.
+   */
+  CmdLineCrawl mergedInto;
+  private boolean started = false;
 
   /**
    * Instantiates a new Cmd line crawl.
@@ -91,17 +144,338 @@ public class CmdLineCrawl extends PluggableCrawl {
     try {
       js.setStatusCode(JobStatus.StatusCodeEnum.ACTIVE);
       js.setMsg("Active.");
-      tmpDir = FileUtil.createTempDir(crawlDesc.getCrawlerId(), "");
+      CrawlWorkspaceManager wsMgr = crawler.getWorkspaceManager();
+      if (wsMgr != null) {
+        workspace = wsMgr.allocate(getCrawlKey(), getAuId(), isRepairCrawl);
+        tmpDir = workspace.getDir();
+      }
+      else {
+        tmpDir = FileUtil.createTempDir(crawlDesc.getCrawlerId(), "");
+      }
+      if (workspace != null && workspace.isResumed()
+          && new File(tmpDir, STORE_PENDING).exists()) {
+        resumeStoring();
+        return cs;
+      }
+      if (workspace != null && workspace.isResumed()) {
+        resumeFromWorkspace();
+      }
+      else if (crawler.isStreamingIngest()) {
+        checkpoint = new CrawlCheckpoint(tmpDir);
+      }
       command = crawler.getCmdLineBuilder().buildCommandLine(getCrawlDesc(), tmpDir);
+      List<String> extraOptions = new ArrayList<>(crawler.getCheckpointOptions());
+      List<File> dedupSources = new ArrayList<>();
+      File manifest = getDedupManifest();
+      if (manifest != null) {
+        dedupSources.add(manifest);
+      }
+      if (checkpoint != null && !checkpoint.isEmpty()) {
+        dedupSources.add(checkpoint.getCdxFile());
+        if (isRepairCrawl) {
+          // a repair has a fixed list of urls so we can drop the ones we have.
+          command = new ArrayList<>(command);
+          command.removeAll(checkpoint.getCapturedUrls());
+          if (checkpoint.getCapturedUrls().containsAll(getReqUrls())) {
+            log.info("All urls of {} were stored before it was interrupted", getCrawlKey());
+            command = null;
+          }
+        }
+      }
+      if (dedupSources.size() == 1) {
+        extraOptions.addAll(crawler.getDedupOptions(dedupSources.get(0)));
+      }
+      else if (dedupSources.size() > 1) {
+        File merged = new File(tmpDir, DEDUP_CDX);
+        DedupManifestCache.mergeCdx(dedupSources, merged);
+        extraOptions.addAll(crawler.getDedupOptions(merged));
+      }
+      if (command != null && !extraOptions.isEmpty()) {
+        // insert after the executable so that requested options take precedence.
+        command = new ArrayList<>(command);
+        command.addAll(1, extraOptions);
+      }
     } catch (IOException ioe) {
       log.error("Unable to create output directory for crawl:", ioe);
       js.setStatusCode(JobStatus.StatusCodeEnum.ERROR);
+      js.setMsg("Unable to create output directory for crawl: " + ioe.getMessage());
     }
     return cs;
   }
 
+  /**
+   * Reserve this crawl's workspace before it starts.  If there is not
+   * enough space the crawl stays queued with a message saying why.
+   *
+   * @return false if the crawl must wait for space.
+   */
+  boolean admit() {
+    CrawlWorkspaceManager wsMgr = crawler.getWorkspaceManager();
+    if (wsMgr == null || workspace != null) {
+      return true;
+    }
+    try {
+      workspace = wsMgr.allocate(getCrawlKey(), getAuId(), isRepairCrawl);
+      return true;
+    } catch (CrawlWorkspaceManager.InsufficientSpaceException e) {
+      String msg = DEFERRED_MSG_PREFIX + e.getMessage();
+      log.info("Deferring {}: {}", getCrawlKey(), e.getMessage());
+      JobStatus js = getJobStatus();
+      js.setStatusCode(JobStatus.StatusCodeEnum.QUEUED);
+      js.setMsg(msg);
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_QUEUED, msg);
+      return false;
+    } catch (IOException e) {
+      // reported when startCrawl() tries again.
+      return true;
+    }
+  }
+
+  /**
+   * Return the dedup manifest of the AU's existing content, if the crawler
+   * uses one and the AU has content.  Failure to build the manifest only
+   * loses the deduplication, so is logged rather than failing the crawl.
+   */
+  File getDedupManifest() {
+    DedupManifestCache cache = crawler.getDedupManifestCache();
+    if (cache == null || getAu() == null || !crawler.useRepositoryDedup(getCrawlDesc())) {
+      return null;
+    }
+    try {
+      return cache.getManifest(getAu());
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to build dedup manifest for {}", getAuId(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Pick up the output of an interrupted run of this crawl: store the WARC
+   * files it completed, record what they captured in the workspace's
+   * checkpoint and discard the segment it was cut off in.  The resumed
+   * crawl numbers its segments from the start again, so it cannot be run
+   * while a completed segment is still waiting to be stored.
+   *
+   * @throws IOException if a completed WARC file cannot be stored.
+   */
+  void resumeFromWorkspace() throws IOException {
+    checkpoint = new CrawlCheckpoint(tmpDir);
+    int stored = storeCompletedSegments();
+    List<File> unstored = crawler.getCompletedWarcSegments(tmpDir);
+    if (!unstored.isEmpty()) {
+      throw new IOException("Unable to store "
+          + StringUtil.numberOfUnits(unstored.size(), "completed warcfile")
+          + " of the interrupted crawl");
+    }
+    log.info("Resuming {}: stored {} from the interrupted crawl.", getCrawlKey(),
+        StringUtil.numberOfUnits(stored, "completed warcfile"));
+    for (File cdx : crawler.getCdxFiles(tmpDir)) {
+      if (!cdx.delete()) {
+        log.warn("Unable to delete {}", cdx);
+      }
+    }
+    // only the partial segment the crawl was interrupted in is left.
+    for (File warc : getWarcFiles(crawler.getWarcFileFilter())) {
+      if (!warc.delete()) {
+        log.warn("Unable to delete {}", warc);
+      }
+      IngestCheckpoint.delete(warc);
+    }
+    for (String url : checkpoint.getCapturedUrls()) {
+      crawlerStatus.signalUrlFetched(url);
+      try {
+        String stem = UrlUtil.getUrlPrefix(url);
+        if (!stems.contains(stem)) stems.add(stem);
+      } catch (MalformedURLException e) {
+        log.error("Found malformed url: " + url);
+      }
+    }
+    log.debug("{} urls already captured", checkpoint.getCapturedUrls().size());
+  }
+
+  /**
+   * Pick up the output of a run of this crawl which finished but could not
+   * store all of it.  Nothing is crawled again; storeCrawlOutput() continues
+   * each WARC file from its ingest checkpoint.
+   *
+   * @throws IOException if the crawl's stems cannot be read.
+   */
+  void resumeStoring() throws IOException {
+    stems.addAll(Files.readAllLines(new File(tmpDir, STORE_PENDING).toPath(),
+        StandardCharsets.UTF_8));
+    command = null;
+    log.info("Resuming storage of the output of {}", getCrawlKey());
+  }
+
+  /**
+   * Store the WARC segments the crawler has finished writing, record them in
+   * the checkpoint and delete them.
+   *
+   * @return the number of segments stored.
+   * @throws IOException if a segment cannot be stored.
+   */
+  int storeCompletedSegments() throws IOException {
+    List<File> segments = crawler.getCompletedWarcSegments(tmpDir);
+    if (segments.isEmpty()) {
+      return 0;
+    }
+    log.debug("Storing completed segments {}", segments);
+    List<IngestResult> results = crawler.ingest(segments, this::storeWarc);
+    List<String> stored = new ArrayList<>();
+    List<String> unindexed = new ArrayList<>();
+    for (IngestResult result : results) {
+      String name = result.getWarcFile().getName();
+      if (result.isSuccess()) {
+        stored.add(name);
+        WarcIndex index = warcIndexes.remove(name);
+        if (index != null) {
+          checkpoint.addCaptured(index);
+          if (!index.getWarcFile().equals(result.getWarcFile())) {
+            // recompressed
+            deleteStored(index.getWarcFile());
+          }
+        }
+        else {
+          unindexed.add(name);
+        }
+      }
+      else {
+        // left in place to be tried again with the rest of the output.
+        log.warn("Segment {} not stored, will retry", result.getWarcFile());
+      }
+    }
+    if (!unindexed.isEmpty()) {
+      for (File cdx : crawler.getCdxFiles(tmpDir)) {
+        checkpoint.addCaptured(cdx, unindexed);
+      }
+    }
+    for (IngestResult result : results) {
+      if (result.isSuccess()) {
+        deleteStored(result.getWarcFile());
+      }
+    }
+    return stored.size();
+  }
+
+  void deleteStored(File warc) {
+    if (warc.exists() && !warc.delete()) {
+      log.warn("Unable to delete {}", warc);
+    }
+    IngestCheckpoint.delete(warc);
+  }
+
+  /**
+   * Store one WARC file, first validating and indexing it if the crawler
+   * does so.  A file with a damaged tail is truncated to its intact records;
+   * a file with none is rejected.  An uncompressed file is recompressed
+   * first if the crawler does so.
+   *
+   * @param warc the file to store.
+   * @throws IOException if the file is rejected or cannot be stored.
+   */
+  void storeWarc(File warc) throws IOException {
+    if (!crawler.isValidateWarcs()) {
+      long start = TimeBase.nowMs();
+      boolean success = false;
+      try {
+        crawler.storeInRepository(getAuId(), warc, isCompressedWarc(warc));
+        success = true;
+      } finally {
+        recordIngest(warc.length(), 0, start, success);
+      }
+      return;
+    }
+    WarcIndex index = warcIndexes.get(warc.getName());
+    if (index == null || index.getFileLength() != index.getWarcFile().length()) {
+      // not indexed by an earlier attempt
+      index = new WarcIndexer().index(warc);
+      if (!index.isValid()) {
+        log.warn("Damaged warcfile {}: {}", warc, index.getError());
+        if (!WarcIndexer.repair(index)) {
+          throw new IOException("Invalid warcfile " + warc.getName() + ": " + index.getError());
+        }
+        log.info("Truncated {} to its {}", warc,
+            StringUtil.numberOfUnits(index.getRecordCount(), "intact record"));
+      }
+      if (crawler.isRecompressWarcs() && !index.isCompressed() && index.getRecordCount() > 0
+          && IngestCheckpoint.getCommittedOffset(warc) == 0) {
+        index = crawler.recompress(index);
+      }
+      // kept under the original name so a retry finds the recompressed file.
+      warcIndexes.put(warc.getName(), index);
+    }
+    if (index.getRecordCount() == 0) {
+      log.debug("Skipping empty warcfile {}", warc);
+      return;
+    }
+    long start = TimeBase.nowMs();
+    long bytes = index.getValidLength() - IngestCheckpoint.getCommittedOffset(index.getWarcFile());
+    boolean success = false;
+    try {
+      crawler.storeInRepository(getAuId(), index, index.isCompressed());
+      success = true;
+    } finally {
+      recordIngest(bytes, index.getRecordCount(), start, success);
+    }
+    long total = storedRecords.addAndGet(index.getRecordCount());
+    if (crawlerStatus != null) {
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_ACTIVE,
+          "Storing: " + StringUtil.numberOfUnits(total, "record") + " stored");
+    }
+  }
+
+  void recordIngest(long bytes, int records, long start, boolean success) {
+    IngestMetrics metrics = crawler.getIngestMetrics();
+    if (metrics != null) {
+      metrics.record(getCrawlDesc().getCrawlerId(), getAuId(), getCrawlKey(), bytes, records,
+          TimeBase.msSince(start), success);
+    }
+  }
+
+  boolean isCompressedWarc(File warc) {
+    return FileUtil.getExtension(warc.getName()).equalsIgnoreCase((crawler.getCompressedWarcExtension()));
+  }
+
+  /**
+   * Wait for the crawl process to exit, storing completed WARC segments as
+   * they appear if streaming ingest is enabled and killing the process if it
+   * exceeds the quota of its workspace.
+   *
+   * @return the exit code of the process
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   * @throws IOException if a completed segment cannot be stored.
+   */
+  int waitForCrawlProcess() throws InterruptedException, IOException {
+    boolean streaming = crawler.isStreamingIngest();
+    if (workspace == null && !streaming) {
+      return crawlProcess.waitFor();
+    }
+    long interval = streaming ? crawler.getStreamingIngestInterval() : Long.MAX_VALUE;
+    if (workspace != null) {
+      interval = Math.min(interval, crawler.getWorkspaceManager().getQuotaCheckInterval());
+    }
+    while (!crawlProcess.waitFor(interval, TimeUnit.MILLISECONDS)) {
+      if (streaming && !quotaExceeded) {
+        int stored = storeCompletedSegments();
+        if (stored > 0) {
+          log.debug("Stored {} while crawling", StringUtil.numberOfUnits(stored, "warcfile"));
+        }
+      }
+      if (workspace != null && workspace.isOverQuota()) {
+        log.warn("Crawl {} exceeded its workspace quota, stopping.", getCrawlKey());
+        quotaExceeded = true;
+        crawlProcess.destroy();
+      }
+    }
+    return crawlProcess.exitValue();
+  }
+
   @Override
   public CrawlerStatus stopCrawl() {
+    markStarted();
+    if (mergedInto != null) {
+      mergedInto.unmerge(this);
+    }
     JobStatus status = getJobStatus();
     JobStatus.StatusCodeEnum statusCode = status.getStatusCode();
     if (statusCode != JobStatus.StatusCodeEnum.ACTIVE && statusCode != JobStatus.StatusCodeEnum.QUEUED) {
@@ -113,6 +487,7 @@ public class CmdLineCrawl extends PluggableCrawl {
     if (lockssRunnable != null) {
       //Kill the external process.
       if(crawlProcess != null)  crawlProcess.destroy();
+      if (inProcessSession != null) inProcessSession.stop();
       lockssRunnable.interruptThread();
       if (crawlerStatus != null) {
         crawlerStatus.setCrawlStatus(Crawler.STATUS_ABORTED, "Crawl Aborted");
@@ -126,6 +501,7 @@ public class CmdLineCrawl extends PluggableCrawl {
       crawler.getPluggableCrawlManager().handleCrawlComplete(crawlerStatus);
       getAuState().newCrawlFinished(crawlerStatus.getCrawlStatus(), null);
       crawlerStatus.signalCrawlEnded();
+      completeMerged();
     }
     deleteTmpDir();
     return getCrawlerStatus();
@@ -172,7 +548,80 @@ public class CmdLineCrawl extends PluggableCrawl {
     return stems;
   }
 
+  /**
+   * Merge another repair of the same AU into this one, if this one has not
+   * started and was requested with the same options.  This crawl fetches
+   * the union of their urls and the other takes its outcome.
+   *
+   * @param other the repair to merge.
+   * @return true if it was merged.
+   */
+  synchronized boolean merge(CmdLineCrawl other) {
+    if (started || mergedInto != null || !isRepairCrawl || !other.isRepairCrawl
+        || !getAuId().equals(other.getAuId())
+        || !Objects.equals(crawlDesc.getCrawlDepth(), other.crawlDesc.getCrawlDepth())
+        || !Objects.equals(crawlDesc.getRefetchDepth(), other.crawlDesc.getRefetchDepth())
+        || !Objects.equals(crawlDesc.getExtraCrawlerData(),
+                           other.crawlDesc.getExtraCrawlerData())) {
+      return false;
+    }
+    Set<String> urls = new LinkedHashSet<>();
+    if (reqUrls != null) {
+      urls.addAll(reqUrls);
+    }
+    if (other.reqUrls != null) {
+      urls.addAll(other.reqUrls);
+    }
+    reqUrls = new ArrayList<>(urls);
+    crawlDesc.setCrawlList(reqUrls);
+    if (crawlerStatus instanceof PluggableCrawlerStatus) {
+      ((PluggableCrawlerStatus) crawlerStatus).setStartUrls(reqUrls);
+    }
+    mergedCrawls.add(other);
+    other.mergedInto = this;
+    JobStatus js = other.getJobStatus();
+    js.setStatusCode(JobStatus.StatusCodeEnum.QUEUED);
+    js.setMsg("Merged into " + getCrawlKey() + ".");
+    return true;
+  }
+
+  synchronized void unmerge(CmdLineCrawl other) {
+    mergedCrawls.remove(other);
+  }
+
+  /**
+   * Close this crawl to further merges.
+   */
+  synchronized void markStarted() {
+    started = true;
+  }
+
+  synchronized List<CmdLineCrawl> getMergedCrawls() {
+    return new ArrayList<>(mergedCrawls);
+  }
+
+  /**
+   * Give the repairs merged into this one its outcome.
+   */
+  void completeMerged() {
+    List<CmdLineCrawl> merged;
+    synchronized (this) {
+      merged = new ArrayList<>(mergedCrawls);
+      mergedCrawls.clear();
+    }
+    String msg = crawlerStatus.getCrawlStatusMsg();
+    for (CmdLineCrawl crawl : merged) {
+      CrawlerStatus cs = crawl.getCrawlerStatus();
+      cs.setCrawlStatus(crawlerStatus.getCrawlStatus(),
+          "Merged into " + getCrawlKey() + (msg == null ? "." : ": " + msg));
+      cs.signalCrawlEnded();
+      crawler.getPluggableCrawlManager().handleCrawlComplete(cs);
+    }
+  }
+
   Process crawlProcess;
+  boolean quotaExceeded = false;
+  boolean interruptedByExit = false;
 
   public LockssRunnable getRunnable() {
     lockssRunnable = new LockssRunnable(threadName) {
@@ -180,66 +629,82 @@ public class CmdLineCrawl extends PluggableCrawl {
       @Override
       public void lockssRun() {
         log.debug2("{} started", this);
+        markStarted();
         crawlerStatus = getCrawlerStatus();
+        if (crawler.useInProcessRepair(crawlJob)) {
+          try {
+            nowRunning();
+            runInProcessRepair();
+          } finally {
+            setThreadName(threadName + ": idle");
+            lockssRunnable = null;
+          }
+          return;
+        }
+        if (!admit()) {
+          crawler.deferCrawl(CmdLineCrawl.this);
+          lockssRunnable = null;
+          return;
+        }
         auState = AuUtil.getAuState(crawlerStatus.getAu());
-        boolean joinOutputStreams = crawler.isJoinOutputStreams();
         try {
           auState.newCrawlStarted();
           nowRunning();
           crawlerStatus = startCrawl();
-          ProcessBuilder builder = new ProcessBuilder();
-          builder.directory(tmpDir);
-          builder.command(command);
-          if (joinOutputStreams) {
-            builder.redirectErrorStream(true);
+          if (getJobStatus().getStatusCode() == JobStatus.StatusCodeEnum.ERROR) {
+            crawlerStatus.setCrawlStatus(Crawler.STATUS_ERROR, getJobStatus().getMsg());
+            deleteTmpDir();
+            return;
           }
-          log.debug("Starting crawl process in {} with command {}...",
-              tmpDir, String.join(" ", command));
-          crawlProcess = builder.start();
-          StreamGobbler outputGobbler = new StreamGobbler(crawlProcess.getInputStream(), "OUTPUT");
-          outputGobbler.start();
-
-          if (!joinOutputStreams) {
-            StreamGobbler errorGobbler = new StreamGobbler(crawlProcess.getErrorStream(), "ERROR");
-            errorGobbler.start();
+          if (command == null) {
+            // resumed with nothing left to fetch.
+            crawlerStatus.signalCrawlStarted();
+            storeCrawlOutput();
+            return;
           }
+          launchCrawlProcess();
           crawlerStatus.signalCrawlStarted();
-          int exitCode = crawlProcess.waitFor();
-          if (crawler.didCrawlSucceed(exitCode)) {
-            log.info("Crawl process succeeded with exitCode {}", exitCode);
-            Collection<File> warcFiles = getWarcFiles(crawler.getWarcFileFilter());
-            log.info("Importing {} into repository.",
-                StringUtil.numberOfUnits(warcFiles.size(), "warcfile"));
-            crawlerStatus.setCrawlStatus(Crawler.STATUS_ACTIVE, "Storing");
-            for (File warc : warcFiles) {
-              boolean isCompressed = FileUtil.getExtension(warc.getName()).equalsIgnoreCase((crawler.getCompressedWarcExtension()));
-              crawler.storeInRepository(crawlerStatus.getAuId(), warc, isCompressed);
-            }
-            crawler.updateAuConfig(getAu(), isRepairCrawl, getReqUrls(), getStems());
-            crawlerStatus.setCrawlStatus(Crawler.STATUS_SUCCESSFUL);
-            log.info("Content stored, crawl complete.");
+          crawler.getPluggableCrawlManager().handleCrawlStarted(crawlerStatus);
+          int exitCode = waitForCrawlProcess();
+          if (quotaExceeded) {
+            crawlerStatus.setCrawlStatus(Crawler.STATUS_ERROR,
+                "Workspace quota of " + StringUtil.sizeToString(workspace.getQuota()) + " exceeded");
             deleteTmpDir();
+          }
+          else if (crawler.didCrawlSucceed(exitCode)) {
+            log.info("Crawl process succeeded with exitCode {}", exitCode);
+            storeCrawlOutput();
           } else {
             log.info("Crawl process failed with exitCode {}", exitCode);
             crawlerStatus.setCrawlStatus(
                 Crawler.STATUS_ERROR, "crawl exited with code: " + exitCode);
             deleteTmpDir();
           }
-        } catch (IOException ioe) {
-          log.error("Exception caught running process", ioe);
-          crawlerStatus.setCrawlStatus(
-              Crawler.STATUS_ERROR, "Exception thrown: " + ioe.getMessage());
-        } catch (InterruptedException ignore) {
-          if (crawlerStatus.getCrawlStatus() != Crawler.STATUS_ABORTED) {
+        } catch (InterruptedIOException | InterruptedException ignore) {
+          if (crawlProcess != null) {
+            crawlProcess.destroy();
+          }
+          if (ApiUtils.getPluggableCrawlManager().isShuttingDown()) {
+            // leave the job active and its workspace in place so it can be
+            // resumed when the service restarts.
+            log.info("Crawl {} interrupted by service exit", getCrawlKey());
+            interruptedByExit = true;
+          }
+          else if (crawlerStatus.getCrawlStatus() != Crawler.STATUS_ABORTED) {
             crawlerStatus.setCrawlStatus(Crawler.STATUS_ABORTED,
                 "Crawl Interrupted");
           }
           // no action
+        } catch (IOException ioe) {
+          crawlFailed(ioe);
         } finally {
           log.debug2("finishing crawl status updates...");
           auState.newCrawlFinished(crawlerStatus.getCrawlStatus(), null);
           crawlerStatus.signalCrawlEnded();
-          ApiUtils.getPluggableCrawlManager().handleCrawlComplete(crawlerStatus);
+          if (!interruptedByExit) {
+            ApiUtils.getPluggableCrawlManager().handleCrawlComplete(crawlerStatus);
+            completeMerged();
+          }
           setThreadName(threadName + ": idle");
           log.debug2("{} terminating", this);
           lockssRunnable = null;
@@ -249,10 +714,226 @@ public class CmdLineCrawl extends PluggableCrawl {
     return lockssRunnable;
   }
 
+  /**
+   * Start the crawler process in the workspace, with threads logging its
+   * output.
+   *
+   * @throws IOException if the process cannot be started.
+   */
+  void launchCrawlProcess() throws IOException {
+    boolean joinOutputStreams = crawler.isJoinOutputStreams();
+    ProcessBuilder builder = new ProcessBuilder();
+    builder.directory(tmpDir);
+    builder.command(command);
+    if (joinOutputStreams) {
+      builder.redirectErrorStream(true);
+    }
+    log.debug("Starting crawl process in {} with command {}...",
+        tmpDir, String.join(" ", command));
+    crawlProcess = builder.start();
+    StreamGobbler outputGobbler = new StreamGobbler(crawlProcess.getInputStream(), "OUTPUT");
+    outputGobbler.start();
+
+    if (!joinOutputStreams) {
+      StreamGobbler errorGobbler = new StreamGobbler(crawlProcess.getErrorStream(), "ERROR");
+      errorGobbler.start();
+    }
+  }
+
+  /**
+   * Record that a crawl failed with an exception, such as the crawler
+   * failing to start or its output failing to be stored, and give up its
+   * workspace and the space reserved for it.
+   *
+   * @param ioe the exception.
+   */
+  void crawlFailed(IOException ioe) {
+    log.error("Exception caught running process", ioe);
+    crawlerStatus.setCrawlStatus(
+        Crawler.STATUS_ERROR, "Exception thrown: " + ioe.getMessage());
+    if (crawlProcess != null) {
+      crawlProcess.destroy();
+    }
+    deleteTmpDir();
+  }
+
+  /**
+   * Run a small repair without the external crawler: fetch its urls with the
+   * crawler's shared in-process fetcher, writing the records to a temporary
+   * file, then store them in a single call.
+   */
+  void runInProcessRepair() {
+    auState = AuUtil.getAuState(crawlerStatus.getAu());
+    File records = null;
+    try {
+      auState.newCrawlStarted();
+      JobStatus js = getJobStatus();
+      js.setStatusCode(JobStatus.StatusCodeEnum.ACTIVE);
+      js.setMsg("Active.");
+      HttpCrawlOptions opts = crawler.getRepairOptions(getCrawlDesc());
+      records = FileUtil.createTempFile("repair-" + getCrawlKey(), ".warc");
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(records))) {
+        inProcessSession = new HttpCrawlSession(crawler.getRepairFetcher(), opts, crawlerStatus,
+            out, crawler.useCompressWarc(), crawler.getExcludeStatus(), reqUrls.size());
+        log.debug("Fetching {} in process", StringUtil.numberOfUnits(reqUrls.size(), "url"));
+        crawlerStatus.signalCrawlStarted();
+        crawler.getPluggableCrawlManager().handleCrawlStarted(crawlerStatus);
+        inProcessSession.run();
+      }
+      if (inProcessSession.isStopped()) {
+        return;
+      }
+      storeRecords(records, inProcessSession.getWriter().getRecordsWritten());
+      stems.addAll(inProcessSession.getStems());
+      crawler.updateAuConfig(getAu(), isRepairCrawl, getReqUrls(), getStems());
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_SUCCESSFUL);
+    } catch (IllegalArgumentException e) {
+      log.error("Unable to start crawl {}: {}", getCrawlKey(), e.getMessage());
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_ERROR, e.getMessage());
+    } catch (IOException ioe) {
+      log.error("Exception caught running in-process repair", ioe);
+      crawlerStatus.setCrawlStatus(
+          Crawler.STATUS_ERROR, "Exception thrown: " + ioe.getMessage());
+    } catch (InterruptedException ignore) {
+      if (ApiUtils.getPluggableCrawlManager().isShuttingDown()) {
+        log.info("Crawl {} interrupted by service exit", getCrawlKey());
+        interruptedByExit = true;
+      }
+      else if (crawlerStatus.getCrawlStatus() != Crawler.STATUS_ABORTED) {
+        crawlerStatus.setCrawlStatus(Crawler.STATUS_ABORTED, "Crawl Interrupted");
+      }
+    } finally {
+      if (records != null && !records.delete()) {
+        log.warn("Unable to delete {}", records);
+      }
+      auState.newCrawlFinished(crawlerStatus.getCrawlStatus(), null);
+      crawlerStatus.signalCrawlEnded();
+      if (!interruptedByExit) {
+        ApiUtils.getPluggableCrawlManager().handleCrawlComplete(crawlerStatus);
+        completeMerged();
+      }
+    }
+  }
+
+  /**
+   * Store the records of an in-process repair, retrying as a WARC file
+   * would be.
+   *
+   * @param warc    the file holding the records.
+   * @param records the number of records.
+   * @throws IOException if the records could not be stored.
+   */
+  void storeRecords(File warc, int records) throws IOException {
+    if (records == 0) {
+      log.debug("Nothing fetched by {}", getCrawlKey());
+      return;
+    }
+    crawlerStatus.setCrawlStatus(Crawler.STATUS_ACTIVE, "Storing");
+    long delay = crawler.getIngestRetryDelay();
+    for (int retry = 0; ; retry++) {
+      long start = TimeBase.nowMs();
+      try {
+        crawler.storeInRepository(getAuId(), warc, crawler.useCompressWarc());
+        recordIngest(warc.length(), records, start, true);
+        return;
+      } catch (IOException e) {
+        recordIngest(warc.length(), records, start, false);
+        if (retry >= crawler.getIngestRetries()) {
+          throw e;
+        }
+        log.warn("Unable to store records of {}, retry {} in {}", getCrawlKey(), retry + 1,
+            StringUtil.timeIntervalToString(delay));
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting to retry storing");
+      }
+      delay *= 2;
+    }
+  }
+
+  /**
+   * Store the WARC files of a successful crawl and, if they were all stored,
+   * record its urls in the AU's configuration.  Otherwise the workspace is
+   * kept so that running the job again stores the rest.
+   *
+   * @throws IOException if the files could not be stored.
+   */
+  void storeCrawlOutput() throws IOException {
+    Collection<File> warcFiles = getWarcFiles(crawler.getWarcFileFilter());
+    log.info("Importing {} into repository.",
+        StringUtil.numberOfUnits(warcFiles.size(), "warcfile"));
+    crawlerStatus.setCrawlStatus(Crawler.STATUS_ACTIVE, "Storing");
+    List<IngestResult> results = crawler.ingest(warcFiles, this::storeWarc);
+    List<IngestResult> failures = WarcIngester.getFailures(results);
+    long delay = crawler.getIngestRetryDelay();
+    for (int retry = 1; !failures.isEmpty() && retry <= crawler.getIngestRetries(); retry++) {
+      log.warn("Unable to store {}, retry {} in {}",
+          StringUtil.numberOfUnits(failures.size(), "warcfile"), retry,
+          StringUtil.timeIntervalToString(delay));
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_ACTIVE, "Storing: waiting to retry "
+          + StringUtil.numberOfUnits(failures.size(), "warcfile"));
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting to retry storing");
+      }
+      delay *= 2;
+      List<File> retryFiles = new ArrayList<>();
+      for (IngestResult failure : failures) {
+        retryFiles.add(failure.getWarcFile());
+      }
+      // each file resumes from its ingest checkpoint.
+      failures = WarcIngester.getFailures(crawler.ingest(retryFiles, this::storeWarc));
+    }
+    if (failures.isEmpty()) {
+      crawler.updateAuConfig(getAu(), isRepairCrawl, getReqUrls(), getStems());
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_SUCCESSFUL);
+      log.info("Content stored, crawl complete.");
+      deleteTmpDir();
+    }
+    else {
+      // whatever was stored stays stored, but the AU isn't credited with
+      // the crawl, which must be run again to store the rest.
+      log.error("Unable to store {}", failures);
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_ERROR, "Unable to store "
+          + failures.size() + " of " + StringUtil.numberOfUnits(results.size(), "warcfile"));
+      retainOutput();
+    }
+  }
+
+  /**
+   * Keep the workspace of a crawl whose output was not all stored, marked
+   * with the crawl's stems, so that a later run of the same job picks it up
+   * and stores the rest from each file's ingest checkpoint.  Output outside
+   * a workspace cannot be picked up, so is deleted.
+   */
+  void retainOutput() {
+    if (workspace == null) {
+      deleteTmpDir();
+      return;
+    }
+    try {
+      Files.write(new File(tmpDir, STORE_PENDING).toPath(), getStems(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      log.warn("Unable to mark {} for resumption", tmpDir, e);
+      deleteTmpDir();
+      return;
+    }
+    log.info("Keeping {} so that {} can finish storing", tmpDir, getCrawlKey());
+    crawler.getWorkspaceManager().retain(workspace);
+    workspace = null;
+  }
+
   void deleteTmpDir() {
     log.debug("Deleting tree at {}", tmpDir);
     boolean isDeleted = true;
-    if (tmpDir != null) {
+    if (workspace != null) {
+      isDeleted = crawler.getWorkspaceManager().release(workspace);
+      workspace = null;
+    }
+    else if (tmpDir != null) {
       isDeleted = FileUtil.delTree(tmpDir);
     }
     log.trace("isDeleted = {}", isDeleted);
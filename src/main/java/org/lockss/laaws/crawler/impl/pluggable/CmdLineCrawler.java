@@ -34,6 +34,17 @@ import org.lockss.config.ConfigManager;
 import org.lockss.db.DbException;
 import org.lockss.laaws.crawler.impl.ApiUtils;
 import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.lockss.laaws.crawler.impl.pluggable.http.HttpCrawlOptions;
+import org.lockss.laaws.crawler.impl.pluggable.http.HttpFetcher;
+import org.lockss.laaws.crawler.impl.pluggable.http.JavaHttpCrawler;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestCheckpoint;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestResult;
+import org.lockss.laaws.crawler.impl.pluggable.warc.MappedFileInputStream;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndex;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcRecompressor;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIngester;
 import org.lockss.laaws.crawler.model.CrawlerConfig;
 import org.lockss.laaws.crawler.utils.ExecutorUtils;
 import org.lockss.log.L4JLogger;
@@ -51,10 +62,22 @@ import org.lockss.util.StringUtil;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import static org.lockss.laaws.crawler.impl.PluggableCrawlManager.ATTR_CRAWLER_ID;
 import static org.lockss.laaws.crawler.impl.PluggableCrawlManager.ENABLED;
@@ -100,6 +123,144 @@ public class CmdLineCrawler implements PluggableCrawler {
 
   public static final String ATTR_UNSUPPORTED_PARAMS = "unsupportedParams";
 
+  /**
+   * The size at which the crawler should start a new WARC file, 0 for a
+   * single WARC file.  Completed segments let an interrupted crawl resume.
+   */
+  public static final String ATTR_WARC_SEGMENT_SIZE = "warcSegmentSize";
+  public static final long DEFAULT_WARC_SEGMENT_SIZE = 0;
+
+  /**
+   * If true, completed WARC segments are stored while the crawl is running
+   * rather than all at once at the end.  Forces segmentation.
+   */
+  public static final String ATTR_STREAMING_INGEST = "streamingIngest";
+  public static final String DEFAULT_STREAMING_INGEST = "false";
+
+  /**
+   * The segment size used for streaming ingest if warcSegmentSize is not set.
+   */
+  public static final long DEFAULT_STREAMING_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+  /**
+   * How often a streaming crawl looks for completed WARC segments.
+   */
+  public static final String ATTR_STREAMING_INGEST_INTERVAL = "streamingIngestInterval";
+  public static final long DEFAULT_STREAMING_INGEST_INTERVAL = 30 * Constants.SECOND;
+
+
+  /**
+   * The number of WARC files a crawler stores concurrently.
+   */
+  public static final String ATTR_INGEST_THREADS = "ingestThreads";
+  public static final int DEFAULT_INGEST_THREADS = 2;
+
+  /**
+   * WARC files at least this large are read through a memory mapping when
+   * being stored, 0 to never do so.
+   */
+  public static final String ATTR_MAPPED_INGEST_THRESHOLD = "mappedIngestThreshold";
+  public static final long DEFAULT_MAPPED_INGEST_THRESHOLD = 256L * 1024 * 1024;
+
+  /**
+   * If true, crawls of AUs with content are given a dedup manifest of that
+   * content, if the crawler supports one.
+   */
+  public static final String ATTR_DEDUP_FROM_REPOSITORY = "dedupFromRepository";
+  public static final String DEFAULT_DEDUP_FROM_REPOSITORY = "true";
+
+  /**
+   * If true, WARC files are checked and indexed before being stored, and a
+   * file with a damaged tail is truncated to its intact records.
+   */
+  public static final String ATTR_VALIDATE_WARCS = "validateWarcs";
+  public static final String DEFAULT_VALIDATE_WARCS = "true";
+
+  /**
+   * A validated WARC file is stored in ranges of whole records of about this
+   * many bytes, and the offset reached is checkpointed after each, so a
+   * failed store resumes from the last range stored.  0 stores a file in a
+   * single range.
+   */
+  public static final String ATTR_INGEST_CHUNK_SIZE = "ingestChunkSize";
+  public static final long DEFAULT_INGEST_CHUNK_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * The number of times WARC files which could not be stored are retried.
+   */
+  public static final String ATTR_INGEST_RETRIES = "ingestRetries";
+  public static final int DEFAULT_INGEST_RETRIES = 3;
+
+  /**
+   * The delay before the first retry, doubled for each subsequent one.
+   */
+  public static final String ATTR_INGEST_RETRY_DELAY = "ingestRetryDelay";
+  public static final long DEFAULT_INGEST_RETRY_DELAY = Constants.MINUTE;
+
+  /**
+   * If true, uncompressed WARC files are rewritten with each record in its
+   * own gzip member before being stored.  Needs validateWarcs, which
+   * provides the record boundaries.
+   */
+  public static final String ATTR_RECOMPRESS_WARCS = "recompressWarcs";
+  public static final String DEFAULT_RECOMPRESS_WARCS = "false";
+
+  /**
+   * The number of threads used to compress the records of a WARC file.
+   */
+  public static final String ATTR_RECOMPRESS_THREADS = "recompressThreads";
+
+  /**
+   * Repair crawls of at most this many urls, with no options other than
+   * those the in-process fetcher understands, are fetched in the service's
+   * process and stored from memory rather than by running the crawler.  0,
+   * the default, to always run the crawler.  The crawler's own wait, tries,
+   * timeout, read-timeout, connect-timeout, user-agent and header options
+   * ({@code opt.*} attributes) are applied to in-process repairs too, and a
+   * crawler configured with an option the in-process fetcher can't honor,
+   * or run with a proxy from the environment, always runs the crawler.
+   */
+  public static final String ATTR_IN_PROCESS_REPAIR_MAX_URLS = "inProcessRepairMaxUrls";
+  public static final int DEFAULT_IN_PROCESS_REPAIR_MAX_URLS = 0;
+
+  /**
+   * The prefix of the attributes giving options of the crawler.
+   */
+  public static final String OPTION_ATTR_PREFIX = "opt.";
+
+  /**
+   * The crawler options which in-process repairs apply.
+   */
+  static final Set<String> REPAIR_OPTION_KEYS = Set.of(HttpCrawlOptions.WAIT_KEY,
+      HttpCrawlOptions.TRIES_KEY, HttpCrawlOptions.TIMEOUT_KEY, HttpCrawlOptions.READ_TIMEOUT_KEY,
+      HttpCrawlOptions.USER_AGENT_KEY, HttpCrawlOptions.HEADER_KEY);
+  static final String CONNECT_TIMEOUT_KEY = "connect-timeout";
+
+  /**
+   * The crawler options which change how urls are fetched in ways the
+   * in-process fetcher can't reproduce: proxies, TLS, authentication,
+   * cookies and the wgetrc commands which may set any of them.
+   */
+  static final Set<String> IN_PROCESS_UNSUPPORTED_OPTIONS = Set.of("e", "execute",
+      "config", "no-proxy", "proxy-user", "proxy-password", "http-user", "http-password",
+      "user", "password", "ask-password", "no-check-certificate", "check-certificate",
+      "certificate", "certificate-type", "private-key", "private-key-type", "ca-certificate",
+      "ca-directory", "secure-protocol", "https-only", "load-cookies", "no-cookies",
+      "bind-address", "inet4-only", "inet6-only", "prefer-family", "limit-rate", "referer");
+
+  /**
+   * The environment variables from which the crawler takes a proxy.
+   */
+  static final Set<String> PROXY_ENV_VARS = Set.of("http_proxy", "https_proxy");
+
+  /**
+   * How long a repair crawl is held before being queued, during which later
+   * repairs of the same AU with the same options are merged into it.  A
+   * repair is also merged into any matching repair still in the queue.  0
+   * to queue each repair separately.
+   */
+  public static final String ATTR_REPAIR_COALESCE_WINDOW = "repairCoalesceWindow";
+  public static final long DEFAULT_REPAIR_COALESCE_WINDOW = 5 * Constants.SECOND;
 
   public static final String START_URL_KEY = "start_urls";
   public static final String URL_STEMS_KEY = "url_stems";
@@ -133,15 +294,59 @@ public class CmdLineCrawler implements PluggableCrawler {
 
   protected List<String> unsupportedParams;
 
+  protected long warcSegmentSize;
+
+  protected long mappedIngestThreshold;
+
+  protected boolean dedupFromRepository;
+
+  protected boolean validateWarcs;
+
+  protected long ingestChunkSize;
+
+  protected int ingestRetries;
+
+  protected long ingestRetryDelay;
+
+  protected boolean recompressWarcs;
+
+  protected boolean streamingIngest;
+
+  protected long streamingIngestInterval;
+
+  protected int inProcessRepairMaxUrls;
+
+  protected long repairCoalesceWindow;
+
+  // the crawler options applied to in-process repairs.
+  protected Map<String, Object> repairOptions = Collections.emptyMap();
+  // the connect timeout option of the crawler, or null.
+  protected String repairConnectTimeout;
+  // what keeps repairs from being fetched in process, or null.
+  protected String inProcessRepairUnsupported;
+
+  private Pattern excludeStatus;
+  private HttpFetcher repairFetcher;
+  private long repairFetcherConnectTimeout;
+
   /**
    * The map of crawls for this crawler.
    */
   protected HashMap<String, CmdLineCrawl> crawlMap = new HashMap<>();
+  /**
+   * Crawls waiting for workspace space, in the order they were deferred.
+   */
+  protected final List<CmdLineCrawl> deferredCrawls = new ArrayList<>();
+  private ScheduledExecutorService timer;
+  private ScheduledFuture<?> deferralCheck;
+  private boolean releaseListenerAdded = false;
   protected CommandLineBuilder cmdLineBuilder;
   protected PluggableCrawlManager pcManager;
 
   private LockssRepository v2Repo;
   private ThreadPoolExecutor crawlQueueExecutor;
+  private ThreadPoolExecutor ingestExecutor;
+  private ForkJoinPool recompressPool;
 
   private String namespace;
   private boolean joinOutputStreams;
@@ -218,7 +423,98 @@ public class CmdLineCrawler implements PluggableCrawler {
     String qspec= attr.getOrDefault(ATTR_CRAWL_EXECUTOR_SPEC,DEFAULT_EXECUTOR_SPEC);
 
     initCrawlScheduler(qspec);
+    int ingestThreads = DEFAULT_INGEST_THREADS;
+    String ingestThreadsStr = attr.get(ATTR_INGEST_THREADS);
+    if (!StringUtil.isNullString(ingestThreadsStr)) {
+      try {
+        ingestThreads = Integer.parseInt(ingestThreadsStr.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_INGEST_THREADS,crawlerId);
+      }
+    }
+    initIngestExecutor(Math.max(1, ingestThreads));
+    dedupFromRepository = Boolean.parseBoolean(
+      attr.getOrDefault(ATTR_DEDUP_FROM_REPOSITORY, DEFAULT_DEDUP_FROM_REPOSITORY));
+    validateWarcs = Boolean.parseBoolean(
+      attr.getOrDefault(ATTR_VALIDATE_WARCS, DEFAULT_VALIDATE_WARCS));
+    recompressWarcs = Boolean.parseBoolean(
+      attr.getOrDefault(ATTR_RECOMPRESS_WARCS, DEFAULT_RECOMPRESS_WARCS));
+    if (recompressWarcs) {
+      int recompressThreads = Runtime.getRuntime().availableProcessors();
+      String recompressThreadsStr = attr.get(ATTR_RECOMPRESS_THREADS);
+      if (!StringUtil.isNullString(recompressThreadsStr)) {
+        try {
+          recompressThreads = Integer.parseInt(recompressThreadsStr.trim());
+        }
+        catch(NumberFormatException nfe) {
+          log.error("The value of the param {} for {} is invalid: using default.",ATTR_RECOMPRESS_THREADS,crawlerId);
+        }
+      }
+      initRecompressPool(Math.max(1, recompressThreads));
+    }
+    ingestChunkSize = DEFAULT_INGEST_CHUNK_SIZE;
+    String chunkSizeStr = attr.get(ATTR_INGEST_CHUNK_SIZE);
+    if (!StringUtil.isNullString(chunkSizeStr)) {
+      try {
+        ingestChunkSize = Long.parseLong(chunkSizeStr.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_INGEST_CHUNK_SIZE,crawlerId);
+      }
+    }
+    ingestRetries = DEFAULT_INGEST_RETRIES;
+    String retriesStr = attr.get(ATTR_INGEST_RETRIES);
+    if (!StringUtil.isNullString(retriesStr)) {
+      try {
+        ingestRetries = Integer.parseInt(retriesStr.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_INGEST_RETRIES,crawlerId);
+      }
+    }
+    ingestRetryDelay = DEFAULT_INGEST_RETRY_DELAY;
+    String retryDelayStr = attr.get(ATTR_INGEST_RETRY_DELAY);
+    if (!StringUtil.isNullString(retryDelayStr)) {
+      try {
+        ingestRetryDelay = StringUtil.parseTimeInterval(retryDelayStr);
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_INGEST_RETRY_DELAY,crawlerId);
+      }
+    }
+    mappedIngestThreshold = DEFAULT_MAPPED_INGEST_THRESHOLD;
+    String mappedThresholdStr = attr.get(ATTR_MAPPED_INGEST_THRESHOLD);
+    if (!StringUtil.isNullString(mappedThresholdStr)) {
+      try {
+        mappedIngestThreshold = Long.parseLong(mappedThresholdStr.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_MAPPED_INGEST_THRESHOLD,crawlerId);
+      }
+    }
     excludeStatusPattern= attr.getOrDefault(ATTR_EXCLUDE_STATUS_PATTERN,DEFAULT_EXCLUDE_STATUS_PATTERN);
+    excludeStatus = Pattern.compile(excludeStatusPattern);
+    inProcessRepairMaxUrls = DEFAULT_IN_PROCESS_REPAIR_MAX_URLS;
+    String repairMaxStr = attr.get(ATTR_IN_PROCESS_REPAIR_MAX_URLS);
+    if (!StringUtil.isNullString(repairMaxStr)) {
+      try {
+        inProcessRepairMaxUrls = Integer.parseInt(repairMaxStr.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_IN_PROCESS_REPAIR_MAX_URLS,crawlerId);
+      }
+    }
+    repairCoalesceWindow = DEFAULT_REPAIR_COALESCE_WINDOW;
+    String coalesceWindowStr = attr.get(ATTR_REPAIR_COALESCE_WINDOW);
+    if (!StringUtil.isNullString(coalesceWindowStr)) {
+      try {
+        repairCoalesceWindow = StringUtil.parseTimeInterval(coalesceWindowStr);
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_REPAIR_COALESCE_WINDOW,crawlerId);
+      }
+    }
     outputLogLevel= attr.getOrDefault(ATTR_OUTPUT_LOG_LEVEL,DEFAULT_OUTPUT_LOG_LEVEL);
     errorLogLevel= attr.getOrDefault(ATTR_ERROR_LOG_LEVEL,DEFAULT_ERROR_LOG_LEVEL);
     joinOutputStreams = Boolean.parseBoolean(attr.getOrDefault(ATTR_JOIN_OUTPUT_STREAMS,DEFAULT_JOIN_OUTPUT_STREAMS));
@@ -235,6 +531,17 @@ public class CmdLineCrawler implements PluggableCrawler {
     else {
       unsupportedParams = Collections.EMPTY_LIST;
     }
+    updateRepairOptions(attr, System.getenv());
+    warcSegmentSize = DEFAULT_WARC_SEGMENT_SIZE;
+    String segmentSizeStr = attr.get(ATTR_WARC_SEGMENT_SIZE);
+    if(!StringUtil.isNullString(segmentSizeStr)) {
+      try {
+        warcSegmentSize = Long.parseLong(segmentSizeStr.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_WARC_SEGMENT_SIZE,crawlerId);
+      }
+    }
     procExitWait = DEFAULT_PROC_EXIT_WAIT;
     String procWaitStr = attr.get(ATTR_PROC_EXIT_WAIT);
     if(!StringUtil.isNullString(procWaitStr)) {
@@ -245,6 +552,20 @@ public class CmdLineCrawler implements PluggableCrawler {
         log.error("The value of the param {} for {} is invalid: using default.",ATTR_PROC_EXIT_WAIT,crawlerId);
       }
     }
+    streamingIngest = Boolean.parseBoolean(attr.getOrDefault(ATTR_STREAMING_INGEST, DEFAULT_STREAMING_INGEST));
+    if (streamingIngest && warcSegmentSize <= 0) {
+      warcSegmentSize = DEFAULT_STREAMING_SEGMENT_SIZE;
+    }
+    streamingIngestInterval = DEFAULT_STREAMING_INGEST_INTERVAL;
+    String ingestIntervalStr = attr.get(ATTR_STREAMING_INGEST_INTERVAL);
+    if(!StringUtil.isNullString(ingestIntervalStr)) {
+      try {
+        streamingIngestInterval = StringUtil.parseTimeInterval(ingestIntervalStr);
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.",ATTR_STREAMING_INGEST_INTERVAL,crawlerId);
+      }
+    }
   }
 
   @Override
@@ -276,6 +597,217 @@ public class CmdLineCrawler implements PluggableCrawler {
     return compressWarc;
   }
 
+  public long getWarcSegmentSize() {
+    return warcSegmentSize;
+  }
+
+  public boolean isStreamingIngest() {
+    return streamingIngest;
+  }
+
+  public long getStreamingIngestInterval() {
+    return streamingIngestInterval;
+  }
+
+  public boolean isValidateWarcs() {
+    return validateWarcs;
+  }
+
+  public boolean isRecompressWarcs() {
+    return recompressWarcs;
+  }
+
+  public int getIngestRetries() {
+    return ingestRetries;
+  }
+
+  public long getIngestRetryDelay() {
+    return ingestRetryDelay;
+  }
+
+  public Pattern getExcludeStatus() {
+    return excludeStatus;
+  }
+
+  /**
+   * Return true if a crawl is a repair small enough to be fetched in
+   * process.  A job whose workspace was kept to be resumed is left to the
+   * crawler which produced it.
+   *
+   * @param crawlJob the job.
+   * @return true if the in-process fetcher should be used.
+   */
+  public boolean useInProcessRepair(CrawlJob crawlJob) {
+    CrawlDesc desc = crawlJob.getCrawlDesc();
+    if (inProcessRepairMaxUrls <= 0 || inProcessRepairUnsupported != null
+        || desc.getCrawlKind() != CrawlDesc.CrawlKindEnum.REPAIR) {
+      return false;
+    }
+    List<String> urls = desc.getCrawlList();
+    if (urls == null || urls.isEmpty() || urls.size() > inProcessRepairMaxUrls) {
+      return false;
+    }
+    Map<String, Object> extra = desc.getExtraCrawlerData();
+    if (extra != null && !HttpCrawlOptions.SUPPORTED_KEYS.containsAll(extra.keySet())) {
+      return false;
+    }
+    CrawlWorkspaceManager wsMgr = getWorkspaceManager();
+    return wsMgr == null || !wsMgr.isRetained(crawlJob.getJobId());
+  }
+
+  /**
+   * Record the crawler options which in-process repairs apply, and whether
+   * the crawler is configured in a way they can't reproduce.
+   *
+   * @param attr the crawler's attributes.
+   * @param env  the environment the crawler is run in.
+   */
+  void updateRepairOptions(Map<String, String> attr, Map<String, String> env) {
+    Map<String, Object> options = new HashMap<>();
+    String connectTimeout = null;
+    String unsupported = null;
+    for (Map.Entry<String, String> entry : attr.entrySet()) {
+      if (!entry.getKey().startsWith(OPTION_ATTR_PREFIX)) {
+        continue;
+      }
+      String opt = entry.getKey().substring(OPTION_ATTR_PREFIX.length());
+      if (unsupportedParams.contains("--" + opt)) {
+        // not passed to the crawler either.
+        continue;
+      }
+      if (REPAIR_OPTION_KEYS.contains(opt)) {
+        options.put(opt, entry.getValue());
+      }
+      else if (opt.equals(CONNECT_TIMEOUT_KEY)) {
+        connectTimeout = entry.getValue();
+      }
+      else if (IN_PROCESS_UNSUPPORTED_OPTIONS.contains(opt)) {
+        unsupported = entry.getKey();
+      }
+    }
+    if (unsupported == null) {
+      for (Map.Entry<String, String> entry : env.entrySet()) {
+        if (PROXY_ENV_VARS.contains(entry.getKey().toLowerCase(Locale.ROOT))
+            && !StringUtil.isNullString(entry.getValue())) {
+          unsupported = entry.getKey();
+        }
+      }
+    }
+    repairOptions = options;
+    repairConnectTimeout = connectTimeout;
+    inProcessRepairUnsupported = unsupported;
+    if (unsupported != null && inProcessRepairMaxUrls > 0) {
+      log.info("Repairs by {} always run the crawler because of {}",
+          attr.get(ATTR_CRAWLER_ID), unsupported);
+    }
+  }
+
+  /**
+   * Return the fetcher used for in-process repairs.  Its connections are
+   * shared by all this crawler's repairs.
+   */
+  public synchronized HttpFetcher getRepairFetcher() {
+    long connectTimeout = pcManager != null && pcManager.getConnectTimeout() > 0
+      ? pcManager.getConnectTimeout() : JavaHttpCrawler.DEFAULT_CONNECT_TIMEOUT;
+    if (repairConnectTimeout != null) {
+      try {
+        connectTimeout = HttpCrawlOptions.parseSeconds(repairConnectTimeout);
+      }
+      catch (NumberFormatException e) {
+        log.warn("Ignoring invalid {}: {}", CONNECT_TIMEOUT_KEY, repairConnectTimeout);
+      }
+    }
+    if (repairFetcher == null || repairFetcherConnectTimeout != connectTimeout) {
+      repairFetcher = new HttpFetcher(HttpClient.Version.HTTP_2, connectTimeout)
+        .setMaxBodySize(JavaHttpCrawler.DEFAULT_MAX_BODY_SIZE);
+      repairFetcherConnectTimeout = connectTimeout;
+    }
+    return repairFetcher;
+  }
+
+  /**
+   * Return the options of an in-process repair: the repair's own options,
+   * then the crawler's, then the service's fetch settings, which the crawler
+   * is given when its options don't say otherwise.
+   *
+   * @param crawlDesc the description of the repair.
+   * @return the options.
+   */
+  public HttpCrawlOptions getRepairOptions(CrawlDesc crawlDesc) {
+    HttpCrawlOptions defaults;
+    if (pcManager != null) {
+      defaults = new HttpCrawlOptions(0, Math.max(1, pcManager.getMaxRetries()),
+        pcManager.getReadTimeout(), JavaHttpCrawler.getDefaultUserAgent())
+        .setWait(pcManager.getFetchDelay());
+    }
+    else {
+      defaults = new HttpCrawlOptions(0, JavaHttpCrawler.DEFAULT_TRIES,
+        JavaHttpCrawler.DEFAULT_READ_TIMEOUT, JavaHttpCrawler.getDefaultUserAgent());
+    }
+    return HttpCrawlOptions.fromCrawlDesc(crawlDesc, defaults, repairOptions);
+  }
+
+  /**
+   * Return the options added to every command line so that the output of an
+   * interrupted crawl can be resumed from.  The base implementation has none.
+   *
+   * @return a List of command line options.
+   */
+  protected List<String> getCheckpointOptions() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Return the options which tell the crawler about content which has
+   * already been captured, given as a CDX file.  The base implementation
+   * has none.
+   *
+   * @param cdx the CDX file listing url, digest and record id.
+   * @return a List of command line options.
+   */
+  protected List<String> getDedupOptions(File cdx) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Return true if a crawl should be given a dedup manifest built from the
+   * AU's existing content.  The base implementation cannot use one.
+   *
+   * @param crawlDesc the description of the crawl.
+   * @return true if a manifest should be built.
+   */
+  protected boolean useRepositoryDedup(CrawlDesc crawlDesc) {
+    return false;
+  }
+
+  /**
+   * Return the cache of dedup manifests, or null if there is no crawl manager.
+   */
+  public DedupManifestCache getDedupManifestCache() {
+    return pcManager == null ? null : pcManager.getDedupManifestCache();
+  }
+
+  /**
+   * Return the WARC files in a workspace which an interrupted crawl had
+   * finished writing.  The base implementation cannot tell so returns none.
+   *
+   * @param dir the workspace directory.
+   * @return a List of completed WARC files.
+   */
+  protected List<File> getCompletedWarcSegments(File dir) {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Return the CDX files written by the crawler in a workspace.
+   *
+   * @param dir the workspace directory.
+   * @return a List of CDX files.
+   */
+  protected List<File> getCdxFiles(File dir) {
+    return Collections.emptyList();
+  }
+
   @Override
   public PluggableCrawl requestCrawl(ArchivalUnit au, CrawlJob crawlJob) {
     //check to see if we have already queued a job to crawl this au
@@ -285,13 +817,54 @@ public class CmdLineCrawler implements PluggableCrawler {
     }
     CmdLineCrawl clCrawl = new CmdLineCrawl(this, au, crawlJob);
     crawlMap.put(crawlJob.getJobId(), clCrawl);
+    boolean coalesce = clCrawl.isRepairCrawl && repairCoalesceWindow > 0;
+    if (coalesce) {
+      CmdLineCrawl primary = findMergeableRepair(clCrawl);
+      if (primary != null) {
+        log.debug("Merged repair {} into {}", clCrawl.getCrawlKey(), primary.getCrawlKey());
+        return clCrawl;
+      }
+    }
     clCrawl.runnableJob = new RunnableCrawlJob(crawlJob, clCrawl);
-    crawlQueueExecutor.submit(clCrawl.runnableJob);
     JobStatus status = crawlJob.getJobStatus();
     status.setStatusCode(StatusCodeEnum.QUEUED);
     status.setMsg("Pending.");
+    if (coalesce) {
+      getTimer().schedule(() -> submitHeld(clCrawl), repairCoalesceWindow, TimeUnit.MILLISECONDS);
+    }
+    else {
+      crawlQueueExecutor.submit(clCrawl.runnableJob);
+    }
     return clCrawl;
   }
+
+  /**
+   * Merge a repair into a repair of the same AU which has not yet started,
+   * if there is one it can be merged into.
+   *
+   * @param repair the new repair crawl.
+   * @return the crawl it was merged into, or null.
+   */
+  CmdLineCrawl findMergeableRepair(CmdLineCrawl repair) {
+    for (CmdLineCrawl crawl : new ArrayList<>(crawlMap.values())) {
+      if (crawl != repair && crawl.getAuId().equals(repair.getAuId())
+          && crawl.merge(repair)) {
+        return crawl;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Queue a repair at the end of its coalescing window, unless it has been
+   * stopped meanwhile.
+   */
+  void submitHeld(CmdLineCrawl crawl) {
+    if (crawlMap.containsKey(crawl.getCrawlKey())) {
+      crawlQueueExecutor.submit(crawl.runnableJob);
+    }
+  }
+
   public boolean isElgibleForCrawl(String auId)
   {
     for(CmdLineCrawl crawl: crawlMap.values()) {
@@ -303,10 +876,82 @@ public class CmdLineCrawler implements PluggableCrawler {
     }
     return true;
   }
+  /**
+   * Hold a crawl which could not be given a workspace until space may have
+   * become available: when another crawl releases its workspace, and
+   * periodically in case space is freed by something else.
+   *
+   * @param crawl the crawl to defer.
+   */
+  void deferCrawl(CmdLineCrawl crawl) {
+    CrawlWorkspaceManager wsMgr = getWorkspaceManager();
+    synchronized (deferredCrawls) {
+      if (!crawlMap.containsKey(crawl.getCrawlKey())) {
+        // stopped while trying to start.
+        return;
+      }
+      deferredCrawls.add(crawl);
+      if (!releaseListenerAdded) {
+        wsMgr.addReleaseListener(this::readmitDeferred);
+        releaseListenerAdded = true;
+      }
+      scheduleDeferralCheck(wsMgr.getQuotaCheckInterval());
+    }
+  }
+
+  /**
+   * Requeue the deferred crawls which now appear to fit.  A crawl which no
+   * longer fits by the time it starts is simply deferred again.
+   */
+  void readmitDeferred() {
+    CrawlWorkspaceManager wsMgr = getWorkspaceManager();
+    synchronized (deferredCrawls) {
+      for (Iterator<CmdLineCrawl> iter = deferredCrawls.iterator(); iter.hasNext(); ) {
+        CmdLineCrawl crawl = iter.next();
+        if (wsMgr.hasSpaceFor(crawl.getAuId(), crawl.isRepairCrawl)) {
+          iter.remove();
+          log.debug("Readmitting deferred crawl {}", crawl.getCrawlKey());
+          crawl.getJobStatus().setMsg("Pending.");
+          crawlQueueExecutor.submit(crawl.runnableJob);
+        }
+      }
+      if (!deferredCrawls.isEmpty()) {
+        scheduleDeferralCheck(wsMgr.getQuotaCheckInterval());
+      }
+    }
+  }
+
+  private void scheduleDeferralCheck(long interval) {
+    if (deferralCheck != null) {
+      deferralCheck.cancel(false);
+    }
+    deferralCheck = getTimer().schedule(this::readmitDeferred, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread th = new Thread(r, "CmdLineCrawlerTimer");
+        th.setDaemon(true);
+        return th;
+      });
+    }
+    return timer;
+  }
+
+  public List<CmdLineCrawl> getDeferredCrawls() {
+    synchronized (deferredCrawls) {
+      return new ArrayList<>(deferredCrawls);
+    }
+  }
+
   @Override
   public PluggableCrawl stopCrawl(String crawlId) {
     CmdLineCrawl clCrawl = crawlMap.remove(crawlId);
     if (clCrawl != null) {
+      synchronized (deferredCrawls) {
+        deferredCrawls.remove(clCrawl);
+      }
       crawlQueueExecutor.remove(clCrawl.runnableJob);
       clCrawl.stopCrawl();
     }
@@ -335,6 +980,15 @@ public class CmdLineCrawler implements PluggableCrawler {
   @Override
   public void shutdown() {
     shutdownWithWait(crawlQueueExecutor);
+    if (ingestExecutor != null) {
+      ingestExecutor.shutdownNow();
+    }
+    if (recompressPool != null) {
+      recompressPool.shutdownNow();
+    }
+    if (timer != null) {
+      timer.shutdownNow();
+    }
   }
 
   protected void shutdownWithWait(ExecutorService scheduler) {
@@ -378,21 +1032,116 @@ public class CmdLineCrawler implements PluggableCrawler {
     return pcManager;
   }
 
+  /**
+   * Return the manager which allocates crawl workspaces, or null if there is
+   * no crawl manager.
+   */
+  public CrawlWorkspaceManager getWorkspaceManager() {
+    return pcManager == null ? null : pcManager.getWorkspaceManager();
+  }
+
+  /**
+   * Return the service's ingest statistics, or null if there is no crawl
+   * manager.
+   */
+  public IngestMetrics getIngestMetrics() {
+    return pcManager == null ? null : pcManager.getIngestMetrics();
+  }
+
+  /**
+   * Process a set of WARC files concurrently on this crawler's ingest
+   * threads, subject to the service-wide limit on concurrent ingests.
+   *
+   * @param warcFiles the files to process.
+   * @param store     stores a single file.
+   * @return an IngestResult for each file.
+   * @throws InterruptedIOException if interrupted while storing.
+   */
+  public List<IngestResult> ingest(Collection<File> warcFiles, WarcIngester.WarcStore store)
+      throws InterruptedIOException {
+    Semaphore permits = pcManager == null ? null : pcManager.getIngestPermits();
+    WarcIngester ingester = new WarcIngester(ingestExecutor, permits);
+    return ingester.ingest(warcFiles, store);
+  }
+
   public void storeInRepository (String auId, File warcFile, boolean isCompressed) throws IOException {
-    try (BufferedInputStream bis = new BufferedInputStream(
-      Files.newInputStream(warcFile.toPath()))) {
+    try (InputStream is = openWarc(warcFile)) {
       ensureRepo();
       log.debug2("Calling Repository with warc for auid {}", auId);
-      v2Repo.addArtifacts(namespace, auId, bis, LockssRepository.ArchiveType.WARC, false, excludeStatusPattern);
+      v2Repo.addArtifacts(namespace, auId, is, LockssRepository.ArchiveType.WARC, false, excludeStatusPattern);
     }
     log.debug2("Returned from call to repo");
   }
 
 
+  /**
+   * Store a validated WARC file in the repository in ranges of whole
+   * records, checkpointing the offset reached after each range.  Storing
+   * starts from the checkpoint left by an earlier attempt, if any.
+   *
+   * @param auId         the AU to which the file belongs.
+   * @param index        the index of the file.
+   * @param isCompressed true if the file is compressed.
+   * @throws IOException if a range cannot be stored.
+   */
+  public void storeInRepository(String auId, WarcIndex index, boolean isCompressed)
+      throws IOException {
+    File warcFile = index.getWarcFile();
+    long committed = IngestCheckpoint.getCommittedOffset(warcFile);
+    if (committed > 0) {
+      log.info("Resuming storage of {} from offset {}", warcFile, committed);
+    }
+    for (long[] range : IngestCheckpoint.getChunks(index, committed, ingestChunkSize)) {
+      try (InputStream is = openWarc(warcFile, range[0])) {
+        ensureRepo();
+        log.debug2("Storing {} [{}, {}) for auid {}", warcFile, range[0], range[1], auId);
+        v2Repo.addArtifacts(namespace, auId, new BoundedInputStream(is, range[1] - range[0]),
+            LockssRepository.ArchiveType.WARC, false, excludeStatusPattern);
+      }
+      IngestCheckpoint.setCommittedOffset(warcFile, range[1]);
+    }
+  }
+
+  /**
+   * Open a WARC file to be stored.  Large files are read through a memory
+   * mapping to avoid copying them through heap buffers.
+   */
+  InputStream openWarc(File warcFile) throws IOException {
+    return openWarc(warcFile, 0);
+  }
+
+  /**
+   * Open a WARC file to be stored, starting at an offset.
+   */
+  InputStream openWarc(File warcFile, long offset) throws IOException {
+    if (mappedIngestThreshold > 0 && warcFile.length() >= mappedIngestThreshold) {
+      MappedFileInputStream in = new MappedFileInputStream(warcFile);
+      try {
+        in.position(offset);
+      }
+      catch (IOException e) {
+        in.close();
+        throw e;
+      }
+      return in;
+    }
+    FileChannel channel = FileChannel.open(warcFile.toPath(), StandardOpenOption.READ);
+    channel.position(offset);
+    return new BufferedInputStream(Channels.newInputStream(channel));
+  }
+
   public void updateAuConfig(ArchivalUnit au, boolean isRepairCrawl, List<String>reqUrls,
                              List<String> crawlStems) throws IOException {
+    updateAuConfig(pcManager.getConfigManager(), au, isRepairCrawl, reqUrls, crawlStems);
+  }
+
+  /**
+   * Record the start urls and url stems of a crawl in the AU's configuration.
+   */
+  public static void updateAuConfig(ConfigManager cm, ArchivalUnit au, boolean isRepairCrawl,
+                                    List<String> reqUrls, List<String> crawlStems)
+      throws IOException {
     log.debug("updating config for {}", au.getName());
-    ConfigManager cm = pcManager.getConfigManager();
     AuConfiguration au_config;
     try {
       au_config = cm.retrieveArchivalUnitConfiguration(au.getAuId());
@@ -409,7 +1158,7 @@ public class CmdLineCrawler implements PluggableCrawler {
     }
   }
 
-  List<String> getCheckedStartUrls(ArchivalUnit au, List<String> inUrls) {
+  static List<String> getCheckedStartUrls(ArchivalUnit au, List<String> inUrls) {
     List<String> outUrls = new ArrayList<>();
     if(inUrls != null && !inUrls.isEmpty()) {
       for(String url : inUrls) {
@@ -419,7 +1168,7 @@ public class CmdLineCrawler implements PluggableCrawler {
     return outUrls;
   }
 
-  String checkStartUrl(ArchivalUnit au, String startUrl) {
+  static String checkStartUrl(ArchivalUnit au, String startUrl) {
     if(!startUrl.endsWith("/")) {
       CachedUrl cu = au.makeCachedUrl(startUrl);
       if(!cu.hasContent()) {
@@ -431,7 +1180,7 @@ public class CmdLineCrawler implements PluggableCrawler {
     return startUrl;
   }
 
-  void updateAuConfigItem(AuConfiguration auConfig, String key, List<String> updateList) {
+  static void updateAuConfigItem(AuConfiguration auConfig, String key, List<String> updateList) {
     Map<String, String> configMap = auConfig.getAuConfig();
     List<String> configList;
     String config_str = configMap.get(key);
@@ -451,6 +1200,55 @@ public class CmdLineCrawler implements PluggableCrawler {
   }
 
 
+  protected void initIngestExecutor(int threads) {
+    if (ingestExecutor == null) {
+      ingestExecutor = new ThreadPoolExecutor(threads, threads,
+        ExecutorUtils.DEFAULT_THREAD_TIMEOUT, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+      ingestExecutor.allowCoreThreadTimeOut(true);
+    }
+    else if (threads > ingestExecutor.getMaximumPoolSize()) {
+      ingestExecutor.setMaximumPoolSize(threads);
+      ingestExecutor.setCorePoolSize(threads);
+    }
+    else {
+      ingestExecutor.setCorePoolSize(threads);
+      ingestExecutor.setMaximumPoolSize(threads);
+    }
+  }
+
+  protected void initRecompressPool(int threads) {
+    if (recompressPool != null && recompressPool.getParallelism() == threads) {
+      return;
+    }
+    if (recompressPool != null) {
+      recompressPool.shutdown();
+    }
+    recompressPool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Rewrite an uncompressed WARC file with each record in its own gzip
+   * member, deleting the original once the new file is complete.
+   *
+   * @param index the index of the uncompressed file.
+   * @return the index of the compressed file.
+   * @throws IOException if the file cannot be rewritten.
+   */
+  public WarcIndex recompress(WarcIndex index) throws IOException {
+    File warcFile = index.getWarcFile();
+    String name = warcFile.getName();
+    String outName = name.endsWith(uncompressedWarcExtension)
+      ? name.substring(0, name.length() - uncompressedWarcExtension.length()) + compressedWarcExtension
+      : name + ".gz";
+    WarcIndex compressed = new WarcRecompressor(recompressPool)
+      .recompress(index, new File(warcFile.getParentFile(), outName));
+    log.debug2("Recompressed {} to {}", warcFile, compressed);
+    if (!warcFile.delete()) {
+      log.warn("Unable to delete {}", warcFile);
+    }
+    return compressed;
+  }
+
   protected void initCrawlScheduler(String reqSpec) {
     crawlQueueExecutor = ExecutorUtils.createOrReConfigureExecutor(crawlQueueExecutor,
         reqSpec, DEFAULT_CMDLINE_CRAWL_EXECUTOR_SPEC);
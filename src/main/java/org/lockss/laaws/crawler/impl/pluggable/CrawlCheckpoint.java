@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndex;
+import org.lockss.log.L4JLogger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The record of what an interrupted crawl has already captured and stored.
+ * <p>
+ * The checkpoint is kept in the crawl's workspace as a CDX file holding the
+ * lines of the crawler's own CDX output for every WARC segment that has been
+ * stored in the repository.  It survives a service restart along with the
+ * workspace, and is passed back to the crawler when the crawl resumes.
+ */
+public class CrawlCheckpoint {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * The name of the checkpoint file in the workspace.
+   */
+  public static final String CAPTURED_CDX = "captured.cdx";
+
+  /**
+   * The CDX header line written to the checkpoint if the source has none.
+   */
+  public static final String DEFAULT_CDX_HEADER = " CDX a b a m s k r M V g u";
+
+  static final String CDX_MAGIC = "CDX";
+  static final String FIELD_URL = "a";
+  static final String FIELD_FILENAME = "g";
+
+  private final File cdxFile;
+  private final Set<String> capturedUrls = new LinkedHashSet<>();
+
+  /**
+   * Open the checkpoint in a workspace, loading any urls already recorded.
+   *
+   * @param dir the workspace directory.
+   * @throws IOException if the existing checkpoint cannot be read.
+   */
+  public CrawlCheckpoint(File dir) throws IOException {
+    cdxFile = new File(dir, CAPTURED_CDX);
+    if (cdxFile.exists()) {
+      readCdx(cdxFile, null, null);
+    }
+  }
+
+  /**
+   * Add the entries of a crawler CDX file which refer to the given WARC
+   * files to the checkpoint.
+   *
+   * @param cdx          the CDX written by the crawler.
+   * @param storedWarcs the names of the WARC files which have been stored.
+   * @return the number of entries added.
+   * @throws IOException if the CDX cannot be read or the checkpoint written.
+   */
+  public int addCaptured(File cdx, Collection<String> storedWarcs) throws IOException {
+    boolean isNew = !cdxFile.exists();
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(cdxFile, true), StandardCharsets.UTF_8))) {
+      if (isNew) {
+        out.write(getHeader(cdx));
+        out.write('\n');
+      }
+      int added = readCdx(cdx, storedWarcs, out);
+      log.debug2("Added {} captured entries from {}", added, cdx);
+      return added;
+    }
+  }
+
+  /**
+   * Add the captures of a stored WARC file, as found by indexing it, to the
+   * checkpoint.
+   *
+   * @param index the index of the stored WARC file.
+   * @return the number of entries added.
+   * @throws IOException if the checkpoint cannot be written.
+   */
+  public int addCaptured(WarcIndex index) throws IOException {
+    boolean isNew = !cdxFile.exists();
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(cdxFile, true), StandardCharsets.UTF_8))) {
+      if (isNew) {
+        out.write(WarcIndex.CDX_HEADER);
+        out.write('\n');
+      }
+      int added = 0;
+      for (WarcIndex.Entry entry : index.getEntries()) {
+        if (entry.isCapture() && entry.getTargetUri() != null) {
+          capturedUrls.add(entry.getTargetUri());
+          added++;
+        }
+      }
+      index.writeCdx(out);
+      log.debug2("Added {} captured entries from {}", added, index.getWarcFile());
+      return added;
+    }
+  }
+
+  /**
+   * Read a CDX file, recording the URLs of entries whose filename field is
+   * in {@code warcNames} (or all entries if null) and copying those
+   * entries to {@code out} if it is not null.
+   */
+  int readCdx(File cdx, Collection<String> warcNames, Writer out) throws IOException {
+    int added = 0;
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(cdx), StandardCharsets.UTF_8))) {
+      String line = in.readLine();
+      if (line == null) {
+        return 0;
+      }
+      List<String> fields = parseHeader(line);
+      if (fields == null) {
+        fields = parseHeader(DEFAULT_CDX_HEADER);
+      }
+      else {
+        line = in.readLine();
+      }
+      int urlIdx = fields.indexOf(FIELD_URL);
+      int nameIdx = fields.indexOf(FIELD_FILENAME);
+      for (; line != null; line = in.readLine()) {
+        String[] cols = line.split(" ");
+        if (urlIdx < 0 || urlIdx >= cols.length) {
+          continue;
+        }
+        if (warcNames != null
+            && (nameIdx < 0 || nameIdx >= cols.length || !warcNames.contains(cols[nameIdx]))) {
+          continue;
+        }
+        capturedUrls.add(cols[urlIdx]);
+        if (out != null) {
+          out.write(line);
+          out.write('\n');
+        }
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Return the list of field codes of a CDX header line, or null if the line
+   * is not a header.
+   */
+  static List<String> parseHeader(String line) {
+    List<String> tokens = Arrays.asList(line.trim().split("\\s+"));
+    if (!CDX_MAGIC.equals(tokens.get(0))) {
+      return null;
+    }
+    return tokens.subList(1, tokens.size());
+  }
+
+  String getHeader(File cdx) throws IOException {
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(cdx), StandardCharsets.UTF_8))) {
+      String line = in.readLine();
+      return line != null && parseHeader(line) != null ? line : DEFAULT_CDX_HEADER;
+    }
+  }
+
+  /**
+   * Return the checkpoint CDX file.
+   */
+  public File getCdxFile() {
+    return cdxFile;
+  }
+
+  /**
+   * Return the URLs which have already been captured and stored.
+   */
+  public Set<String> getCapturedUrls() {
+    return capturedUrls;
+  }
+
+  /**
+   * Return true if nothing has been recorded.
+   */
+  public boolean isEmpty() {
+    return capturedUrls.isEmpty();
+  }
+}
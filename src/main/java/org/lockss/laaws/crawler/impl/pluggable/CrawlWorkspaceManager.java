@@ -0,0 +1,607 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.apache.commons.io.FileUtils;
+import org.lockss.config.Configuration;
+import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.Constants;
+import org.lockss.util.StringUtil;
+import org.lockss.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Hands out per-crawl working directories for pluggable crawls.
+ * <p>
+ * Workspaces are allocated from configured volumes: repair crawls prefer the
+ * "fast" volumes (local SSD or tmpfs), new content crawls use the "bulk"
+ * volumes.  Each allocation reserves an estimate of the space the crawl
+ * will need against both the volume's free space and the global quota, so a
+ * crawl is only admitted if that space is actually available.  The estimate
+ * is the peak usage of the last crawl of the same kind of the same AU, or
+ * failing that the running average of crawls of that kind, plus a margin,
+ * and is never more than the job quota.  With no history the quota itself
+ * is reserved.
+ */
+public class CrawlWorkspaceManager {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  public static final String PREFIX = PluggableCrawlManager.PREFIX + "workspace.";
+
+  /**
+   * Semicolon separated list of directories used for small (repair) crawls.
+   */
+  public static final String PARAM_FAST_VOLUMES = PREFIX + "fastVolumes";
+
+  /**
+   * Semicolon separated list of directories used for large (new content) crawls.
+   * If empty the system temp directory is used.
+   */
+  public static final String PARAM_BULK_VOLUMES = PREFIX + "bulkVolumes";
+
+  /**
+   * The maximum number of bytes a new content crawl may write into its workspace.
+   */
+  public static final String PARAM_JOB_QUOTA = PREFIX + "jobQuota";
+  public static final long DEFAULT_JOB_QUOTA = 20L * FileUtils.ONE_GB;
+
+  /**
+   * The maximum number of bytes a repair crawl may write into its workspace.
+   */
+  public static final String PARAM_REPAIR_JOB_QUOTA = PREFIX + "repairJobQuota";
+  public static final long DEFAULT_REPAIR_JOB_QUOTA = FileUtils.ONE_GB;
+
+  /**
+   * The maximum number of bytes reserved by all workspaces together,
+   * 0 for no limit other than the free space of the volumes.
+   */
+  public static final String PARAM_GLOBAL_QUOTA = PREFIX + "globalQuota";
+  public static final long DEFAULT_GLOBAL_QUOTA = 0;
+
+  /**
+   * The number of bytes to leave free on each volume.
+   */
+  public static final String PARAM_MIN_FREE_SPACE = PREFIX + "minFreeSpace";
+  public static final long DEFAULT_MIN_FREE_SPACE = FileUtils.ONE_GB;
+
+  /**
+   * How often a running crawl checks its workspace against its quota.
+   */
+  public static final String PARAM_QUOTA_CHECK_INTERVAL = PREFIX + "quotaCheckInterval";
+  public static final long DEFAULT_QUOTA_CHECK_INTERVAL = 30 * Constants.SECOND;
+
+  /**
+   * The percentage added to the usage of earlier crawls when estimating the
+   * space a crawl will need.
+   */
+  public static final String PARAM_ESTIMATE_MARGIN = PREFIX + "estimateMargin";
+  public static final int DEFAULT_ESTIMATE_MARGIN = 25;
+
+  /**
+   * The name of the directory created under each volume to hold workspaces.
+   */
+  public static final String WORKSPACE_ROOT = "crawl-workspaces";
+  static final String WORKSPACE_PREFIX = "crawl-";
+
+  private List<File> fastVolumes = Collections.emptyList();
+  private List<File> bulkVolumes = Collections.emptyList();
+  private long jobQuota = DEFAULT_JOB_QUOTA;
+  private long repairJobQuota = DEFAULT_REPAIR_JOB_QUOTA;
+  private long globalQuota = DEFAULT_GLOBAL_QUOTA;
+  private long minFreeSpace = DEFAULT_MIN_FREE_SPACE;
+  private long quotaCheckInterval = DEFAULT_QUOTA_CHECK_INTERVAL;
+  private int estimateMargin = DEFAULT_ESTIMATE_MARGIN;
+
+  /**
+   * The peak usage of the last crawl of each AU, keyed by kind and AU.
+   */
+  private final Map<String, Long> auPeaks = new HashMap<>();
+  private long newContentAverage = 0;
+  private long repairAverage = 0;
+  private final List<Runnable> releaseListeners = new ArrayList<>();
+
+  /**
+   * The currently allocated workspaces keyed by job id.
+   */
+  private final Map<String, Workspace> workspaces = new HashMap<>();
+
+  /**
+   * Workspaces left by interrupted crawls which will be resumed, keyed by job id.
+   */
+  private final Map<String, File> retained = new HashMap<>();
+
+  public void setConfig(Configuration config) {
+    fastVolumes = makeVolumeList(config.getList(PARAM_FAST_VOLUMES, Collections.emptyList()));
+    bulkVolumes = makeVolumeList(config.getList(PARAM_BULK_VOLUMES, Collections.emptyList()));
+    if (bulkVolumes.isEmpty()) {
+      bulkVolumes = Collections.singletonList(
+        new File(System.getProperty("java.io.tmpdir"), WORKSPACE_ROOT));
+    }
+    jobQuota = config.getSize(PARAM_JOB_QUOTA, DEFAULT_JOB_QUOTA);
+    repairJobQuota = config.getSize(PARAM_REPAIR_JOB_QUOTA, DEFAULT_REPAIR_JOB_QUOTA);
+    globalQuota = config.getSize(PARAM_GLOBAL_QUOTA, DEFAULT_GLOBAL_QUOTA);
+    minFreeSpace = config.getSize(PARAM_MIN_FREE_SPACE, DEFAULT_MIN_FREE_SPACE);
+    quotaCheckInterval = config.getTimeInterval(PARAM_QUOTA_CHECK_INTERVAL,
+      DEFAULT_QUOTA_CHECK_INTERVAL);
+    estimateMargin = config.getInt(PARAM_ESTIMATE_MARGIN, DEFAULT_ESTIMATE_MARGIN);
+    log.debug2("fastVolumes: {}, bulkVolumes: {}, jobQuota: {}, globalQuota: {}",
+      fastVolumes, bulkVolumes, jobQuota, globalQuota);
+  }
+
+  List<File> makeVolumeList(List<String> paths) {
+    List<File> volumes = new ArrayList<>();
+    for (String path : paths) {
+      if (!StringUtil.isNullString(path)) {
+        volumes.add(new File(path.trim(), WORKSPACE_ROOT));
+      }
+    }
+    return volumes;
+  }
+
+  public long getQuotaCheckInterval() {
+    return quotaCheckInterval;
+  }
+
+  /**
+   * Return the quota for a crawl of the given kind.
+   *
+   * @param isRepair true if this is a repair crawl.
+   * @return the number of bytes the crawl may use.
+   */
+  public long getJobQuota(boolean isRepair) {
+    return isRepair ? repairJobQuota : jobQuota;
+  }
+
+  /**
+   * Return the number of bytes a crawl is expected to need, from the usage
+   * of earlier crawls.
+   *
+   * @param auId     the AU to be crawled, or null if unknown.
+   * @param isRepair true if this is a repair crawl.
+   * @return the estimated need, at most the job quota.
+   */
+  public synchronized long estimateNeed(String auId, boolean isRepair) {
+    long quota = getJobQuota(isRepair);
+    Long peak = auId == null ? null : auPeaks.get(historyKey(auId, isRepair));
+    long base = peak != null ? peak : (isRepair ? repairAverage : newContentAverage);
+    if (base <= 0) {
+      return quota;
+    }
+    long estimate = base + base * estimateMargin / 100;
+    return quota > 0 ? Math.min(estimate, quota) : estimate;
+  }
+
+  static String historyKey(String auId, boolean isRepair) {
+    return (isRepair ? "repair:" : "new:") + auId;
+  }
+
+  /**
+   * Record the peak usage of a finished workspace as history for later
+   * estimates.
+   */
+  synchronized void recordUsage(Workspace ws) {
+    long peak = ws.getPeakBytes();
+    if (ws.getAuId() != null) {
+      auPeaks.put(historyKey(ws.getAuId(), ws.isRepair()), peak);
+    }
+    if (ws.isRepair()) {
+      repairAverage = repairAverage == 0 ? peak : (repairAverage * 3 + peak) / 4;
+    }
+    else {
+      newContentAverage = newContentAverage == 0 ? peak : (newContentAverage * 3 + peak) / 4;
+    }
+    log.debug2("Recorded peak usage {} of {}", StringUtil.sizeToString(peak), ws);
+  }
+
+  /**
+   * Register an action to be run whenever a workspace is released, so that
+   * crawls waiting for space can be reconsidered.
+   */
+  public synchronized void addReleaseListener(Runnable listener) {
+    releaseListeners.add(listener);
+  }
+
+  private void notifyReleaseListeners() {
+    List<Runnable> listeners;
+    synchronized (this) {
+      listeners = new ArrayList<>(releaseListeners);
+    }
+    for (Runnable listener : listeners) {
+      try {
+        listener.run();
+      } catch (RuntimeException e) {
+        log.warn("Workspace release listener threw", e);
+      }
+    }
+  }
+
+  /**
+   * Allocate a new workspace for a crawl, reserving its quota.
+   *
+   * @param jobId    the id of the job requiring the workspace.
+   * @param isRepair true if this is a repair crawl.
+   * @return the allocated Workspace
+   * @throws InsufficientSpaceException if no volume can hold the crawl's quota.
+   * @throws IOException if the directory could not be created.
+   */
+  public Workspace allocate(String jobId, boolean isRepair) throws IOException {
+    return allocate(jobId, null, isRepair);
+  }
+
+  /**
+   * Allocate a new workspace for a crawl, reserving the space it is
+   * estimated to need.
+   *
+   * @param jobId    the id of the job requiring the workspace.
+   * @param auId     the AU to be crawled, or null if unknown.
+   * @param isRepair true if this is a repair crawl.
+   * @return the allocated Workspace
+   * @throws InsufficientSpaceException if there is not room for the crawl.
+   * @throws IOException if the directory could not be created.
+   */
+  public synchronized Workspace allocate(String jobId, String auId, boolean isRepair)
+    throws IOException {
+    Workspace ws = workspaces.get(jobId);
+    if (ws != null) {
+      return ws;
+    }
+    long quota = getJobQuota(isRepair);
+    long need = estimateNeed(auId, isRepair);
+    File retainedDir = retained.remove(jobId);
+    if (retainedDir != null && retainedDir.isDirectory()) {
+      // resume in place, the contents are already on this volume.
+      ws = new Workspace(jobId, auId, isRepair, retainedDir.getParentFile(), retainedDir,
+        quota, need, true);
+      workspaces.put(jobId, ws);
+      log.debug("Reusing retained workspace {}", ws);
+      return ws;
+    }
+    if (globalQuota > 0 && getReservedBytes() + need > globalQuota) {
+      throw new InsufficientSpaceException("Global workspace quota of " +
+        StringUtil.sizeToString(globalQuota) + " exhausted, need " +
+        StringUtil.sizeToString(need));
+    }
+    File volume = null;
+    if (isRepair) {
+      volume = chooseVolume(fastVolumes, need);
+    }
+    if (volume == null) {
+      volume = chooseVolume(bulkVolumes, need);
+    }
+    if (volume == null) {
+      throw new InsufficientSpaceException("No workspace volume has " +
+        StringUtil.sizeToString(need) + " available");
+    }
+    File dir = new File(volume, WORKSPACE_PREFIX + jobId);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create workspace directory " + dir);
+    }
+    ws = new Workspace(jobId, auId, isRepair, volume, dir, quota, need, false);
+    workspaces.put(jobId, ws);
+    log.debug("Allocated workspace {}", ws);
+    return ws;
+  }
+
+  /**
+   * Release a workspace, deleting its directory.
+   *
+   * @param ws the workspace to release.
+   * @return true if the directory was deleted.
+   */
+  public boolean release(Workspace ws) {
+    ws.getUsedBytes();
+    synchronized (this) {
+      workspaces.remove(ws.getJobId());
+      recordUsage(ws);
+    }
+    log.debug("Releasing workspace {}", ws);
+    boolean deleted = FileUtil.delTree(ws.getDir());
+    notifyReleaseListeners();
+    return deleted;
+  }
+
+  /**
+   * Release a workspace's space reservation but keep its directory, so that
+   * a later allocation for the same job resumes from it.  It is removed by
+   * the next sweep unless its job is to be resumed.
+   *
+   * @param ws the workspace to retain.
+   */
+  public void retain(Workspace ws) {
+    synchronized (this) {
+      workspaces.remove(ws.getJobId());
+      log.debug("Retaining workspace {}", ws);
+      retained.put(ws.getJobId(), ws.getDir());
+    }
+    notifyReleaseListeners();
+  }
+
+  /**
+   * Return true if a crawl of the given kind could be allocated a workspace now.
+   *
+   * @param isRepair true if this is a repair crawl.
+   * @return true if there is space for the crawl.
+   */
+  public boolean hasSpaceFor(boolean isRepair) {
+    return hasSpaceFor(null, isRepair);
+  }
+
+  /**
+   * Return true if a crawl of the given AU could be allocated a workspace now.
+   *
+   * @param auId     the AU to be crawled, or null if unknown.
+   * @param isRepair true if this is a repair crawl.
+   * @return true if there is space for the crawl.
+   */
+  public synchronized boolean hasSpaceFor(String auId, boolean isRepair) {
+    long need = estimateNeed(auId, isRepair);
+    if (globalQuota > 0 && getReservedBytes() + need > globalQuota) {
+      return false;
+    }
+    return (isRepair && chooseVolume(fastVolumes, need) != null)
+      || chooseVolume(bulkVolumes, need) != null;
+  }
+
+  /**
+   * Delete any workspace directories left behind by a previous run.  This
+   * must be called before any workspace is allocated.
+   */
+  public void sweep() {
+    sweep(Collections.emptyList());
+  }
+
+  /**
+   * Delete any workspace directories left behind by a previous run, except
+   * those belonging to the given jobs, which are kept so that the jobs can
+   * resume from them.  This must be called before any workspace is allocated.
+   *
+   * @param retainJobIds the ids of the jobs whose workspaces should be kept.
+   */
+  public synchronized void sweep(Collection<String> retainJobIds) {
+    for (File volume : getAllVolumes()) {
+      File[] children = volume.listFiles();
+      if (children == null) {
+        continue;
+      }
+      for (File child : children) {
+        String name = child.getName();
+        if (!name.startsWith(WORKSPACE_PREFIX) || isAllocated(child)) {
+          continue;
+        }
+        String jobId = name.substring(WORKSPACE_PREFIX.length());
+        if (retainJobIds.contains(jobId) && child.isDirectory()) {
+          log.info("Retaining crawl workspace {} for resumption", child);
+          retained.put(jobId, child);
+        }
+        else {
+          log.info("Removing orphaned crawl workspace {}", child);
+          if (!FileUtil.delTree(child)) {
+            log.warn("Unable to remove orphaned crawl workspace {}", child);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Return true if there is a retained workspace for the job.
+   */
+  public synchronized boolean isRetained(String jobId) {
+    return retained.containsKey(jobId);
+  }
+
+  public synchronized long getReservedBytes() {
+    long total = 0;
+    for (Workspace ws : workspaces.values()) {
+      total += ws.getReserved();
+    }
+    return total;
+  }
+
+  /**
+   * Return the part of the reservations on a volume which has not yet been
+   * used, and so is not yet reflected in the volume's free space.
+   */
+  synchronized long getReservedBytes(File volume) {
+    long total = 0;
+    for (Workspace ws : workspaces.values()) {
+      if (ws.getVolume().equals(volume)) {
+        total += Math.max(0, ws.getReserved() - ws.getLastUsedBytes());
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Return the number of bytes still available for new workspaces on a volume.
+   */
+  long getAvailableBytes(File volume) {
+    File existing = volume;
+    while (existing != null && !existing.exists()) {
+      existing = existing.getParentFile();
+    }
+    if (existing == null) {
+      return 0;
+    }
+    return existing.getUsableSpace() - minFreeSpace - getReservedBytes(volume);
+  }
+
+  /**
+   * Pick the volume from a list with the most room, provided it can hold the quota.
+   */
+  File chooseVolume(List<File> volumes, long quota) {
+    File best = null;
+    long bestAvail = -1;
+    for (File volume : volumes) {
+      long avail = getAvailableBytes(volume);
+      if (avail >= quota && avail > bestAvail) {
+        best = volume;
+        bestAvail = avail;
+      }
+    }
+    return best;
+  }
+
+  List<File> getAllVolumes() {
+    Set<File> all = new LinkedHashSet<>(fastVolumes);
+    all.addAll(bulkVolumes);
+    return new ArrayList<>(all);
+  }
+
+  private boolean isAllocated(File dir) {
+    for (Workspace ws : workspaces.values()) {
+      if (ws.getDir().equals(dir)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A directory assigned to a single crawl.
+   */
+  public static class Workspace {
+    private final String jobId;
+    private final String auId;
+    private final boolean repair;
+    private final File volume;
+    private final File dir;
+    private final long quota;
+    private final long reserved;
+    private final boolean resumed;
+    private volatile long lastUsedBytes = 0;
+    private volatile long peakBytes = 0;
+
+    Workspace(String jobId, String auId, boolean repair, File volume, File dir, long quota,
+              long reserved, boolean resumed) {
+      this.jobId = jobId;
+      this.auId = auId;
+      this.repair = repair;
+      this.volume = volume;
+      this.dir = dir;
+      this.quota = quota;
+      this.reserved = reserved;
+      this.resumed = resumed;
+    }
+
+    public String getJobId() {
+      return jobId;
+    }
+
+    public String getAuId() {
+      return auId;
+    }
+
+    public boolean isRepair() {
+      return repair;
+    }
+
+    public File getVolume() {
+      return volume;
+    }
+
+    public File getDir() {
+      return dir;
+    }
+
+    public long getQuota() {
+      return quota;
+    }
+
+    /**
+     * Return the number of bytes reserved for the workspace.
+     */
+    public long getReserved() {
+      return reserved;
+    }
+
+    /**
+     * Return true if this workspace holds the output of an interrupted run
+     * of the same job.
+     */
+    public boolean isResumed() {
+      return resumed;
+    }
+
+    /**
+     * Return the number of bytes currently stored in the workspace.
+     */
+    public long getUsedBytes() {
+      long used = dir.isDirectory() ? FileUtils.sizeOfDirectory(dir) : 0;
+      lastUsedBytes = used;
+      if (used > peakBytes) {
+        peakBytes = used;
+      }
+      return used;
+    }
+
+    /**
+     * Return the usage found by the last call to {@link #getUsedBytes()}.
+     */
+    public long getLastUsedBytes() {
+      return lastUsedBytes;
+    }
+
+    /**
+     * Return the largest usage found by {@link #getUsedBytes()}.
+     */
+    public long getPeakBytes() {
+      return peakBytes;
+    }
+
+    public boolean isOverQuota() {
+      return quota > 0 && getUsedBytes() > quota;
+    }
+
+    @Override
+    public String toString() {
+      return "[Workspace jobId=" + jobId + ", dir=" + dir +
+        ", quota=" + StringUtil.sizeToString(quota) +
+        ", reserved=" + StringUtil.sizeToString(reserved) +
+        (resumed ? ", resumed" : "") + "]";
+    }
+  }
+
+  /**
+   * Thrown when there is no room for a workspace.
+   */
+  public static class InsufficientSpaceException extends IOException {
+    public InsufficientSpaceException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.lockss.config.Configuration;
+import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndex;
+import org.lockss.log.L4JLogger;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.plugin.CachedUrl;
+import org.lockss.util.Constants;
+import org.lockss.util.time.TimeBase;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds and caches, per AU, a CDX file describing the content already in
+ * the repository, suitable for a crawler's deduplication option (wget's
+ * --warc-dedup).  A crawler given the manifest writes revisit records for
+ * unchanged content instead of storing it again.
+ * <p>
+ * The payload digest of each url is computed once per stored version and
+ * kept in a state file next to the manifest, so refreshing the manifest
+ * before a recrawl only reads the content of urls which have new versions.
+ */
+public class DedupManifestCache {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  public static final String PREFIX = PluggableCrawlManager.PREFIX + "dedup.";
+
+  /**
+   * The directory in which manifests are kept.
+   */
+  public static final String PARAM_MANIFEST_DIR = PREFIX + "manifestDir";
+  public static final String DEFAULT_MANIFEST_DIR = "data/dedup";
+
+  /**
+   * A manifest used within this interval of its last refresh is not refreshed.
+   */
+  public static final String PARAM_REFRESH_INTERVAL = PREFIX + "refreshInterval";
+  public static final long DEFAULT_REFRESH_INTERVAL = Constants.HOUR;
+
+  /**
+   * The CDX header of the manifest: original url, payload digest and record id.
+   */
+  public static final String CDX_HEADER = " CDX a k u";
+
+  static final String CDX_EXT = ".cdx";
+  static final String STATE_EXT = ".state";
+  private File manifestDir;
+  private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+  private final Map<String, Long> lastRefresh = new ConcurrentHashMap<>();
+  private final Map<String, Object> auLocks = new ConcurrentHashMap<>();
+
+  public void setConfig(Configuration config) {
+    refreshInterval = config.getTimeInterval(PARAM_REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL);
+  }
+
+  public void setManifestDir(File dir) {
+    manifestDir = dir;
+  }
+
+  public File getManifestDir() {
+    return manifestDir;
+  }
+
+  /**
+   * Return the dedup manifest for an AU, building or refreshing it as needed.
+   *
+   * @param au the ArchivalUnit.
+   * @return the manifest CDX file, or null if the AU has no content.
+   * @throws IOException if the manifest cannot be written.
+   */
+  public File getManifest(ArchivalUnit au) throws IOException {
+    if (manifestDir == null) {
+      return null;
+    }
+    String auId = au.getAuId();
+    synchronized (auLocks.computeIfAbsent(auId, k -> new Object())) {
+      String key = DigestUtils.md5Hex(auId);
+      File cdx = new File(manifestDir, key + CDX_EXT);
+      File state = new File(manifestDir, key + STATE_EXT);
+      Long last = lastRefresh.get(auId);
+      if (last == null || TimeBase.msSince(last) >= refreshInterval || !cdx.exists()) {
+        refresh(au, state, cdx);
+        lastRefresh.put(auId, TimeBase.nowMs());
+      }
+      return cdx.exists() ? cdx : null;
+    }
+  }
+
+  /**
+   * Bring the state and manifest of an AU up to date with its content.
+   */
+  void refresh(ArchivalUnit au, File stateFile, File cdxFile) throws IOException {
+    Map<String, Entry> prev = readState(stateFile);
+    Map<String, Entry> current = new LinkedHashMap<>();
+    int digested = 0;
+    for (CachedUrl cu : au.getAuCachedUrlSet().getCuIterable()) {
+      try {
+        String url = cu.getUrl();
+        int version = cu.getVersion();
+        Entry entry = prev.get(url);
+        if (entry == null || entry.version != version) {
+          entry = new Entry(url, version, digest(cu), makeRecordId(au.getAuId(), url, version));
+          digested++;
+        }
+        current.put(url, entry);
+      } finally {
+        cu.release();
+      }
+    }
+    if (current.isEmpty()) {
+      cdxFile.delete();
+      stateFile.delete();
+      return;
+    }
+    if (digested == 0 && current.size() == prev.size() && cdxFile.exists()) {
+      log.debug2("Dedup manifest for {} is current", au.getName());
+      return;
+    }
+    log.debug("Refreshing dedup manifest for {}: {} urls, {} digested",
+      au.getName(), current.size(), digested);
+    if (!manifestDir.isDirectory() && !manifestDir.mkdirs()) {
+      throw new IOException("Unable to create dedup manifest directory " + manifestDir);
+    }
+    writeState(stateFile, current.values());
+    writeCdx(cdxFile, current.values());
+  }
+
+  /**
+   * Write a dedup CDX holding the original url, digest and record id of
+   * every entry of one or more CDX files, which may have different fields.
+   *
+   * @param sources the CDX files to merge.
+   * @param out     the file to write.
+   * @throws IOException if a file cannot be read or written.
+   */
+  public static void mergeCdx(List<File> sources, File out) throws IOException {
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(out), StandardCharsets.UTF_8))) {
+      w.write(CDX_HEADER + "\n");
+      for (File source : sources) {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(source), StandardCharsets.UTF_8))) {
+          String line = in.readLine();
+          List<String> fields = line == null ? null : CrawlCheckpoint.parseHeader(line);
+          if (fields == null) {
+            log.warn("Skipping dedup source {} without a CDX header", source);
+            continue;
+          }
+          int urlIdx = fields.indexOf("a");
+          int digestIdx = fields.indexOf("k");
+          int idIdx = fields.indexOf("u");
+          int needed = Math.max(urlIdx, Math.max(digestIdx, idIdx));
+          if (urlIdx < 0 || digestIdx < 0 || idIdx < 0) {
+            log.warn("Skipping dedup source {} lacking a, k or u fields", source);
+            continue;
+          }
+          while ((line = in.readLine()) != null) {
+            String[] cols = line.split(" ");
+            if (cols.length > needed) {
+              w.write(cols[urlIdx] + " " + WarcIndex.cdxDigest(cols[digestIdx]) + " " + cols[idIdx] + "\n");
+            }
+          }
+        }
+      }
+    }
+  }
+
+  String digest(CachedUrl cu) throws IOException {
+    MessageDigest md = DigestUtils.getSha1Digest();
+    byte[] buf = new byte[16 * 1024];
+    try (InputStream in = cu.getUnfilteredInputStream()) {
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        md.update(buf, 0, n);
+      }
+    }
+    return new Base32().encodeAsString(md.digest());
+  }
+
+  /**
+   * Make a stable WARC record id for a version of a url, to be referred to
+   * by revisit records.
+   */
+  static String makeRecordId(String auId, String url, int version) {
+    String name = auId + " " + url + " " + version;
+    return "<urn:uuid:" + UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)) + ">";
+  }
+
+  Map<String, Entry> readState(File stateFile) throws IOException {
+    Map<String, Entry> entries = new HashMap<>();
+    if (!stateFile.exists()) {
+      return entries;
+    }
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(stateFile), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] cols = line.split(" ");
+        if (cols.length == 4) {
+          try {
+            entries.put(cols[0],
+              new Entry(cols[0], Integer.parseInt(cols[1]), WarcIndex.cdxDigest(cols[2]), cols[3]));
+          } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed dedup state line: {}", line);
+          }
+        }
+      }
+    }
+    return entries;
+  }
+
+  void writeState(File stateFile, Collection<Entry> entries) throws IOException {
+    File tmp = new File(stateFile.getPath() + ".tmp");
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+      for (Entry e : entries) {
+        out.write(e.url + " " + e.version + " " + e.digest + " " + e.recordId + "\n");
+      }
+    }
+    replace(tmp, stateFile);
+  }
+
+  void writeCdx(File cdxFile, Collection<Entry> entries) throws IOException {
+    File tmp = new File(cdxFile.getPath() + ".tmp");
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+      out.write(CDX_HEADER + "\n");
+      for (Entry e : entries) {
+        out.write(e.url + " " + e.digest + " " + e.recordId + "\n");
+      }
+    }
+    replace(tmp, cdxFile);
+  }
+
+  private void replace(File tmp, File target) throws IOException {
+    if (!tmp.renameTo(target)) {
+      target.delete();
+      if (!tmp.renameTo(target)) {
+        throw new IOException("Unable to rename " + tmp + " to " + target);
+      }
+    }
+  }
+
+  /**
+   * The digest of one version of a url.
+   */
+  static class Entry {
+    final String url;
+    final int version;
+    final String digest;
+    final String recordId;
+
+    Entry(String url, int version, String digest, String recordId) {
+      this.url = url;
+      this.version = version;
+      this.digest = digest;
+      this.recordId = recordId;
+    }
+  }
+}
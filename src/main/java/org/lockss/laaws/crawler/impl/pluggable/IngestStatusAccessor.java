@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.lockss.daemon.status.ColumnDescriptor;
+import org.lockss.daemon.status.StatusAccessor;
+import org.lockss.daemon.status.StatusService;
+import org.lockss.daemon.status.StatusTable;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics.Stats;
+
+import java.util.*;
+
+/**
+ * The status table of repository ingest statistics, one row per pluggable
+ * crawler followed by one row per AU.
+ */
+public class IngestStatusAccessor implements StatusAccessor {
+  public static final String TABLE_NAME = "PluggableCrawlIngest";
+
+  static final String COL_KIND = "kind";
+  static final String COL_NAME = "name";
+  static final String COL_FILES = "files";
+  static final String COL_FAILURES = "failures";
+  static final String COL_BYTES = "bytes";
+  static final String COL_RECORDS = "records";
+  static final String COL_BYTES_PER_SEC = "bytesPerSec";
+  static final String COL_RECORDS_PER_SEC = "recordsPerSec";
+  static final String COL_LATENCY = "latency";
+
+  static final String[] LATENCY_TITLES = {"<100ms", "<1s", "<10s", "<1m", "<10m", ">=10m"};
+
+  private final IngestMetrics metrics;
+
+  public IngestStatusAccessor(IngestMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Crawl Ingest Statistics";
+  }
+
+  @Override
+  public boolean requiresKey() {
+    return false;
+  }
+
+  @Override
+  public void populateTable(StatusTable table) throws StatusService.NoSuchTableException {
+    table.setColumnDescriptors(getColumnDescriptors());
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (Map.Entry<String, Stats> ent : metrics.getAllCrawlerStats().entrySet()) {
+      rows.add(makeRow("Crawler", ent.getKey(), ent.getValue()));
+    }
+    for (Map.Entry<String, Stats> ent : metrics.getAllAuStats().entrySet()) {
+      rows.add(makeRow("AU", ent.getKey(), ent.getValue()));
+    }
+    table.setRows(rows);
+  }
+
+  List<ColumnDescriptor> getColumnDescriptors() {
+    List<ColumnDescriptor> cols = new ArrayList<>();
+    cols.add(new ColumnDescriptor(COL_KIND, "", ColumnDescriptor.TYPE_STRING));
+    cols.add(new ColumnDescriptor(COL_NAME, "Crawler / AU", ColumnDescriptor.TYPE_STRING));
+    cols.add(new ColumnDescriptor(COL_FILES, "Files", ColumnDescriptor.TYPE_INT));
+    cols.add(new ColumnDescriptor(COL_FAILURES, "Failures", ColumnDescriptor.TYPE_INT));
+    cols.add(new ColumnDescriptor(COL_BYTES, "Bytes", ColumnDescriptor.TYPE_INT));
+    cols.add(new ColumnDescriptor(COL_RECORDS, "Records", ColumnDescriptor.TYPE_INT));
+    cols.add(new ColumnDescriptor(COL_BYTES_PER_SEC, "Bytes/s", ColumnDescriptor.TYPE_FLOAT,
+        "Per file being stored, from the time spent in the repository"));
+    cols.add(new ColumnDescriptor(COL_RECORDS_PER_SEC, "Records/s", ColumnDescriptor.TYPE_FLOAT));
+    for (int i = 0; i < LATENCY_TITLES.length; i++) {
+      cols.add(new ColumnDescriptor(COL_LATENCY + i, LATENCY_TITLES[i], ColumnDescriptor.TYPE_INT));
+    }
+    return cols;
+  }
+
+  Map<String, Object> makeRow(String kind, String name, Stats stats) {
+    Map<String, Object> row = new HashMap<>();
+    row.put(COL_KIND, kind);
+    row.put(COL_NAME, name);
+    row.put(COL_FILES, stats.getFiles());
+    row.put(COL_FAILURES, stats.getFailures());
+    row.put(COL_BYTES, stats.getBytes());
+    row.put(COL_RECORDS, stats.getRecords());
+    row.put(COL_BYTES_PER_SEC, stats.getBytesPerSecond());
+    row.put(COL_RECORDS_PER_SEC, stats.getRecordsPerSecond());
+    long[] latency = stats.getLatencyCounts();
+    for (int i = 0; i < latency.length; i++) {
+      row.put(COL_LATENCY + i, latency[i]);
+    }
+    return row;
+  }
+}
@@ -28,14 +28,23 @@ package org.lockss.laaws.crawler.impl.pluggable;
 import org.lockss.crawler.CrawlerStatus;
 import org.lockss.daemon.Crawler;
 import org.lockss.laaws.crawler.impl.ApiUtils;
+import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
 import org.lockss.laaws.crawler.model.CrawlStatus;
 import org.lockss.laaws.crawler.model.CrawlerConfig;
+import org.lockss.laaws.crawler.utils.AppendOnlyList;
 import org.lockss.plugin.ArchivalUnit;
 import org.lockss.util.rest.crawler.CrawlDesc;
 import org.lockss.util.rest.crawler.CrawlJob;
 import org.lockss.util.rest.crawler.JobStatus;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Basic Pluggable crawl - extend to provide functionality for a specific crawler
@@ -76,7 +85,10 @@ public abstract class PluggableCrawl {
     this.crawlJob = crawlJob;
     this.crawlDesc = crawlJob.getCrawlDesc();
     this.au = au;
-    crawlJob.setJobId(generateKey());
+    // a job restarted after a service exit keeps its id.
+    if (crawlJob.getJobId() == null) {
+      crawlJob.setJobId(generateKey());
+    }
     crawlJob.setJobStatus(new JobStatus());
     crawlerStatus = new PluggableCrawlerStatus(this);
   }
@@ -205,6 +217,16 @@ public abstract class PluggableCrawl {
    * the short-term.
    */
   public static class PluggableCrawlerStatus extends CrawlerStatus {
+    // Indexed views of the error and MIME type urls, in the order they were
+    // first reported, so a page of them can be read without a copy.  The
+    // sets keep a url from being listed twice, as the status's own sets do.
+    private final AppendOnlyList<String> errorUrls = new AppendOnlyList<>();
+    private final Set<String> errorUrlSet = new HashSet<>();
+    private final Map<String, AppendOnlyList<String>> mimeTypeUrls = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> mimeTypeUrlSets = new HashMap<>();
+    // Told of each change, so it can be pushed to subscribers.
+    private volatile PluggableCrawlManager.CrawlStatusListener statusListener;
+
     /**
      * Instantiates a new Pluggable crawler status.
      *
@@ -229,6 +251,105 @@ public abstract class PluggableCrawl {
       initCounters();
     }
 
+    /**
+     * Set the listener told of each change to this status.
+     */
+    public void setStatusListener(PluggableCrawlManager.CrawlStatusListener listener) {
+      this.statusListener = listener;
+    }
+
+    private void changed() {
+      PluggableCrawlManager.CrawlStatusListener listener = statusListener;
+      if (listener != null) {
+        listener.crawlStatusChanged(this);
+      }
+    }
+
+    @Override
+    public void setCrawlStatus(int status) {
+      super.setCrawlStatus(status);
+      changed();
+    }
+
+    @Override
+    public void setCrawlStatus(int status, String message) {
+      super.setCrawlStatus(status, message);
+      changed();
+    }
+
+    @Override
+    public void signalCrawlStarted() {
+      super.signalCrawlStarted();
+      changed();
+    }
+
+    @Override
+    public void signalCrawlEnded() {
+      super.signalCrawlEnded();
+      changed();
+    }
+
+    @Override
+    public void signalUrlFetched(String url) {
+      super.signalUrlFetched(url);
+      changed();
+    }
+
+    @Override
+    public void signalUrlNotModified(String url) {
+      super.signalUrlNotModified(url);
+      changed();
+    }
+
+    @Override
+    public void signalErrorForUrl(String url, String message) {
+      super.signalErrorForUrl(url, message);
+      synchronized (errorUrlSet) {
+        if (errorUrlSet.add(url)) {
+          errorUrls.add(url);
+        }
+      }
+      changed();
+    }
+
+    @Override
+    public void signalMimeTypeOfUrl(String mimeType, String url) {
+      super.signalMimeTypeOfUrl(mimeType, url);
+      if (mimeType != null) {
+        synchronized (mimeTypeUrlSets) {
+          if (mimeTypeUrlSets.computeIfAbsent(mimeType, k -> new HashSet<>()).add(url)) {
+            mimeTypeUrls.computeIfAbsent(mimeType, k -> new AppendOnlyList<>()).add(url);
+          }
+        }
+      }
+    }
+
+    /**
+     * Return the urls with errors, in the order they first failed.  The list
+     * is live: it grows as errors are reported, and its existing elements
+     * never change.
+     */
+    public List<String> getErrorUrlView() {
+      return Collections.unmodifiableList(errorUrls);
+    }
+
+    /**
+     * Return the urls of a MIME type, in the order they were first reported.
+     * The list is live, as {@link #getErrorUrlView()}.
+     */
+    public List<String> getMimeTypeUrlView(String mimeType) {
+      AppendOnlyList<String> urls = mimeType == null ? null : mimeTypeUrls.get(mimeType);
+      return urls == null ? Collections.emptyList() : Collections.unmodifiableList(urls);
+    }
+
+    /**
+     * Replace the start urls, as when other requests are merged into the
+     * crawl.
+     */
+    public void setStartUrls(List<String> urls) {
+      this.startUrls = urls;
+    }
+
     @Override
     public String toString() {
       return "PluggableCrawlerStatus{" +
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.lockss.log.L4JLogger;
+import org.lockss.util.StringUtil;
+import org.lockss.util.rest.crawler.CrawlDesc;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The parameters of one in-process HTTP crawl, taken from its CrawlDesc.
+ * The extraCrawlerData keys are those understood by the wget crawler, so the
+ * same request can be sent to either.
+ */
+public class HttpCrawlOptions {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  public static final String ACCEPT_REGEX_KEY = "accept-regex";
+  public static final String REJECT_REGEX_KEY = "reject-regex";
+  public static final String DOMAINS_KEY = "domains";
+  public static final String SPAN_HOSTS_KEY = "span-hosts";
+  public static final String HEADER_KEY = "header";
+  public static final String USER_AGENT_KEY = "user-agent";
+  public static final String WAIT_KEY = "wait";
+  public static final String TRIES_KEY = "tries";
+  public static final String TIMEOUT_KEY = "timeout";
+  public static final String READ_TIMEOUT_KEY = "read-timeout";
+  public static final String LEVEL_KEY = "level";
+  /**
+   * Not a wget option: true to send conditional requests for the urls the
+   * AU already holds, false to fetch them in full.
+   */
+  public static final String INCREMENTAL_KEY = "incremental";
+
+  /**
+   * The extraCrawlerData keys which are understood.
+   */
+  public static final Set<String> SUPPORTED_KEYS = Set.of(ACCEPT_REGEX_KEY, REJECT_REGEX_KEY,
+    DOMAINS_KEY, SPAN_HOSTS_KEY, HEADER_KEY, USER_AGENT_KEY, WAIT_KEY, TRIES_KEY, TIMEOUT_KEY,
+    READ_TIMEOUT_KEY, LEVEL_KEY, INCREMENTAL_KEY);
+
+  /**
+   * Headers the HTTP client sets itself and will not accept from a request.
+   */
+  static final Set<String> RESTRICTED_HEADERS =
+    Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+  private final List<URI> startUrls = new ArrayList<>();
+  private final Set<String> startHosts = new LinkedHashSet<>();
+  private final List<String> domains = new ArrayList<>();
+  private final Map<String, List<String>> headers = new LinkedHashMap<>();
+  private boolean spanHosts = false;
+  private Pattern acceptPattern;
+  private Pattern rejectPattern;
+  private int maxDepth;
+  private int tries;
+  private long wait = 0;
+  private long readTimeout;
+  private String userAgent;
+  private boolean incremental = false;
+
+  /**
+   * @param maxDepth    the depth of a new content crawl which doesn't give one.
+   * @param tries       the number of attempts at each url.
+   * @param readTimeout the time allowed for each response, in milliseconds.
+   * @param userAgent   the User-Agent sent if the crawl doesn't give one.
+   */
+  public HttpCrawlOptions(int maxDepth, int tries, long readTimeout, String userAgent) {
+    this.maxDepth = maxDepth;
+    this.tries = tries;
+    this.readTimeout = readTimeout;
+    this.userAgent = userAgent;
+  }
+
+  /**
+   * Build the options of a crawl.
+   *
+   * @param crawlDesc the description of the crawl.
+   * @param defaults  the crawler's defaults.
+   * @return the options of the crawl.
+   * @throws IllegalArgumentException if the crawl has no valid start urls.
+   */
+  public static HttpCrawlOptions fromCrawlDesc(CrawlDesc crawlDesc, HttpCrawlOptions defaults) {
+    return fromCrawlDesc(crawlDesc, defaults, Collections.emptyMap());
+  }
+
+  /**
+   * Build the options of a crawl run by a crawler with options of its own.
+   *
+   * @param crawlDesc  the description of the crawl.
+   * @param defaults   the crawler's defaults.
+   * @param configured the crawler's options, with the same keys as the
+   *                   crawl's extraCrawlerData, which take precedence.
+   * @return the options of the crawl.
+   * @throws IllegalArgumentException if the crawl has no valid start urls.
+   */
+  public static HttpCrawlOptions fromCrawlDesc(CrawlDesc crawlDesc, HttpCrawlOptions defaults,
+                                               Map<String, ?> configured) {
+    HttpCrawlOptions opts = new HttpCrawlOptions(defaults.maxDepth, defaults.tries,
+      defaults.readTimeout, defaults.userAgent);
+    opts.incremental = defaults.incremental;
+    opts.wait = defaults.wait;
+    List<String> crawlList = crawlDesc.getCrawlList();
+    if (crawlList != null) {
+      for (String url : crawlList) {
+        opts.addStartUrl(url);
+      }
+    }
+    if (opts.startUrls.isEmpty()) {
+      throw new IllegalArgumentException("No URLs to crawl were specified");
+    }
+    if (crawlDesc.getCrawlKind() == CrawlDesc.CrawlKindEnum.REPAIR) {
+      // a repair fetches just the urls it was given, in full.
+      opts.maxDepth = 0;
+      opts.incremental = false;
+    }
+    else if (crawlDesc.getCrawlDepth() != null && crawlDesc.getCrawlDepth() > 0) {
+      opts.maxDepth = crawlDesc.getCrawlDepth();
+    }
+    Map<String, Object> options = new LinkedHashMap<>(configured);
+    Map<String, Object> extra = crawlDesc.getExtraCrawlerData();
+    if (extra != null) {
+      options.putAll(extra);
+    }
+    if (!options.isEmpty()) {
+      opts.apply(options, crawlDesc.getCrawlKind() != CrawlDesc.CrawlKindEnum.REPAIR);
+    }
+    return opts;
+  }
+
+  void apply(Map<String, Object> extra, boolean recursive) {
+    acceptPattern = compile(extra.get(ACCEPT_REGEX_KEY), ACCEPT_REGEX_KEY);
+    rejectPattern = compile(extra.get(REJECT_REGEX_KEY), REJECT_REGEX_KEY);
+    Object domainsVal = extra.get(DOMAINS_KEY);
+    if (domainsVal instanceof List) {
+      for (Object d : (List<?>) domainsVal) {
+        addDomains(String.valueOf(d));
+      }
+    }
+    else if (domainsVal != null) {
+      addDomains(domainsVal.toString());
+    }
+    Object spanVal = extra.get(SPAN_HOSTS_KEY);
+    spanHosts = spanVal != null && Boolean.parseBoolean(spanVal.toString());
+    Object headerVal = extra.get(HEADER_KEY);
+    if (headerVal instanceof List) {
+      for (Object h : (List<?>) headerVal) {
+        addHeader(String.valueOf(h));
+      }
+    }
+    else if (headerVal != null) {
+      addHeader(headerVal.toString());
+    }
+    Object uaVal = extra.get(USER_AGENT_KEY);
+    if (uaVal != null && !StringUtil.isNullString(uaVal.toString())) {
+      userAgent = uaVal.toString();
+    }
+    Object waitVal = extra.get(WAIT_KEY);
+    if (waitVal != null) {
+      try {
+        wait = parseSeconds(waitVal);
+      }
+      catch (NumberFormatException e) {
+        log.warn("Ignoring invalid {}: {}", WAIT_KEY, waitVal);
+      }
+    }
+    Object timeoutVal = extra.getOrDefault(READ_TIMEOUT_KEY, extra.get(TIMEOUT_KEY));
+    if (timeoutVal != null) {
+      try {
+        readTimeout = parseSeconds(timeoutVal);
+      }
+      catch (NumberFormatException e) {
+        log.warn("Ignoring invalid {}: {}", READ_TIMEOUT_KEY, timeoutVal);
+      }
+    }
+    Object triesVal = extra.get(TRIES_KEY);
+    if (triesVal != null) {
+      try {
+        tries = Math.max(1, Integer.parseInt(triesVal.toString().trim()));
+      }
+      catch (NumberFormatException e) {
+        log.warn("Ignoring invalid {}: {}", TRIES_KEY, triesVal);
+      }
+    }
+    Object levelVal = extra.get(LEVEL_KEY);
+    if (recursive && levelVal != null) {
+      try {
+        maxDepth = Integer.parseInt(levelVal.toString().trim());
+      }
+      catch (NumberFormatException e) {
+        log.warn("Ignoring invalid {}: {}", LEVEL_KEY, levelVal);
+      }
+    }
+    Object incrementalVal = extra.get(INCREMENTAL_KEY);
+    if (recursive && incrementalVal != null) {
+      incremental = Boolean.parseBoolean(incrementalVal.toString().trim());
+    }
+  }
+
+  void addStartUrl(String url) {
+    try {
+      URI uri = normalize(new URI(url.trim()));
+      if (uri != null) {
+        startUrls.add(uri);
+        startHosts.add(uri.getHost().toLowerCase(Locale.ROOT));
+        return;
+      }
+    }
+    catch (Exception e) {
+      // fall through
+    }
+    log.warn("Ignoring invalid start url: {}", url);
+  }
+
+  private void addDomains(String list) {
+    for (String d : list.split(",")) {
+      d = d.trim().toLowerCase(Locale.ROOT);
+      if (!d.isEmpty()) {
+        domains.add(d.startsWith(".") ? d.substring(1) : d);
+      }
+    }
+  }
+
+  private void addHeader(String header) {
+    int idx = header.indexOf(':');
+    if (idx <= 0) {
+      log.warn("Ignoring invalid header: {}", header);
+      return;
+    }
+    String name = header.substring(0, idx).trim();
+    if (RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+      log.warn("Ignoring header which cannot be set: {}", name);
+      return;
+    }
+    if (name.equalsIgnoreCase("User-Agent")) {
+      userAgent = header.substring(idx + 1).trim();
+      return;
+    }
+    headers.computeIfAbsent(name, k -> new ArrayList<>()).add(header.substring(idx + 1).trim());
+  }
+
+  private static Pattern compile(Object regex, String key) {
+    if (regex == null || StringUtil.isNullString(regex.toString())) {
+      return null;
+    }
+    try {
+      return Pattern.compile(regex.toString());
+    }
+    catch (PatternSyntaxException e) {
+      throw new IllegalArgumentException("Invalid " + key + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parse a duration given in seconds, as wget does, or as a LOCKSS time
+   * interval if it has units.
+   */
+  public static long parseSeconds(Object value) {
+    if (value instanceof Number) {
+      return Math.round(((Number) value).doubleValue() * 1000);
+    }
+    String str = value.toString().trim();
+    if (str.matches("[0-9]*\\.?[0-9]+")) {
+      return Math.round(Double.parseDouble(str) * 1000);
+    }
+    return StringUtil.parseTimeInterval(str);
+  }
+
+  /**
+   * Return the url without its fragment, or null if it isn't an absolute
+   * http or https url.
+   */
+  static URI normalize(URI uri) {
+    String scheme = uri.getScheme();
+    if (scheme == null || uri.getHost() == null ||
+      !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+      return null;
+    }
+    if (uri.getRawFragment() == null) {
+      return uri;
+    }
+    String str = uri.toString();
+    return URI.create(str.substring(0, str.indexOf('#')));
+  }
+
+  /**
+   * Return true if a url found while crawling should be fetched.  Hosts are
+   * limited to those of the start urls unless span-hosts is set, and if
+   * domains are given to those domains as well.
+   *
+   * @param uri a normalized url.
+   * @return true if the url passes the host and regex filters.
+   */
+  public boolean isAllowed(URI uri) {
+    String host = uri.getHost().toLowerCase(Locale.ROOT);
+    boolean hostOk = startHosts.contains(host) || (spanHosts && domains.isEmpty());
+    if (!hostOk && !domains.isEmpty()) {
+      for (String d : domains) {
+        if (host.equals(d) || host.endsWith("." + d)) {
+          hostOk = true;
+          break;
+        }
+      }
+    }
+    if (!hostOk) {
+      return false;
+    }
+    String url = uri.toString();
+    if (acceptPattern != null && !acceptPattern.matcher(url).find()) {
+      return false;
+    }
+    return rejectPattern == null || !rejectPattern.matcher(url).find();
+  }
+
+  public List<URI> getStartUrls() {
+    return Collections.unmodifiableList(startUrls);
+  }
+
+  /**
+   * Return the number of links followed from a start url.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public int getTries() {
+    return tries;
+  }
+
+  /**
+   * Return the time to wait between requests, in milliseconds.  Requests are
+   * made one at a time if this is set.
+   */
+  public long getWait() {
+    return wait;
+  }
+
+  public long getReadTimeout() {
+    return readTimeout;
+  }
+
+  public String getUserAgent() {
+    return userAgent;
+  }
+
+  public Map<String, List<String>> getHeaders() {
+    return Collections.unmodifiableMap(headers);
+  }
+
+  /**
+   * Return true if urls the AU already holds are fetched with conditional
+   * requests.  Never true for a repair.
+   */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public HttpCrawlOptions setWait(long wait) {
+    this.wait = wait;
+    return this;
+  }
+
+  public HttpCrawlOptions setIncremental(boolean incremental) {
+    this.incremental = incremental;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "[HttpCrawlOptions startUrls=" + startUrls + ", maxDepth=" + maxDepth +
+      ", accept=" + acceptPattern + ", reject=" + rejectPattern + ", domains=" + domains +
+      ", spanHosts=" + spanHosts + ", wait=" + wait + ", tries=" + tries +
+      ", incremental=" + incremental + "]";
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcRecordWriter;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcUploadStream;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.UrlUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs one in-process crawl: fetches the start urls and the links found in
+ * them to the crawl's depth, writes each exchange to a WARC upload stream as
+ * it completes, and reports each url to the crawl's status.
+ * <p>
+ * Requests are sent asynchronously, up to a fixed number at a time; all the
+ * bookkeeping and writing is done on the thread calling {@link #run()}.
+ */
+public class HttpCrawlSession {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  static final Pattern LINK_PATTERN = Pattern.compile(
+    "\\b(?:href|src)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))",
+    Pattern.CASE_INSENSITIVE);
+
+  private final HttpFetcher fetcher;
+  private final HttpCrawlOptions opts;
+  private final CrawlerStatus status;
+  private final OutputStream out;
+  private final WarcRecordWriter writer;
+  private final Pattern excludeStatusPattern;
+  private final int concurrency;
+
+  private final Deque<Pending> frontier = new ArrayDeque<>();
+  private final Set<String> seen = new HashSet<>();
+  private final BlockingQueue<Fetched> completed = new LinkedBlockingQueue<>();
+  private final Set<String> stems = new LinkedHashSet<>();
+  private int inFlight = 0;
+  private volatile boolean stopped = false;
+  private volatile boolean finished = false;
+  private StoredContent storedContent;
+
+  /**
+   * @param fetcher              sends the requests.
+   * @param opts                 the options of the crawl.
+   * @param status               receives the per-url events.
+   * @param out                  the stream to which the records are written.  A
+   *                             {@link WarcUploadStream} is told where each
+   *                             exchange ends.
+   * @param compress             true to gzip each record.
+   * @param excludeStatusPattern the HTTP status codes reported as errors.
+   * @param concurrency          the maximum number of requests outstanding.
+   */
+  public HttpCrawlSession(HttpFetcher fetcher, HttpCrawlOptions opts, CrawlerStatus status,
+                          OutputStream out, boolean compress,
+                          Pattern excludeStatusPattern, int concurrency) {
+    this.fetcher = fetcher;
+    this.opts = opts;
+    this.status = status;
+    this.out = out;
+    this.writer = new WarcRecordWriter(out, compress);
+    this.excludeStatusPattern = excludeStatusPattern;
+    // wget's wait is between requests, so it implies one at a time.
+    this.concurrency = opts.getWait() > 0 ? 1 : Math.max(1, concurrency);
+  }
+
+  /**
+   * Make conditional requests for the urls which have stored validators.  A
+   * url found to be unchanged is reported as not modified, no records are
+   * written for it, and the links in its stored content are followed.
+   *
+   * @param storedContent the validators and content of the AU.
+   */
+  public void setStoredContent(StoredContent storedContent) {
+    this.storedContent = storedContent;
+  }
+
+  /**
+   * Crawl until there is nothing left to fetch or the session is stopped.
+   *
+   * @throws IOException          if the records could not be uploaded.
+   * @throws InterruptedException if interrupted.
+   */
+  public void run() throws IOException, InterruptedException {
+    for (URI uri : opts.getStartUrls()) {
+      if (seen.add(uri.toString())) {
+        frontier.add(new Pending(uri, 0, 1));
+      }
+    }
+    long lastSent = 0;
+    try {
+      while (!stopped && (!frontier.isEmpty() || inFlight > 0)) {
+        while (!stopped && inFlight < concurrency && !frontier.isEmpty()) {
+          if (opts.getWait() > 0 && lastSent > 0) {
+            long remaining = lastSent + opts.getWait() - System.currentTimeMillis();
+            if (remaining > 0) {
+              Thread.sleep(remaining);
+            }
+          }
+          send(frontier.poll());
+          lastSent = System.currentTimeMillis();
+        }
+        if (inFlight > 0) {
+          Fetched f = completed.take();
+          inFlight--;
+          handle(f);
+        }
+      }
+    }
+    finally {
+      // the responses still to come are discarded as they arrive.
+      finished = true;
+      discardCompleted();
+    }
+  }
+
+  private void discardCompleted() {
+    Fetched f;
+    while ((f = completed.poll()) != null) {
+      if (f.response != null) {
+        f.response.body().delete();
+      }
+    }
+  }
+
+  private void send(Pending p) {
+    HttpRequest request;
+    try {
+      HttpRequest.Builder builder = fetcher.makeRequest(p.uri, opts);
+      StoredContent.Validators v = getValidators(p.uri.toString());
+      if (v != null) {
+        if (v.getEtag() != null) {
+          builder.header("If-None-Match", v.getEtag());
+        }
+        if (v.getLastModified() != null) {
+          builder.header("If-Modified-Since", v.getLastModified());
+        }
+      }
+      request = builder.build();
+    }
+    catch (IllegalArgumentException e) {
+      status.signalErrorForUrl(p.uri.toString(), e.getMessage());
+      return;
+    }
+    Instant date = Instant.now();
+    inFlight++;
+    fetcher.fetch(request)
+      .whenComplete((resp, err) -> {
+        completed.add(new Fetched(p, date, resp, err));
+        if (finished) {
+          discardCompleted();
+        }
+      });
+  }
+
+  void handle(Fetched f) throws IOException {
+    String url = f.pending.uri.toString();
+    if (f.error != null) {
+      Throwable t = f.error instanceof CompletionException && f.error.getCause() != null
+        ? f.error.getCause() : f.error;
+      SpooledBody.BodyTooLargeException tooLarge = findTooLarge(t);
+      if (tooLarge != null) {
+        t = tooLarge;
+      }
+      else if (f.pending.attempt < opts.getTries()) {
+        log.debug2("Retrying {} after {}", url, t.toString());
+        frontier.addFirst(new Pending(f.pending.uri, f.pending.depth, f.pending.attempt + 1));
+        return;
+      }
+      status.signalErrorForUrl(url, t.getMessage() != null ? t.getMessage() : t.toString());
+      return;
+    }
+    try {
+      handleResponse(f);
+    }
+    finally {
+      f.response.body().delete();
+    }
+  }
+
+  /**
+   * Return the exception of a fetch whose body was too large, which trying
+   * again won't change, or null.
+   */
+  static SpooledBody.BodyTooLargeException findTooLarge(Throwable t) {
+    for (; t != null; t = t.getCause()) {
+      if (t instanceof SpooledBody.BodyTooLargeException) {
+        return (SpooledBody.BodyTooLargeException)t;
+      }
+    }
+    return null;
+  }
+
+  private void handleResponse(Fetched f) throws IOException {
+    String url = f.pending.uri.toString();
+    HttpResponse<SpooledBody> resp = f.response;
+    if (resp.statusCode() == 304 && getValidators(url) != null) {
+      handleNotModified(f);
+      return;
+    }
+    SpooledBody body = resp.body();
+    String responseId;
+    try (InputStream in = body.openStream()) {
+      responseId = writer.writeResponse(url, f.date, HttpFetcher.responseHeader(resp), in,
+        body.getLength(), body.getDigest());
+    }
+    writer.writeRequest(url, f.date, responseId, HttpFetcher.requestHeader(resp.request()));
+    if (out instanceof WarcUploadStream) {
+      ((WarcUploadStream) out).endRecord();
+    }
+
+    int code = resp.statusCode();
+    String mimeType = HttpFetcher.getMimeType(resp.headers());
+    if (mimeType != null) {
+      status.signalMimeTypeOfUrl(mimeType, url);
+    }
+    if (excludeStatusPattern != null &&
+      excludeStatusPattern.matcher(Integer.toString(code)).matches()) {
+      status.signalErrorForUrl(url, code + ": " + HttpFetcher.reasonPhrase(code));
+      return;
+    }
+    status.signalUrlFetched(url);
+    status.addContentBytesFetched(body.getLength());
+    addStem(url);
+    if (code >= 300 && code < 400) {
+      // a redirect doesn't count as a level.
+      resp.headers().firstValue("Location")
+        .ifPresent(loc -> enqueue(f.pending.uri, loc, f.pending.depth));
+    }
+    else if (f.pending.depth < opts.getMaxDepth() && isHtml(mimeType)) {
+      enqueueLinks(f.pending, body.getBytes());
+    }
+  }
+
+  /**
+   * Handle a 304 response to a conditional request: the stored version is
+   * current, so nothing is written, but its links are still followed.
+   */
+  void handleNotModified(Fetched f) {
+    String url = f.pending.uri.toString();
+    status.signalUrlNotModified(url);
+    addStem(url);
+    if (f.pending.depth < opts.getMaxDepth() && isHtml(getValidators(url).getMimeType())) {
+      try {
+        byte[] stored = storedContent.readContent(url);
+        if (stored != null) {
+          enqueueLinks(f.pending, stored);
+        }
+      }
+      catch (IOException e) {
+        log.warn("Unable to read the stored content of {}", url, e);
+      }
+    }
+  }
+
+  private StoredContent.Validators getValidators(String url) {
+    return storedContent == null ? null : storedContent.get(url);
+  }
+
+  private void addStem(String url) {
+    try {
+      stems.add(UrlUtil.getUrlPrefix(url));
+    }
+    catch (MalformedURLException e) {
+      log.warn("Fetched malformed url: {}", url);
+    }
+  }
+
+  private void enqueueLinks(Pending p, byte[] html) {
+    for (String link : extractLinks(html)) {
+      enqueue(p.uri, link, p.depth + 1);
+    }
+  }
+
+  private void enqueue(URI base, String link, int depth) {
+    URI uri;
+    try {
+      uri = HttpCrawlOptions.normalize(base.resolve(link.trim()));
+    }
+    catch (IllegalArgumentException e) {
+      log.debug3("Ignoring unparseable link {} in {}", link, base);
+      return;
+    }
+    if (uri != null && !seen.contains(uri.toString()) && opts.isAllowed(uri)) {
+      seen.add(uri.toString());
+      frontier.add(new Pending(uri, depth, 1));
+    }
+  }
+
+  static boolean isHtml(String mimeType) {
+    return "text/html".equals(mimeType) || "application/xhtml+xml".equals(mimeType);
+  }
+
+  /**
+   * Return the targets of the href and src attributes of an HTML page.
+   */
+  static List<String> extractLinks(byte[] html) {
+    List<String> links = new ArrayList<>();
+    Matcher m = LINK_PATTERN.matcher(new String(html, StandardCharsets.ISO_8859_1));
+    while (m.find()) {
+      String link = m.group(1) != null ? m.group(1) : m.group(2) != null ? m.group(2) : m.group(3);
+      link = link.replace("&amp;", "&");
+      if (link.isEmpty() || link.startsWith("#") || link.regionMatches(true, 0, "javascript:", 0, 11) ||
+        link.regionMatches(true, 0, "mailto:", 0, 7) || link.regionMatches(true, 0, "data:", 0, 5)) {
+        continue;
+      }
+      links.add(link);
+    }
+    return links;
+  }
+
+  /**
+   * Stop sending requests.  {@link #run()} returns once it notices.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Return the url prefixes of the urls fetched.
+   */
+  public List<String> getStems() {
+    return new ArrayList<>(stems);
+  }
+
+  public WarcRecordWriter getWriter() {
+    return writer;
+  }
+
+  static class Pending {
+    final URI uri;
+    final int depth;
+    final int attempt;
+
+    Pending(URI uri, int depth, int attempt) {
+      this.uri = uri;
+      this.depth = depth;
+      this.attempt = attempt;
+    }
+  }
+
+  static class Fetched {
+    final Pending pending;
+    final Instant date;
+    final HttpResponse<SpooledBody> response;
+    final Throwable error;
+
+    Fetched(Pending pending, Instant date, HttpResponse<SpooledBody> response, Throwable error) {
+      this.pending = pending;
+      this.date = date;
+      this.response = response;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcRecordWriter;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fetches urls asynchronously through a single HttpClient, which keeps a
+ * pool of connections and multiplexes requests over HTTP/2 where servers
+ * support it.  Redirects are not followed, so that each hop is captured.
+ * Response bodies are spooled as they arrive, to a temporary file once they
+ * outgrow memory, so that a large response doesn't need a large heap.
+ */
+public class HttpFetcher {
+  private final HttpClient client;
+  private volatile long maxBodySize = 0;
+
+  /**
+   * @param version        the preferred HTTP version.
+   * @param connectTimeout the time allowed to connect, in milliseconds.
+   */
+  public HttpFetcher(HttpClient.Version version, long connectTimeout) {
+    this(HttpClient.newBuilder()
+      .version(version)
+      .followRedirects(HttpClient.Redirect.NEVER)
+      .connectTimeout(Duration.ofMillis(connectTimeout))
+      .build());
+  }
+
+  HttpFetcher(HttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Set the length beyond which a response body fails its fetch.
+   *
+   * @param maxBodySize the maximum length in bytes, or 0 for no limit.
+   * @return this fetcher.
+   */
+  public HttpFetcher setMaxBodySize(long maxBodySize) {
+    this.maxBodySize = maxBodySize;
+    return this;
+  }
+
+  public long getMaxBodySize() {
+    return maxBodySize;
+  }
+
+  /**
+   * Build the GET request for a url.
+   *
+   * @param uri  the url.
+   * @param opts the options of the crawl.
+   * @return the request.
+   */
+  public HttpRequest.Builder makeRequest(URI uri, HttpCrawlOptions opts) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(uri).GET();
+    if (opts.getReadTimeout() > 0) {
+      builder.timeout(Duration.ofMillis(opts.getReadTimeout()));
+    }
+    if (opts.getUserAgent() != null) {
+      builder.header("User-Agent", opts.getUserAgent());
+    }
+    for (Map.Entry<String, List<String>> header : opts.getHeaders().entrySet()) {
+      for (String value : header.getValue()) {
+        builder.header(header.getKey(), value);
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * Send a request.
+   *
+   * @param request the request.
+   * @return a future completed with the response, its body spooled.  The
+   * caller must {@link SpooledBody#delete()} the body once done with it.  A
+   * body longer than the maximum size completes the future exceptionally
+   * with a {@link SpooledBody.BodyTooLargeException}.
+   */
+  public CompletableFuture<HttpResponse<SpooledBody>> fetch(HttpRequest request) {
+    return client.sendAsync(request, SpooledBody.handler(maxBodySize));
+  }
+
+  /**
+   * Build the header block of the request record for a request.  The
+   * connection headers the client adds itself are not included.
+   */
+  public static byte[] requestHeader(HttpRequest request) {
+    URI uri = request.uri();
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+    if (uri.getRawQuery() != null) {
+      path += "?" + uri.getRawQuery();
+    }
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    headers.put("Host", List.of(uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost()));
+    headers.putAll(request.headers().map());
+    return WarcRecordWriter.httpHeader(request.method() + " " + path + " HTTP/1.1", headers);
+  }
+
+  /**
+   * Build the header block of the response record for a response.  The
+   * status line is written as HTTP/1.1 whatever version was used, as that is
+   * what WARC readers parse; pseudo-headers and Transfer-Encoding, which
+   * describe the connection rather than the payload, are left out.
+   */
+  public static byte[] responseHeader(HttpResponse<?> response) {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+      String name = header.getKey();
+      if (name.startsWith(":") || name.equalsIgnoreCase("transfer-encoding")) {
+        continue;
+      }
+      headers.put(name, header.getValue());
+    }
+    int code = response.statusCode();
+    return WarcRecordWriter.httpHeader("HTTP/1.1 " + code + " " + reasonPhrase(code), headers);
+  }
+
+  /**
+   * Return the MIME type of a response, without parameters, or null.
+   */
+  public static String getMimeType(HttpHeaders headers) {
+    return headers.firstValue("Content-Type")
+      .map(ct -> {
+        int idx = ct.indexOf(';');
+        return (idx < 0 ? ct : ct.substring(0, idx)).trim().toLowerCase(Locale.ROOT);
+      })
+      .filter(mt -> !mt.isEmpty())
+      .orElse(null);
+  }
+
+  static String reasonPhrase(int code) {
+    switch (code) {
+      case 200: return "OK";
+      case 204: return "No Content";
+      case 206: return "Partial Content";
+      case 301: return "Moved Permanently";
+      case 302: return "Found";
+      case 303: return "See Other";
+      case 304: return "Not Modified";
+      case 307: return "Temporary Redirect";
+      case 308: return "Permanent Redirect";
+      case 400: return "Bad Request";
+      case 401: return "Unauthorized";
+      case 403: return "Forbidden";
+      case 404: return "Not Found";
+      case 410: return "Gone";
+      case 429: return "Too Many Requests";
+      case 500: return "Internal Server Error";
+      case 502: return "Bad Gateway";
+      case 503: return "Service Unavailable";
+      case 504: return "Gateway Timeout";
+      default: return "";
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.daemon.Crawler;
+import org.lockss.daemon.LockssRunnable;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcUploadStream;
+import org.lockss.log.L4JLogger;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.plugin.AuUtil;
+import org.lockss.state.AuState;
+import org.lockss.util.Constants;
+import org.lockss.util.rest.crawler.CrawlDesc;
+import org.lockss.util.rest.crawler.CrawlJob;
+import org.lockss.util.rest.crawler.JobStatus;
+import org.lockss.util.time.Deadline;
+
+import java.io.IOException;
+
+/**
+ * A crawl run in process by a {@link JavaHttpCrawler}.
+ */
+public class JavaHttpCrawl extends PluggableCrawl {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * How long stopCrawl waits for the crawl thread to exit.
+   */
+  static final long STOP_WAIT = Constants.MINUTE;
+
+  protected final JavaHttpCrawler crawler;
+  protected final String threadName;
+  protected final boolean isRepairCrawl;
+  private final QueuedJob queuedJob;
+  private volatile HttpCrawlSession session;
+  private volatile WarcUploadStream upload;
+  private volatile LockssRunnable lockssRunnable;
+
+  public JavaHttpCrawl(JavaHttpCrawler crawler, ArchivalUnit au, CrawlJob crawlJob) {
+    super(crawler.getCrawlerConfig(), au, crawlJob);
+    this.crawler = crawler;
+    String jobId = crawlJob.getJobId();
+    threadName = crawlDesc.getCrawlKind() + ":" + crawlDesc.getCrawlerId() +
+      ":" + jobId.substring(0, Integer.min(6, jobId.length() - 1));
+    isRepairCrawl = crawlDesc.getCrawlKind() == CrawlDesc.CrawlKindEnum.REPAIR;
+    queuedJob = new QueuedJob(this);
+  }
+
+  public boolean isRepairCrawl() {
+    return isRepairCrawl;
+  }
+
+  QueuedJob getQueuedJob() {
+    return queuedJob;
+  }
+
+  @Override
+  public CrawlerStatus startCrawl() {
+    JobStatus js = getJobStatus();
+    try {
+      HttpCrawlOptions opts =
+        HttpCrawlOptions.fromCrawlDesc(crawlDesc, crawler.getDefaultOptions());
+      log.debug2("Crawl {} options: {}", getCrawlKey(), opts);
+      upload = crawler.openUpload(getAuId(), threadName + ":upload");
+      session = new HttpCrawlSession(crawler.getFetcher(), opts, crawlerStatus, upload,
+        crawler.isCompressWarc(), crawler.getExcludeStatusPattern(),
+        crawler.getFetchConcurrency());
+      if (opts.isIncremental()) {
+        session.setStoredContent(StoredContent.fromAu(getAu()));
+      }
+      js.setStatusCode(JobStatus.StatusCodeEnum.ACTIVE);
+      js.setMsg("Active.");
+    }
+    catch (IllegalArgumentException e) {
+      log.error("Unable to start crawl {}: {}", getCrawlKey(), e.getMessage());
+      js.setStatusCode(JobStatus.StatusCodeEnum.ERROR);
+      js.setMsg(e.getMessage());
+    }
+    return crawlerStatus;
+  }
+
+  @Override
+  public CrawlerStatus stopCrawl() {
+    JobStatus status = getJobStatus();
+    JobStatus.StatusCodeEnum statusCode = status.getStatusCode();
+    if (statusCode != JobStatus.StatusCodeEnum.ACTIVE && statusCode != JobStatus.StatusCodeEnum.QUEUED) {
+      return crawlerStatus;
+    }
+    status.setStatusCode(JobStatus.StatusCodeEnum.ABORTED);
+    status.setMsg("Crawl Aborted.");
+    LockssRunnable runnable = lockssRunnable;
+    if (runnable != null) {
+      if (session != null) {
+        session.stop();
+      }
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_ABORTED, "Crawl Aborted");
+      runnable.interruptThread();
+      runnable.waitExited(Deadline.in(STOP_WAIT));
+    }
+    else {
+      crawlerStatus.setCrawlStatus(Crawler.STATUS_ABORTED, "Request removed from queue.");
+      crawler.getPluggableCrawlManager().handleCrawlComplete(crawlerStatus);
+      AuUtil.getAuState(getAu()).newCrawlFinished(crawlerStatus.getCrawlStatus(), null);
+      crawlerStatus.signalCrawlEnded();
+    }
+    return crawlerStatus;
+  }
+
+  LockssRunnable getRunnable() {
+    lockssRunnable = new LockssRunnable(threadName) {
+      @Override
+      public void lockssRun() {
+        AuState auState = AuUtil.getAuState(getAu());
+        try {
+          auState.newCrawlStarted();
+          nowRunning();
+          startCrawl();
+          if (getJobStatus().getStatusCode() == JobStatus.StatusCodeEnum.ERROR) {
+            crawlerStatus.setCrawlStatus(Crawler.STATUS_ERROR, getJobStatus().getMsg());
+            return;
+          }
+          crawlerStatus.signalCrawlStarted();
+          crawler.getPluggableCrawlManager().handleCrawlStarted(crawlerStatus);
+          session.run();
+          if (session.isStopped()) {
+            upload.abort();
+            return;
+          }
+          crawlerStatus.setCrawlStatus(Crawler.STATUS_ACTIVE, "Storing");
+          upload.close();
+          log.debug("Crawl {} stored {} records in {} batches", getCrawlKey(),
+            session.getWriter().getRecordsWritten(), upload.getBatches());
+          crawler.updateAuConfig(getAu(), isRepairCrawl, crawlDesc.getCrawlList(),
+            session.getStems());
+          crawlerStatus.setCrawlStatus(Crawler.STATUS_SUCCESSFUL);
+        }
+        catch (IOException ioe) {
+          log.error("Crawl {} failed", getCrawlKey(), ioe);
+          upload.abort();
+          crawlerStatus.setCrawlStatus(Crawler.STATUS_ERROR, "Exception thrown: " + ioe.getMessage());
+        }
+        catch (InterruptedException ignore) {
+          if (upload != null) {
+            upload.abort();
+          }
+          if (crawlerStatus.getCrawlStatus() != Crawler.STATUS_ABORTED) {
+            crawlerStatus.setCrawlStatus(Crawler.STATUS_ABORTED, "Crawl Interrupted");
+          }
+        }
+        finally {
+          auState.newCrawlFinished(crawlerStatus.getCrawlStatus(), null);
+          crawlerStatus.signalCrawlEnded();
+          crawler.crawlEnded(JavaHttpCrawl.this);
+          crawler.getPluggableCrawlManager().handleCrawlComplete(crawlerStatus);
+          setThreadName(threadName + ": idle");
+          lockssRunnable = null;
+        }
+      }
+    };
+    return lockssRunnable;
+  }
+
+  /**
+   * The queue entry of a crawl, ordered as the command line crawler orders
+   * its crawls: by priority, then by request date.
+   */
+  static class QueuedJob implements Runnable, Comparable<QueuedJob> {
+    private final JavaHttpCrawl crawl;
+
+    QueuedJob(JavaHttpCrawl crawl) {
+      this.crawl = crawl;
+    }
+
+    int getPriority() {
+      Integer priority = crawl.getCrawlDesc().getPriority();
+      return priority == null ? 0 : priority;
+    }
+
+    long getRequestDate() {
+      return crawl.crawlJob.getRequestDate();
+    }
+
+    @Override
+    public int compareTo(QueuedJob other) {
+      int cmp = Integer.compare(other.getPriority(), getPriority());
+      return cmp != 0 ? cmp : Long.compare(getRequestDate(), other.getRequestDate());
+    }
+
+    @Override
+    public void run() {
+      crawl.getRunnable().run();
+    }
+  }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.lockss.app.LockssDaemon;
+import org.lockss.laaws.crawler.impl.ApiUtils;
+import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
+import org.lockss.laaws.crawler.impl.pluggable.CmdLineCrawler;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawler;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcUploadStream;
+import org.lockss.laaws.crawler.model.CrawlerConfig;
+import org.lockss.laaws.crawler.utils.ExecutorUtils;
+import org.lockss.log.L4JLogger;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.util.Constants;
+import org.lockss.util.StringUtil;
+import org.lockss.util.rest.crawler.CrawlJob;
+import org.lockss.util.rest.crawler.JobStatus;
+import org.lockss.util.rest.crawler.JobStatus.StatusCodeEnum;
+import org.lockss.util.rest.repo.LockssRepository;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.lockss.laaws.crawler.impl.PluggableCrawlManager.ATTR_CRAWLER_ID;
+import static org.lockss.laaws.crawler.impl.PluggableCrawlManager.ENABLED;
+import static org.lockss.laaws.crawler.impl.pluggable.CmdLineCrawler.*;
+
+/**
+ * A crawler which fetches in the service's own process, with an
+ * asynchronous HTTP client, rather than by running an external program.
+ * The WARC records are uploaded to the repository as they are written, so
+ * a crawl needs no workspace.  Crawls are described as for the wget
+ * crawler: the depth and crawl list of the CrawlDesc, and the accept-regex,
+ * reject-regex, domains, span-hosts, header, user-agent, wait, tries and
+ * timeout keys of its extraCrawlerData.
+ */
+public class JavaHttpCrawler implements PluggableCrawler {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * The preferred HTTP version, HTTP_2 or HTTP_1_1.
+   */
+  public static final String ATTR_HTTP_VERSION = "httpVersion";
+  public static final String DEFAULT_HTTP_VERSION = "HTTP_2";
+
+  public static final String ATTR_CONNECT_TIMEOUT = "connectTimeout";
+  public static final long DEFAULT_CONNECT_TIMEOUT = 30 * Constants.SECOND;
+
+  /**
+   * The time allowed for each response, unless the crawl gives a timeout.
+   */
+  public static final String ATTR_READ_TIMEOUT = "readTimeout";
+  public static final long DEFAULT_READ_TIMEOUT = 2 * Constants.MINUTE;
+
+  /**
+   * The number of requests a crawl may have outstanding at once.
+   */
+  public static final String ATTR_FETCH_CONCURRENCY = "fetchConcurrency";
+  public static final int DEFAULT_FETCH_CONCURRENCY = 8;
+
+  /**
+   * The size in bytes beyond which a response is reported as an error
+   * rather than stored, or 0 for no limit.  Bodies are spooled to temporary
+   * files as they arrive, so this bounds disk, not memory.
+   */
+  public static final String ATTR_MAX_BODY_SIZE = "maxBodySize";
+  public static final long DEFAULT_MAX_BODY_SIZE = 1024L * 1024 * 1024;
+
+  /**
+   * The depth of a new content crawl which doesn't give one, as wget's.
+   */
+  public static final String ATTR_MAX_DEPTH = "maxDepth";
+  public static final int DEFAULT_MAX_DEPTH = 5;
+
+  public static final String ATTR_TRIES = "tries";
+  public static final int DEFAULT_TRIES = 3;
+
+  /**
+   * If true, new content crawls send conditional requests (If-None-Match,
+   * If-Modified-Since) for the urls the AU already holds, using the headers
+   * stored with them.  A crawl's "incremental" option overrides this.
+   */
+  public static final String ATTR_INCREMENTAL = "incremental";
+  public static final String DEFAULT_INCREMENTAL = "false";
+
+  /**
+   * The size after which a crawl's records are uploaded in a new batch.
+   */
+  public static final String ATTR_UPLOAD_BATCH_SIZE = "uploadBatchSize";
+  public static final long DEFAULT_UPLOAD_BATCH_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * If true each record is written as a separate gzip member.
+   */
+  public static final String DEFAULT_HTTP_COMPRESS_WARC = "true";
+
+  protected CrawlerConfig config;
+  protected PluggableCrawlManager pcManager;
+  protected final Map<String, JavaHttpCrawl> crawlMap = new ConcurrentHashMap<>();
+
+  private ThreadPoolExecutor crawlQueueExecutor;
+  private HttpFetcher fetcher;
+  private HttpCrawlOptions defaultOptions;
+  private Pattern excludeStatusPattern;
+  private boolean compressWarc;
+  private int fetchConcurrency;
+  private long uploadBatchSize;
+  private HttpClient.Version httpVersion;
+  private long connectTimeout = -1;
+
+  public JavaHttpCrawler() {
+  }
+
+  @Override
+  public String getCrawlerId() {
+    return config.getCrawlerId();
+  }
+
+  @Override
+  public void updateCrawlerConfig(CrawlerConfig crawlerConfig) {
+    this.config = crawlerConfig;
+    Map<String, String> attr = crawlerConfig.getAttributes();
+    String crawlerId = attr.get(ATTR_CRAWLER_ID);
+    crawlQueueExecutor = ExecutorUtils.createOrReConfigureExecutor(crawlQueueExecutor,
+      attr.getOrDefault(ATTR_CRAWL_EXECUTOR_SPEC, DEFAULT_CMDLINE_CRAWL_EXECUTOR_SPEC),
+      DEFAULT_CMDLINE_CRAWL_EXECUTOR_SPEC);
+
+    HttpClient.Version version = HttpClient.Version.HTTP_2;
+    String versionStr = attr.getOrDefault(ATTR_HTTP_VERSION, DEFAULT_HTTP_VERSION);
+    try {
+      version = HttpClient.Version.valueOf(versionStr.trim());
+    }
+    catch (IllegalArgumentException e) {
+      log.error("The value of the param {} for {} is invalid: using default.", ATTR_HTTP_VERSION, crawlerId);
+    }
+    long connTimeout = getTimeAttr(attr, ATTR_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT, crawlerId);
+    if (fetcher == null || version != httpVersion || connTimeout != connectTimeout) {
+      // a new client; crawls in progress keep the one they started with.
+      httpVersion = version;
+      connectTimeout = connTimeout;
+      fetcher = new HttpFetcher(httpVersion, connectTimeout);
+    }
+    fetcher.setMaxBodySize(getLongAttr(attr, ATTR_MAX_BODY_SIZE, DEFAULT_MAX_BODY_SIZE, crawlerId));
+    defaultOptions = new HttpCrawlOptions(
+      getIntAttr(attr, ATTR_MAX_DEPTH, DEFAULT_MAX_DEPTH, crawlerId),
+      Math.max(1, getIntAttr(attr, ATTR_TRIES, DEFAULT_TRIES, crawlerId)),
+      getTimeAttr(attr, ATTR_READ_TIMEOUT, DEFAULT_READ_TIMEOUT, crawlerId),
+      getDefaultUserAgent())
+      .setIncremental(Boolean.parseBoolean(attr.getOrDefault(ATTR_INCREMENTAL, DEFAULT_INCREMENTAL)));
+    fetchConcurrency = Math.max(1,
+      getIntAttr(attr, ATTR_FETCH_CONCURRENCY, DEFAULT_FETCH_CONCURRENCY, crawlerId));
+    uploadBatchSize = getLongAttr(attr, ATTR_UPLOAD_BATCH_SIZE, DEFAULT_UPLOAD_BATCH_SIZE, crawlerId);
+    compressWarc = Boolean.parseBoolean(attr.getOrDefault(ATTR_COMPRESS_WARC, DEFAULT_HTTP_COMPRESS_WARC));
+    excludeStatusPattern = Pattern.compile(
+      attr.getOrDefault(ATTR_EXCLUDE_STATUS_PATTERN, DEFAULT_EXCLUDE_STATUS_PATTERN));
+  }
+
+  private static int getIntAttr(Map<String, String> attr, String name, int dflt, String crawlerId) {
+    String str = attr.get(name);
+    if (!StringUtil.isNullString(str)) {
+      try {
+        return Integer.parseInt(str.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.", name, crawlerId);
+      }
+    }
+    return dflt;
+  }
+
+  private static long getLongAttr(Map<String, String> attr, String name, long dflt, String crawlerId) {
+    String str = attr.get(name);
+    if (!StringUtil.isNullString(str)) {
+      try {
+        return Long.parseLong(str.trim());
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.", name, crawlerId);
+      }
+    }
+    return dflt;
+  }
+
+  private static long getTimeAttr(Map<String, String> attr, String name, long dflt, String crawlerId) {
+    String str = attr.get(name);
+    if (!StringUtil.isNullString(str)) {
+      try {
+        return StringUtil.parseTimeInterval(str);
+      }
+      catch(NumberFormatException nfe) {
+        log.error("The value of the param {} for {} is invalid: using default.", name, crawlerId);
+      }
+    }
+    return dflt;
+  }
+
+  public static String getDefaultUserAgent() {
+    try {
+      return LockssDaemon.getUserAgent();
+    }
+    catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public CrawlerConfig getCrawlerConfig() {
+    return config;
+  }
+
+  public HttpFetcher getFetcher() {
+    return fetcher;
+  }
+
+  public HttpCrawlOptions getDefaultOptions() {
+    return defaultOptions;
+  }
+
+  public Pattern getExcludeStatusPattern() {
+    return excludeStatusPattern;
+  }
+
+  public boolean isCompressWarc() {
+    return compressWarc;
+  }
+
+  public int getFetchConcurrency() {
+    return fetchConcurrency;
+  }
+
+  public long getUploadBatchSize() {
+    return uploadBatchSize;
+  }
+
+  @Override
+  public PluggableCrawl requestCrawl(ArchivalUnit au, CrawlJob crawlJob) {
+    String auId = crawlJob.getCrawlDesc().getAuId();
+    for (JavaHttpCrawl crawl : crawlMap.values()) {
+      if (crawl.getAuId().equals(auId) && !crawl.isRepairCrawl() &&
+        !pcManager.isEligibleForCrawl(auId)) {
+        log.warn("Crawl request {} ignored! au is not eligible for crawl.", crawlJob);
+        return null;
+      }
+    }
+    JavaHttpCrawl crawl = new JavaHttpCrawl(this, au, crawlJob);
+    crawlMap.put(crawlJob.getJobId(), crawl);
+    crawlQueueExecutor.submit(crawl.getQueuedJob());
+    JobStatus status = crawlJob.getJobStatus();
+    status.setStatusCode(StatusCodeEnum.QUEUED);
+    status.setMsg("Pending.");
+    return crawl;
+  }
+
+  @Override
+  public PluggableCrawl stopCrawl(String crawlId) {
+    JavaHttpCrawl crawl = crawlMap.remove(crawlId);
+    if (crawl != null) {
+      crawlQueueExecutor.remove(crawl.getQueuedJob());
+      crawl.stopCrawl();
+    }
+    return crawl;
+  }
+
+  @Override
+  public PluggableCrawl getCrawl(String crawlId) {
+    return crawlMap.get(crawlId);
+  }
+
+  /**
+   * Forget a crawl which has finished.
+   */
+  void crawlEnded(JavaHttpCrawl crawl) {
+    crawlMap.remove(crawl.getCrawlKey(), crawl);
+  }
+
+  @Override
+  public void deleteAllCrawls() {
+    for (String key : crawlMap.keySet()) {
+      stopCrawl(key);
+    }
+    crawlQueueExecutor.shutdownNow();
+  }
+
+  @Override
+  public boolean isCrawlerEnabled() {
+    Map<String, String> attrs = config.getAttributes();
+    return Boolean.parseBoolean(attrs.get(config.getCrawlerId() + ENABLED));
+  }
+
+  @Override
+  public void shutdown() {
+    for (JavaHttpCrawl crawl : crawlMap.values()) {
+      crawl.stopCrawl();
+    }
+    crawlQueueExecutor.shutdown();
+    try {
+      if (!crawlQueueExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+        crawlQueueExecutor.shutdownNow();
+      }
+    }
+    catch (InterruptedException ie) {
+      crawlQueueExecutor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void disable(boolean abortCrawling) {
+    if (abortCrawling) {
+      List<Runnable> runnables = crawlQueueExecutor.shutdownNow();
+      if (log.isDebug2Enabled()) log.debug2("successfullly aborted {}", runnables);
+    }
+    else {
+      crawlQueueExecutor.shutdown();
+    }
+  }
+
+  @Override
+  public void setPluggableCrawlManager(PluggableCrawlManager pluggableCrawlManager) {
+    pcManager = pluggableCrawlManager;
+  }
+
+  public PluggableCrawlManager getPluggableCrawlManager() {
+    return pcManager;
+  }
+
+  /**
+   * Open a stream which uploads the WARC records written to it to an AU in
+   * the repository.
+   *
+   * @param auId       the AU.
+   * @param threadName the name for the upload threads.
+   * @return the stream.
+   */
+  public WarcUploadStream openUpload(String auId, String threadName) {
+    return new WarcUploadStream(in -> {
+      LockssRepository repo = ApiUtils.getV2Repo();
+      if (repo == null || !repo.isReady()) {
+        throw new IOException("Unable to store warc artifacts - Repository is not ready for connections.");
+      }
+      repo.addArtifacts(ApiUtils.getV2Namespace(), auId, in,
+        LockssRepository.ArchiveType.WARC, false, excludeStatusPattern.pattern());
+    }, uploadBatchSize, threadName);
+  }
+
+  /**
+   * Record the start urls and url stems of a crawl in the AU's configuration.
+   */
+  void updateAuConfig(ArchivalUnit au, boolean isRepairCrawl, List<String> reqUrls,
+                      List<String> crawlStems) throws IOException {
+    CmdLineCrawler.updateAuConfig(pcManager.getConfigManager(), au, isRepairCrawl, reqUrls,
+      crawlStems);
+  }
+}
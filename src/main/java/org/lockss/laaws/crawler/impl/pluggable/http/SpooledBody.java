@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.apache.commons.codec.binary.Base32;
+import org.lockss.log.L4JLogger;
+import org.lockss.util.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * The body of a response, spooled as it arrives: held in memory up to
+ * {@link #MEMORY_THRESHOLD} bytes and in a temporary file beyond that, its
+ * SHA-1 computed on the way.  The WARC record of a response can then be
+ * written once its length and digest are known, without the whole body of
+ * every outstanding request being held in memory.
+ */
+public class SpooledBody {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * The size up to which a body is held in memory.
+   */
+  static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+  private final byte[] bytes;
+  private final File file;
+  private final long length;
+  private final byte[] digest;
+
+  SpooledBody(byte[] bytes, File file, long length, byte[] digest) {
+    this.bytes = bytes;
+    this.file = file;
+    this.length = length;
+    this.digest = digest;
+  }
+
+  /**
+   * Return a handler which spools response bodies.
+   *
+   * @param maxLength the length beyond which a body fails the fetch with a
+   *                  {@link BodyTooLargeException}, or 0 for no limit.
+   */
+  public static HttpResponse.BodyHandler<SpooledBody> handler(long maxLength) {
+    return info -> new Subscriber(maxLength,
+      info.headers().firstValueAsLong("Content-Length").orElse(-1));
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Return the base32 SHA-1 of the body.
+   */
+  public String getDigest() {
+    return new Base32().encodeAsString(digest);
+  }
+
+  /**
+   * Return true if the body was written to a temporary file.
+   */
+  public boolean isSpooled() {
+    return file != null;
+  }
+
+  public InputStream openStream() throws IOException {
+    return bytes != null
+      ? new ByteArrayInputStream(bytes)
+      : new BufferedInputStream(new FileInputStream(file));
+  }
+
+  /**
+   * Return the body, read from its temporary file if it was spooled.
+   */
+  public byte[] getBytes() throws IOException {
+    return bytes != null ? bytes : Files.readAllBytes(file.toPath());
+  }
+
+  /**
+   * Delete the temporary file, if any.
+   */
+  public void delete() {
+    if (file != null && file.exists() && !file.delete()) {
+      log.warn("Unable to delete {}", file);
+    }
+  }
+
+  static MessageDigest newSha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 not supported", e);
+    }
+  }
+
+  /**
+   * Thrown when a response body is longer than the fetcher allows.
+   */
+  public static class BodyTooLargeException extends IOException {
+    public BodyTooLargeException(long maxLength) {
+      super("Response body exceeds the maximum size of " + maxLength + " bytes");
+    }
+  }
+
+  static class Subscriber implements HttpResponse.BodySubscriber<SpooledBody> {
+    private final CompletableFuture<SpooledBody> result = new CompletableFuture<>();
+    private final long maxLength;
+    private final long declaredLength;
+    private final MessageDigest md = newSha1();
+    private final byte[] chunk = new byte[16 * 1024];
+    private ByteArrayOutputStream mem = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream fileOut;
+    private long length = 0;
+    private Flow.Subscription subscription;
+
+    Subscriber(long maxLength, long declaredLength) {
+      this.maxLength = maxLength;
+      this.declaredLength = declaredLength;
+    }
+
+    @Override
+    public CompletionStage<SpooledBody> getBody() {
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (maxLength > 0 && declaredLength > maxLength) {
+        // no need to read what would be thrown away.
+        subscription.cancel();
+        fail(new BodyTooLargeException(maxLength));
+        return;
+      }
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      if (result.isDone()) {
+        return;
+      }
+      try {
+        for (ByteBuffer buf : buffers) {
+          write(buf);
+        }
+        subscription.request(1);
+      }
+      catch (IOException e) {
+        subscription.cancel();
+        fail(e);
+      }
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+      length += buf.remaining();
+      if (maxLength > 0 && length > maxLength) {
+        throw new BodyTooLargeException(maxLength);
+      }
+      if (fileOut == null && mem.size() + buf.remaining() > MEMORY_THRESHOLD) {
+        file = FileUtil.createTempFile("http-body", ".tmp");
+        fileOut = new BufferedOutputStream(new FileOutputStream(file));
+        mem.writeTo(fileOut);
+        mem = null;
+      }
+      OutputStream out = fileOut != null ? fileOut : mem;
+      while (buf.hasRemaining()) {
+        int len = Math.min(buf.remaining(), chunk.length);
+        buf.get(chunk, 0, len);
+        md.update(chunk, 0, len);
+        out.write(chunk, 0, len);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      if (result.isDone()) {
+        return;
+      }
+      try {
+        if (fileOut != null) {
+          fileOut.close();
+        }
+        result.complete(new SpooledBody(mem != null ? mem.toByteArray() : null, file, length,
+          md.digest()));
+      }
+      catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    private void fail(Throwable t) {
+      if (result.isDone()) {
+        return;
+      }
+      if (fileOut != null) {
+        try {
+          fileOut.close();
+        }
+        catch (IOException e) {
+          log.debug2("Unable to close {}", file, e);
+        }
+      }
+      if (file != null && !file.delete()) {
+        log.warn("Unable to delete {}", file);
+      }
+      result.completeExceptionally(t);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import org.apache.commons.io.IOUtils;
+import org.lockss.log.L4JLogger;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.plugin.CachedUrl;
+import org.lockss.util.CIProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The validators (ETag and Last-Modified) stored with the current version of
+ * each url of an AU, from which an incremental crawl makes conditional
+ * requests, and access to the stored content of urls found to be unchanged.
+ */
+public class StoredContent {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  private final ArchivalUnit au;
+  private final Map<String, Validators> validators;
+
+  StoredContent(ArchivalUnit au, Map<String, Validators> validators) {
+    this.au = au;
+    this.validators = validators;
+  }
+
+  /**
+   * Read the validators of every url the AU holds.
+   *
+   * @param au the ArchivalUnit.
+   * @return the StoredContent of the AU.
+   */
+  public static StoredContent fromAu(ArchivalUnit au) {
+    Map<String, Validators> validators = new HashMap<>();
+    for (CachedUrl cu : au.getAuCachedUrlSet().getCuIterable()) {
+      try {
+        CIProperties props = cu.getProperties();
+        String etag = props.getProperty("ETag");
+        String lastModified = props.getProperty("Last-Modified");
+        if (etag != null || lastModified != null) {
+          validators.put(cu.getUrl(), new Validators(etag, lastModified, cu.getContentType()));
+        }
+      } finally {
+        cu.release();
+      }
+    }
+    log.debug2("{} has validators for {} urls", au.getName(), validators.size());
+    return new StoredContent(au, validators);
+  }
+
+  /**
+   * Return the validators stored with a url, or null if it has none.
+   */
+  public Validators get(String url) {
+    return validators.get(url);
+  }
+
+  public int size() {
+    return validators.size();
+  }
+
+  /**
+   * Return the stored content of a url, or null if there is none.
+   *
+   * @throws IOException if the content cannot be read.
+   */
+  public byte[] readContent(String url) throws IOException {
+    CachedUrl cu = au.makeCachedUrl(url);
+    if (cu == null) {
+      return null;
+    }
+    try {
+      if (!cu.hasContent()) {
+        return null;
+      }
+      try (InputStream in = cu.getUnfilteredInputStream()) {
+        return IOUtils.toByteArray(in);
+      }
+    } finally {
+      cu.release();
+    }
+  }
+
+  /**
+   * The validators of one stored url.
+   */
+  public static class Validators {
+    private final String etag;
+    private final String lastModified;
+    private final String mimeType;
+
+    public Validators(String etag, String lastModified, String mimeType) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.mimeType = mimeType;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * Return the MIME type of the stored content, without parameters.
+     */
+    public String getMimeType() {
+      if (mimeType == null) {
+        return null;
+      }
+      int idx = mimeType.indexOf(';');
+      return (idx < 0 ? mimeType : mimeType.substring(0, idx)).trim().toLowerCase(Locale.ROOT);
+    }
+  }
+}
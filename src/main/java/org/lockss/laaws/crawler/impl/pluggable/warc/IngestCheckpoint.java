@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.lockss.log.L4JLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how much of a WARC file has been committed to the repository, so
+ * that storing a partly stored file resumes where it left off rather than
+ * starting again.  The offset is kept next to the WARC file, in a file of the
+ * same name with {@value #SUFFIX} appended, and always falls on a record
+ * boundary.
+ */
+public class IngestCheckpoint {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  public static final String SUFFIX = ".ckpt";
+
+  private IngestCheckpoint() {
+  }
+
+  /**
+   * Return the checkpoint file of a WARC file.
+   */
+  public static File getFile(File warcFile) {
+    return new File(warcFile.getPath() + SUFFIX);
+  }
+
+  /**
+   * Return the offset up to which a WARC file has been committed, 0 if none
+   * of it has or the checkpoint is unreadable.
+   */
+  public static long getCommittedOffset(File warcFile) {
+    File ckpt = getFile(warcFile);
+    if (!ckpt.exists()) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(
+        new String(Files.readAllBytes(ckpt.toPath()), StandardCharsets.US_ASCII).trim());
+    } catch (IOException | NumberFormatException e) {
+      log.warn("Ignoring unreadable ingest checkpoint {}", ckpt, e);
+      return 0;
+    }
+  }
+
+  /**
+   * Record that a WARC file has been committed up to an offset.  The
+   * checkpoint is replaced atomically so a crash never leaves it partly
+   * written.
+   */
+  public static void setCommittedOffset(File warcFile, long offset) throws IOException {
+    File ckpt = getFile(warcFile);
+    File tmp = new File(ckpt.getPath() + ".tmp");
+    Files.write(tmp.toPath(), Long.toString(offset).getBytes(StandardCharsets.US_ASCII));
+    Files.move(tmp.toPath(), ckpt.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Delete the checkpoint of a WARC file, if any.
+   */
+  public static void delete(File warcFile) {
+    File ckpt = getFile(warcFile);
+    if (ckpt.exists() && !ckpt.delete()) {
+      log.warn("Unable to delete {}", ckpt);
+    }
+  }
+
+  /**
+   * Divide the part of a WARC file after an offset into ranges of whole
+   * records, each no larger than {@code chunkSize} unless a single record
+   * is.  Records which share a gzip member are kept together.
+   *
+   * @param index     the index of the file.
+   * @param from      the offset at which to start.
+   * @param chunkSize the maximum size of a range, 0 for a single range.
+   * @return a list of {start, end} offset pairs.
+   */
+  public static List<long[]> getChunks(WarcIndex index, long from, long chunkSize) {
+    List<long[]> chunks = new ArrayList<>();
+    long start = from;
+    long end = from;
+    for (WarcIndex.Entry entry : index.getEntries()) {
+      long entryEnd = entry.getOffset() + entry.getLength();
+      if (entry.getOffset() < from || entryEnd <= end) {
+        continue;
+      }
+      if (chunkSize > 0 && end > start && entryEnd - start > chunkSize) {
+        chunks.add(new long[]{start, end});
+        start = end;
+      }
+      end = entryEnd;
+    }
+    if (end > start) {
+      chunks.add(new long[]{start, end});
+    }
+    return chunks;
+  }
+}
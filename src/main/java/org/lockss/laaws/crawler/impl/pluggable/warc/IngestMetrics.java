@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.lockss.util.time.TimeBase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times the WARC files stored in the repository by pluggable
+ * crawlers, per crawler, per AU and per crawl.  Rates are computed from the
+ * time spent in the repository call, so they measure the storage path
+ * independently of how long the crawl spent fetching.
+ */
+public class IngestMetrics {
+  /**
+   * The upper bounds, in milliseconds, of the per-file latency buckets.  The
+   * last bucket holds everything longer than the last bound.
+   */
+  public static final long[] LATENCY_BOUNDS = {100, 1000, 10_000, 60_000, 600_000};
+
+  /**
+   * The number of crawls whose statistics are kept.
+   */
+  static final int MAX_CRAWLS = 1000;
+
+  private final Map<String, Stats> byCrawler = new ConcurrentHashMap<>();
+  private final Map<String, Stats> byAu = new ConcurrentHashMap<>();
+  private final Map<String, Stats> byCrawl =
+    Collections.synchronizedMap(new LinkedHashMap<String, Stats>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+        return size() > MAX_CRAWLS;
+      }
+    });
+
+  /**
+   * Record an attempt to store a WARC file.
+   *
+   * @param crawlerId the crawler which produced the file.
+   * @param auId      the AU to which the file belongs.
+   * @param crawlKey  the crawl which produced the file.
+   * @param bytes     the number of bytes stored.
+   * @param records   the number of records stored, 0 if unknown.
+   * @param elapsed   the time taken, in milliseconds.
+   * @param success   false if the attempt failed.
+   */
+  public void record(String crawlerId, String auId, String crawlKey, long bytes,
+                     int records, long elapsed, boolean success) {
+    byCrawler.computeIfAbsent(crawlerId, k -> new Stats())
+      .record(bytes, records, elapsed, success);
+    byAu.computeIfAbsent(auId, k -> new Stats()).record(bytes, records, elapsed, success);
+    Stats crawlStats;
+    synchronized (byCrawl) {
+      crawlStats = byCrawl.computeIfAbsent(crawlKey, k -> new Stats());
+    }
+    crawlStats.record(bytes, records, elapsed, success);
+  }
+
+  public Stats getCrawlerStats(String crawlerId) {
+    return byCrawler.get(crawlerId);
+  }
+
+  public Stats getAuStats(String auId) {
+    return byAu.get(auId);
+  }
+
+  public Stats getCrawlStats(String crawlKey) {
+    return byCrawl.get(crawlKey);
+  }
+
+  /**
+   * Return a sorted snapshot of the statistics of every crawler.
+   */
+  public SortedMap<String, Stats> getAllCrawlerStats() {
+    return new TreeMap<>(byCrawler);
+  }
+
+  /**
+   * Return a sorted snapshot of the statistics of every AU.
+   */
+  public SortedMap<String, Stats> getAllAuStats() {
+    return new TreeMap<>(byAu);
+  }
+
+  /**
+   * Return the index of the latency bucket for a duration.
+   */
+  static int bucket(long elapsed) {
+    for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+      if (elapsed < LATENCY_BOUNDS[i]) {
+        return i;
+      }
+    }
+    return LATENCY_BOUNDS.length;
+  }
+
+  /**
+   * The counters for one crawler, AU or crawl.
+   */
+  public static class Stats {
+    private final LongAdder files = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder elapsed = new LongAdder();
+    private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+    private volatile long lastUpdate = 0;
+
+    void record(long bytes, int records, long elapsed, boolean success) {
+      if (success) {
+        files.increment();
+        this.bytes.add(bytes);
+        this.records.add(records);
+      }
+      else {
+        failures.increment();
+      }
+      this.elapsed.add(elapsed);
+      latency.incrementAndGet(bucket(elapsed));
+      lastUpdate = TimeBase.nowMs();
+    }
+
+    public long getFiles() {
+      return files.sum();
+    }
+
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    public long getBytes() {
+      return bytes.sum();
+    }
+
+    public long getRecords() {
+      return records.sum();
+    }
+
+    /**
+     * Return the total time spent storing, in milliseconds.  Files stored
+     * concurrently each contribute their own time.
+     */
+    public long getElapsed() {
+      return elapsed.sum();
+    }
+
+    public double getBytesPerSecond() {
+      long ms = getElapsed();
+      return ms == 0 ? 0 : getBytes() * 1000.0 / ms;
+    }
+
+    public double getRecordsPerSecond() {
+      long ms = getElapsed();
+      return ms == 0 ? 0 : getRecords() * 1000.0 / ms;
+    }
+
+    /**
+     * Return the number of attempts in each latency bucket.
+     *
+     * @see #LATENCY_BOUNDS
+     */
+    public long[] getLatencyCounts() {
+      long[] counts = new long[latency.length()];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = latency.get(i);
+      }
+      return counts;
+    }
+
+    public long getLastUpdate() {
+      return lastUpdate;
+    }
+
+    @Override
+    public String toString() {
+      return "[Stats files=" + getFiles() + ", failures=" + getFailures() +
+        ", bytes=" + getBytes() + ", records=" + getRecords() +
+        ", elapsed=" + getElapsed() + "]";
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import java.io.File;
+
+/**
+ * The outcome of storing one WARC file in the repository.
+ */
+public class IngestResult {
+  private final File warcFile;
+  private final long bytes;
+  private final long elapsed;
+  private final Throwable error;
+
+  IngestResult(File warcFile, long bytes, long elapsed, Throwable error) {
+    this.warcFile = warcFile;
+    this.bytes = bytes;
+    this.elapsed = elapsed;
+    this.error = error;
+  }
+
+  public File getWarcFile() {
+    return warcFile;
+  }
+
+  /**
+   * Return the size of the file.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the time in milliseconds spent storing the file.
+   */
+  public long getElapsed() {
+    return elapsed;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * Return the exception which caused the store to fail, or null.
+   */
+  public Throwable getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return "[IngestResult " + warcFile.getName() + ", bytes=" + bytes +
+      ", elapsed=" + elapsed + (error == null ? "" : ", error=" + error) + "]";
+  }
+}
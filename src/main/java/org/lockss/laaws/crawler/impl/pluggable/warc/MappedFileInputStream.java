@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An InputStream over a file which reads from memory mapped windows of the
+ * file rather than through read() system calls.
+ * <p>
+ * Reading a large file through a BufferedInputStream copies each byte from
+ * the kernel into a temporary direct buffer, from there into the stream's
+ * heap buffer and then into the caller's array.  Here bytes are copied once,
+ * from the page cache mapping directly into the caller's array, and no
+ * buffer is allocated on the heap.  The file is mapped a window at a time
+ * so files larger than 2GB can be read, and each window is unmapped as soon
+ * as the stream moves past it or is closed, rather than when the garbage
+ * collector gets to it.
+ */
+public class MappedFileInputStream extends InputStream {
+  public static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+  // Unsafe.invokeCleaner(), which releases a mapping at once.  If it isn't
+  // available the mappings are released when they're collected.
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> cls = Class.forName("sun.misc.Unsafe");
+      Field field = cls.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = cls.getMethod("invokeCleaner", ByteBuffer.class);
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final FileChannel channel;
+  private final long size;
+  private final long windowSize;
+  private long windowStart = 0;
+  private MappedByteBuffer window;
+  private long mark = 0;
+
+  public MappedFileInputStream(File file) throws IOException {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  public MappedFileInputStream(File file, long windowSize) throws IOException {
+    if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Illegal window size: " + windowSize);
+    }
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.size = channel.size();
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Return the current position in the file.
+   */
+  public long position() {
+    return window == null ? windowStart : windowStart + window.position();
+  }
+
+  /**
+   * Set the position in the file from which the next byte is read.
+   *
+   * @param pos the position.
+   * @throws EOFException if the position is beyond the end of the file.
+   */
+  public void position(long pos) throws IOException {
+    if (!channel.isOpen()) {
+      throw new IOException("Stream closed");
+    }
+    if (pos < 0) {
+      throw new IllegalArgumentException("Negative position: " + pos);
+    }
+    if (pos > size) {
+      throw new EOFException("Position " + pos + " is beyond the end of the file (" + size + ")");
+    }
+    if (window != null && pos >= windowStart && pos <= windowStart + window.limit()) {
+      window.position((int) (pos - windowStart));
+    } else {
+      mapAt(pos);
+    }
+  }
+
+  /**
+   * Ensure the current window has bytes remaining, mapping the next window
+   * if necessary.
+   *
+   * @return false at end of file.
+   */
+  private boolean ensureWindow() throws IOException {
+    if (!channel.isOpen()) {
+      throw new IOException("Stream closed");
+    }
+    if (window != null && window.hasRemaining()) {
+      return true;
+    }
+    return mapAt(position());
+  }
+
+  private boolean mapAt(long pos) throws IOException {
+    unmap();
+    if (pos >= size) {
+      windowStart = size;
+      window = null;
+      return false;
+    }
+    windowStart = pos;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(windowSize, size - pos));
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureWindow()) {
+      return -1;
+    }
+    return window.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureWindow()) {
+      return -1;
+    }
+    int n = Math.min(len, window.remaining());
+    window.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long pos = position();
+    long skipped = Math.min(n, size - pos);
+    if (window != null && skipped <= window.remaining()) {
+      window.position(window.position() + (int) skipped);
+    } else {
+      mapAt(pos + skipped);
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(Integer.MAX_VALUE, size - position());
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    mark = position();
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    position(mark);
+  }
+
+  @Override
+  public void close() throws IOException {
+    unmap();
+    channel.close();
+  }
+
+  // Release the current window.  It must not be touched afterwards.
+  private void unmap() {
+    MappedByteBuffer old = window;
+    window = null;
+    if (old != null && INVOKE_CLEANER != null) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, old);
+      }
+      catch (ReflectiveOperationException e) {
+        // Left to the garbage collector.
+      }
+    }
+  }
+}
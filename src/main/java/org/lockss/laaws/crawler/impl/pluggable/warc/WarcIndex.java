@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The records of one WARC file found by {@link WarcIndexer}, and whether the
+ * file is intact.
+ */
+public class WarcIndex {
+  /**
+   * The CDX header matching the lines written by {@link #writeCdx(Writer)}.
+   */
+  public static final String CDX_HEADER = " CDX a b a m s k r M V g u";
+
+  private final File warcFile;
+  private final boolean compressed;
+  private final List<Entry> entries = new ArrayList<>();
+  private long validLength = 0;
+  private long fileLength;
+  private String error;
+  private String repairedError;
+
+  WarcIndex(File warcFile, boolean compressed) {
+    this.warcFile = warcFile;
+    this.compressed = compressed;
+    this.fileLength = warcFile.length();
+  }
+
+  void addEntry(Entry entry) {
+    entries.add(entry);
+  }
+
+  void setValidLength(long validLength) {
+    this.validLength = validLength;
+  }
+
+  void setFileLength(long fileLength) {
+    this.fileLength = fileLength;
+  }
+
+  void setError(String error) {
+    this.error = error;
+  }
+
+  /**
+   * Record that the file has been truncated to its intact records.
+   */
+  void markRepaired() {
+    repairedError = error;
+    error = null;
+    fileLength = validLength;
+  }
+
+  public File getWarcFile() {
+    return warcFile;
+  }
+
+  /**
+   * Return true if the file is made of gzip members.
+   */
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  public int getRecordCount() {
+    return entries.size();
+  }
+
+  /**
+   * Return the offset just past the last intact record.
+   */
+  public long getValidLength() {
+    return validLength;
+  }
+
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  /**
+   * Return true if every byte of the file belongs to an intact record.
+   */
+  public boolean isValid() {
+    return error == null && validLength == fileLength;
+  }
+
+  /**
+   * Return a description of the first problem found, or null.
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Return true if the file was truncated to remove a damaged tail.
+   */
+  public boolean isRepaired() {
+    return repairedError != null;
+  }
+
+  /**
+   * Return the problem which caused the file to be truncated, or null.
+   */
+  public String getRepairedError() {
+    return repairedError;
+  }
+
+  /**
+   * Write a CDX line for each captured (response or resource) record.
+   *
+   * @param out the Writer to write to.
+   * @return the number of lines written.
+   * @throws IOException if the Writer throws.
+   */
+  public int writeCdx(Writer out) throws IOException {
+    int n = 0;
+    for (Entry e : entries) {
+      if (!e.isCapture()) {
+        continue;
+      }
+      out.write(String.join(" ", cdxField(e.getTargetUri()), cdxField(e.getCdxDate()),
+        cdxField(e.getTargetUri()), cdxField(e.getMimeType()),
+        e.getStatus() > 0 ? Integer.toString(e.getStatus()) : "-",
+        cdxField(cdxDigest(e.getPayloadDigest())), "-", "-", Long.toString(e.getOffset()),
+        warcFile.getName(), cdxField(e.getRecordId())));
+      out.write('\n');
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Return a payload digest in the form CDX files hold it: the bare base32
+   * SHA-1, without the "sha1:" label of the WARC header.  wget's dedup
+   * loader silently drops the entries whose digest it can't decode.
+   */
+  public static String cdxDigest(String digest) {
+    String prefix = WarcIndexer.DIGEST_PREFIX;
+    return digest != null && digest.regionMatches(true, 0, prefix, 0, prefix.length())
+      ? digest.substring(prefix.length()) : digest;
+  }
+
+  static String cdxField(String value) {
+    return value == null || value.isEmpty() ? "-" : value.replace(' ', '+');
+  }
+
+  @Override
+  public String toString() {
+    return "[WarcIndex " + warcFile.getName() + ", records=" + entries.size() +
+      ", validLength=" + validLength + ", fileLength=" + fileLength +
+      (error == null ? "" : ", error=" + error) + "]";
+  }
+
+  /**
+   * The location and identity of one WARC record.
+   */
+  public static class Entry {
+    private final long offset;
+    private final long length;
+    private final String type;
+    private final String targetUri;
+    private final String recordId;
+    private final String date;
+    private final String mimeType;
+    private final int status;
+    private final String payloadDigest;
+
+    Entry(long offset, long length, String type, String targetUri, String recordId,
+          String date, String mimeType, int status, String payloadDigest) {
+      this.offset = offset;
+      this.length = length;
+      this.type = type;
+      this.targetUri = targetUri;
+      this.recordId = recordId;
+      this.date = date;
+      this.mimeType = mimeType;
+      this.status = status;
+      this.payloadDigest = payloadDigest;
+    }
+
+    /**
+     * Return the offset of the record (or of its gzip member) in the file.
+     */
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+     * Return the number of bytes the record (or its gzip member) occupies in the file.
+     */
+    public long getLength() {
+      return length;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getTargetUri() {
+      return targetUri;
+    }
+
+    public String getRecordId() {
+      return recordId;
+    }
+
+    /**
+     * Return the WARC-Date of the record.
+     */
+    public String getDate() {
+      return date;
+    }
+
+    /**
+     * Return the WARC-Date as the 14 digit timestamp used in CDX files.
+     */
+    public String getCdxDate() {
+      if (date == null) {
+        return null;
+      }
+      String digits = date.replaceAll("[^0-9]", "");
+      return digits.length() >= 14 ? digits.substring(0, 14) : digits;
+    }
+
+    /**
+     * Return the Content-Type of the captured HTTP response, if any.
+     */
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    /**
+     * Return the HTTP status of a response record, 0 if none.
+     */
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Return the SHA-1 payload digest, "sha1:" followed by base32, or null.
+     */
+    public String getPayloadDigest() {
+      return payloadDigest;
+    }
+
+    /**
+     * Return true if the record holds captured content.
+     */
+    public boolean isCapture() {
+      return "response".equals(type) || "resource".equals(type);
+    }
+
+    @Override
+    public String toString() {
+      return "[Entry " + type + " " + targetUri + " @" + offset + "+" + length + "]";
+    }
+  }
+}
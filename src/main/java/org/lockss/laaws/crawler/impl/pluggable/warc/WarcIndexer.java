@@ -0,0 +1,554 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.lockss.log.L4JLogger;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a WARC file once, checking the framing of every record and, for a
+ * compressed file, the header and CRC of every gzip member, and builds a
+ * {@link WarcIndex} of its records with their payload digests.
+ * <p>
+ * Reading stops at the first damaged record.  The index then records how
+ * much of the file is intact, and {@link #repair(WarcIndex)} can truncate
+ * the file to that length.
+ */
+public class WarcIndexer {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  static final int BUFFER_SIZE = 64 * 1024;
+  static final int MAX_HEADER_LINE = 64 * 1024;
+  static final int MAX_HTTP_HEADER = 64 * 1024;
+  static final String DIGEST_PREFIX = "sha1:";
+
+  static final String WARC_TYPE = "WARC-Type";
+  static final String WARC_TARGET_URI = "WARC-Target-URI";
+  static final String WARC_RECORD_ID = "WARC-Record-ID";
+  static final String WARC_DATE = "WARC-Date";
+  static final String CONTENT_LENGTH = "Content-Length";
+  static final String CONTENT_TYPE = "Content-Type";
+
+  /**
+   * Index a WARC file.
+   *
+   * @param warcFile the file to index.
+   * @return the WarcIndex; damage to the file is reported by it, not thrown.
+   * @throws IOException if the file cannot be read.
+   */
+  public WarcIndex index(File warcFile) throws IOException {
+    boolean compressed = isGzip(warcFile);
+    WarcIndex index = new WarcIndex(warcFile, compressed);
+    try (InputStream in = new FileInputStream(warcFile)) {
+      if (compressed) {
+        indexGzip(in, index);
+      } else {
+        indexPlain(new PositionInputStream(new BufferedInputStream(in, BUFFER_SIZE)), index);
+      }
+    }
+    log.debug2("Indexed {}", index);
+    return index;
+  }
+
+  /**
+   * Truncate a damaged file to its intact records.
+   *
+   * @param index the index of the file.
+   * @return true if the file is now valid, false if it has no intact records.
+   * @throws IOException if the file cannot be truncated.
+   */
+  public static boolean repair(WarcIndex index) throws IOException {
+    if (index.isValid()) {
+      return true;
+    }
+    if (index.getValidLength() == 0) {
+      return false;
+    }
+    try (FileChannel ch = FileChannel.open(index.getWarcFile().toPath(),
+      StandardOpenOption.WRITE)) {
+      ch.truncate(index.getValidLength());
+    }
+    index.markRepaired();
+    return true;
+  }
+
+  static boolean isGzip(File warcFile) throws IOException {
+    try (InputStream in = new FileInputStream(warcFile)) {
+      return in.read() == 0x1f && in.read() == 0x8b;
+    }
+  }
+
+  void indexPlain(PositionInputStream in, WarcIndex index) throws IOException {
+    while (in.peek() != -1) {
+      long start = in.getPosition();
+      try {
+        Record rec = readRecord(in);
+        index.addEntry(rec.toEntry(start, in.getPosition() - start));
+        index.setValidLength(in.getPosition());
+      } catch (WarcFormatException | EOFException e) {
+        index.setError(describe(e, start));
+        return;
+      }
+    }
+  }
+
+  void indexGzip(InputStream raw, WarcIndex index) throws IOException {
+    GzipMemberSource src = new GzipMemberSource(raw);
+    while (src.hasMore()) {
+      long start = src.getPosition();
+      try {
+        PositionInputStream member = new PositionInputStream(
+          new BufferedInputStream(src.nextMember(), BUFFER_SIZE));
+        java.util.List<Record> records = new java.util.ArrayList<>(1);
+        while (member.peek() != -1) {
+          records.add(readRecord(member));
+        }
+        long end = src.getPosition();
+        for (Record rec : records) {
+          index.addEntry(rec.toEntry(start, end - start));
+        }
+        index.setValidLength(end);
+      } catch (WarcFormatException | EOFException e) {
+        index.setError(describe(e, start));
+        return;
+      }
+    }
+  }
+
+  static String describe(IOException e, long offset) {
+    String what = e instanceof EOFException ? "Truncated" : "Invalid";
+    return what + " record at offset " + offset + ": " + e.getMessage();
+  }
+
+  /**
+   * Read one WARC record, leaving the stream positioned after it.
+   */
+  Record readRecord(InputStream in) throws IOException {
+    String version = readLine(in);
+    if (!version.startsWith("WARC/")) {
+      throw new WarcFormatException("Expected WARC version line, found: " + abbreviate(version));
+    }
+    Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new WarcFormatException("Malformed header line: " + abbreviate(line));
+      }
+      headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+    }
+    long contentLength;
+    try {
+      contentLength = Long.parseLong(headers.get(CONTENT_LENGTH));
+    } catch (NumberFormatException e) {
+      throw new WarcFormatException("Missing or invalid Content-Length: " + headers.get(CONTENT_LENGTH));
+    }
+    Record rec = new Record();
+    rec.type = headers.get(WARC_TYPE);
+    rec.targetUri = stripAngles(headers.get(WARC_TARGET_URI));
+    rec.recordId = headers.get(WARC_RECORD_ID);
+    rec.date = headers.get(WARC_DATE);
+    String contentType = headers.get(CONTENT_TYPE);
+    boolean capture = "response".equals(rec.type) || "resource".equals(rec.type);
+    boolean http = contentType != null && contentType.startsWith("application/http");
+    readContent(in, contentLength, rec, capture, capture && http);
+    if (capture && !http) {
+      rec.mimeType = contentType;
+    }
+    for (int i = 0; i < 2; i++) {
+      if (!"".equals(readLine(in))) {
+        throw new WarcFormatException("Record not followed by CRLF CRLF");
+      }
+    }
+    return rec;
+  }
+
+  /**
+   * Read the content block of a record, digesting the payload of a capture:
+   * everything after the HTTP headers for an HTTP message, all of it otherwise.
+   */
+  void readContent(InputStream in, long length, Record rec, boolean capture, boolean http)
+    throws IOException {
+    MessageDigest md = capture ? DigestUtils.getSha1Digest() : null;
+    boolean inHeader = http;
+    int matched = 0;
+    ByteArrayOutputStream httpHeader = http ? new ByteArrayOutputStream(1024) : null;
+    byte[] buf = new byte[BUFFER_SIZE];
+    long remaining = length;
+    while (remaining > 0) {
+      int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+      if (n < 0) {
+        throw new EOFException("Content ends " + remaining + " bytes early");
+      }
+      remaining -= n;
+      int i = 0;
+      for (; inHeader && i < n; i++) {
+        byte c = buf[i];
+        if (httpHeader.size() < MAX_HTTP_HEADER) {
+          httpHeader.write(c);
+        }
+        if (c == '\n') {
+          matched = (matched == 1 || matched == 3) ? matched + 1 : (matched == 2 ? 4 : 2);
+          if (matched == 4) {
+            inHeader = false;
+          }
+        } else if (c == '\r') {
+          matched = (matched == 2) ? 3 : 1;
+        } else {
+          matched = 0;
+        }
+      }
+      if (md != null && !inHeader && i < n) {
+        md.update(buf, i, n - i);
+      }
+    }
+    if (http) {
+      parseHttpHeader(httpHeader.toString(StandardCharsets.ISO_8859_1.name()), rec);
+    }
+    if (md != null) {
+      rec.payloadDigest = DIGEST_PREFIX + new Base32().encodeAsString(md.digest());
+    }
+  }
+
+  static void parseHttpHeader(String header, Record rec) {
+    String[] lines = header.split("\r?\n");
+    if (lines.length == 0) {
+      return;
+    }
+    String[] status = lines[0].split(" ", 3);
+    if (status.length >= 2 && status[0].startsWith("HTTP/")) {
+      try {
+        rec.status = Integer.parseInt(status[1]);
+      } catch (NumberFormatException ignore) {
+        // not a response
+      }
+    }
+    for (int i = 1; i < lines.length; i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase(CONTENT_TYPE)) {
+        String value = lines[i].substring(colon + 1).trim();
+        int semi = value.indexOf(';');
+        rec.mimeType = (semi >= 0 ? value.substring(0, semi) : value).trim();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Read a CRLF (or LF) terminated line.
+   */
+  static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    int c;
+    while ((c = in.read()) != '\n') {
+      if (c == -1) {
+        throw new EOFException("Unexpected end of data in header");
+      }
+      if (line.size() >= MAX_HEADER_LINE) {
+        throw new WarcFormatException("Header line too long");
+      }
+      line.write(c);
+    }
+    byte[] bytes = line.toByteArray();
+    int len = bytes.length;
+    if (len > 0 && bytes[len - 1] == '\r') {
+      len--;
+    }
+    return new String(bytes, 0, len, StandardCharsets.UTF_8);
+  }
+
+  static String stripAngles(String uri) {
+    if (uri != null && uri.startsWith("<") && uri.endsWith(">")) {
+      return uri.substring(1, uri.length() - 1);
+    }
+    return uri;
+  }
+
+  static String abbreviate(String s) {
+    return s.length() > 80 ? s.substring(0, 80) + "..." : s;
+  }
+
+  /**
+   * The fields of a record collected while reading it.
+   */
+  static class Record {
+    String type;
+    String targetUri;
+    String recordId;
+    String date;
+    String mimeType;
+    int status;
+    String payloadDigest;
+
+    WarcIndex.Entry toEntry(long offset, long length) {
+      return new WarcIndex.Entry(offset, length, type, targetUri, recordId, date,
+        mimeType, status, payloadDigest);
+    }
+  }
+
+  /**
+   * Thrown when the bytes of a WARC file are not a valid record.
+   */
+  public static class WarcFormatException extends IOException {
+    public WarcFormatException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * An InputStream which knows its position and can peek at the next byte.
+   */
+  static class PositionInputStream extends FilterInputStream {
+    private long position = 0;
+    private long markPosition = 0;
+
+    PositionInputStream(InputStream in) {
+      super(in);
+    }
+
+    long getPosition() {
+      return position;
+    }
+
+    int peek() throws IOException {
+      mark(1);
+      int b = read();
+      reset();
+      return b;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        position++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        position += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      super.mark(readlimit);
+      markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      super.reset();
+      position = markPosition;
+    }
+  }
+
+  /**
+   * Splits a file of concatenated gzip members into the decompressed
+   * content of each member, verifying each member's header and trailer and
+   * tracking the offset in the file at which each member ends.
+   */
+  static class GzipMemberSource {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private long bufStart = 0;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+
+    GzipMemberSource(InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * Return the offset in the file of the next unconsumed byte.
+     */
+    long getPosition() {
+      return bufStart + pos;
+    }
+
+    private boolean fill() throws IOException {
+      bufStart += limit;
+      pos = 0;
+      limit = 0;
+      int n = in.read(buf);
+      if (n <= 0) {
+        return false;
+      }
+      limit = n;
+      return true;
+    }
+
+    boolean hasMore() throws IOException {
+      return pos < limit || fill();
+    }
+
+    private int readByte() throws IOException {
+      if (pos >= limit && !fill()) {
+        throw new EOFException("Unexpected end of gzip member");
+      }
+      return buf[pos++] & 0xff;
+    }
+
+    private void skipBytes(int n) throws IOException {
+      for (int i = 0; i < n; i++) {
+        readByte();
+      }
+    }
+
+    private long readInt() throws IOException {
+      return readByte() | (readByte() << 8) | (readByte() << 16) | ((long) readByte() << 24);
+    }
+
+    private void readHeader() throws IOException {
+      if (readByte() != 0x1f || readByte() != 0x8b) {
+        throw new WarcFormatException("Bad gzip magic number");
+      }
+      if (readByte() != 8) {
+        throw new WarcFormatException("Unsupported gzip compression method");
+      }
+      int flags = readByte();
+      skipBytes(6);
+      if ((flags & FEXTRA) != 0) {
+        skipBytes(readByte() | (readByte() << 8));
+      }
+      if ((flags & FNAME) != 0) {
+        while (readByte() != 0) ;
+      }
+      if ((flags & FCOMMENT) != 0) {
+        while (readByte() != 0) ;
+      }
+      if ((flags & FHCRC) != 0) {
+        skipBytes(2);
+      }
+    }
+
+    private void readTrailer(long size) throws IOException {
+      long expectedCrc = readInt();
+      long expectedSize = readInt();
+      if (expectedCrc != crc.getValue()) {
+        throw new WarcFormatException("gzip CRC mismatch");
+      }
+      if (expectedSize != (size & 0xffffffffL)) {
+        throw new WarcFormatException("gzip size mismatch");
+      }
+    }
+
+    /**
+     * Read the next member's header and return a stream of its content.  The
+     * stream verifies the trailer when it reaches the end of the member.
+     */
+    InputStream nextMember() throws IOException {
+      readHeader();
+      inflater.reset();
+      crc.reset();
+      return new InputStream() {
+        private boolean done = false;
+        private long size = 0;
+
+        @Override
+        public int read() throws IOException {
+          byte[] one = new byte[1];
+          return read(one, 0, 1) == 1 ? one[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          if (done) {
+            return -1;
+          }
+          if (len == 0) {
+            return 0;
+          }
+          try {
+            while (true) {
+              int n = inflater.inflate(b, off, len);
+              if (n > 0) {
+                crc.update(b, off, n);
+                size += n;
+                return n;
+              }
+              if (inflater.finished()) {
+                pos = limit - inflater.getRemaining();
+                readTrailer(size);
+                done = true;
+                return -1;
+              }
+              if (inflater.needsDictionary()) {
+                throw new WarcFormatException("gzip member needs a dictionary");
+              }
+              if (inflater.needsInput()) {
+                if (pos >= limit && !fill()) {
+                  throw new EOFException("Unexpected end of gzip member");
+                }
+                inflater.setInput(buf, pos, limit - pos);
+                pos = limit;
+              }
+            }
+          } catch (DataFormatException e) {
+            throw new WarcFormatException("Corrupt gzip data: " + e.getMessage());
+          }
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.lockss.log.L4JLogger;
+import org.lockss.util.StringUtil;
+import org.lockss.util.time.TimeBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Stores a set of WARC files in the repository concurrently.
+ * <p>
+ * Files are submitted to the crawler's ingest executor, which bounds the
+ * concurrency of a single crawler, and each store also holds one of the
+ * shared {@link Permits}, which bounds the concurrency across all crawlers.
+ * Every file gets its own {@link IngestResult}, so a file which fails to
+ * store does not prevent the others from being stored.
+ */
+public class WarcIngester {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  /**
+   * Stores a single WARC file.
+   */
+  @FunctionalInterface
+  public interface WarcStore {
+    void store(File warcFile) throws IOException;
+  }
+
+  private final ExecutorService executor;
+  private final Semaphore permits;
+
+  /**
+   * @param executor the executor to run the stores on.
+   * @param permits  the permits shared by all ingesters, or null for no limit
+   *                 beyond the executor's.
+   */
+  public WarcIngester(ExecutorService executor, Semaphore permits) {
+    this.executor = executor;
+    this.permits = permits;
+  }
+
+  /**
+   * Store the files, returning when all have been stored or have failed.
+   *
+   * @param warcFiles the files to store.
+   * @param store     the operation which stores one file.
+   * @return the results, in the order of {@code warcFiles}.
+   * @throws InterruptedIOException if interrupted while waiting; stores
+   *                                not yet started are cancelled.
+   */
+  public List<IngestResult> ingest(Collection<File> warcFiles, WarcStore store)
+    throws InterruptedIOException {
+    long start = TimeBase.nowMs();
+    List<Future<IngestResult>> futures = new ArrayList<>(warcFiles.size());
+    for (File warc : warcFiles) {
+      futures.add(executor.submit(() -> storeOne(warc, store)));
+    }
+    List<IngestResult> results = new ArrayList<>(futures.size());
+    try {
+      for (Future<IngestResult> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      for (Future<IngestResult> future : futures) {
+        future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while storing warc files");
+    } catch (ExecutionException e) {
+      // storeOne catches everything it can
+      throw new IllegalStateException(e.getCause());
+    }
+    logThroughput(results, TimeBase.msSince(start));
+    return results;
+  }
+
+  IngestResult storeOne(File warc, WarcStore store) throws InterruptedException {
+    if (permits != null) {
+      permits.acquire();
+    }
+    long start = TimeBase.nowMs();
+    try {
+      store.store(warc);
+      return new IngestResult(warc, warc.length(), TimeBase.msSince(start), null);
+    } catch (IOException | RuntimeException e) {
+      log.error("Unable to store {}", warc, e);
+      return new IngestResult(warc, warc.length(), TimeBase.msSince(start), e);
+    } finally {
+      if (permits != null) {
+        permits.release();
+      }
+    }
+  }
+
+  void logThroughput(List<IngestResult> results, long elapsed) {
+    if (results.isEmpty()) {
+      return;
+    }
+    long bytes = 0;
+    int failed = 0;
+    for (IngestResult result : results) {
+      if (result.isSuccess()) {
+        bytes += result.getBytes();
+      } else {
+        failed++;
+      }
+    }
+    long rate = elapsed > 0 ? bytes * 1000 / elapsed : bytes;
+    log.info("Stored {} ({}) in {}, {}/s{}",
+      StringUtil.numberOfUnits(results.size() - failed, "warcfile"),
+      StringUtil.sizeToString(bytes),
+      StringUtil.timeIntervalToString(elapsed),
+      StringUtil.sizeToString(rate),
+      failed > 0 ? ", " + failed + " failed" : "");
+  }
+
+  /**
+   * Return the results of the files which failed to store.
+   */
+  public static List<IngestResult> getFailures(List<IngestResult> results) {
+    List<IngestResult> failures = new ArrayList<>();
+    for (IngestResult result : results) {
+      if (!result.isSuccess()) {
+        failures.add(result);
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * A Semaphore whose number of permits can be changed while in use.
+   */
+  public static class Permits extends Semaphore {
+    private int maxPermits;
+
+    public Permits(int maxPermits) {
+      super(maxPermits, true);
+      this.maxPermits = maxPermits;
+    }
+
+    public synchronized void setMaxPermits(int newMax) {
+      int delta = newMax - maxPermits;
+      if (delta > 0) {
+        release(delta);
+      } else if (delta < 0) {
+        reducePermits(-delta);
+      }
+      maxPermits = newMax;
+    }
+
+    public synchronized int getMaxPermits() {
+      return maxPermits;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.lockss.log.L4JLogger;
+import org.lockss.util.StringUtil;
+import org.lockss.util.time.TimeBase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rewrites an uncompressed WARC file as a WARC.gz file, each record in its
+ * own gzip member as the WARC specification recommends.  Records are
+ * compressed in parallel on a ForkJoinPool, a batch at a time so that the
+ * memory used is bounded, and written out in their original order.
+ * Records too large for a batch are compressed on the calling thread.
+ */
+public class WarcRecompressor {
+  private static final L4JLogger log = L4JLogger.getLogger();
+
+  public static final long DEFAULT_BATCH_BYTES = 64L * 1024 * 1024;
+  static final String PART_SUFFIX = ".part";
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ForkJoinPool pool;
+  private final long batchBytes;
+
+  public WarcRecompressor(ForkJoinPool pool) {
+    this(pool, DEFAULT_BATCH_BYTES);
+  }
+
+  public WarcRecompressor(ForkJoinPool pool, long batchBytes) {
+    this.pool = pool;
+    this.batchBytes = batchBytes;
+  }
+
+  /**
+   * Compress the records of an uncompressed WARC file into a new file.  The
+   * new file appears only once it is complete.
+   *
+   * @param index the index of the uncompressed file.
+   * @param out   the file to write.
+   * @return the index of the new file.
+   * @throws IOException if the file cannot be read or written.
+   */
+  public WarcIndex recompress(WarcIndex index, File out) throws IOException {
+    if (index.isCompressed()) {
+      throw new IllegalArgumentException("Already compressed: " + index.getWarcFile());
+    }
+    long start = TimeBase.nowMs();
+    File part = new File(out.getPath() + PART_SUFFIX);
+    List<WarcIndex.Entry> entries = index.getEntries();
+    List<WarcIndex.Entry> relocated = new ArrayList<>(entries.size());
+    long outPos = 0;
+    try (FileChannel in = FileChannel.open(index.getWarcFile().toPath(), StandardOpenOption.READ);
+         OutputStream os = new BufferedOutputStream(new FileOutputStream(part), BUFFER_SIZE)) {
+      int i = 0;
+      while (i < entries.size()) {
+        WarcIndex.Entry entry = entries.get(i);
+        if (entry.getLength() > batchBytes) {
+          long len = compressLarge(in, entry, os);
+          relocated.add(relocate(entry, outPos, len));
+          outPos += len;
+          i++;
+          continue;
+        }
+        int j = i;
+        long bytes = 0;
+        while (j < entries.size() && bytes + entries.get(j).getLength() <= batchBytes) {
+          bytes += entries.get(j).getLength();
+          j++;
+        }
+        List<WarcIndex.Entry> batch = entries.subList(i, j);
+        byte[][] members = new byte[batch.size()][];
+        try {
+          pool.invoke(new CompressTask(in, batch, members, 0, batch.size()));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        for (int k = 0; k < members.length; k++) {
+          os.write(members[k]);
+          relocated.add(relocate(batch.get(k), outPos, members[k].length));
+          outPos += members[k].length;
+        }
+        i = j;
+      }
+    } catch (IOException | RuntimeException e) {
+      if (!part.delete()) {
+        log.warn("Unable to delete {}", part);
+      }
+      throw e;
+    }
+    Files.move(part.toPath(), out.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    WarcIndex result = new WarcIndex(out, true);
+    for (WarcIndex.Entry entry : relocated) {
+      result.addEntry(entry);
+    }
+    result.setValidLength(outPos);
+    log.debug("Compressed {} to {} in {}", StringUtil.sizeToString(index.getFileLength()),
+      StringUtil.sizeToString(outPos), StringUtil.timeIntervalToString(TimeBase.msSince(start)));
+    return result;
+  }
+
+  static WarcIndex.Entry relocate(WarcIndex.Entry e, long offset, long length) {
+    return new WarcIndex.Entry(offset, length, e.getType(), e.getTargetUri(), e.getRecordId(),
+      e.getDate(), e.getMimeType(), e.getStatus(), e.getPayloadDigest());
+  }
+
+  /**
+   * Compress one record into a gzip member in memory.
+   */
+  static byte[] compressRecord(FileChannel in, WarcIndex.Entry entry) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate((int) entry.getLength());
+    long pos = entry.getOffset();
+    while (buf.hasRemaining()) {
+      int n = in.read(buf, pos + buf.position());
+      if (n < 0) {
+        throw new EOFException("Record at " + entry.getOffset() + " extends past end of file");
+      }
+    }
+    // compressed records are usually several times smaller.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(buf.capacity() / 4 + 64);
+    try (GZIPOutputStream gz = new GZIPOutputStream(bytes, BUFFER_SIZE)) {
+      gz.write(buf.array());
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Compress one record as a gzip member straight to the output.
+   *
+   * @return the length of the member.
+   */
+  static long compressLarge(FileChannel in, WarcIndex.Entry entry, OutputStream os)
+    throws IOException {
+    MemberOutputStream member = new MemberOutputStream(os);
+    try (GZIPOutputStream gz = new GZIPOutputStream(member, BUFFER_SIZE)) {
+      ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+      long pos = entry.getOffset();
+      long end = pos + entry.getLength();
+      while (pos < end) {
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - pos));
+        int n = in.read(buf, pos);
+        if (n < 0) {
+          throw new EOFException("Record at " + entry.getOffset() + " extends past end of file");
+        }
+        gz.write(buf.array(), 0, n);
+        pos += n;
+      }
+    }
+    return member.getCount();
+  }
+
+  /**
+   * Compresses a range of a batch of records by splitting it in two until
+   * each task has a single record.
+   */
+  static class CompressTask extends RecursiveAction {
+    private final FileChannel in;
+    private final List<WarcIndex.Entry> batch;
+    private final byte[][] members;
+    private final int lo;
+    private final int hi;
+
+    CompressTask(FileChannel in, List<WarcIndex.Entry> batch, byte[][] members, int lo, int hi) {
+      this.in = in;
+      this.batch = batch;
+      this.members = members;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo == 1) {
+        try {
+          members[lo] = compressRecord(in, batch.get(lo));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new CompressTask(in, batch, members, lo, mid),
+        new CompressTask(in, batch, members, mid, hi));
+    }
+  }
+
+  /**
+   * Passes a gzip member through to the output, counting its bytes, without
+   * closing the output when the member is finished.
+   */
+  static class MemberOutputStream extends FilterOutputStream {
+    private long count = 0;
+
+    MemberOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
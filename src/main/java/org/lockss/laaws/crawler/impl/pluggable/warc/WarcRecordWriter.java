@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.apache.commons.codec.binary.Base32;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the request and response records of HTTP fetches to a stream, each
+ * record optionally in its own gzip member.
+ */
+public class WarcRecordWriter {
+  static final String CRLF = "\r\n";
+
+  private final OutputStream out;
+  private final boolean compress;
+  private long bytesWritten = 0;
+  private int recordsWritten = 0;
+
+  /**
+   * @param out      the stream to write to.
+   * @param compress true to write each record as a separate gzip member.
+   */
+  public WarcRecordWriter(OutputStream out, boolean compress) {
+    this.out = out;
+    this.compress = compress;
+  }
+
+  /**
+   * Write a response record holding a captured HTTP response.
+   *
+   * @param uri        the URL fetched.
+   * @param date       the time of the fetch.
+   * @param httpHeader the status line and headers, ending with a blank line.
+   * @param body       the payload.
+   * @return the WARC-Record-ID of the record.
+   * @throws IOException if the stream throws.
+   */
+  public String writeResponse(String uri, Instant date, byte[] httpHeader, byte[] body)
+      throws IOException {
+    return writeResponse(uri, date, httpHeader, new ByteArrayInputStream(body), body.length,
+        sha1Base32(body));
+  }
+
+  /**
+   * Write a response record holding a captured HTTP response, copying its
+   * payload from a stream.
+   *
+   * @param uri           the URL fetched.
+   * @param date          the time of the fetch.
+   * @param httpHeader    the status line and headers, ending with a blank line.
+   * @param body          the payload.
+   * @param bodyLength    the length of the payload.
+   * @param payloadDigest the base32 SHA-1 of the payload.
+   * @return the WARC-Record-ID of the record.
+   * @throws IOException if the stream throws or the payload is not of the
+   *                     length given.
+   */
+  public String writeResponse(String uri, Instant date, byte[] httpHeader, InputStream body,
+                              long bodyLength, String payloadDigest) throws IOException {
+    String recordId = newRecordId();
+    Map<String, String> fields = new LinkedHashMap<>();
+    fields.put("WARC-Payload-Digest", WarcIndexer.DIGEST_PREFIX + payloadDigest);
+    writeRecord("response", uri, date, recordId, "application/http; msgtype=response",
+        fields, httpHeader, body, bodyLength);
+    return recordId;
+  }
+
+  /**
+   * Write a request record for the request which produced a response.
+   *
+   * @param uri          the URL fetched.
+   * @param date         the time of the fetch.
+   * @param concurrentTo the WARC-Record-ID of the response record.
+   * @param httpHeader   the request line and headers, ending with a blank line.
+   * @return the WARC-Record-ID of the record.
+   * @throws IOException if the stream throws.
+   */
+  public String writeRequest(String uri, Instant date, String concurrentTo, byte[] httpHeader)
+      throws IOException {
+    String recordId = newRecordId();
+    Map<String, String> fields = new LinkedHashMap<>();
+    if (concurrentTo != null) {
+      fields.put("WARC-Concurrent-To", concurrentTo);
+    }
+    writeRecord("request", uri, date, recordId, "application/http; msgtype=request",
+        fields, httpHeader, null, 0);
+    return recordId;
+  }
+
+  void writeRecord(String type, String uri, Instant date, String recordId, String contentType,
+                   Map<String, String> fields, byte[] httpHeader, InputStream payload,
+                   long payloadLength) throws IOException {
+    long length = httpHeader.length + payloadLength;
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("WARC/1.0").append(CRLF);
+    sb.append("WARC-Type: ").append(type).append(CRLF);
+    sb.append("WARC-Target-URI: ").append(uri).append(CRLF);
+    sb.append("WARC-Date: ").append(date.truncatedTo(ChronoUnit.SECONDS)).append(CRLF);
+    sb.append("WARC-Record-ID: ").append(recordId).append(CRLF);
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      sb.append(field.getKey()).append(": ").append(field.getValue()).append(CRLF);
+    }
+    sb.append("Content-Type: ").append(contentType).append(CRLF);
+    sb.append("Content-Length: ").append(length).append(CRLF);
+    sb.append(CRLF);
+    CountingOutputStream counter = new CountingOutputStream(out);
+    OutputStream recOut = compress
+      ? new GZIPOutputStream(counter, 8192)
+      : counter;
+    recOut.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    recOut.write(httpHeader);
+    if (payload != null) {
+      long copied = payload.transferTo(recOut);
+      if (copied != payloadLength) {
+        throw new IOException("Payload of " + uri + " is " + copied + " bytes, expected "
+            + payloadLength);
+      }
+    }
+    recOut.write((CRLF + CRLF).getBytes(StandardCharsets.US_ASCII));
+    if (compress) {
+      recOut.close();
+    }
+    bytesWritten += counter.count;
+    recordsWritten++;
+  }
+
+  /**
+   * Return the number of bytes written to the stream.
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  public int getRecordsWritten() {
+    return recordsWritten;
+  }
+
+  /**
+   * Build the header block of a captured HTTP message.
+   *
+   * @param startLine the request or status line.
+   * @param headers   the headers, each name with its values.
+   * @return the block, ending with a blank line.
+   */
+  public static byte[] httpHeader(String startLine, Map<String, ? extends Iterable<String>> headers) {
+    StringBuilder sb = new StringBuilder(512);
+    sb.append(startLine).append(CRLF);
+    for (Map.Entry<String, ? extends Iterable<String>> header : headers.entrySet()) {
+      for (String value : header.getValue()) {
+        sb.append(header.getKey()).append(": ").append(value).append(CRLF);
+      }
+    }
+    sb.append(CRLF);
+    return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  static String newRecordId() {
+    return "<urn:uuid:" + UUID.randomUUID() + ">";
+  }
+
+  static String sha1Base32(byte[] data) {
+    try {
+      return new Base32().encodeAsString(MessageDigest.getInstance("SHA-1").digest(data));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 not supported", e);
+    }
+  }
+
+  /**
+   * Counts the bytes of a record.  Closing it (as closing a record's gzip
+   * member does) leaves the underlying stream open.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * A stream of WARC records which are stored as they are written, without
+ * being staged in a file.  The records are uploaded in batches: once a
+ * batch exceeds the batch size the next record starts a new upload, so a
+ * failed upload loses at most one batch.
+ */
+public class WarcUploadStream extends OutputStream {
+  static final int PIPE_SIZE = 1024 * 1024;
+
+  /**
+   * Stores one batch of records, reading them until end of stream.
+   */
+  @FunctionalInterface
+  public interface Uploader {
+    void upload(InputStream in) throws IOException;
+  }
+
+  private final Uploader uploader;
+  private final long batchSize;
+  private final String threadName;
+  private PipedOutputStream pipe;
+  private Thread uploadThread;
+  private volatile Throwable uploadError;
+  private long batchBytes = 0;
+  private long bytesUploaded = 0;
+  private int batches = 0;
+  private boolean closed = false;
+
+  /**
+   * @param uploader   stores each batch.
+   * @param batchSize  the size after which a new batch is started, 0 for a
+   *                   single batch.
+   * @param threadName the name of the threads which run the uploads.
+   */
+  public WarcUploadStream(Uploader uploader, long batchSize, String threadName) {
+    this.uploader = uploader;
+    this.batchSize = batchSize;
+    this.threadName = threadName;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    PipedOutputStream out = ensureBatch();
+    try {
+      out.write(b);
+    }
+    catch (IOException e) {
+      // the pipe breaks when the upload stops reading.
+      checkError();
+      throw e;
+    }
+    batchBytes++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    PipedOutputStream out = ensureBatch();
+    try {
+      out.write(b, off, len);
+    }
+    catch (IOException e) {
+      checkError();
+      throw e;
+    }
+    batchBytes += len;
+  }
+
+  /**
+   * Mark the end of a record.  Batches are only ever ended between records,
+   * so each upload is a well formed WARC stream.
+   *
+   * @throws IOException if the upload of a completed batch failed.
+   */
+  public void endRecord() throws IOException {
+    if (batchSize > 0 && batchBytes >= batchSize) {
+      endBatch();
+    }
+  }
+
+  private PipedOutputStream ensureBatch() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    checkError();
+    if (pipe == null) {
+      PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+      pipe = new PipedOutputStream(in);
+      uploadThread = new Thread(() -> {
+        try (InputStream is = in) {
+          uploader.upload(is);
+        }
+        catch (Throwable t) {
+          uploadError = t;
+        }
+      }, threadName + ":" + batches);
+      uploadThread.setDaemon(true);
+      uploadThread.start();
+    }
+    return pipe;
+  }
+
+  private void endBatch() throws IOException {
+    if (pipe == null) {
+      return;
+    }
+    try {
+      pipe.close();
+      uploadThread.join();
+    }
+    catch (InterruptedException e) {
+      uploadThread.interrupt();
+      throw new InterruptedIOException("Interrupted waiting for upload");
+    }
+    finally {
+      pipe = null;
+    }
+    checkError();
+    bytesUploaded += batchBytes;
+    batchBytes = 0;
+    batches++;
+  }
+
+  private void checkError() throws IOException {
+    Throwable t = uploadError;
+    if (t != null) {
+      if (t instanceof IOException) {
+        throw new IOException("Upload failed: " + t.getMessage(), t);
+      }
+      throw new IOException("Upload failed", t);
+    }
+  }
+
+  /**
+   * Return the number of bytes in the batches successfully uploaded.
+   */
+  public long getBytesUploaded() {
+    return bytesUploaded;
+  }
+
+  /**
+   * Return the number of batches successfully uploaded.
+   */
+  public int getBatches() {
+    return batches;
+  }
+
+  /**
+   * Abandon the current batch without waiting for its upload.
+   */
+  public void abort() {
+    closed = true;
+    if (uploadThread != null) {
+      uploadThread.interrupt();
+    }
+  }
+
+  /**
+   * Complete the current batch and wait for it to be stored.
+   *
+   * @throws IOException if the upload failed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      endBatch();
+    }
+    finally {
+      closed = true;
+    }
+  }
+}
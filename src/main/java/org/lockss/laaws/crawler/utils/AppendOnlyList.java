@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list which can only be appended to, and which may be read by any number
+ * of threads while one or more threads append to it.  A reader sees a
+ * consistent prefix of the list: the elements before the size it last read
+ * never change, so an index into it remains valid as it grows.
+ *
+ * @param <E> the type of the elements.
+ */
+public class AppendOnlyList<E> extends AbstractList<E> implements RandomAccess {
+  private volatile Object[] elements;
+  private volatile int size = 0;
+
+  public AppendOnlyList() {
+    this(16);
+  }
+
+  public AppendOnlyList(int initialCapacity) {
+    elements = new Object[Math.max(1, initialCapacity)];
+  }
+
+  @Override
+  public synchronized boolean add(E e) {
+    Object[] arr = elements;
+    int n = size;
+    if (n == arr.length) {
+      arr = Arrays.copyOf(arr, n + (n >> 1) + 1);
+      elements = arr;
+    }
+    arr[n] = e;
+    // publishing the size publishes the element.
+    size = n + 1;
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    int n = size;
+    if (index < 0 || index >= n) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + n);
+    }
+    return (E) elements[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2000-2023, Board of Trustees of Leland Stanford Jr. University
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package org.lockss.laaws.crawler.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A path template such as {@code crawls/{jobId}/{counterName}}, parsed once
+ * so that expanding it is a matter of concatenation.  Variables are
+ * substituted positionally and not encoded, as
+ * {@code UriComponentsBuilder.fromPath(template).buildAndExpand(vars).toUriString()}
+ * does.
+ */
+public class LinkTemplate {
+  private final String template;
+  // The literal text before each variable, then the text after the last.
+  private final String[] literals;
+  private final String[] names;
+
+  public LinkTemplate(String template) {
+    this.template = template;
+    List<String> lits = new ArrayList<>();
+    List<String> vars = new ArrayList<>();
+    int pos = 0;
+    while (true) {
+      int open = template.indexOf('{', pos);
+      if (open < 0) {
+        break;
+      }
+      int close = template.indexOf('}', open);
+      if (close < 0) {
+        throw new IllegalArgumentException("Unterminated variable in " + template);
+      }
+      lits.add(template.substring(pos, open));
+      vars.add(template.substring(open + 1, close));
+      pos = close + 1;
+    }
+    lits.add(template.substring(pos));
+    literals = lits.toArray(new String[0]);
+    names = vars.toArray(new String[0]);
+  }
+
+  /**
+   * Return the names of the variables, in the order their values are
+   * passed to {@link #expand(String...)}.
+   */
+  public String[] getVariableNames() {
+    return names.clone();
+  }
+
+  /**
+   * Return the template with its variables replaced by values.
+   *
+   * @param values the value of each variable, in order; null is expanded
+   *               as the empty string.
+   */
+  public String expand(String... values) {
+    if (values.length != names.length) {
+      throw new IllegalArgumentException("Template " + template + " needs " +
+        names.length + " values, got " + values.length);
+    }
+    int len = 0;
+    for (String lit : literals) {
+      len += lit.length();
+    }
+    for (String value : values) {
+      len += value == null ? 0 : value.length();
+    }
+    StringBuilder sb = new StringBuilder(len);
+    for (int i = 0; i < values.length; i++) {
+      sb.append(literals[i]);
+      if (values[i] != null) {
+        sb.append(values[i]);
+      }
+    }
+    sb.append(literals[literals.length - 1]);
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "[LinkTemplate " + template + "]";
+  }
+}
@@ -31,18 +31,23 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package org.lockss.laaws.crawler.wget;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.lockss.laaws.crawler.impl.pluggable.CmdLineCrawler;
 import org.lockss.laaws.crawler.model.CrawlerConfig;
 import org.lockss.util.Constants;
 import org.lockss.util.NumberUtil;
 import org.lockss.util.StringUtil;
+import org.lockss.util.rest.crawler.CrawlDesc;
 
-import static org.lockss.laaws.crawler.wget.WgetCommandOptions.NO_WARC_COMPRESSION_KEY;
+import static org.lockss.laaws.crawler.wget.WgetCommandLineBuilder.WARC_FILE_NAME;
+import static org.lockss.laaws.crawler.wget.WgetCommandOptions.*;
 
 /**
  * The type Wget cmd line crawler.
@@ -65,6 +70,12 @@ public static final String ATTR_OUTPUT_LEVEL ="outputLevel";
 
   List<String> configOptions;
 
+  /**
+   * The name of a WARC segment written by wget with --warc-max-size.
+   */
+  static final Pattern SEGMENT_PATTERN =
+    Pattern.compile(Pattern.quote(WARC_FILE_NAME) + "-[0-9]{5}\\.warc(\\.gz)?");
+
   @Override
   public void updateCrawlerConfig(CrawlerConfig crawlerConfig) {
     super.updateCrawlerConfig(crawlerConfig);
@@ -119,6 +130,67 @@ public static final String ATTR_OUTPUT_LEVEL ="outputLevel";
     return successCodes.contains(exitCode);
   }
 
+  @Override
+  protected List<String> getCheckpointOptions() {
+    List<String> options = new ArrayList<>();
+    if (warcSegmentSize > 0 && !unsupportedParams.contains(WARC_MAX_SIZE_KEY)
+        && !unsupportedParams.contains(WARC_CDX_KEY)) {
+      options.add(WARC_MAX_SIZE_KEY + "=" + warcSegmentSize);
+      options.add(WARC_CDX_KEY);
+    }
+    return options;
+  }
+
+  /**
+   * wget writes revisit records for content whose digest is in the
+   * --warc-dedup CDX.
+   */
+  @Override
+  protected List<String> getDedupOptions(File cdx) {
+    if (unsupportedParams.contains(WARC_DEDUP_KEY)) {
+      return Collections.emptyList();
+    }
+    return Collections.singletonList(WARC_DEDUP_KEY + "=" + cdx.getAbsolutePath());
+  }
+
+  /**
+   * Build a manifest unless the request supplied its own dedup CDX.
+   */
+  @Override
+  protected boolean useRepositoryDedup(CrawlDesc crawlDesc) {
+    Map<String, Object> extra = crawlDesc.getExtraCrawlerData();
+    return dedupFromRepository && !unsupportedParams.contains(WARC_DEDUP_KEY)
+      && (extra == null || extra.get(WARC_DEDUP_KEY.substring(2)) == null);
+  }
+
+  /**
+   * All but the last numbered segment are complete, the last one (and the
+   * meta WARC wget writes at exit) may have been cut off.
+   */
+  @Override
+  protected List<File> getCompletedWarcSegments(File dir) {
+    List<File> segments = new ArrayList<>();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (SEGMENT_PATTERN.matcher(file.getName()).matches()) {
+          segments.add(file);
+        }
+      }
+    }
+    if (segments.isEmpty()) {
+      return segments;
+    }
+    segments.sort(null);
+    return segments.subList(0, segments.size() - 1);
+  }
+
+  @Override
+  protected List<File> getCdxFiles(File dir) {
+    File cdx = new File(dir, WARC_FILE_NAME + ".cdx");
+    return cdx.exists() ? Collections.singletonList(cdx) : Collections.emptyList();
+  }
+
   /**
    * Gets output level.
    *
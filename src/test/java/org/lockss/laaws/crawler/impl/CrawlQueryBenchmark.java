@@ -0,0 +1,121 @@
+package org.lockss.laaws.crawler.impl;
+
+import org.josql.Query;
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.util.josql.JosqlUtil;
+import org.lockss.ws.entities.CrawlWsResult;
+import org.lockss.ws.status.CrawlWsSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares running a {@code /ws/crawls} query with JoSQL, parsed on every
+ * call as {@link WsApiServiceImpl} used to, against running its compiled
+ * form from {@link CrawlQueryCompiler}.  As in the service, each call runs
+ * over a new universe of {@link CrawlWsSource}s, which read each property
+ * from the crawl's status the first time it's asked for, so the cost of
+ * the properties a query touches is counted.  Run with
+ * <pre>
+ *   java -cp ... org.lockss.laaws.crawler.impl.CrawlQueryBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrawlQueryBenchmark {
+
+  @Param({"100", "1000"})
+  int crawls;
+
+  @Param({"select crawlKey, auId, crawlStatus where priority > 2 order by startTime desc",
+    "select crawlKey, pagesFetchedCount where pagesFetchedCount > 5000",
+    "select * where auId like 'org|lockss|plugin|1%'"})
+  String query;
+
+  List<CrawlerStatus> statuses;
+
+  @Setup
+  public void setUp() {
+    statuses = new ArrayList<>(crawls);
+    for (int i = 0; i < crawls; i++) {
+      // stubOnly, as the sources query the status for every property.
+      CrawlerStatus cs = mock(CrawlerStatus.class, withSettings().stubOnly());
+      when(cs.getKey()).thenReturn("crawl" + i);
+      when(cs.getAuId()).thenReturn("org|lockss|plugin|" + i);
+      when(cs.getAuName()).thenReturn("AU " + i);
+      when(cs.getPriority()).thenReturn(i % 5);
+      when(cs.getType()).thenReturn("New Content");
+      when(cs.getStartTime()).thenReturn(1_700_000_000_000L + i * 1000L);
+      when(cs.getEndTime()).thenReturn(1_700_000_060_000L + i * 1000L);
+      when(cs.getCrawlStatusMsg()).thenReturn(i % 3 == 0 ? "Active" : "Successful");
+      when(cs.getContentBytesFetched()).thenReturn(i * 1000L);
+      CrawlerStatus.UrlCount fetched = makeCount(i * 10);
+      CrawlerStatus.UrlCount other = makeCount(i);
+      when(cs.getFetchedCtr()).thenReturn(fetched);
+      when(cs.getParsedCtr()).thenReturn(other);
+      when(cs.getPendingCtr()).thenReturn(other);
+      when(cs.getExcludedCtr()).thenReturn(other);
+      when(cs.getNotModifiedCtr()).thenReturn(other);
+      when(cs.getErrorCtr()).thenReturn(other);
+      statuses.add(cs);
+    }
+  }
+
+  static CrawlerStatus.UrlCount makeCount(int count) {
+    CrawlerStatus.UrlCount ctr = mock(CrawlerStatus.UrlCount.class, withSettings().stubOnly());
+    when(ctr.getCount()).thenReturn(count);
+    return ctr;
+  }
+
+  // A new universe, as CrawlHelper.createUniverse() builds for each query.
+  List<CrawlWsSource> makeUniverse() {
+    List<CrawlWsSource> universe = new ArrayList<>(statuses.size());
+    for (CrawlerStatus cs : statuses) {
+      universe.add(new CrawlWsSource(cs));
+    }
+    return universe;
+  }
+
+  @Benchmark
+  public List<?> josql() throws Exception {
+    String fullQuery = JosqlUtil.createFullQuery(query, CrawlHelper.SOURCE_FQCN,
+      CrawlHelper.PROPERTY_NAMES, CrawlHelper.RESULT_FQCN);
+    Query q = new Query();
+    q.parse(fullQuery);
+    return q.execute(makeUniverse()).getResults();
+  }
+
+  @Benchmark
+  public List<CrawlWsResult> compiled() {
+    return CrawlQueryCompiler.compile(query).execute(makeUniverse());
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(CrawlQueryBenchmark.class.getSimpleName())
+      .build()).run();
+  }
+}
@@ -0,0 +1,72 @@
+package org.lockss.laaws.crawler.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.laaws.crawler.impl.CrawlEventController.Subscriber;
+import org.lockss.util.ListUtil;
+import org.lockss.util.rest.crawler.JobStatus.StatusCodeEnum;
+import org.lockss.util.test.LockssTestCase5;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class TestCrawlEventController extends LockssTestCase5 {
+
+  CrawlProgress progress(String jobId, String crawlerId, StatusCodeEnum code, long fetched) {
+    return new CrawlProgress(jobId, crawlerId, "au1", code, code.toString(),
+      1000, 0, fetched * 100, fetched, 0, 0, fetched, 5, 0);
+  }
+
+  @Test
+  @DisplayName("Deltas hold only the fields which changed")
+  void testDelta() {
+    CrawlProgress p1 = progress("j1", "wget", StatusCodeEnum.QUEUED, 0);
+    CrawlProgress p2 = progress("j1", "wget", StatusCodeEnum.ACTIVE, 0);
+    CrawlProgress p3 = progress("j1", "wget", StatusCodeEnum.ACTIVE, 3);
+
+    assertEquals(CrawlProgress.EVENT_ADDED, p1.eventFrom(null));
+    assertEquals(14, p1.deltaFrom(null).size());
+    assertEquals(CrawlProgress.EVENT_STATUS, p2.eventFrom(p1));
+    Map<String, Object> delta = p3.deltaFrom(p2);
+    assertEquals(CrawlProgress.EVENT_PROGRESS, p3.eventFrom(p2));
+    assertEquals(ListUtil.list("jobId", "bytesFetched", "fetched", "parsed"),
+      new ArrayList<>(delta.keySet()));
+    assertEquals(3L, delta.get("fetched"));
+    assertNull(p3.eventFrom(p3));
+  }
+
+  @Test
+  @DisplayName("A subscriber is sent the changes to the crawls it matches")
+  void testSubscriber() throws Exception {
+    SseEmitter emitter = mock(SseEmitter.class);
+    Subscriber sub = new Subscriber(emitter, ListUtil.list("wget"), null, null, 1000);
+    Map<String, CrawlProgress> current = new LinkedHashMap<>();
+    current.put("j1", progress("j1", "wget", StatusCodeEnum.ACTIVE, 1));
+    current.put("j2", progress("j2", "classic", StatusCodeEnum.ACTIVE, 1));
+
+    assertTrue(sub.isDue(System.currentTimeMillis()));
+    sub.update(current, System.currentTimeMillis());
+    verify(emitter, times(1)).send(any(SseEmitter.SseEventBuilder.class));
+    assertFalse(sub.isDue(System.currentTimeMillis()));
+
+    // Nothing changed, nothing sent.
+    sub.update(current, System.currentTimeMillis());
+    verify(emitter, times(1)).send(any(SseEmitter.SseEventBuilder.class));
+
+    // One progress event, one removed event.
+    current.put("j1", progress("j1", "wget", StatusCodeEnum.ACTIVE, 2));
+    sub.update(current, System.currentTimeMillis());
+    current.remove("j1");
+    sub.update(current, System.currentTimeMillis());
+    verify(emitter, times(3)).send(any(SseEmitter.SseEventBuilder.class));
+    verify(emitter, never()).complete();
+  }
+}
@@ -0,0 +1,66 @@
+package org.lockss.laaws.crawler.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.util.ListUtil;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+class TestCrawlExportController extends LockssTestCase5 {
+
+  @Test
+  @DisplayName("Each URL is written as one JSON object per line")
+  void testWriteNdjson() throws IOException {
+    CrawlerStatus status = mock(CrawlerStatus.class);
+    CrawlerStatus.UrlErrorInfo errInfo = mock(CrawlerStatus.UrlErrorInfo.class);
+    when(errInfo.getMessage()).thenReturn("404 Not Found");
+    when(status.getErrorInfoForUrl("http://x/b")).thenReturn(errInfo);
+    List<String> urls = ListUtil.list("http://x/a", "http://x/b", "http://x/c");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // Only the URLs present when the export started are written.
+    assertEquals(2, CrawlExportController.writeNdjson(status, urls, 2, false, out));
+    assertEquals("{\"url\":\"http://x/a\"}\n" +
+        "{\"url\":\"http://x/b\",\"error\":{\"message\":\"404 Not Found\"}}\n",
+      out.toString(StandardCharsets.UTF_8));
+    verify(status, never()).getReferrers("http://x/a");
+  }
+
+  @Test
+  @DisplayName("Referrers are written only when asked for")
+  void testReferrers() throws IOException {
+    CrawlerStatus status = mock(CrawlerStatus.class);
+    when(status.getReferrers("http://x/a")).thenReturn(ListUtil.list("http://x/"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GZIPOutputStream gzOut = new GZIPOutputStream(out);
+    CrawlExportController.writeNdjson(status, ListUtil.list("http://x/a"), 1, true, gzOut);
+    gzOut.finish();
+    GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals("{\"url\":\"http://x/a\",\"referrers\":[\"http://x/\"]}\n",
+      new String(in.readAllBytes(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  @DisplayName("The response is gzipped only if the client accepts it")
+  void testAcceptsGzip() {
+    assertFalse(CrawlExportController.acceptsGzip(null));
+    assertFalse(CrawlExportController.acceptsGzip("identity"));
+    assertTrue(CrawlExportController.acceptsGzip("gzip"));
+    assertTrue(CrawlExportController.acceptsGzip("deflate, GZIP;q=0.5"));
+    assertFalse(CrawlExportController.acceptsGzip("gzip;q=0"));
+  }
+}
@@ -0,0 +1,102 @@
+package org.lockss.laaws.crawler.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+import org.lockss.ws.entities.CrawlWsResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class TestCrawlQueryCompiler extends LockssTestCase5 {
+
+  static CrawlWsResult crawl(String key, String auId, Integer priority, Long startTime) {
+    CrawlWsResult crawl = new CrawlWsResult();
+    crawl.setCrawlKey(key);
+    crawl.setAuId(auId);
+    crawl.setPriority(priority);
+    crawl.setStartTime(startTime);
+    crawl.setCrawlStatus("Active");
+    crawl.setPagesFetched(List.of("http://example.com/"));
+    return crawl;
+  }
+
+  static List<CrawlWsResult> universe() {
+    return List.of(crawl("c1", "org|lockss|plugin|A", 1, 300L),
+      crawl("c2", "org|lockss|plugin|B", 5, 100L),
+      crawl("c3", "edu|lockss|plugin|C", 5, null));
+  }
+
+  static List<String> keys(List<CrawlWsResult> results) {
+    List<String> keys = new ArrayList<>();
+    results.forEach(r -> keys.add(r.getCrawlKey()));
+    return keys;
+  }
+
+  List<CrawlWsResult> run(String query) {
+    CrawlQuery compiled = CrawlQueryCompiler.compile(query);
+    assertNotNull(compiled, query);
+    return compiled.execute(universe());
+  }
+
+  @Test
+  @DisplayName("The compiled properties are those of the JoSQL queries")
+  void testProperties() {
+    assertEquals(CrawlHelper.PROPERTY_NAMES, CrawlQueryCompiler.PROPERTIES.keySet());
+  }
+
+  @Test
+  @DisplayName("Only the selected properties are returned")
+  void testProjection() {
+    List<CrawlWsResult> results = run("select crawlKey, priority");
+    assertEquals(3, results.size());
+    assertEquals("c1", results.get(0).getCrawlKey());
+    assertEquals(Integer.valueOf(1), results.get(0).getPriority());
+    assertNull(results.get(0).getAuId());
+    assertNull(results.get(0).getPagesFetched());
+    assertEquals(List.of("http://example.com/"), run("SELECT *").get(0).getPagesFetched());
+  }
+
+  @Test
+  @DisplayName("Conditions select the matching crawls")
+  void testWhere() {
+    assertEquals(List.of("c2", "c3"), keys(run("select crawlKey where priority = 5")));
+    assertEquals(List.of("c1", "c2"),
+      keys(run("select crawlKey where auId like 'org|%' and crawlStatus = \"Active\"")));
+    assertEquals(List.of("c3"), keys(run("select crawlKey where auId $like 'EDU%'")));
+    assertEquals(List.of("c3"), keys(run("select crawlKey where startTime is null")));
+    assertEquals(List.of("c1", "c3"),
+      keys(run("select crawlKey where crawlKey in ('c1', 'c3')")));
+    assertEquals(List.of("c1", "c2"),
+      keys(run("select crawlKey where startTime between 100 and 300")));
+    assertEquals(List.of("c2"),
+      keys(run("select crawlKey where not (priority < 5 or startTime is null)")));
+    assertEquals(List.of("c1"), keys(run("select crawlKey where priority != 5")));
+  }
+
+  @Test
+  @DisplayName("Results are sorted by the ORDER BY properties")
+  void testOrder() {
+    assertEquals(List.of("c3", "c2", "c1"), keys(run("select crawlKey order by startTime")));
+    assertEquals(List.of("c2", "c3", "c1"),
+      keys(run("select crawlKey order by priority desc, crawlKey asc")));
+  }
+
+  @Test
+  @DisplayName("What isn't compiled is left to JoSQL")
+  void testUnsupported() {
+    assertNull(CrawlQueryCompiler.compile("select crawlKey where priority + 1 > 2"));
+    assertNull(CrawlQueryCompiler.compile("select crawlKey where unknownProperty = 1"));
+    assertNull(CrawlQueryCompiler.compile("select crawlKey where pagesFetched = 1"));
+    assertNull(CrawlQueryCompiler.compile("select crawlKey limit 1, 2"));
+    assertNull(CrawlQueryCompiler.compile("select crawlKey where auId = 'x"));
+    assertNull(CrawlQueryCompiler.compile(null));
+  }
+
+  @Test
+  @DisplayName("Compiled queries are cached by their text")
+  void testCache() {
+    String query = "select auId where priority > 1";
+    assertSame(CrawlQueryCompiler.compile(query), CrawlQueryCompiler.compile(query));
+  }
+}
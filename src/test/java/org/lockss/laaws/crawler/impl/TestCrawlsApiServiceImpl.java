@@ -36,18 +36,22 @@ import org.lockss.config.ConfigManager;
 import org.lockss.config.Configuration;
 import org.lockss.crawler.CrawlManager;
 import org.lockss.crawler.CrawlManagerImpl;
+import org.lockss.crawler.CrawlerStatus;
 import org.lockss.crawler.FuncNewContentCrawler.MySimulatedArchivalUnit;
 import org.lockss.crawler.FuncNewContentCrawler.MySimulatedPlugin;
 import org.lockss.jms.JMSManager;
 import org.lockss.laaws.crawler.CrawlerApplication;
+import org.lockss.laaws.crawler.utils.ContinuationToken;
 import org.lockss.laaws.crawler.model.CrawlPager;
 import org.lockss.laaws.crawler.model.CrawlStatus;
 import org.lockss.laaws.crawler.model.PageInfo;
+import org.lockss.laaws.crawler.model.UrlInfo;
 import org.lockss.laaws.crawler.model.UrlPager;
 import org.lockss.log.L4JLogger;
 import org.lockss.plugin.PluginTestUtil;
 import org.lockss.plugin.simulated.SimulatedContentGenerator;
 import org.lockss.spring.test.SpringLockssTestCase4;
+import org.lockss.util.ListUtil;
 import org.lockss.util.rest.RestUtil;
 import org.lockss.util.rest.crawler.CrawlDesc;
 import org.lockss.util.rest.crawler.CrawlJob;
@@ -63,10 +67,13 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.context.ApplicationContext;
 import org.springframework.http.*;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -77,6 +84,8 @@ import java.util.*;
 
 import static org.lockss.laaws.crawler.impl.PluggableCrawlManager.CRAWLER_IDS;
 import static org.lockss.util.rest.crawler.CrawlDesc.CLASSIC_CRAWLER_ID;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(
@@ -294,6 +303,70 @@ public class TestCrawlsApiServiceImpl extends SpringLockssTestCase4 {
     log.debug2("Done");
   }
 
+  /**
+   * Runs the URL pagination tests which need no daemon: pages start at the
+   * continuation offset, follow a live list and end when the crawl does.
+   */
+  @Test
+  public void getUrlPagerSeeksToTheContinuationOffset() {
+    RequestContextHolder.setRequestAttributes(
+      new ServletRequestAttributes(new MockHttpServletRequest("GET", "/jobs/1/fetched")));
+    try {
+      CrawlerStatus status = mock(CrawlerStatus.class);
+      when(status.getStartTime()).thenReturn(1000L);
+      when(status.isCrawlActive()).thenReturn(true);
+      List<String> urls = new ArrayList<>(ListUtil.list("u0", "u1", "u2", "u3", "u4"));
+      CrawlsApiServiceImpl service = new CrawlsApiServiceImpl(null);
+
+      UrlPager pager = service.getUrlPager(status, urls, 2, null);
+      assertEquals("u0", pager.getUrls().get(0).getUrl());
+      pager = service.getUrlPager(status, urls, 2, pager.getPageInfo().getContinuationToken());
+      assertEquals("u2", pager.getUrls().get(0).getUrl());
+      pager = service.getUrlPager(status, urls, 2, pager.getPageInfo().getContinuationToken());
+      assertEquals(ListUtil.list("u4"), urlsOf(pager));
+      // the crawl is still running, so the end of the list isn't final.
+      String token = pager.getPageInfo().getContinuationToken();
+      assertNotNull(token);
+      pager = service.getUrlPager(status, urls, 2, token);
+      assertTrue(pager.getUrls().isEmpty());
+      assertEquals(token, pager.getPageInfo().getContinuationToken());
+      urls.add("u5");
+      pager = service.getUrlPager(status, urls, 2, token);
+      assertEquals(ListUtil.list("u5"), urlsOf(pager));
+
+      // A token issued at the end of the list while the crawl was running
+      // ends the listing once the crawl is over.
+      when(status.isCrawlActive()).thenReturn(false);
+      String last = pager.getPageInfo().getContinuationToken();
+      pager = service.getUrlPager(status, urls, 2, last);
+      assertTrue(pager.getUrls().isEmpty());
+      assertNull(pager.getPageInfo().getContinuationToken());
+      assertNull(service.getUrlPager(status, urls, 2, token).getPageInfo().getContinuationToken());
+
+      // A token past the end of a list which only grows is invalid, but
+      // only ends the listing of one which shrinks.
+      String past = new ContinuationToken(1000L, 10L).toToken();
+      try {
+        service.getUrlPager(status, urls, 2, past);
+        fail("A token past the end of the fetched urls should be rejected");
+      } catch (IllegalArgumentException expected) {
+      }
+      pager = service.getUrlPager(status, ListUtil.list("u5"), 2, past, false);
+      assertTrue(pager.getUrls().isEmpty());
+      assertNull(pager.getPageInfo().getContinuationToken());
+    } finally {
+      RequestContextHolder.resetRequestAttributes();
+    }
+  }
+
+  private static List<String> urlsOf(UrlPager pager) {
+    List<String> res = new ArrayList<>();
+    for (UrlInfo info : pager.getUrls()) {
+      res.add(info.getUrl());
+    }
+    return res;
+  }
+
   /**
    * Provides the configuration of a simulated Archival Unit.
    *
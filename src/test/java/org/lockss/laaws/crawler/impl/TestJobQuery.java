@@ -0,0 +1,246 @@
+package org.lockss.laaws.crawler.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.rest.crawler.CrawlDesc;
+import org.lockss.util.rest.crawler.CrawlJob;
+import org.lockss.util.rest.crawler.JobStatus;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class TestJobQuery extends LockssTestCase5 {
+  private PluggableCrawlManager pcm;
+  private File dbFile;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    dbFile = new File(getTempDir(), "testDb");
+    pcm = new PluggableCrawlManager();
+    pcm.initDb(dbFile);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    pcm.getCrawlServiceDb().close();
+  }
+
+  void addJob(String jobId, String crawlerId, JobStatus.StatusCodeEnum code, long requestDate) {
+    pcm.addCrawlJob(new CrawlJob().jobId(jobId)
+      .crawlDesc(new CrawlDesc().auId("au-" + jobId).crawlerId(crawlerId)
+        .crawlKind(CrawlDesc.CrawlKindEnum.NEWCONTENT))
+      .jobStatus(new JobStatus().statusCode(code))
+      .requestDate(requestDate).startDate(0L).endDate(0L));
+  }
+
+  /**
+   * Add a job which has been requested, started and ended at the given
+   * times, null if it hasn't yet.
+   */
+  void addJob(String jobId, JobStatus.StatusCodeEnum code, Long requestDate,
+              Long startDate, Long endDate) {
+    pcm.addCrawlJob(new CrawlJob().jobId(jobId)
+      .crawlDesc(new CrawlDesc().auId("au-" + jobId).crawlerId("wget")
+        .crawlKind(CrawlDesc.CrawlKindEnum.NEWCONTENT))
+      .jobStatus(new JobStatus().statusCode(code))
+      .requestDate(requestDate).startDate(startDate).endDate(endDate));
+  }
+
+  /**
+   * Provides the ids of all the jobs of a query, fetched a page at a time.
+   */
+  List<String> allJobIds(JobQuery query, int limit) {
+    List<String> ids = new ArrayList<>();
+    String token = null;
+    do {
+      JobQuery.Page page = query.execute(pcm.getPluggableCrawls(), token, limit);
+      assertTrue(page.getJobs().size() <= limit);
+      ids.addAll(jobIds(page));
+      token = page.getNextToken();
+    } while (token != null);
+    return ids;
+  }
+
+  List<String> jobIds(JobQuery.Page page) {
+    List<String> ids = new ArrayList<>();
+    page.getJobs().forEach(job -> ids.add(job.getJobId()));
+    return ids;
+  }
+
+  @Test
+  @DisplayName("A listing without parameters is not a query")
+  void testNoQuery() {
+    assertNull(JobQuery.from(null, null, "", null, null, null, null));
+    JobQuery query = JobQuery.from(null, "classic", null, null, null, null, null);
+    assertEquals(JobQuery.DEFAULT_SORT, query.getSort());
+    assertFalse(query.isDescending());
+  }
+
+  @Test
+  @DisplayName("Invalid parameters are rejected")
+  void testInvalid() {
+    assertThrows(IllegalArgumentException.class,
+      () -> JobQuery.from("BOGUS", null, null, null, null, null, null));
+    assertThrows(IllegalArgumentException.class,
+      () -> JobQuery.from(null, null, null, "sideways", null, null, null));
+    assertThrows(IllegalArgumentException.class,
+      () -> JobQuery.from(null, null, null, null, null, null, "jobId"));
+    assertThrows(IllegalArgumentException.class,
+      () -> JobQuery.from(null, null, null, null, 10L, 10L, null));
+  }
+
+  @Test
+  @DisplayName("Jobs are filtered by status and crawler and sorted by request date")
+  void testFilter() {
+    addJob("j1", "classic", JobStatus.StatusCodeEnum.ACTIVE, 300);
+    addJob("j2", "wget", JobStatus.StatusCodeEnum.ACTIVE, 100);
+    addJob("j3", "wget", JobStatus.StatusCodeEnum.QUEUED, 200);
+    addJob("j4", "wget", JobStatus.StatusCodeEnum.SUCCESSFUL, 50);
+
+    JobQuery query = JobQuery.from("ACTIVE,QUEUED", "wget", null, null, null, null, null);
+    JobQuery.Page page = query.execute(pcm.getPluggableCrawls(), null, null);
+    assertEquals(List.of("j2", "j3"), jobIds(page));
+    assertEquals(2, page.getTotalCount());
+    assertNull(page.getNextToken());
+
+    query = JobQuery.from(null, null, null, "newContent", 100L, 300L, "-requestDate");
+    assertEquals(List.of("j3", "j2"), jobIds(query.execute(pcm.getPluggableCrawls(), null, null)));
+  }
+
+  @Test
+  @DisplayName("Pages continue from the sort key of the last job, across ties")
+  void testPages() {
+    addJob("j5", "wget", JobStatus.StatusCodeEnum.ACTIVE, 100);
+    addJob("j3", "wget", JobStatus.StatusCodeEnum.ACTIVE, 100);
+    addJob("j1", "wget", JobStatus.StatusCodeEnum.ACTIVE, 100);
+    addJob("j2", "wget", JobStatus.StatusCodeEnum.ACTIVE, 50);
+    addJob("j4", "wget", JobStatus.StatusCodeEnum.ACTIVE, 200);
+
+    JobQuery query = JobQuery.from(null, "wget", null, null, null, null, null);
+    List<String> ids = new ArrayList<>();
+    String token = null;
+    do {
+      JobQuery.Page page = query.execute(pcm.getPluggableCrawls(), token, 2);
+      assertEquals(5, page.getTotalCount());
+      assertTrue(page.getJobs().size() <= 2);
+      ids.addAll(jobIds(page));
+      token = page.getNextToken();
+    } while (token != null);
+    assertEquals(List.of("j2", "j1", "j3", "j5", "j4"), ids);
+
+    // A job added before the continuation point doesn't shift the next page.
+    String first = query.execute(pcm.getPluggableCrawls(), null, 2).getNextToken();
+    addJob("j0", "wget", JobStatus.StatusCodeEnum.ACTIVE, 10);
+    assertEquals(List.of("j3", "j5"),
+      jobIds(query.execute(pcm.getPluggableCrawls(), first, 2)));
+  }
+
+  @Test
+  @DisplayName("Jobs and continuation tokens survive a restart")
+  void testRestart() {
+    addJob("j1", "wget", JobStatus.StatusCodeEnum.SUCCESSFUL, 100);
+    addJob("j2", "wget", JobStatus.StatusCodeEnum.SUCCESSFUL, 200);
+    addJob("j3", "wget", JobStatus.StatusCodeEnum.SUCCESSFUL, 300);
+    String token = JobQuery.all().execute(pcm.getPluggableCrawls(), null, 1).getNextToken();
+    assertNotNull(token);
+
+    pcm.getCrawlServiceDb().close();
+    pcm = new PluggableCrawlManager();
+    pcm.initDb(dbFile);
+
+    JobQuery.Page page = JobQuery.all().execute(pcm.getPluggableCrawls(), token, 5);
+    assertEquals(List.of("j2", "j3"), jobIds(page));
+    assertEquals(3, page.getTotalCount());
+  }
+
+  @Test
+  @DisplayName("A continuation token is only valid with its sort")
+  void testToken() {
+    JobQuery asc = JobQuery.from(null, null, null, null, null, null, "startDate");
+    JobQuery desc = JobQuery.from(null, null, null, null, null, null, "-startDate");
+    String token = asc.toToken(new JobQuery.Position(42L, "j1"));
+    JobQuery.Position position = asc.parseToken(token);
+    assertEquals(42L, position.getValue());
+    assertEquals("j1", position.getJobId());
+    assertThrows(IllegalArgumentException.class, () -> desc.parseToken(token));
+    assertThrows(IllegalArgumentException.class, () -> asc.parseToken("1.2"));
+  }
+
+  @Test
+  @DisplayName("Unfinished jobs are listed by every sort, after the finished ones")
+  void testUnfinished() {
+    addJob("q1", JobStatus.StatusCodeEnum.QUEUED, 500L, null, null);
+    addJob("f1", JobStatus.StatusCodeEnum.SUCCESSFUL, 100L, 110L, 150L);
+    addJob("r1", JobStatus.StatusCodeEnum.ACTIVE, 300L, 310L, null);
+    addJob("q2", JobStatus.StatusCodeEnum.QUEUED, 400L, null, null);
+    addJob("f2", JobStatus.StatusCodeEnum.ERROR, 200L, 210L, 220L);
+    addJob("r2", JobStatus.StatusCodeEnum.ACTIVE, 250L, 260L, null);
+
+    Map<String, List<String>> expected = new LinkedHashMap<>();
+    expected.put("requestDate", List.of("f1", "f2", "r2", "r1", "q2", "q1"));
+    expected.put("-requestDate", List.of("q1", "q2", "r1", "r2", "f2", "f1"));
+    expected.put("startDate", List.of("f1", "f2", "r2", "r1", "q1", "q2"));
+    expected.put("-startDate", List.of("q2", "q1", "r1", "r2", "f2", "f1"));
+    expected.put("endDate", List.of("f1", "f2", "q1", "q2", "r1", "r2"));
+    expected.put("-endDate", List.of("r2", "r1", "q2", "q1", "f2", "f1"));
+    for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+      JobQuery query = JobQuery.from(null, null, null, null, null, null, entry.getKey());
+      assertEquals(6, query.execute(pcm.getPluggableCrawls(), null, null).getTotalCount());
+      for (int limit = 1; limit <= 7; limit++) {
+        assertEquals(entry.getValue(), allJobIds(query, limit),
+          entry.getKey() + " by " + limit);
+      }
+    }
+
+    // Filtered listings keep the running jobs too.
+    JobQuery running = JobQuery.from("ACTIVE", null, null, null, null, null, "endDate");
+    assertEquals(List.of("r1", "r2"), allJobIds(running, 1));
+  }
+
+  @Test
+  @DisplayName("A continuation token may be positioned at a job without the sorted property")
+  void testTokenWithoutValue() {
+    JobQuery query = JobQuery.from(null, null, null, null, null, null, "-endDate");
+    String token = query.toToken(new JobQuery.Position(null, "j1"));
+    JobQuery.Position position = query.parseToken(token);
+    assertNull(position.getValue());
+    assertEquals("j1", position.getJobId());
+  }
+
+  @Test
+  @DisplayName("Jobs stored without a request date are listed after a restart")
+  void testLegacyJobs() {
+    addJob("j1", "wget", JobStatus.StatusCodeEnum.SUCCESSFUL, 100);
+    // Stored before request dates were recorded.
+    pcm.getPluggableCrawls().insert(new CrawlJob().jobId("legacy1")
+      .crawlDesc(new CrawlDesc().auId("au-legacy1").crawlerId("classic")
+        .crawlKind(CrawlDesc.CrawlKindEnum.NEWCONTENT))
+      .jobStatus(new JobStatus().statusCode(JobStatus.StatusCodeEnum.SUCCESSFUL))
+      .startDate(50L).endDate(60L));
+    pcm.getPluggableCrawls().insert(new CrawlJob().jobId("legacy2")
+      .crawlDesc(new CrawlDesc().auId("au-legacy2").crawlerId("classic")
+        .crawlKind(CrawlDesc.CrawlKindEnum.NEWCONTENT))
+      .jobStatus(new JobStatus().statusCode(JobStatus.StatusCodeEnum.QUEUED)));
+    pcm.getCrawlServiceDb().commit();
+
+    pcm.getCrawlServiceDb().close();
+    pcm = new PluggableCrawlManager();
+    pcm.initDb(dbFile);
+
+    JobQuery.Page page = JobQuery.all().execute(pcm.getPluggableCrawls(), null, null);
+    assertEquals(List.of("legacy2", "legacy1", "j1"), jobIds(page));
+    assertEquals(3, page.getTotalCount());
+    assertEquals(50L, pcm.getCrawlJob("legacy1").getRequestDate());
+    assertEquals(0L, pcm.getCrawlJob("legacy2").getRequestDate());
+    assertEquals(List.of("legacy1", "j1"),
+      jobIds(JobQuery.from(null, null, null, null, 10L, null, null)
+        .execute(pcm.getPluggableCrawls(), null, null)));
+  }
+}
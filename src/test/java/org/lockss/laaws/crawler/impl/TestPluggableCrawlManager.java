@@ -6,6 +6,8 @@ import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.function.Executable;
 import org.lockss.config.Configuration;
 import org.lockss.crawler.CrawlManagerImpl;
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.daemon.Crawler;
 import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawler;
 import org.lockss.test.ConfigurationUtil;
 import org.lockss.util.ListUtil;
@@ -280,6 +282,38 @@ class TestPluggableCrawlManager  extends LockssTestCase5 {
         job = pluggableCrawlManager.getCrawlJob("job3");
         Assertions.assertNotNull(job.getEndDate());
     }
+
+    @Test
+    @DisplayName("Should update the stored status of a job when its crawl's status changes")
+    void syncCrawlsWhenStatusChangesThenUpdateTheCrawlJob() {
+        pluggableCrawlManager.initDb(dbFile);
+        CrawlJob crawlJob = makeCrawlJob("au1", "job1");
+        crawlJob.getJobStatus().statusCode(JobStatus.StatusCodeEnum.QUEUED);
+        pluggableCrawlManager.saveCrawlJob(crawlJob);
+        JobQuery active = JobQuery.from("ACTIVE", null, null, null, null, null, null);
+        assertEquals(0, active.execute(pluggableCrawlManager.getPluggableCrawls(), null, null)
+          .getJobs().size());
+
+        CrawlerStatus status = mock(CrawlerStatus.class);
+        when(status.getKey()).thenReturn("job1");
+        when(status.getCrawlStatus()).thenReturn(Crawler.STATUS_ACTIVE);
+        when(status.getStartTime()).thenReturn(1000L);
+        pluggableCrawlManager.syncCrawls(ListUtil.list(status));
+        CrawlJob job = pluggableCrawlManager.getCrawlJob("job1");
+        assertEquals(JobStatus.StatusCodeEnum.ACTIVE, job.getJobStatus().getStatusCode());
+        assertEquals(1000L, job.getStartDate());
+        assertEquals("au1", job.getCrawlDesc().getAuId());
+        assertEquals(1, active.execute(pluggableCrawlManager.getPluggableCrawls(), null, null)
+          .getJobs().size());
+
+        when(status.getCrawlStatus()).thenReturn(Crawler.STATUS_SUCCESSFUL);
+        when(status.getEndTime()).thenReturn(2000L);
+        pluggableCrawlManager.syncCrawls(ListUtil.list(status));
+        job = pluggableCrawlManager.getCrawlJob("job1");
+        assertEquals(JobStatus.StatusCodeEnum.SUCCESSFUL, job.getJobStatus().getStatusCode());
+        assertEquals(2000L, job.getEndDate());
+    }
+
     /*
      @Test
      @DisplayName("Should call shutdown when abortcrawling is true")
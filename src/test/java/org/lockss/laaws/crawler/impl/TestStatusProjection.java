@@ -0,0 +1,62 @@
+package org.lockss.laaws.crawler.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.laaws.crawler.model.CrawlPager;
+import org.lockss.laaws.crawler.model.CrawlStatus;
+import org.lockss.laaws.crawler.model.JobPager;
+import org.lockss.util.ListUtil;
+import org.lockss.util.rest.crawler.CrawlJob;
+import org.lockss.util.test.LockssTestCase5;
+
+class TestStatusProjection extends LockssTestCase5 {
+
+  @Test
+  @DisplayName("Fields and views select the properties to build")
+  void testProjection() {
+    assertTrue(StatusProjection.forCrawls(null, null).isFull());
+    assertTrue(StatusProjection.forCrawls("", "full").isFull());
+
+    StatusProjection summary = StatusProjection.forCrawls(null, "summary");
+    assertFalse(summary.isFull());
+    assertTrue(summary.isSummary());
+    assertTrue(summary.includes("bytesFetched"));
+    assertFalse(summary.includes("startUrls"));
+
+    StatusProjection fields = StatusProjection.forCrawls("jobId, mimeTypes", null);
+    assertTrue(fields.includes("mimeTypes"));
+    assertFalse(fields.includes("auId"));
+
+    // Both: the summary plus the named fields.
+    StatusProjection both = StatusProjection.forJobs("result", "summary");
+    assertTrue(both.includes("result"));
+    assertTrue(both.includes("crawlDesc"));
+
+    assertThrows(IllegalArgumentException.class,
+      () -> StatusProjection.forCrawls("jobId,nosuch", null));
+    assertThrows(IllegalArgumentException.class,
+      () -> StatusProjection.forJobs(null, "brief"));
+  }
+
+  @Test
+  @DisplayName("Properties which weren't built are left out of the JSON")
+  void testJson() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    CrawlStatus crawl = new StatusProjection.ProjectedCrawlStatus().jobId("j1").bytesFetched(10L);
+    CrawlPager pager = new CrawlPager().crawls(ListUtil.list(crawl));
+    String json = mapper.writeValueAsString(pager);
+    assertTrue(json.contains("\"jobId\":\"j1\""));
+    assertFalse(json.contains("auName"));
+    assertFalse(json.contains("null"));
+
+    CrawlJob job = new StatusProjection.ProjectedCrawlJob().jobId("j2")
+      .crawlDesc(new StatusProjection.ProjectedCrawlDesc().auId("au1"));
+    JobPager jobPager = new JobPager();
+    jobPager.setJobs(ListUtil.list(job));
+    json = mapper.writeValueAsString(jobPager);
+    assertTrue(json.contains("\"auId\":\"au1\""));
+    assertFalse(json.contains("requestDate"));
+    assertFalse(json.contains("null"));
+  }
+}
@@ -0,0 +1,108 @@
+package org.lockss.laaws.crawler.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestMetrics;
+import org.lockss.util.ListUtil;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.util.List;
+
+class TestStatusVersions extends LockssTestCase5 {
+
+  CrawlerStatus makeStatus(String key) {
+    CrawlerStatus cs = mock(CrawlerStatus.class);
+    when(cs.getKey()).thenReturn(key);
+    when(cs.getCrawlStatusMsg()).thenReturn("Active");
+    return cs;
+  }
+
+  @Test
+  @DisplayName("The version changes only when the status does")
+  void testVersion() {
+    StatusVersions versions = new StatusVersions(null);
+    CrawlerStatus cs = makeStatus("j1");
+    String etag = versions.getETag(cs);
+    assertEquals(etag, versions.getETag(cs));
+
+    when(cs.getContentBytesFetched()).thenReturn(100L);
+    String etag2 = versions.getETag(cs);
+    assertNotEquals(etag, etag2);
+
+    // A change to the job record bumps the version too.
+    versions.bump("j1");
+    assertNotEquals(etag2, versions.getETag(cs));
+  }
+
+  @Test
+  @DisplayName("The version changes with the per-MIME-type counts and ingest statistics")
+  void testMimeAndIngestVersion() {
+    IngestMetrics metrics = new IngestMetrics();
+    StatusVersions versions = new StatusVersions(metrics);
+    CrawlerStatus cs = makeStatus("j1");
+    CrawlerStatus.UrlCount html = mock(CrawlerStatus.UrlCount.class);
+    CrawlerStatus.UrlCount pdf = mock(CrawlerStatus.UrlCount.class);
+    when(html.getCount()).thenReturn(2);
+    when(pdf.getCount()).thenReturn(1);
+    when(cs.getMimeTypes()).thenReturn(ListUtil.list("text/html", "application/pdf"));
+    when(cs.getMimeTypeCtr("text/html")).thenReturn(html);
+    when(cs.getMimeTypeCtr("application/pdf")).thenReturn(pdf);
+    String etag = versions.getETag(cs);
+
+    // The same number of types and of urls, split differently.
+    when(html.getCount()).thenReturn(1);
+    when(pdf.getCount()).thenReturn(2);
+    String etag2 = versions.getETag(cs);
+    assertNotEquals(etag, etag2);
+
+    metrics.record("crawler", "au", "j1", 1000, 10, 50, true);
+    String etag3 = versions.getETag(cs);
+    assertNotEquals(etag2, etag3);
+    assertEquals(etag3, versions.getETag(cs));
+  }
+
+  @Test
+  @DisplayName("The list version changes when any crawl in it does")
+  void testListVersion() {
+    StatusVersions versions = new StatusVersions(null);
+    CrawlerStatus cs1 = makeStatus("j1");
+    CrawlerStatus cs2 = makeStatus("j2");
+    String etag = versions.getListETag(ListUtil.list(cs1, cs2));
+    assertEquals(etag, versions.getListETag(ListUtil.list(cs1, cs2)));
+
+    when(cs2.getCrawlStatusMsg()).thenReturn("Successful");
+    String etag2 = versions.getListETag(ListUtil.list(cs1, cs2));
+    assertNotEquals(etag, etag2);
+    assertNotEquals(etag2, versions.getListETag(ListUtil.list(cs1)));
+  }
+
+  @Test
+  @DisplayName("The job list version also changes when the job store does")
+  void testJobListVersion() {
+    StatusVersions versions = new StatusVersions(null);
+    List<CrawlerStatus> all = ListUtil.list(makeStatus("j1"));
+    String crawls = versions.getListETag(all);
+    String jobs = versions.getJobListETag(all);
+    assertEquals(jobs, versions.getJobListETag(all));
+
+    versions.bumpStore();
+    assertEquals(crawls, versions.getListETag(all));
+    String jobs2 = versions.getJobListETag(all);
+    assertNotEquals(jobs, jobs2);
+    assertTrue(StatusVersions.matches(jobs2, versions.getJobListETag(all)));
+  }
+
+  @Test
+  @DisplayName("If-None-Match is compared weakly and may list several tags")
+  void testMatches() {
+    assertFalse(StatusVersions.matches(null, "\"a-1\""));
+    assertTrue(StatusVersions.matches("\"a-1\"", "\"a-1\""));
+    assertTrue(StatusVersions.matches("\"b-2\", W/\"a-1\"", "\"a-1\""));
+    assertTrue(StatusVersions.matches("*", "\"a-1\""));
+    assertFalse(StatusVersions.matches("\"a-2\"", "\"a-1\""));
+  }
+}
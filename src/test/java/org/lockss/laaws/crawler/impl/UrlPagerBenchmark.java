@@ -0,0 +1,119 @@
+package org.lockss.laaws.crawler.impl;
+
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.laaws.crawler.model.UrlPager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures paging through a large fetched-URL list the way a client
+ * following continuation tokens does: the latency of the first and last
+ * pages, which should be the same, and the time to walk the whole list.
+ * Run with
+ * <pre>
+ *   java -cp ... org.lockss.laaws.crawler.impl.UrlPagerBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlPagerBenchmark {
+
+  @Param({"5000000"})
+  int urls;
+
+  @Param({"1000"})
+  int pageSize;
+
+  CrawlsApiServiceImpl service;
+  CrawlerStatus status;
+  List<String> urlList;
+  String lastPageToken;
+
+  @Setup
+  public void setUp() {
+    // The pager reads the request from the thread running the benchmark.
+    RequestContextHolder.setRequestAttributes(
+      new ServletRequestAttributes(new MockHttpServletRequest("GET", "/jobs/bench/fetched")));
+    // stubOnly, as the pager queries the status for every url.
+    status = mock(CrawlerStatus.class, withSettings().stubOnly());
+    when(status.getStartTime()).thenReturn(1L);
+    when(status.isCrawlActive()).thenReturn(false);
+    urlList = new ArrayList<>(urls);
+    for (int i = 0; i < urls; i++) {
+      urlList.add("http://www.example.com/content/" + i + ".html");
+    }
+    service = new CrawlsApiServiceImpl(null);
+
+    String token = null;
+    do {
+      lastPageToken = token;
+      token = service.getUrlPager(status, urlList, pageSize, token)
+        .getPageInfo().getContinuationToken();
+    } while (token != null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Benchmark
+  public UrlPager firstPage() {
+    return service.getUrlPager(status, urlList, pageSize, null);
+  }
+
+  @Benchmark
+  public UrlPager lastPage() {
+    return service.getUrlPager(status, urlList, pageSize, lastPageToken);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public long walk() {
+    long served = 0;
+    String token = null;
+    do {
+      UrlPager pager = service.getUrlPager(status, urlList, pageSize, token);
+      served += pager.getUrls().size();
+      token = pager.getPageInfo().getContinuationToken();
+    } while (token != null);
+    if (served != urlList.size()) {
+      throw new IllegalStateException("Served " + served + " of " + urlList.size() + " urls");
+    }
+    return served;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(UrlPagerBenchmark.class.getSimpleName())
+      .build()).run();
+  }
+}
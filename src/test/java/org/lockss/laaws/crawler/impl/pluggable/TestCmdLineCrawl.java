@@ -5,9 +5,15 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.lockss.crawler.CrawlerStatus;
+import org.lockss.daemon.Crawler;
 import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestCheckpoint;
+import org.lockss.laaws.crawler.impl.pluggable.warc.IngestResult;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndex;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIngester;
 import org.lockss.plugin.ArchivalUnit;
 import org.lockss.state.AuState;
+import org.lockss.test.ConfigurationUtil;
 import org.lockss.util.FileUtil;
 import org.lockss.util.ListUtil;
 import org.lockss.util.MimeUtil;
@@ -17,11 +23,17 @@ import org.lockss.util.rest.crawler.JobStatus;
 import org.lockss.util.test.LockssTestCase5;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 
 import static org.lockss.laaws.crawler.impl.pluggable.CmdLineCrawl.errorPattern;
@@ -214,6 +226,160 @@ class TestCmdLineCrawl extends LockssTestCase5 {
     assertTrue(status.getUrlsOfMimeType(mimeType).contains((SUCCESS_URL)));
   }
 
+  @Test
+  @DisplayName("Resuming stores the completed segments and discards only the partial one")
+  void testResumeFromWorkspace() throws IOException {
+    CmdLineCrawler crawler = makeMockCrawler();
+    CmdLineCrawl crawl = makeMockCrawl(crawler);
+    crawl.tmpDir = tmpDir;
+    File seg0 = makeSegment("seg-00000.warc.gz");
+    File seg1 = makeSegment("seg-00001.warc.gz");
+    when(crawler.getWarcFileFilter()).thenReturn(ListUtil.list("*" + COMPRESSED_WARC_FILE_EXT));
+    when(crawler.getCompletedWarcSegments(tmpDir))
+      .thenReturn(ListUtil.list(seg0), new ArrayList<>());
+    IngestResult stored = ingestResult(seg0, true);
+    when(crawler.ingest(any(), any())).thenReturn(ListUtil.list(stored));
+    crawl.resumeFromWorkspace();
+    assertFalse(seg0.exists());
+    assertFalse(seg1.exists());
+  }
+
+  @Test
+  @DisplayName("Resuming fails, keeping its output, if a completed segment cannot be stored")
+  void testResumeFromWorkspaceStoreFailure() throws IOException {
+    CmdLineCrawler crawler = makeMockCrawler();
+    CmdLineCrawl crawl = makeMockCrawl(crawler);
+    crawl.tmpDir = tmpDir;
+    File seg0 = makeSegment("seg-00000.warc.gz");
+    File seg1 = makeSegment("seg-00001.warc.gz");
+    when(crawler.getWarcFileFilter()).thenReturn(ListUtil.list("*" + COMPRESSED_WARC_FILE_EXT));
+    when(crawler.getCompletedWarcSegments(tmpDir)).thenReturn(ListUtil.list(seg0));
+    IngestResult failed = ingestResult(seg0, false);
+    when(crawler.ingest(any(), any())).thenReturn(ListUtil.list(failed));
+    assertThrows(IOException.class, crawl::resumeFromWorkspace);
+    assertTrue(seg0.exists());
+    assertTrue(seg1.exists());
+  }
+
+  @Test
+  @DisplayName("A crawl whose crawler fails to start gives up its workspace reservation")
+  void testLaunchFailureReleasesWorkspace() throws IOException {
+    CrawlWorkspaceManager wsMgr = new CrawlWorkspaceManager();
+    wsMgr.setConfig(ConfigurationUtil.fromArgs(
+      CrawlWorkspaceManager.PARAM_BULK_VOLUMES, tmpDir.getPath(),
+      CrawlWorkspaceManager.PARAM_JOB_QUOTA, "10KB",
+      CrawlWorkspaceManager.PARAM_MIN_FREE_SPACE, "0"));
+    CmdLineCrawler crawler = makeMockCrawler();
+    when(crawler.getWorkspaceManager()).thenReturn(wsMgr);
+    CmdLineCrawl crawl = makeMockCrawl(crawler);
+    assertTrue(crawl.admit());
+    assertTrue(wsMgr.getReservedBytes() > 0);
+    crawl.tmpDir = crawl.workspace.getDir();
+    crawl.command = ListUtil.list(new File(tmpDir, "no-such-crawler").getPath());
+
+    IOException launchFailure = assertThrows(IOException.class, crawl::launchCrawlProcess);
+    crawl.crawlFailed(launchFailure);
+    assertEquals(0, wsMgr.getReservedBytes());
+    assertFalse(crawl.tmpDir.exists());
+    assertEquals(Crawler.STATUS_ERROR, crawl.getCrawlerStatus().getCrawlStatus());
+  }
+
+  @Test
+  @DisplayName("A crawl that cannot store all its output fails, keeping it, without updating the AU")
+  void testStoreFailureSkipsAuConfig() throws IOException {
+    CrawlWorkspaceManager wsMgr = new CrawlWorkspaceManager();
+    wsMgr.setConfig(ConfigurationUtil.fromArgs(
+      CrawlWorkspaceManager.PARAM_BULK_VOLUMES, tmpDir.getPath(),
+      CrawlWorkspaceManager.PARAM_JOB_QUOTA, "10KB",
+      CrawlWorkspaceManager.PARAM_MIN_FREE_SPACE, "0"));
+    CmdLineCrawler crawler = makeMockCrawler();
+    when(crawler.getWorkspaceManager()).thenReturn(wsMgr);
+    CmdLineCrawl crawl = makeMockCrawl(crawler);
+    assertTrue(crawl.admit());
+    crawl.tmpDir = crawl.workspace.getDir();
+    File warc = new File(crawl.tmpDir, "seg-00000.warc.gz");
+    Files.write(warc.toPath(), "warc".getBytes(StandardCharsets.UTF_8));
+    when(crawler.getWarcFileFilter()).thenReturn(ListUtil.list("*" + COMPRESSED_WARC_FILE_EXT));
+    IngestResult failed = ingestResult(warc, false);
+    when(crawler.ingest(any(), any())).thenReturn(ListUtil.list(failed));
+
+    crawl.storeCrawlOutput();
+    verify(crawler, never()).updateAuConfig(any(), anyBoolean(), any(), any());
+    assertEquals(Crawler.STATUS_ERROR, crawl.getCrawlerStatus().getCrawlStatus());
+    assertEquals(0, wsMgr.getReservedBytes());
+    assertTrue(warc.exists());
+    assertTrue(wsMgr.isRetained(DEF_JOB_ID));
+  }
+
+  @Test
+  @DisplayName("Running a job again after storing failed partway stores the rest from the checkpoint")
+  void testStoreResumesFromCheckpoint() throws IOException {
+    CrawlWorkspaceManager wsMgr = new CrawlWorkspaceManager();
+    wsMgr.setConfig(ConfigurationUtil.fromArgs(
+      CrawlWorkspaceManager.PARAM_BULK_VOLUMES, tmpDir.getPath(),
+      CrawlWorkspaceManager.PARAM_JOB_QUOTA, "10KB",
+      CrawlWorkspaceManager.PARAM_MIN_FREE_SPACE, "0"));
+    CmdLineCrawler crawler = makeMockCrawler();
+    when(crawler.getWorkspaceManager()).thenReturn(wsMgr);
+    when(crawler.isValidateWarcs()).thenReturn(true);
+    when(crawler.getWarcFileFilter()).thenReturn(ListUtil.list("*" + UNCOMPRESSED_WARC_FILE_EXT));
+    ExecutorService ingestExecutor = Executors.newSingleThreadExecutor();
+    when(crawler.ingest(any(), any())).thenAnswer(invocation ->
+      new WarcIngester(ingestExecutor, null)
+        .ingest(invocation.getArgument(0), invocation.getArgument(1)));
+    byte[] first = TestCrawlCheckpoint.response("http://www.example.com/a.html", "a");
+    byte[] second = TestCrawlCheckpoint.response("http://www.example.com/b.html", "b");
+    // the first record is stored and checkpointed, then the repository fails.
+    List<Long> startOffsets = new ArrayList<>();
+    doAnswer(invocation -> {
+      File warc = ((WarcIndex) invocation.getArgument(1)).getWarcFile();
+      startOffsets.add(IngestCheckpoint.getCommittedOffset(warc));
+      if (startOffsets.size() == 1) {
+        IngestCheckpoint.setCommittedOffset(warc, first.length);
+        throw new IOException("Repository unavailable");
+      }
+      return null;
+    }).when(crawler).storeInRepository(anyString(), any(WarcIndex.class), anyBoolean());
+
+    CmdLineCrawl crawl = makeMockCrawl(crawler);
+    assertTrue(crawl.admit());
+    crawl.tmpDir = crawl.workspace.getDir();
+    crawl.stems.add("http://www.example.com/");
+    File warc = new File(crawl.tmpDir, "seg-00000.warc");
+    try (OutputStream out = new FileOutputStream(warc)) {
+      out.write(first);
+      out.write(second);
+    }
+    crawl.storeCrawlOutput();
+    assertEquals(Crawler.STATUS_ERROR, crawl.getCrawlerStatus().getCrawlStatus());
+    assertTrue(wsMgr.isRetained(DEF_JOB_ID));
+
+    CmdLineCrawl rerun = makeMockCrawl(crawler);
+    rerun.startCrawl();
+    assertNull(rerun.command);
+    assertEquals(crawl.tmpDir, rerun.tmpDir);
+    rerun.storeCrawlOutput();
+    assertEquals(ListUtil.list(0L, (long) first.length), startOffsets);
+    assertEquals(Crawler.STATUS_SUCCESSFUL, rerun.getCrawlerStatus().getCrawlStatus());
+    verify(crawler).updateAuConfig(any(), anyBoolean(), any(),
+      eq(ListUtil.list("http://www.example.com/")));
+    assertFalse(rerun.tmpDir.exists());
+    ingestExecutor.shutdown();
+  }
+
+  File makeSegment(String name) throws IOException {
+    File seg = new File(tmpDir, name);
+    Files.write(seg.toPath(), "warc".getBytes(StandardCharsets.UTF_8));
+    return seg;
+  }
+
+  IngestResult ingestResult(File warc, boolean success) {
+    IngestResult result = mock(IngestResult.class);
+    when(result.getWarcFile()).thenReturn(warc);
+    when(result.isSuccess()).thenReturn(success);
+    return result;
+  }
+
   CmdLineCrawler makeMockCrawler() {
     CmdLineCrawler crawler = mock(CmdLineCrawler.class);
     PluggableCrawlManager pcm = mock(PluggableCrawlManager.class);
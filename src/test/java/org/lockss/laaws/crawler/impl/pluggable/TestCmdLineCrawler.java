@@ -5,7 +5,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.lockss.crawler.CrawlerStatus;
+import org.lockss.daemon.Crawler;
 import org.lockss.laaws.crawler.impl.PluggableCrawlManager;
+import org.lockss.laaws.crawler.impl.pluggable.http.HttpCrawlOptions;
 import org.lockss.laaws.crawler.model.CrawlerConfig;
 import org.lockss.plugin.ArchivalUnit;
 import org.lockss.plugin.AuTestUtil;
@@ -25,6 +27,7 @@ import org.mockito.ArgumentMatchers;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -219,6 +222,155 @@ class TestCmdLineCrawler extends LockssTestCase5 {
 
 
 
+  @Test
+  @DisplayName("Only small repairs with supported options are fetched in process")
+  void testUseInProcessRepair() {
+    CrawlJob crawlJob = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    CrawlDesc crawlDesc = crawlJob.getCrawlDesc();
+    when(crawlDesc.getCrawlKind()).thenReturn(REPAIR);
+    // off unless configured
+    assertFalse(cmdLineCrawler.useInProcessRepair(crawlJob));
+    Map<String, String> attrs = new HashMap<>(crawlerConfig.getAttributes());
+    attrs.put(CmdLineCrawler.ATTR_IN_PROCESS_REPAIR_MAX_URLS, "10");
+    crawlerConfig.setAttributes(attrs);
+    cmdLineCrawler.updateCrawlerConfig(crawlerConfig);
+    cmdLineCrawler.updateRepairOptions(attrs, Collections.emptyMap());
+    when(crawlDesc.getCrawlKind()).thenReturn(NEWCONTENT);
+    assertFalse(cmdLineCrawler.useInProcessRepair(crawlJob));
+    when(crawlDesc.getCrawlKind()).thenReturn(REPAIR);
+    assertTrue(cmdLineCrawler.useInProcessRepair(crawlJob));
+    Map<String, Object> extra = new HashMap<>();
+    extra.put("reject-regex", "\\.pdf$");
+    when(crawlDesc.getExtraCrawlerData()).thenReturn(extra);
+    assertTrue(cmdLineCrawler.useInProcessRepair(crawlJob));
+    extra.put("page-requisites", true);
+    assertFalse(cmdLineCrawler.useInProcessRepair(crawlJob));
+    extra.remove("page-requisites");
+    // options of the crawler the in-process fetcher can't honor
+    cmdLineCrawler.updateRepairOptions(Map.of("opt.e", "use_proxy=on"), Collections.emptyMap());
+    assertFalse(cmdLineCrawler.useInProcessRepair(crawlJob));
+    cmdLineCrawler.updateRepairOptions(Map.of("opt.recursive", "true"),
+      Map.of("HTTPS_PROXY", "http://proxy.example.com:3128"));
+    assertFalse(cmdLineCrawler.useInProcessRepair(crawlJob));
+    cmdLineCrawler.updateRepairOptions(Map.of("opt.recursive", "true"), Collections.emptyMap());
+    assertTrue(cmdLineCrawler.useInProcessRepair(crawlJob));
+    attrs.put(CmdLineCrawler.ATTR_IN_PROCESS_REPAIR_MAX_URLS, "1");
+    crawlerConfig.setAttributes(attrs);
+    cmdLineCrawler.updateCrawlerConfig(crawlerConfig);
+    assertFalse(cmdLineCrawler.useInProcessRepair(crawlJob));
+  }
+
+  @Test
+  @DisplayName("In-process repairs apply the crawler's options and fetch settings")
+  void testRepairOptions() {
+    when(pluggableCrawlManager.getMaxRetries()).thenReturn(2);
+    when(pluggableCrawlManager.getReadTimeout()).thenReturn(60000L);
+    when(pluggableCrawlManager.getFetchDelay()).thenReturn(100L);
+    CrawlDesc crawlDesc = new CrawlDesc().auId(DEF_AU_ID).crawlerId(DEF_CRAWLER_ID)
+      .crawlKind(REPAIR).crawlList(ListUtil.list("http://example.com/a"));
+
+    // the service's settings when the crawler has no options
+    cmdLineCrawler.updateRepairOptions(Map.of("opt.recursive", "true"), Collections.emptyMap());
+    HttpCrawlOptions opts = cmdLineCrawler.getRepairOptions(crawlDesc);
+    assertEquals(100L, opts.getWait());
+    assertEquals(2, opts.getTries());
+    assertEquals(60000L, opts.getReadTimeout());
+    assertEquals(0, opts.getMaxDepth());
+
+    Map<String, String> attrs = new HashMap<>();
+    attrs.put("opt.wait", "2");
+    attrs.put("opt.tries", "5");
+    attrs.put("opt.read-timeout", "30");
+    attrs.put("opt.user-agent", "TestAgent/1.0");
+    attrs.put("opt.header", "X-Test: yes");
+    attrs.put("opt.level", "3");
+    cmdLineCrawler.updateRepairOptions(attrs, Collections.emptyMap());
+    opts = cmdLineCrawler.getRepairOptions(crawlDesc);
+    assertEquals(2000L, opts.getWait());
+    assertEquals(5, opts.getTries());
+    assertEquals(30000L, opts.getReadTimeout());
+    assertEquals("TestAgent/1.0", opts.getUserAgent());
+    assertEquals(ListUtil.list("yes"), opts.getHeaders().get("X-Test"));
+    assertEquals(0, opts.getMaxDepth());
+
+    // the repair's own options take precedence
+    Map<String, Object> extra = new HashMap<>();
+    extra.put("tries", "7");
+    crawlDesc.setExtraCrawlerData(extra);
+    opts = cmdLineCrawler.getRepairOptions(crawlDesc);
+    assertEquals(7, opts.getTries());
+    assertEquals(2000L, opts.getWait());
+  }
+
+  @Test
+  @DisplayName("Queued repairs of the same AU are merged and share the outcome")
+  void testCoalesceRepairs() {
+    Map<String, String> attrs = new HashMap<>(crawlerConfig.getAttributes());
+    attrs.put(CmdLineCrawler.ATTR_REPAIR_COALESCE_WINDOW, "1h");
+    crawlerConfig.setAttributes(attrs);
+    cmdLineCrawler.updateCrawlerConfig(crawlerConfig);
+    cmdLineCrawler.setCrawlQueueExecutor(mock(ThreadPoolExecutor.class));
+    ArchivalUnit au = mock(ArchivalUnit.class);
+    when(au.getName()).thenReturn(DEF_AU_ID);
+    CrawlJob job1 = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    when(job1.getCrawlDesc().getCrawlKind()).thenReturn(REPAIR);
+    CrawlJob job2 = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    when(job2.getJobId()).thenReturn("1001");
+    when(job2.getCrawlDesc().getCrawlKind()).thenReturn(REPAIR);
+    when(job2.getCrawlDesc().getCrawlList()).thenReturn(ListUtil.list("url2", "url3"));
+    CrawlJob job3 = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    when(job3.getJobId()).thenReturn("1002");
+    when(job3.getCrawlDesc().getCrawlKind()).thenReturn(REPAIR);
+    when(job3.getCrawlDesc().getCrawlDepth()).thenReturn(2);
+
+    CmdLineCrawl primary = (CmdLineCrawl) cmdLineCrawler.requestCrawl(au, job1);
+    CmdLineCrawl merged = (CmdLineCrawl) cmdLineCrawler.requestCrawl(au, job2);
+    CmdLineCrawl other = (CmdLineCrawl) cmdLineCrawler.requestCrawl(au, job3);
+    assertEquals(3, cmdLineCrawler.crawlMap.size());
+    assertEquals(ListUtil.list("url1", "url2", "url3"), primary.getReqUrls());
+    assertEquals(ListUtil.list(merged), primary.getMergedCrawls());
+    assertSame(primary, merged.mergedInto);
+    assertNull(merged.runnableJob);
+    assertEquals("Merged into 1000.", job2.getJobStatus().getMsg());
+    // a different depth is not merged.
+    assertNull(other.mergedInto);
+    assertNotNull(other.runnableJob);
+
+    primary.markStarted();
+    CrawlJob job4 = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    when(job4.getJobId()).thenReturn("1003");
+    when(job4.getCrawlDesc().getCrawlKind()).thenReturn(REPAIR);
+    assertFalse(primary.merge(new CmdLineCrawl(cmdLineCrawler, au, job4)));
+
+    primary.getCrawlerStatus().setCrawlStatus(Crawler.STATUS_SUCCESSFUL);
+    primary.completeMerged();
+    assertEquals(Crawler.STATUS_SUCCESSFUL, merged.getCrawlerStatus().getCrawlStatus());
+    verify(pluggableCrawlManager).handleCrawlComplete(merged.getCrawlerStatus());
+    assertTrue(primary.getMergedCrawls().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Repairs are queued separately when coalescing is disabled")
+  void testCoalesceDisabled() {
+    Map<String, String> attrs = new HashMap<>(crawlerConfig.getAttributes());
+    attrs.put(CmdLineCrawler.ATTR_REPAIR_COALESCE_WINDOW, "0");
+    crawlerConfig.setAttributes(attrs);
+    cmdLineCrawler.updateCrawlerConfig(crawlerConfig);
+    ThreadPoolExecutor executor = mock(ThreadPoolExecutor.class);
+    cmdLineCrawler.setCrawlQueueExecutor(executor);
+    ArchivalUnit au = mock(ArchivalUnit.class);
+    when(au.getName()).thenReturn(DEF_AU_ID);
+    CrawlJob job1 = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    when(job1.getCrawlDesc().getCrawlKind()).thenReturn(REPAIR);
+    CrawlJob job2 = makeMockCrawlJob(DEF_AU_ID, DEF_CRAWLER_ID);
+    when(job2.getJobId()).thenReturn("1001");
+    when(job2.getCrawlDesc().getCrawlKind()).thenReturn(REPAIR);
+    cmdLineCrawler.requestCrawl(au, job1);
+    CmdLineCrawl second = (CmdLineCrawl) cmdLineCrawler.requestCrawl(au, job2);
+    assertNull(second.mergedInto);
+    verify(executor, times(2)).submit(ArgumentMatchers.any(Runnable.class));
+  }
+
   CrawlJob makeMockCrawlJob(String auId, String crawlerId) {
     CrawlJob crawlJob = mock(CrawlJob.class);
     CrawlDesc crawlDesc = makeMockCrawlDesc(auId, crawlerId);
@@ -0,0 +1,113 @@
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndex;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcIndexer;
+import org.lockss.util.ListUtil;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+class TestCrawlCheckpoint extends LockssTestCase5 {
+  static final String CDX =
+    " CDX a b a m s k r M V g u\n" +
+    "http://example.com/a 20230101000000 http://example.com/a text/html 200 AAAA - - 0 seg-00000.warc.gz <urn:uuid:1>\n" +
+    "http://example.com/b 20230101000001 http://example.com/b text/html 200 BBBB - - 100 seg-00000.warc.gz <urn:uuid:2>\n" +
+    "http://example.com/c 20230101000002 http://example.com/c text/html 200 CCCC - - 0 seg-00001.warc.gz <urn:uuid:3>\n";
+
+  File dir;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    dir = getTempDir("TestCrawlCheckpoint");
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  @Test
+  @DisplayName("Only entries from stored WARCs are recorded, and survive reopening")
+  void testAddCaptured() throws IOException {
+    File cdx = new File(dir, "crawl.cdx");
+    Files.write(cdx.toPath(), CDX.getBytes(StandardCharsets.UTF_8));
+    CrawlCheckpoint checkpoint = new CrawlCheckpoint(dir);
+    assertTrue(checkpoint.isEmpty());
+    assertEquals(2, checkpoint.addCaptured(cdx, ListUtil.list("seg-00000.warc.gz")));
+    assertEquals(ListUtil.list("http://example.com/a", "http://example.com/b"),
+      new ArrayList<>(checkpoint.getCapturedUrls()));
+
+    List<String> lines = Files.readAllLines(checkpoint.getCdxFile().toPath());
+    assertEquals(3, lines.size());
+    assertEquals(" CDX a b a m s k r M V g u", lines.get(0));
+
+    CrawlCheckpoint reopened = new CrawlCheckpoint(dir);
+    assertEquals(checkpoint.getCapturedUrls(), reopened.getCapturedUrls());
+    assertEquals(1, reopened.addCaptured(cdx, ListUtil.list("seg-00001.warc.gz")));
+    assertEquals(4, Files.readAllLines(reopened.getCdxFile().toPath()).size());
+    assertTrue(reopened.getCapturedUrls().contains("http://example.com/c"));
+  }
+
+  @Test
+  @DisplayName("Resumed crawls are given the bare base32 digest of stored captures")
+  void testResumeDedupDigest() throws IOException {
+    String body = "first page";
+    String expected = new Base32().encodeAsString(DigestUtils.sha1(body));
+    File warc = new File(dir, "seg-00000.warc");
+    Files.write(warc.toPath(), response("http://example.com/a", body));
+    WarcIndex index = new WarcIndexer().index(warc);
+    assertEquals("sha1:" + expected, index.getEntries().get(0).getPayloadDigest());
+
+    CrawlCheckpoint checkpoint = new CrawlCheckpoint(dir);
+    assertEquals(1, checkpoint.addCaptured(index));
+    // The checkpoint CDX is handed to wget's --warc-dedup as is
+    assertEquals(expected, cdxDigest(checkpoint.getCdxFile()));
+
+    // or merged with the dedup manifest when there is one
+    File manifest = new File(dir, "manifest.cdx");
+    Files.write(manifest.toPath(), (" CDX a k u\n").getBytes(StandardCharsets.UTF_8));
+    File merged = new File(dir, "merged.cdx");
+    DedupManifestCache.mergeCdx(ListUtil.list(manifest, checkpoint.getCdxFile()), merged);
+    assertEquals(expected, cdxDigest(merged));
+  }
+
+  /** Return the digest field of the single entry of a CDX file. */
+  String cdxDigest(File cdx) throws IOException {
+    List<String> lines = Files.readAllLines(cdx.toPath());
+    assertEquals(2, lines.size());
+    List<String> fields = CrawlCheckpoint.parseHeader(lines.get(0));
+    String digest = lines.get(1).split(" ")[fields.indexOf("k")];
+    assertTrue(digest.matches("[A-Z2-7]{32}"));
+    return digest;
+  }
+
+  static byte[] response(String url, String body) {
+    String http = "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n" + body;
+    byte[] content = http.getBytes(StandardCharsets.UTF_8);
+    String header = "WARC/1.0\r\n" +
+      "WARC-Type: response\r\n" +
+      "WARC-Target-URI: " + url + "\r\n" +
+      "WARC-Date: 2023-04-05T06:07:08Z\r\n" +
+      "WARC-Record-ID: <urn:uuid:1>\r\n" +
+      "Content-Type: application/http; msgtype=response\r\n" +
+      "Content-Length: " + content.length + "\r\n\r\n";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+    out.writeBytes(content);
+    out.writeBytes("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    return out.toByteArray();
+  }
+}
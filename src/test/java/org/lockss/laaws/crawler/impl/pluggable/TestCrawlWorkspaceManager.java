@@ -0,0 +1,166 @@
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.laaws.crawler.impl.pluggable.CrawlWorkspaceManager.InsufficientSpaceException;
+import org.lockss.laaws.crawler.impl.pluggable.CrawlWorkspaceManager.Workspace;
+import org.lockss.test.ConfigurationUtil;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.lockss.laaws.crawler.impl.pluggable.CrawlWorkspaceManager.*;
+
+class TestCrawlWorkspaceManager extends LockssTestCase5 {
+  File fastDir;
+  File bulkDir;
+  CrawlWorkspaceManager mgr;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    fastDir = getTempDir("fast");
+    bulkDir = getTempDir("bulk");
+    mgr = new CrawlWorkspaceManager();
+    mgr.setConfig(ConfigurationUtil.fromArgs(
+      PARAM_FAST_VOLUMES, fastDir.getPath(),
+      PARAM_BULK_VOLUMES, bulkDir.getPath(),
+      PARAM_JOB_QUOTA, "10KB",
+      PARAM_REPAIR_JOB_QUOTA, "1KB",
+      PARAM_MIN_FREE_SPACE, "0"));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  @Test
+  @DisplayName("Repair crawls are placed on the fast volume, others on the bulk volume")
+  void testPlacement() throws IOException {
+    Workspace repair = mgr.allocate("r1", true);
+    Workspace bulk = mgr.allocate("n1", false);
+    assertEquals(new File(fastDir, WORKSPACE_ROOT), repair.getVolume());
+    assertEquals(new File(bulkDir, WORKSPACE_ROOT), bulk.getVolume());
+    assertTrue(repair.getDir().isDirectory());
+    assertEquals(1024 + 10 * 1024, mgr.getReservedBytes());
+    assertSame(repair, mgr.allocate("r1", true));
+    assertTrue(mgr.release(repair));
+    assertFalse(repair.getDir().exists());
+    assertEquals(10 * 1024, mgr.getReservedBytes());
+  }
+
+  @Test
+  @DisplayName("Allocation fails once the global quota is reserved")
+  void testGlobalQuota() throws IOException {
+    mgr.setConfig(ConfigurationUtil.fromArgs(
+      PARAM_BULK_VOLUMES, bulkDir.getPath(),
+      PARAM_JOB_QUOTA, "10KB",
+      PARAM_GLOBAL_QUOTA, "15KB",
+      PARAM_MIN_FREE_SPACE, "0"));
+    mgr.allocate("n1", false);
+    assertFalse(mgr.hasSpaceFor(false));
+    assertThrows(InsufficientSpaceException.class, () -> mgr.allocate("n2", false));
+  }
+
+  @Test
+  @DisplayName("A workspace is over quota once its contents exceed the quota")
+  void testOverQuota() throws IOException {
+    Workspace ws = mgr.allocate("r1", true);
+    assertFalse(ws.isOverQuota());
+    try (FileOutputStream out = new FileOutputStream(new File(ws.getDir(), "data"))) {
+      out.write(new byte[2048]);
+    }
+    assertTrue(ws.isOverQuota());
+  }
+
+  @Test
+  @DisplayName("Sweep removes unallocated workspaces only")
+  void testSweep() throws IOException {
+    Workspace ws = mgr.allocate("n1", false);
+    File orphan = new File(ws.getVolume(), WORKSPACE_PREFIX + "old");
+    assertTrue(orphan.mkdirs());
+    mgr.sweep();
+    assertFalse(orphan.exists());
+    assertTrue(ws.getDir().exists());
+  }
+
+  @Test
+  @DisplayName("Sweep keeps the workspaces of jobs which will resume")
+  void testSweepRetains() throws IOException {
+    File volume = new File(bulkDir, WORKSPACE_ROOT);
+    File keep = new File(volume, WORKSPACE_PREFIX + "job1");
+    File orphan = new File(volume, WORKSPACE_PREFIX + "job2");
+    assertTrue(keep.mkdirs());
+    assertTrue(orphan.mkdirs());
+    mgr.sweep(Collections.singletonList("job1"));
+    assertTrue(keep.exists());
+    assertFalse(orphan.exists());
+    assertTrue(mgr.isRetained("job1"));
+    Workspace ws = mgr.allocate("job1", false);
+    assertTrue(ws.isResumed());
+    assertEquals(keep, ws.getDir());
+    assertFalse(mgr.isRetained("job1"));
+    assertFalse(mgr.allocate("job3", false).isResumed());
+  }
+
+  @Test
+  @DisplayName("A retained workspace is kept and reused by its job")
+  void testRetain() throws IOException {
+    Workspace ws = mgr.allocate("n1", false);
+    mgr.retain(ws);
+    assertTrue(ws.getDir().isDirectory());
+    assertEquals(0, mgr.getReservedBytes());
+    assertTrue(mgr.isRetained("n1"));
+    Workspace again = mgr.allocate("n1", false);
+    assertTrue(again.isResumed());
+    assertEquals(ws.getDir(), again.getDir());
+  }
+
+  void fill(Workspace ws, int bytes) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(new File(ws.getDir(), "data"))) {
+      out.write(new byte[bytes]);
+    }
+  }
+
+  @Test
+  @DisplayName("The space reserved for a crawl is estimated from earlier crawls")
+  void testEstimate() throws IOException {
+    assertEquals(10 * 1024, mgr.estimateNeed("au1", false));
+    Workspace ws = mgr.allocate("n1", "au1", false);
+    fill(ws, 4000);
+    int[] released = {0};
+    mgr.addReleaseListener(() -> released[0]++);
+    mgr.release(ws);
+    assertEquals(1, released[0]);
+    assertEquals(5000, mgr.estimateNeed("au1", false));
+    // other AUs get the average for the kind of crawl.
+    assertEquals(5000, mgr.estimateNeed("au2", false));
+    assertEquals(1024, mgr.estimateNeed("au1", true));
+    assertEquals(5000, mgr.allocate("n2", "au1", false).getReserved());
+    assertEquals(5000, mgr.getReservedBytes());
+  }
+
+  @Test
+  @DisplayName("Crawls are admitted while their estimates fit the global quota")
+  void testAdmission() throws IOException {
+    mgr.setConfig(ConfigurationUtil.fromArgs(
+      PARAM_BULK_VOLUMES, bulkDir.getPath(),
+      PARAM_JOB_QUOTA, "10KB",
+      PARAM_GLOBAL_QUOTA, "15KB",
+      PARAM_MIN_FREE_SPACE, "0"));
+    Workspace ws = mgr.allocate("n1", "au1", false);
+    fill(ws, 4000);
+    mgr.release(ws);
+    mgr.allocate("n2", "au1", false);
+    mgr.allocate("n3", "au1", false);
+    mgr.allocate("n4", "au1", false);
+    assertFalse(mgr.hasSpaceFor("au1", false));
+    assertThrows(InsufficientSpaceException.class, () -> mgr.allocate("n5", "au1", false));
+  }
+}
@@ -0,0 +1,134 @@
+package org.lockss.laaws.crawler.impl.pluggable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.plugin.CachedUrl;
+import org.lockss.plugin.CachedUrlSet;
+import org.lockss.util.ListUtil;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+class TestDedupManifestCache extends LockssTestCase5 {
+  static final String AUID = "org|lockss|plugin|TestPlugin&base_url~http%3A%2F%2Fexample%2Ecom%2F";
+  // base32 sha1 of "hello"
+  static final String HELLO_DIGEST = "VL2MMHO4YXUKFWV63YHTWSBM3GXKSQ2N";
+
+  File dir;
+  DedupManifestCache cache;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    dir = getTempDir("TestDedupManifestCache");
+    cache = new DedupManifestCache();
+    cache.setManifestDir(new File(dir, "dedup"));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  CachedUrl makeCu(String url, int version, String content) throws IOException {
+    CachedUrl cu = mock(CachedUrl.class);
+    when(cu.getUrl()).thenReturn(url);
+    when(cu.getVersion()).thenReturn(version);
+    when(cu.getUnfilteredInputStream()).thenAnswer(
+      inv -> new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    return cu;
+  }
+
+  ArchivalUnit makeAu(List<CachedUrl> cus) {
+    ArchivalUnit au = mock(ArchivalUnit.class);
+    CachedUrlSet cuSet = mock(CachedUrlSet.class);
+    when(au.getAuId()).thenReturn(AUID);
+    when(au.getAuCachedUrlSet()).thenReturn(cuSet);
+    when(cuSet.getCuIterable()).thenReturn(cus);
+    return au;
+  }
+
+  @Test
+  @DisplayName("Digests are only recomputed for new versions")
+  void testIncrementalRefresh() throws IOException {
+    CachedUrl a = makeCu("http://example.com/a", 1, "hello");
+    CachedUrl b = makeCu("http://example.com/b", 1, "world");
+    ArchivalUnit au = makeAu(ListUtil.list(a, b));
+    File cdx = cache.getManifest(au);
+    assertNotNull(cdx);
+    List<String> lines = Files.readAllLines(cdx.toPath());
+    assertEquals(DedupManifestCache.CDX_HEADER, lines.get(0));
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(1).startsWith("http://example.com/a " + HELLO_DIGEST + " <urn:uuid:"));
+
+    CachedUrl b2 = makeCu("http://example.com/b", 2, "world!");
+    File stateFile = new File(cache.getManifestDir(), cdx.getName().replace(".cdx", ".state"));
+    cache.refresh(makeAu(ListUtil.list(a, b2)), stateFile, cdx);
+    verify(a, times(1)).getUnfilteredInputStream();
+    verify(b2, times(1)).getUnfilteredInputStream();
+    assertNotEquals(lines.get(2), Files.readAllLines(cdx.toPath()).get(2));
+  }
+
+  @Test
+  @DisplayName("Manifest lines have the url, bare base32 digest and record id wget reads")
+  void testWgetCdxLayout() throws IOException {
+    File cdx = cache.getManifest(makeAu(ListUtil.list(makeCu("http://example.com/a", 1, "hello"))));
+    List<String> lines = Files.readAllLines(cdx.toPath());
+    // wget finds the a, k and u fields by their position in the header.
+    List<String> fields = CrawlCheckpoint.parseHeader(lines.get(0));
+    String[] cols = lines.get(1).split(" ");
+    assertEquals(fields.size(), cols.length);
+    assertEquals("http://example.com/a", cols[fields.indexOf("a")]);
+    String digest = cols[fields.indexOf("k")];
+    assertEquals(HELLO_DIGEST, digest);
+    // wget decodes the digest as 32 base32 characters.
+    assertTrue(digest.matches("[A-Z2-7]{32}"), digest);
+    assertTrue(cols[fields.indexOf("u")].startsWith("<urn:uuid:"));
+  }
+
+  @Test
+  @DisplayName("Digests labelled sha1: by older manifests and CDX files are written bare")
+  void testLegacyDigests() throws IOException {
+    File legacy = new File(dir, "legacy.cdx");
+    Files.write(legacy.toPath(), (DedupManifestCache.CDX_HEADER + "\n" +
+      "http://example.com/a sha1:" + HELLO_DIGEST + " <urn:uuid:1>\n").getBytes(StandardCharsets.UTF_8));
+    File merged = new File(dir, "merged.cdx");
+    DedupManifestCache.mergeCdx(ListUtil.list(legacy), merged);
+    assertEquals("http://example.com/a " + HELLO_DIGEST + " <urn:uuid:1>",
+      Files.readAllLines(merged.toPath()).get(1));
+  }
+
+  @Test
+  @DisplayName("An AU without content has no manifest")
+  void testEmptyAu() throws IOException {
+    assertNull(cache.getManifest(makeAu(ListUtil.list())));
+  }
+
+  @Test
+  @DisplayName("Merging CDX files keeps url, digest and record id")
+  void testMergeCdx() throws IOException {
+    File wgetCdx = new File(dir, "wget.cdx");
+    Files.write(wgetCdx.toPath(), (" CDX a b a m s k r M V g u\n" +
+      "http://example.com/c 20230101000000 http://example.com/c text/html 200 CCCC - - 0 seg-00000.warc.gz <urn:uuid:3>\n")
+      .getBytes(StandardCharsets.UTF_8));
+    File manifest = new File(dir, "manifest.cdx");
+    Files.write(manifest.toPath(), (DedupManifestCache.CDX_HEADER + "\n" +
+      "http://example.com/a AAAA <urn:uuid:1>\n").getBytes(StandardCharsets.UTF_8));
+    File merged = new File(dir, "merged.cdx");
+    DedupManifestCache.mergeCdx(ListUtil.list(manifest, wgetCdx), merged);
+    assertEquals(ListUtil.list(DedupManifestCache.CDX_HEADER,
+      "http://example.com/a AAAA <urn:uuid:1>",
+      "http://example.com/c CCCC <urn:uuid:3>"),
+      Files.readAllLines(merged.toPath()));
+  }
+}
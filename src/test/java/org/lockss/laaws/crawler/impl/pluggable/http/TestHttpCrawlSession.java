@@ -0,0 +1,275 @@
+package org.lockss.laaws.crawler.impl.pluggable.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Base32;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.crawler.CrawlerStatus;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl;
+import org.lockss.laaws.crawler.impl.pluggable.PluggableCrawl.PluggableCrawlerStatus;
+import org.lockss.laaws.crawler.impl.pluggable.warc.WarcUploadStream;
+import org.lockss.plugin.ArchivalUnit;
+import org.lockss.util.rest.crawler.CrawlDesc;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static org.mockito.Mockito.*;
+
+class TestHttpCrawlSession extends LockssTestCase5 {
+  HttpServer server;
+  String base;
+  Map<String, String> pages = new HashMap<>();
+  Map<String, String> etags = new HashMap<>();
+  Map<String, byte[]> binaries = new HashMap<>();
+  Map<String, Integer> hits = new ConcurrentHashMap<>();
+  ByteArrayOutputStream stored;
+  WarcUploadStream upload;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      String path = exchange.getRequestURI().getPath();
+      hits.merge(path, 1, Integer::sum);
+      byte[] binary = binaries.get(path);
+      if (binary != null) {
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, binary.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(binary);
+        }
+        return;
+      }
+      String etag = etags.get(path);
+      if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      String page = pages.get(path);
+      byte[] body = (page == null ? "not found" : page).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+      exchange.sendResponseHeaders(page == null ? 404 : 200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+    pages.put("/", "<a href=\"a.html\">a</a> <a href='/doc.pdf'>pdf</a>" +
+      " <a href=http://other.example.com/>other</a> <img src=\"/missing.gif\">");
+    pages.put("/a.html", "<a href=\"/c.html#top\">c</a>");
+    pages.put("/c.html", "<p>deep</p>");
+    pages.put("/doc.pdf", "pdf");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  CrawlDesc makeCrawlDesc(int depth, Map<String, Object> extra) {
+    CrawlDesc desc = mock(CrawlDesc.class);
+    when(desc.getCrawlList()).thenReturn(List.of(base + "/"));
+    when(desc.getCrawlDepth()).thenReturn(depth);
+    when(desc.getCrawlKind()).thenReturn(CrawlDesc.CrawlKindEnum.NEWCONTENT);
+    when(desc.getCrawlerId()).thenReturn("httpCrawler");
+    when(desc.getExtraCrawlerData()).thenReturn(extra);
+    return desc;
+  }
+
+  CrawlerStatus makeStatus(CrawlDesc desc) {
+    PluggableCrawl crawl = mock(PluggableCrawl.class);
+    ArchivalUnit au = mock(ArchivalUnit.class);
+    when(au.getName()).thenReturn("AU_ID");
+    when(crawl.getCrawlDesc()).thenReturn(desc);
+    when(crawl.getAuId()).thenReturn("AU_ID");
+    when(crawl.getCrawlKey()).thenReturn("1000");
+    when(crawl.getAu()).thenReturn(au);
+    return new PluggableCrawlerStatus(crawl);
+  }
+
+  String crawl(CrawlDesc desc, CrawlerStatus status) throws Exception {
+    return crawl(desc, status, null);
+  }
+
+  String crawl(CrawlDesc desc, CrawlerStatus status, StoredContent storedContent)
+    throws Exception {
+    HttpCrawlSession session = makeSession(desc, status,
+      new HttpFetcher(HttpClient.Version.HTTP_1_1, 10000), 1);
+    session.setStoredContent(storedContent);
+    session.run();
+    upload.close();
+    assertEquals(List.of(base + "/"), session.getStems());
+    return stored.toString(StandardCharsets.ISO_8859_1);
+  }
+
+  HttpCrawlSession makeSession(CrawlDesc desc, CrawlerStatus status, HttpFetcher fetcher,
+                               int tries) {
+    HttpCrawlOptions opts = HttpCrawlOptions.fromCrawlDesc(desc,
+      new HttpCrawlOptions(5, tries, 10000, "test-agent"));
+    stored = new ByteArrayOutputStream();
+    upload = new WarcUploadStream(in -> in.transferTo(stored), 0, "test");
+    return new HttpCrawlSession(fetcher, opts, status, upload, false,
+      Pattern.compile("(4|5).."), 4);
+  }
+
+  @Test
+  @DisplayName("Follows links on the start hosts to the crawl depth")
+  void testDepth() throws Exception {
+    CrawlDesc desc = makeCrawlDesc(1, null);
+    CrawlerStatus status = makeStatus(desc);
+    String warc = crawl(desc, status);
+    assertEquals(Set.of(base + "/", base + "/a.html", base + "/doc.pdf"),
+      new HashSet<>(status.getUrlsFetched()));
+    assertTrue(status.getUrlsWithErrors().containsKey(base + "/missing.gif"));
+    assertEquals(4, countMatches(warc, "WARC-Type: response"));
+    assertEquals(4, countMatches(warc, "WARC-Type: request"));
+    assertTrue(warc.contains("User-Agent: test-agent"));
+    assertFalse(warc.contains("other.example.com/\r\n"));
+  }
+
+  @Test
+  @DisplayName("Applies the accept and reject regexes to the links found")
+  void testRegex() throws Exception {
+    Map<String, Object> extra = new HashMap<>();
+    extra.put(HttpCrawlOptions.REJECT_REGEX_KEY, "\\.(pdf|gif)$");
+    extra.put(HttpCrawlOptions.HEADER_KEY, List.of("X-Test: yes"));
+    CrawlDesc desc = makeCrawlDesc(2, extra);
+    CrawlerStatus status = makeStatus(desc);
+    String warc = crawl(desc, status);
+    assertEquals(Set.of(base + "/", base + "/a.html", base + "/c.html"),
+      new HashSet<>(status.getUrlsFetched()));
+    assertEquals(0, status.getNumUrlsWithErrors());
+    assertTrue(warc.contains("X-Test: yes"));
+  }
+
+  @Test
+  @DisplayName("Unchanged urls are not written and their stored links are followed")
+  void testNotModified() throws Exception {
+    etags.put("/", "\"v1\"");
+    Map<String, StoredContent.Validators> validators = new HashMap<>();
+    validators.put(base + "/", new StoredContent.Validators("\"v1\"", null, "text/html"));
+    validators.put(base + "/doc.pdf", new StoredContent.Validators("\"old\"", null, "application/pdf"));
+    StoredContent storedContent = new StoredContent(null, validators) {
+      @Override
+      public byte[] readContent(String url) {
+        return pages.get(URI.create(url).getPath()).getBytes(StandardCharsets.UTF_8);
+      }
+    };
+    CrawlDesc desc = makeCrawlDesc(1, null);
+    CrawlerStatus status = makeStatus(desc);
+    String warc = crawl(desc, status, storedContent);
+    assertEquals(List.of(base + "/"), new ArrayList<>(status.getUrlsNotModified()));
+    assertEquals(Set.of(base + "/a.html", base + "/doc.pdf"),
+      new HashSet<>(status.getUrlsFetched()));
+    assertEquals(3, countMatches(warc, "WARC-Type: response"));
+    assertTrue(warc.contains("If-None-Match: \"old\""));
+    assertFalse(warc.contains("WARC-Target-URI: " + base + "/\r\n"));
+  }
+
+  @Test
+  @DisplayName("Only new content crawls are incremental")
+  void testIncrementalOption() {
+    HttpCrawlOptions defaults = new HttpCrawlOptions(5, 1, 10000, null).setIncremental(true);
+    assertTrue(HttpCrawlOptions.fromCrawlDesc(makeCrawlDesc(1, null), defaults).isIncremental());
+    Map<String, Object> extra = new HashMap<>();
+    extra.put(HttpCrawlOptions.INCREMENTAL_KEY, "false");
+    assertFalse(HttpCrawlOptions.fromCrawlDesc(makeCrawlDesc(1, extra), defaults).isIncremental());
+    CrawlDesc repair = makeCrawlDesc(1, null);
+    when(repair.getCrawlKind()).thenReturn(CrawlDesc.CrawlKindEnum.REPAIR);
+    assertFalse(HttpCrawlOptions.fromCrawlDesc(repair, defaults).isIncremental());
+  }
+
+  @Test
+  @DisplayName("Hosts other than the start hosts need span-hosts or domains")
+  void testAllowed() {
+    Map<String, Object> extra = new HashMap<>();
+    extra.put(HttpCrawlOptions.DOMAINS_KEY, "example.com");
+    HttpCrawlOptions opts = HttpCrawlOptions.fromCrawlDesc(makeCrawlDesc(1, extra),
+      new HttpCrawlOptions(5, 1, 10000, null));
+    assertTrue(opts.isAllowed(URI.create(base + "/x")));
+    assertTrue(opts.isAllowed(URI.create("http://other.example.com/")));
+    assertFalse(opts.isAllowed(URI.create("http://example.org/")));
+    assertEquals(1000, HttpCrawlOptions.parseSeconds("1"));
+    assertEquals(500, HttpCrawlOptions.parseSeconds(0.5));
+  }
+
+  @Test
+  @DisplayName("A body too large for memory is spooled and written whole")
+  void testSpooledBody() throws Exception {
+    byte[] big = new byte[SpooledBody.MEMORY_THRESHOLD * 2 + 17];
+    for (int i = 0; i < big.length; i++) {
+      big[i] = (byte)i;
+    }
+    binaries.put("/big.bin", big);
+    pages.put("/", "<a href=\"big.bin\">big</a>");
+    CrawlDesc desc = makeCrawlDesc(1, null);
+    CrawlerStatus status = makeStatus(desc);
+    String warc = crawl(desc, status);
+    assertEquals(Set.of(base + "/", base + "/big.bin"), new HashSet<>(status.getUrlsFetched()));
+    String digest = new Base32().encodeAsString(MessageDigest.getInstance("SHA-1").digest(big));
+    assertTrue(warc.contains("WARC-Payload-Digest: sha1:" + digest));
+    assertTrue(warc.contains(new String(big, StandardCharsets.ISO_8859_1)));
+  }
+
+  @Test
+  @DisplayName("A body larger than the maximum size is an error and isn't retried")
+  void testMaxBodySize() throws Exception {
+    binaries.put("/big.bin", new byte[1000]);
+    pages.put("/", "<a href=\"big.bin\">big</a>");
+    CrawlDesc desc = makeCrawlDesc(1, null);
+    CrawlerStatus status = makeStatus(desc);
+    HttpFetcher fetcher = new HttpFetcher(HttpClient.Version.HTTP_1_1, 10000)
+      .setMaxBodySize(500);
+    HttpCrawlSession session = makeSession(desc, status, fetcher, 3);
+    session.run();
+    upload.close();
+    assertEquals(List.of(base + "/"), new ArrayList<>(status.getUrlsFetched()));
+    assertEquals("Response body exceeds the maximum size of 500 bytes",
+      status.getErrorForUrl(base + "/big.bin"));
+    assertEquals(1, (int)hits.get("/big.bin"));
+    assertFalse(stored.toString(StandardCharsets.ISO_8859_1)
+      .contains("WARC-Target-URI: " + base + "/big.bin"));
+  }
+
+  @Test
+  @DisplayName("A url signalled twice is listed once in the error and MIME type views")
+  void testUrlViewsAreDistinct() {
+    PluggableCrawlerStatus status = (PluggableCrawlerStatus) makeStatus(makeCrawlDesc(1, null));
+    status.signalMimeTypeOfUrl("text/html", base + "/");
+    status.signalMimeTypeOfUrl("text/html", base + "/a.html");
+    status.signalMimeTypeOfUrl("text/html", base + "/");
+    status.signalErrorForUrl(base + "/missing.gif", "404");
+    status.signalErrorForUrl(base + "/missing.gif", "404");
+    assertEquals(List.of(base + "/", base + "/a.html"),
+      status.getMimeTypeUrlView("text/html"));
+    assertEquals(List.of(base + "/missing.gif"), status.getErrorUrlView());
+  }
+
+  static int countMatches(String str, String sub) {
+    int n = 0;
+    for (int idx = str.indexOf(sub); idx >= 0; idx = str.indexOf(sub, idx + 1)) {
+      n++;
+    }
+    return n;
+  }
+}
@@ -0,0 +1,74 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+class TestIngestCheckpoint extends LockssTestCase5 {
+  File warc;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    warc = new File(getTempDir("TestIngestCheckpoint"), "test.warc");
+    Files.write(warc.toPath(), new byte[1000]);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  WarcIndex index(long... bounds) {
+    WarcIndex index = new WarcIndex(warc, false);
+    for (int i = 0; i + 1 < bounds.length; i++) {
+      index.addEntry(new WarcIndex.Entry(bounds[i], bounds[i + 1] - bounds[i], "response",
+        "http://example.com/" + i, null, null, null, 200, null));
+    }
+    index.setValidLength(bounds[bounds.length - 1]);
+    return index;
+  }
+
+  @Test
+  @DisplayName("The committed offset survives being reread")
+  void testOffset() throws IOException {
+    assertEquals(0, IngestCheckpoint.getCommittedOffset(warc));
+    IngestCheckpoint.setCommittedOffset(warc, 400);
+    assertEquals(400, IngestCheckpoint.getCommittedOffset(warc));
+    IngestCheckpoint.setCommittedOffset(warc, 700);
+    assertEquals(700, IngestCheckpoint.getCommittedOffset(warc));
+    IngestCheckpoint.delete(warc);
+    assertFalse(IngestCheckpoint.getFile(warc).exists());
+    assertEquals(0, IngestCheckpoint.getCommittedOffset(warc));
+  }
+
+  @Test
+  @DisplayName("Records are grouped into ranges no larger than the chunk size")
+  void testChunks() {
+    WarcIndex index = index(0, 100, 200, 500, 600, 1000);
+    List<long[]> chunks = IngestCheckpoint.getChunks(index, 0, 250);
+    assertEquals(4, chunks.size());
+    assertArrayEquals(new long[]{0, 200}, chunks.get(0));
+    assertArrayEquals(new long[]{200, 500}, chunks.get(1));
+    assertArrayEquals(new long[]{500, 600}, chunks.get(2));
+    assertArrayEquals(new long[]{600, 1000}, chunks.get(3));
+    assertEquals(1, IngestCheckpoint.getChunks(index, 0, 0).size());
+  }
+
+  @Test
+  @DisplayName("Ranges start at the committed offset")
+  void testChunksFromOffset() {
+    WarcIndex index = index(0, 100, 200, 500, 600, 1000);
+    List<long[]> chunks = IngestCheckpoint.getChunks(index, 500, 0);
+    assertEquals(1, chunks.size());
+    assertArrayEquals(new long[]{500, 1000}, chunks.get(0));
+    assertTrue(IngestCheckpoint.getChunks(index, 1000, 0).isEmpty());
+  }
+}
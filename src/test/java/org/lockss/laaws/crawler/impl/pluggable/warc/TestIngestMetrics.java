@@ -0,0 +1,49 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+class TestIngestMetrics extends LockssTestCase5 {
+
+  @Test
+  @DisplayName("Attempts are counted per crawler, AU and crawl")
+  void testRecord() {
+    IngestMetrics metrics = new IngestMetrics();
+    metrics.record("wget", "au1", "job1", 1000, 10, 500, true);
+    metrics.record("wget", "au2", "job2", 3000, 20, 1500, true);
+    metrics.record("wget", "au2", "job2", 0, 0, 20, false);
+    IngestMetrics.Stats crawler = metrics.getCrawlerStats("wget");
+    assertEquals(2, crawler.getFiles());
+    assertEquals(1, crawler.getFailures());
+    assertEquals(4000, crawler.getBytes());
+    assertEquals(30, crawler.getRecords());
+    assertEquals(2020, crawler.getElapsed());
+    assertEquals(1, metrics.getAuStats("au1").getFiles());
+    assertEquals(1, metrics.getCrawlStats("job2").getFailures());
+    assertEquals(3000 * 1000.0 / 1520, metrics.getCrawlStats("job2").getBytesPerSecond(), 0.001);
+    assertArrayEquals(new long[]{1, 1, 1, 0, 0, 0}, crawler.getLatencyCounts());
+    assertEquals(2, metrics.getAllAuStats().size());
+    assertNull(metrics.getCrawlerStats("classic"));
+  }
+
+  @Test
+  @DisplayName("Durations fall in the bucket below their upper bound")
+  void testBucket() {
+    assertEquals(0, IngestMetrics.bucket(0));
+    assertEquals(1, IngestMetrics.bucket(100));
+    assertEquals(2, IngestMetrics.bucket(9999));
+    assertEquals(IngestMetrics.LATENCY_BOUNDS.length, IngestMetrics.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  @DisplayName("Only the most recent crawls are kept")
+  void testCrawlLimit() {
+    IngestMetrics metrics = new IngestMetrics();
+    for (int i = 0; i <= IngestMetrics.MAX_CRAWLS; i++) {
+      metrics.record("wget", "au1", "job" + i, 1, 1, 1, true);
+    }
+    assertNull(metrics.getCrawlStats("job0"));
+    assertNotNull(metrics.getCrawlStats("job" + IngestMetrics.MAX_CRAWLS));
+  }
+}
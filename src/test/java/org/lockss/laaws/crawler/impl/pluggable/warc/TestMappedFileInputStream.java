@@ -0,0 +1,88 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+class TestMappedFileInputStream extends LockssTestCase5 {
+  File file;
+  byte[] content;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    content = new byte[10000];
+    new Random(1).nextBytes(content);
+    file = new File(getTempDir("TestMappedFileInputStream"), "test.warc");
+    Files.write(file.toPath(), content);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  @Test
+  @DisplayName("Reads the whole file across window boundaries")
+  void testReadAcrossWindows() throws IOException {
+    try (MappedFileInputStream in = new MappedFileInputStream(file, 1024)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[3000];
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        out.write(buf, 0, n);
+      }
+      assertArrayEquals(content, out.toByteArray());
+      assertEquals(-1, in.read());
+      assertEquals(0, in.available());
+    }
+  }
+
+  @Test
+  @DisplayName("Single byte reads, skip and mark/reset track the position")
+  void testSkipAndReset() throws IOException {
+    try (MappedFileInputStream in = new MappedFileInputStream(file, 1024)) {
+      assertEquals(content[0] & 0xff, in.read());
+      assertEquals(2000, in.skip(2000));
+      assertEquals(2001, in.position());
+      in.mark(0);
+      byte[] buf = new byte[100];
+      assertEquals(100, in.read(buf));
+      assertArrayEquals(Arrays.copyOfRange(content, 2001, 2101), buf);
+      in.reset();
+      assertEquals(content[2001] & 0xff, in.read());
+      assertEquals(10000 - 2002, in.skip(Long.MAX_VALUE));
+      assertEquals(-1, in.read(buf));
+    }
+  }
+
+  @Test
+  @DisplayName("Positioning moves within and across windows")
+  void testPosition() throws IOException {
+    try (MappedFileInputStream in = new MappedFileInputStream(file, 1024)) {
+      in.position(5000);
+      assertEquals(content[5000] & 0xff, in.read());
+      // Within the same window.
+      in.position(5100);
+      assertEquals(content[5100] & 0xff, in.read());
+      in.position(10);
+      assertEquals(content[10] & 0xff, in.read());
+      in.position(10000);
+      assertEquals(-1, in.read());
+      assertThrows(EOFException.class, () -> in.position(10001));
+    }
+    MappedFileInputStream closed = new MappedFileInputStream(file, 1024);
+    closed.close();
+    assertThrows(IOException.class, () -> closed.position(0));
+  }
+}
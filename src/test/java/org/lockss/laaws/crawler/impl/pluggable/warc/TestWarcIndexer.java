@@ -0,0 +1,156 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+class TestWarcIndexer extends LockssTestCase5 {
+  File dir;
+  WarcIndexer indexer;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    dir = getTempDir("TestWarcIndexer");
+    indexer = new WarcIndexer();
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  static byte[] response(String url, String body) {
+    String http = "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\n\r\n" + body;
+    byte[] content = http.getBytes(StandardCharsets.UTF_8);
+    String header = "WARC/1.0\r\n" +
+      "WARC-Type: response\r\n" +
+      "WARC-Target-URI: " + url + "\r\n" +
+      "WARC-Date: 2023-04-05T06:07:08Z\r\n" +
+      "WARC-Record-ID: <urn:uuid:" + url.hashCode() + ">\r\n" +
+      "Content-Type: application/http; msgtype=response\r\n" +
+      "Content-Length: " + content.length + "\r\n\r\n";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+    out.writeBytes(content);
+    out.writeBytes("\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    return out.toByteArray();
+  }
+
+  static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+      gz.write(data);
+    }
+    return out.toByteArray();
+  }
+
+  File write(String name, byte[]... parts) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      out.writeBytes(part);
+    }
+    File file = new File(dir, name);
+    Files.write(file.toPath(), out.toByteArray());
+    return file;
+  }
+
+  @Test
+  @DisplayName("Indexes the records of an uncompressed file")
+  void testPlain() throws IOException {
+    byte[] r1 = response("http://example.com/a", "first page");
+    byte[] r2 = response("http://example.com/b", "second page");
+    WarcIndex index = indexer.index(write("test.warc", r1, r2));
+    assertTrue(index.isValid());
+    assertFalse(index.isCompressed());
+    assertEquals(2, index.getRecordCount());
+    WarcIndex.Entry e2 = index.getEntries().get(1);
+    assertEquals(r1.length, e2.getOffset());
+    assertEquals(r2.length, e2.getLength());
+    assertEquals("http://example.com/b", e2.getTargetUri());
+    assertEquals(200, e2.getStatus());
+    assertEquals("text/html", e2.getMimeType());
+    assertEquals("20230405060708", e2.getCdxDate());
+    assertEquals("sha1:" + new Base32().encodeAsString(DigestUtils.sha1("second page")),
+      e2.getPayloadDigest());
+    StringWriter cdx = new StringWriter();
+    assertEquals(2, index.writeCdx(cdx));
+    assertTrue(cdx.toString().contains(" " + r1.length + " test.warc "));
+  }
+
+  @Test
+  @DisplayName("Indexes each gzip member of a compressed file")
+  void testGzip() throws IOException {
+    byte[] m1 = gzip(response("http://example.com/a", "first page"));
+    byte[] m2 = gzip(response("http://example.com/b", "second page"));
+    WarcIndex index = indexer.index(write("test.warc.gz", m1, m2));
+    assertTrue(index.isValid());
+    assertTrue(index.isCompressed());
+    assertEquals(2, index.getRecordCount());
+    assertEquals(0, index.getEntries().get(0).getOffset());
+    assertEquals(m1.length, index.getEntries().get(0).getLength());
+    assertEquals(m1.length, index.getEntries().get(1).getOffset());
+    assertEquals(m1.length + m2.length, index.getValidLength());
+  }
+
+  @Test
+  @DisplayName("A truncated final record is cut off by repair")
+  void testRepairTruncated() throws IOException {
+    byte[] r1 = response("http://example.com/a", "first page");
+    byte[] r2 = response("http://example.com/b", "second page");
+    File file = write("test.warc", r1, Arrays.copyOf(r2, r2.length / 2));
+    WarcIndex index = indexer.index(file);
+    assertFalse(index.isValid());
+    assertNotNull(index.getError());
+    assertEquals(1, index.getRecordCount());
+    assertEquals(r1.length, index.getValidLength());
+    assertTrue(WarcIndexer.repair(index));
+    assertTrue(index.isValid());
+    assertTrue(index.isRepaired());
+    assertEquals(r1.length, file.length());
+    assertTrue(indexer.index(file).isValid());
+  }
+
+  @Test
+  @DisplayName("A truncated gzip member is cut off by repair")
+  void testRepairTruncatedGzip() throws IOException {
+    byte[] m1 = gzip(response("http://example.com/a", "first page"));
+    byte[] m2 = gzip(response("http://example.com/b", "second page"));
+    File file = write("test.warc.gz", m1, Arrays.copyOf(m2, m2.length - 5));
+    WarcIndex index = indexer.index(file);
+    assertFalse(index.isValid());
+    assertEquals(m1.length, index.getValidLength());
+    assertTrue(WarcIndexer.repair(index));
+    assertEquals(m1.length, file.length());
+  }
+
+  @Test
+  @DisplayName("A file with no intact records is rejected")
+  void testRejectCorrupt() throws IOException {
+    byte[] m1 = gzip(response("http://example.com/a", "first page"));
+    m1[m1.length - 9] ^= 0x55;
+    File file = write("test.warc.gz", m1);
+    WarcIndex index = indexer.index(file);
+    assertFalse(index.isValid());
+    assertEquals(0, index.getRecordCount());
+    assertFalse(WarcIndexer.repair(index));
+    assertEquals(m1.length, file.length());
+
+    File garbage = write("garbage.warc",
+      "not a warc file\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    assertFalse(indexer.index(garbage).isValid());
+  }
+}
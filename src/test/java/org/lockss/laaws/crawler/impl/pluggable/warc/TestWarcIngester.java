@@ -0,0 +1,90 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TestWarcIngester extends LockssTestCase5 {
+  ExecutorService executor;
+  File tmpDir;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    tmpDir = getTempDir("TestWarcIngester");
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    afterEachTempDirs();
+  }
+
+  List<File> makeFiles(int n) throws IOException {
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      File f = new File(tmpDir, "seg-" + i + ".warc.gz");
+      assertTrue(f.createNewFile());
+      files.add(f);
+    }
+    return files;
+  }
+
+  @Test
+  @DisplayName("A failed file does not prevent the others from being stored")
+  void testPartialFailure() throws IOException {
+    List<File> files = makeFiles(5);
+    Set<File> stored = Collections.synchronizedSet(new HashSet<>());
+    WarcIngester ingester = new WarcIngester(executor, null);
+    List<IngestResult> results = ingester.ingest(files, warc -> {
+      if (warc.getName().equals("seg-2.warc.gz")) {
+        throw new IOException("repository unavailable");
+      }
+      stored.add(warc);
+    });
+    assertEquals(5, results.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(files.get(i), results.get(i).getWarcFile());
+    }
+    List<IngestResult> failures = WarcIngester.getFailures(results);
+    assertEquals(1, failures.size());
+    assertEquals(files.get(2), failures.get(0).getWarcFile());
+    assertEquals("repository unavailable", failures.get(0).getError().getMessage());
+    assertEquals(4, stored.size());
+  }
+
+  @Test
+  @DisplayName("The shared permits bound concurrency")
+  void testPermits() throws IOException {
+    WarcIngester.Permits permits = new WarcIngester.Permits(2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    WarcIngester ingester = new WarcIngester(executor, permits);
+    ingester.ingest(makeFiles(8), warc -> {
+      int now = running.incrementAndGet();
+      maxRunning.accumulateAndGet(now, Math::max);
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      running.decrementAndGet();
+    });
+    assertTrue(maxRunning.get() <= 2);
+    assertEquals(2, permits.availablePermits());
+    permits.setMaxPermits(5);
+    assertEquals(5, permits.availablePermits());
+    permits.setMaxPermits(1);
+    assertEquals(1, permits.availablePermits());
+  }
+}
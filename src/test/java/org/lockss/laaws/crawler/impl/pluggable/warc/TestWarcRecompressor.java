@@ -0,0 +1,87 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import static org.lockss.laaws.crawler.impl.pluggable.warc.TestWarcIndexer.response;
+
+class TestWarcRecompressor extends LockssTestCase5 {
+  File dir;
+  ForkJoinPool pool;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    dir = getTempDir("TestWarcRecompressor");
+    pool = new ForkJoinPool(3);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    pool.shutdown();
+    afterEachTempDirs();
+  }
+
+  File writeRecords(int n) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < n; i++) {
+      out.writeBytes(response("http://example.com/" + i, "page " + i + " ".repeat(i * 50)));
+    }
+    File file = new File(dir, "test.warc");
+    Files.write(file.toPath(), out.toByteArray());
+    return file;
+  }
+
+  void assertSameRecords(File plain, WarcIndex compressed) throws IOException {
+    WarcIndex reindexed = new WarcIndexer().index(compressed.getWarcFile());
+    assertTrue(reindexed.isValid());
+    assertEquals(compressed.getRecordCount(), reindexed.getRecordCount());
+    for (int i = 0; i < reindexed.getRecordCount(); i++) {
+      WarcIndex.Entry expected = compressed.getEntries().get(i);
+      WarcIndex.Entry actual = reindexed.getEntries().get(i);
+      assertEquals(expected.getOffset(), actual.getOffset());
+      assertEquals(expected.getLength(), actual.getLength());
+      assertEquals(expected.getPayloadDigest(), actual.getPayloadDigest());
+    }
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed.getWarcFile().toPath()))) {
+      assertArrayEquals(Files.readAllBytes(plain.toPath()), in.readAllBytes());
+    }
+  }
+
+  @Test
+  @DisplayName("Each record becomes its own gzip member, in order")
+  void testRecompress() throws IOException {
+    File plain = writeRecords(20);
+    WarcIndex index = new WarcIndexer().index(plain);
+    File out = new File(dir, "test.warc.gz");
+    // small batches so the records are spread over several of them.
+    WarcIndex compressed = new WarcRecompressor(pool, 2000).recompress(index, out);
+    assertTrue(compressed.isCompressed());
+    assertEquals(20, compressed.getRecordCount());
+    assertEquals(out.length(), compressed.getValidLength());
+    assertFalse(new File(dir, "test.warc.gz" + WarcRecompressor.PART_SUFFIX).exists());
+    assertSameRecords(plain, compressed);
+  }
+
+  @Test
+  @DisplayName("Records larger than a batch are compressed directly")
+  void testLargeRecords() throws IOException {
+    File plain = writeRecords(5);
+    WarcIndex index = new WarcIndexer().index(plain);
+    WarcIndex compressed = new WarcRecompressor(pool, 100)
+      .recompress(index, new File(dir, "test.warc.gz"));
+    assertEquals(5, compressed.getRecordCount());
+    assertSameRecords(plain, compressed);
+  }
+}
@@ -0,0 +1,78 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.apache.commons.codec.binary.Base32;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+class TestWarcRecordWriter extends LockssTestCase5 {
+  static final byte[] BODY = "<html>hello</html>".getBytes(StandardCharsets.UTF_8);
+  File dir;
+
+  @BeforeEach
+  public void beforeEach() throws IOException {
+    ensureTempTmpDir();
+    dir = getTempDir("TestWarcRecordWriter");
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    afterEachTempDirs();
+  }
+
+  File writeExchange(String name, boolean compress) throws IOException {
+    File file = new File(dir, name);
+    try (OutputStream out = new FileOutputStream(file)) {
+      WarcRecordWriter writer = new WarcRecordWriter(out, compress);
+      Instant date = Instant.parse("2023-04-05T06:07:08.123Z");
+      byte[] respHeader = WarcRecordWriter.httpHeader("HTTP/1.1 200 OK",
+        Map.of("Content-Type", List.of("text/html; charset=utf-8")));
+      String id = writer.writeResponse("http://example.com/", date, respHeader, BODY);
+      writer.writeRequest("http://example.com/", date, id,
+        WarcRecordWriter.httpHeader("GET / HTTP/1.1", Map.of("Host", List.of("example.com"))));
+      assertEquals(2, writer.getRecordsWritten());
+      assertEquals(writer.getBytesWritten(), file.length());
+    }
+    return file;
+  }
+
+  void checkIndex(WarcIndex index) {
+    assertTrue(index.isValid());
+    assertEquals(2, index.getRecordCount());
+    WarcIndex.Entry resp = index.getEntries().get(0);
+    assertEquals("response", resp.getType());
+    assertEquals("http://example.com/", resp.getTargetUri());
+    assertEquals("20230405060708", resp.getCdxDate());
+    assertEquals(200, resp.getStatus());
+    assertEquals("text/html", resp.getMimeType());
+    assertEquals("sha1:" + new Base32().encodeAsString(DigestUtils.sha1(BODY)),
+      resp.getPayloadDigest());
+    assertEquals("request", index.getEntries().get(1).getType());
+  }
+
+  @Test
+  @DisplayName("Writes records which the indexer reads back")
+  void testPlain() throws IOException {
+    checkIndex(new WarcIndexer().index(writeExchange("plain.warc", false)));
+  }
+
+  @Test
+  @DisplayName("Writes each record as its own gzip member")
+  void testCompressed() throws IOException {
+    WarcIndex index = new WarcIndexer().index(writeExchange("comp.warc.gz", true));
+    assertTrue(index.isCompressed());
+    checkIndex(index);
+  }
+}
@@ -0,0 +1,48 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class TestWarcUploadStream extends LockssTestCase5 {
+
+  void writeRecord(WarcUploadStream out, String record) throws IOException {
+    out.write(record.getBytes(StandardCharsets.US_ASCII));
+    out.endRecord();
+  }
+
+  @Test
+  @DisplayName("Records are uploaded in batches split between records")
+  void testBatches() throws IOException {
+    List<String> uploads = Collections.synchronizedList(new ArrayList<>());
+    WarcUploadStream out = new WarcUploadStream(
+      in -> uploads.add(new String(in.readAllBytes(), StandardCharsets.US_ASCII)), 10, "test");
+    writeRecord(out, "record1;");
+    writeRecord(out, "record2;");
+    assertEquals(List.of("record1;record2;"), uploads);
+    writeRecord(out, "record3;");
+    out.close();
+    assertEquals(List.of("record1;record2;", "record3;"), uploads);
+    assertEquals(2, out.getBatches());
+    assertEquals(24, out.getBytesUploaded());
+  }
+
+  @Test
+  @DisplayName("A failed upload is reported to the writer")
+  void testFailure() throws IOException {
+    WarcUploadStream out = new WarcUploadStream(in -> {
+      in.readAllBytes();
+      throw new IOException("repository unavailable");
+    }, 0, "test");
+    writeRecord(out, "record1;");
+    IOException e = assertThrows(IOException.class, out::close);
+    assertTrue(e.getMessage().contains("repository unavailable"));
+    assertEquals(0, out.getBatches());
+  }
+}
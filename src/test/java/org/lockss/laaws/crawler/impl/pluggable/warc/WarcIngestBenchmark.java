@@ -0,0 +1,126 @@
+package org.lockss.laaws.crawler.impl.pluggable.warc;
+
+import org.lockss.util.rest.repo.LockssRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the buffered and memory mapped paths used to hand a WARC file to
+ * the repository.
+ * <p>
+ * The repository is a stand-in which drains the stream the way the REST
+ * client does, in 64KB reads, so the figures reflect the cost of getting
+ * the bytes off disk and onto the heap rather than of the network.  Both
+ * paths end with the bytes copied into the client's heap buffer; the mapped
+ * path saves the intermediate copies, not that last one.
+ * <p>
+ * A file of {@code sizeMb} is created in the temp directory for each size,
+ * which must have room for the largest (4GB).  256MB is the default
+ * {@code mappedIngestThreshold}, below which the buffered path is used; the
+ * larger sizes are the ones the mapped path is for.  Run with
+ * <pre>
+ *   java -cp ... org.lockss.laaws.crawler.impl.pluggable.warc.WarcIngestBenchmark
+ * </pre>
+ * adding {@code -prof gc} to the JMH options to see the allocation of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarcIngestBenchmark {
+  static final int CLIENT_BUFFER_SIZE = 64 * 1024;
+
+  @Param({"256", "1024", "4096"})
+  long sizeMb;
+
+  File warc;
+  LockssRepository repo;
+  long drained;
+
+  @Setup
+  public void setUp() throws IOException {
+    warc = File.createTempFile("bench", ".warc");
+    writeFile(warc, sizeMb * 1024 * 1024);
+    repo = makeDrainingRepository();
+  }
+
+  @TearDown
+  public void tearDown() {
+    warc.delete();
+  }
+
+  @Benchmark
+  public long buffered() throws IOException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(warc.toPath()))) {
+      return ingest(in);
+    }
+  }
+
+  @Benchmark
+  public long mapped() throws IOException {
+    try (InputStream in = new MappedFileInputStream(warc)) {
+      return ingest(in);
+    }
+  }
+
+  long ingest(InputStream in) throws IOException {
+    repo.addArtifacts("ns", "auid", in, LockssRepository.ArchiveType.WARC, false, null);
+    return drained;
+  }
+
+  LockssRepository makeDrainingRepository() throws IOException {
+    LockssRepository repo = mock(LockssRepository.class);
+    doAnswer(invocation -> {
+      InputStream in = invocation.getArgument(2);
+      byte[] buf = new byte[CLIENT_BUFFER_SIZE];
+      long total = 0;
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        total += n;
+      }
+      drained = total;
+      return null;
+    }).when(repo).addArtifacts(anyString(), anyString(), any(), any(), anyBoolean(), any());
+    return repo;
+  }
+
+  static void writeFile(File file, long size) throws IOException {
+    byte[] block = new byte[1024 * 1024];
+    new Random(0).nextBytes(block);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (long written = 0; written < size; written += block.length) {
+        out.write(block, 0, (int) Math.min(block.length, size - written));
+      }
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(WarcIngestBenchmark.class.getSimpleName())
+      .build()).run();
+  }
+}
@@ -0,0 +1,47 @@
+package org.lockss.laaws.crawler.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+
+import java.util.Arrays;
+import java.util.List;
+
+class TestAppendOnlyList extends LockssTestCase5 {
+
+  @Test
+  @DisplayName("Elements keep their indices as the list grows")
+  void testAppend() {
+    AppendOnlyList<String> list = new AppendOnlyList<>(2);
+    assertTrue(list.isEmpty());
+    for (int i = 0; i < 100; i++) {
+      list.add("u" + i);
+    }
+    assertEquals(100, list.size());
+    assertEquals("u0", list.get(0));
+    assertEquals("u99", list.get(99));
+    List<String> page = list.subList(10, 13);
+    assertEquals(Arrays.asList("u10", "u11", "u12"), page);
+    assertThrows(IndexOutOfBoundsException.class, () -> list.get(100));
+  }
+
+  @Test
+  @DisplayName("A reader sees a complete prefix while another thread appends")
+  void testConcurrentReader() throws Exception {
+    AppendOnlyList<Integer> list = new AppendOnlyList<>();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 100000; i++) {
+        list.add(i);
+      }
+    });
+    writer.start();
+    while (writer.isAlive()) {
+      int n = list.size();
+      if (n > 0) {
+        assertEquals(n - 1, (int) list.get(n - 1));
+      }
+    }
+    writer.join();
+    assertEquals(100000, list.size());
+  }
+}
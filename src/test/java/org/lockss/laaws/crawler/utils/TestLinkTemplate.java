@@ -0,0 +1,42 @@
+package org.lockss.laaws.crawler.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.lockss.util.test.LockssTestCase5;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class TestLinkTemplate extends LockssTestCase5 {
+
+  String expandWithBuilder(String template, String jobId, String name) {
+    Map<String, Object> vars = new HashMap<>();
+    vars.put("jobId", jobId);
+    vars.put("counterName", name);
+    return UriComponentsBuilder.fromPath(template).buildAndExpand(vars).toUriString();
+  }
+
+  @Test
+  @DisplayName("Links are the same as those expanded by UriComponentsBuilder")
+  void testExpand() {
+    String template = "crawls/{jobId}/{counterName}";
+    LinkTemplate link = new LinkTemplate(template);
+    assertArrayEquals(new String[]{"jobId", "counterName"}, link.getVariableNames());
+    for (String[] vars : new String[][]{{"abc", "fetched"}, {"a b", "mimeType"},
+      {"j1", "text/html"}}) {
+      assertEquals(expandWithBuilder(template, vars[0], vars[1]),
+        link.expand(vars[0], vars[1]));
+    }
+    assertEquals("crawls/j1", new LinkTemplate("crawls/{jobId}").expand("j1"));
+    assertEquals("static", new LinkTemplate("static").expand());
+  }
+
+  @Test
+  @DisplayName("Expanding with the wrong number of values fails")
+  void testErrors() {
+    assertThrows(IllegalArgumentException.class, () -> new LinkTemplate("crawls/{jobId"));
+    LinkTemplate link = new LinkTemplate("crawls/{jobId}");
+    assertThrows(IllegalArgumentException.class, () -> link.expand("a", "b"));
+  }
+}